@@ -0,0 +1,44 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.crypto.AesGcm;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cipher used to encrypt every frame sent to and received from the socket
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AesGcmBenchmark {
+    @Param({"64", "1024", "65536"})
+    private int length;
+
+    private byte[] key;
+    private byte[] plaintext;
+    private byte[] ciphertext;
+    private long counter;
+
+    @Setup
+    public void setup() {
+        var random = new Random(length);
+        this.key = Fixtures.randomBytes(random, 32);
+        this.plaintext = Fixtures.randomBytes(random, length);
+        this.ciphertext = AesGcm.encrypt(0, plaintext, key);
+    }
+
+    @Benchmark
+    public byte[] encrypt() {
+        return AesGcm.encrypt(counter++, plaintext, key);
+    }
+
+    @Benchmark
+    public byte[] decrypt() {
+        return AesGcm.decrypt(0, ciphertext, key);
+    }
+}
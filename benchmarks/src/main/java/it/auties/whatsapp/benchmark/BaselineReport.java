@@ -0,0 +1,200 @@
+package it.auties.whatsapp.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Compares the json results of two benchmark runs
+ * Usage: {@code java -cp target/benchmarks.jar it.auties.whatsapp.benchmark.BaselineReport <baseline.json> <current.json> [threshold]}
+ * The process exits with status 1 if any benchmark regressed by more than the threshold, expressed as a fraction, which is 0.1 by default
+ *
+ * @param entries   the comparisons, sorted by benchmark
+ * @param threshold the relative change above which a benchmark is considered a regression
+ */
+public record BaselineReport(List<Entry> entries, double threshold) {
+    /**
+     * The default threshold: a change of 10%
+     */
+    public static final double DEFAULT_THRESHOLD = 0.1;
+
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineReport <baseline.json> <current.json> [threshold]");
+            System.exit(2);
+        }
+
+        var threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        var report = of(Path.of(args[0]), Path.of(args[1]), threshold);
+        System.out.println(report.format());
+        if (report.hasRegressions()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Compares two result files
+     *
+     * @param baseline  the non-null results used as a reference
+     * @param current   the non-null results to compare
+     * @param threshold the relative change above which a benchmark is considered a regression
+     * @return a non-null report
+     */
+    public static BaselineReport of(Path baseline, Path current, double threshold) {
+        var baselineResults = readResults(baseline);
+        var currentResults = readResults(current);
+        var entries = currentResults.entrySet()
+                .stream()
+                .filter(entry -> baselineResults.containsKey(entry.getKey()))
+                .map(entry -> new Entry(entry.getKey(), baselineResults.get(entry.getKey()), entry.getValue()))
+                .sorted(Comparator.comparing(Entry::name))
+                .toList();
+        return new BaselineReport(entries, threshold);
+    }
+
+    private static Map<String, Result> readResults(Path path) {
+        try {
+            var results = new HashMap<String, Result>();
+            for (var benchmark : JSON.readTree(path.toFile())) {
+                var name = createName(benchmark);
+                var primaryMetric = benchmark.get("primaryMetric");
+                var allocation = benchmark.path("secondaryMetrics").path(ALLOCATION_METRIC);
+                var result = new Result(
+                        benchmark.get("mode").asText(),
+                        primaryMetric.get("score").asDouble(),
+                        primaryMetric.get("scoreError").asDouble(),
+                        primaryMetric.get("scoreUnit").asText(),
+                        allocation.isMissingNode() ? OptionalDouble.empty() : OptionalDouble.of(allocation.get("score").asDouble())
+                );
+                results.put(name, result);
+            }
+
+            return results;
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot read results from " + path, exception);
+        }
+    }
+
+    private static String createName(JsonNode benchmark) {
+        var name = benchmark.get("benchmark").asText();
+        var params = benchmark.path("params");
+        if (params.isMissingNode() || params.isEmpty()) {
+            return name;
+        }
+
+        var joiner = new StringJoiner(", ", name + "(", ")");
+        params.fields().forEachRemaining(entry -> joiner.add(entry.getKey() + "=" + entry.getValue().asText()));
+        return joiner.toString();
+    }
+
+    /**
+     * Returns whether any benchmark regressed by more than the threshold
+     *
+     * @return a boolean
+     */
+    public boolean hasRegressions() {
+        return entries.stream().anyMatch(entry -> entry.isRegression(threshold));
+    }
+
+    /**
+     * Formats this report as a table
+     *
+     * @return a non-null string
+     */
+    public String format() {
+        var result = new StringBuilder();
+        result.append("%-90s %14s %14s %9s %14s %14s%n".formatted("Benchmark", "Baseline", "Current", "Change", "Alloc before", "Alloc after"));
+        for (var entry : entries) {
+            result.append("%-90s %14.3f %14.3f %8.1f%% %14s %14s %s%n".formatted(
+                    entry.name(),
+                    entry.baseline().score(),
+                    entry.current().score(),
+                    entry.change() * 100,
+                    formatAllocation(entry.baseline().allocation()),
+                    formatAllocation(entry.current().allocation()),
+                    entry.isRegression(threshold) ? "REGRESSION" : entry.isImprovement(threshold) ? "improved" : ""
+            ));
+        }
+
+        return result.toString();
+    }
+
+    private String formatAllocation(OptionalDouble allocation) {
+        return allocation.isPresent() ? "%.0f B/op".formatted(allocation.getAsDouble()) : "-";
+    }
+
+    /**
+     * The comparison of a benchmark
+     *
+     * @param name     the name of the benchmark, including its parameters
+     * @param baseline the result used as a reference
+     * @param current  the result to compare
+     */
+    public record Entry(String name, Result baseline, Result current) {
+        /**
+         * Returns the relative change of the score, where a positive value means that the benchmark got slower
+         *
+         * @return a double
+         */
+        public double change() {
+            var change = (current.score() - baseline.score()) / baseline.score();
+            return current.higherIsBetter() ? -change : change;
+        }
+
+        /**
+         * Returns whether this benchmark got slower by more than a threshold, ignoring changes within the error of the measurements
+         *
+         * @param threshold the relative threshold
+         * @return a boolean
+         */
+        public boolean isRegression(double threshold) {
+            return change() > threshold && Math.abs(current.score() - baseline.score()) > current.margin() + baseline.margin();
+        }
+
+        /**
+         * Returns whether this benchmark got faster by more than a threshold, ignoring changes within the error of the measurements
+         *
+         * @param threshold the relative threshold
+         * @return a boolean
+         */
+        public boolean isImprovement(double threshold) {
+            return change() < -threshold && Math.abs(current.score() - baseline.score()) > current.margin() + baseline.margin();
+        }
+    }
+
+    /**
+     * The result of a benchmark
+     *
+     * @param mode       the JMH mode of the benchmark
+     * @param score      the primary score
+     * @param error      the error of the primary score, NaN if it couldn't be computed
+     * @param unit       the unit of the primary score
+     * @param allocation the bytes allocated per operation, if the gc profiler was enabled
+     */
+    public record Result(String mode, double score, double error, String unit, OptionalDouble allocation) {
+        /**
+         * Returns whether a higher score is better for this result
+         *
+         * @return a boolean
+         */
+        public boolean higherIsBetter() {
+            return Objects.equals(mode, "thrpt");
+        }
+
+        /**
+         * Returns the error of the primary score, or zero if it couldn't be computed
+         *
+         * @return a double
+         */
+        public double margin() {
+            return Double.isNaN(error) ? 0 : error;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package it.auties.whatsapp.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs the benchmarks with the gc profiler enabled and saves the results as json, so that they can be compared using {@link BaselineReport}
+ * Every standard JMH option is supported, for example {@code java -jar target/benchmarks.jar BinaryCodec -p participants=32}
+ * The results are saved to the path specified by the {@code benchmark.result} system property, or to {@code target/jmh-result.json}
+ * If the {@code benchmark.baseline} system property points to the results of a previous run, the comparison is printed at the end
+ */
+public final class BenchmarkRunner {
+    private static final String RESULT_PROPERTY = "benchmark.result";
+    private static final String BASELINE_PROPERTY = "benchmark.baseline";
+    private static final String DEFAULT_RESULT = "target/jmh-result.json";
+
+    private BenchmarkRunner() {
+        throw new UnsupportedOperationException("This is a utility class and cannot be instantiated");
+    }
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        var result = Path.of(System.getProperty(RESULT_PROPERTY, DEFAULT_RESULT)).toAbsolutePath();
+        Files.createDirectories(result.getParent());
+        var options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.toString())
+                .build();
+        new Runner(options).run();
+        var baseline = System.getProperty(BASELINE_PROPERTY);
+        if (baseline != null) {
+            var report = BaselineReport.of(Path.of(baseline), result, BaselineReport.DEFAULT_THRESHOLD);
+            System.out.println(report.format());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.binary.BinaryDecoder;
+import it.auties.whatsapp.binary.BinaryEncoder;
+import it.auties.whatsapp.model.node.Node;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the encoding and decoding of the nodes exchanged with the socket
+ * The devices node is dominated by jids and packed nibble and hex strings
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryCodecBenchmark {
+    @Param({"1", "32", "256"})
+    private int participants;
+
+    private Node messageNode;
+    private Node receiptNode;
+    private Node devicesNode;
+    private byte[] encodedMessageNode;
+    private byte[] encodedReceiptNode;
+    private byte[] encodedDevicesNode;
+
+    @Setup
+    public void setup() throws IOException {
+        var random = new Random(participants);
+        this.messageNode = Fixtures.messageNode(random, participants);
+        this.receiptNode = Fixtures.receiptNode(random);
+        this.devicesNode = Fixtures.devicesNode(random, participants);
+        try (var encoder = new BinaryEncoder()) {
+            this.encodedMessageNode = encoder.encode(messageNode);
+        }
+
+        try (var encoder = new BinaryEncoder()) {
+            this.encodedReceiptNode = encoder.encode(receiptNode);
+        }
+
+        try (var encoder = new BinaryEncoder()) {
+            this.encodedDevicesNode = encoder.encode(devicesNode);
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeMessage() throws IOException {
+        try (var encoder = new BinaryEncoder()) {
+            return encoder.encode(messageNode);
+        }
+    }
+
+    @Benchmark
+    public Node decodeMessage() throws IOException {
+        try (var decoder = new BinaryDecoder(encodedMessageNode)) {
+            return decoder.decode();
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeReceipt() throws IOException {
+        try (var encoder = new BinaryEncoder()) {
+            return encoder.encode(receiptNode);
+        }
+    }
+
+    @Benchmark
+    public Node decodeReceipt() throws IOException {
+        try (var decoder = new BinaryDecoder(encodedReceiptNode)) {
+            return decoder.decode();
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeDevices() throws IOException {
+        try (var encoder = new BinaryEncoder()) {
+            return encoder.encode(devicesNode);
+        }
+    }
+
+    @Benchmark
+    public Node decodeDevices() throws IOException {
+        try (var decoder = new BinaryDecoder(encodedDevicesNode)) {
+            return decoder.decode();
+        }
+    }
+}
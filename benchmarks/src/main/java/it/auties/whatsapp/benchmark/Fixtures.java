@@ -0,0 +1,269 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.api.ClientType;
+import it.auties.whatsapp.controller.ControllerSerializer;
+import it.auties.whatsapp.controller.Keys;
+import it.auties.whatsapp.controller.Store;
+import it.auties.whatsapp.crypto.SessionBuilder;
+import it.auties.whatsapp.crypto.SessionCipher;
+import it.auties.whatsapp.model.info.ChatMessageInfoBuilder;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.jid.JidServer;
+import it.auties.whatsapp.model.message.model.ChatMessageKey;
+import it.auties.whatsapp.model.message.model.ChatMessageKeyBuilder;
+import it.auties.whatsapp.model.message.model.MessageContainer;
+import it.auties.whatsapp.model.message.model.MessageStatus;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.model.signal.keypair.SignalKeyPair;
+import it.auties.whatsapp.model.signal.keypair.SignalSignedKeyPair;
+import it.auties.whatsapp.model.signal.message.SignalMessage;
+import it.auties.whatsapp.model.signal.message.SignalPreKeyMessage;
+import it.auties.whatsapp.util.BytesHelper;
+import it.auties.whatsapp.util.Clock;
+import it.auties.whatsapp.util.ControllerHelper;
+import it.auties.whatsapp.util.DefaultControllerSerializer;
+import it.auties.whatsapp.util.KeyHelper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Generators for the data used by the benchmarks
+ * Every generator is seeded, so two runs of the same benchmark measure the same data
+ */
+public final class Fixtures {
+    private static final long FIRST_PHONE_NUMBER = 393_400_000_000L;
+    private static final int ENCRYPTED_MESSAGE_LENGTH = 180;
+    private static final String[] WORDS = {"hello", "how", "are", "you", "meeting", "tomorrow", "at", "the", "office", "sure", "see", "then", "thanks", "call", "me", "later"};
+
+    private Fixtures() {
+        throw new UnsupportedOperationException("This is a utility class and cannot be instantiated");
+    }
+
+    /**
+     * Creates the jid of the nth generated contact
+     *
+     * @param index the index of the contact
+     * @return a non-null jid
+     */
+    public static Jid contact(int index) {
+        return Jid.of(FIRST_PHONE_NUMBER + index);
+    }
+
+    /**
+     * Creates a random text made of common words
+     *
+     * @param random the non-null source of randomness
+     * @param words  the number of words
+     * @return a non-null string
+     */
+    public static String text(Random random, int words) {
+        var result = new StringBuilder();
+        for (var index = 0; index < words; index++) {
+            if (index != 0) {
+                result.append(' ');
+            }
+
+            result.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Creates a message node shaped like the ones sent to a group: every participant gets its own encrypted copy
+     *
+     * @param random       the non-null source of randomness
+     * @param participants the number of participants
+     * @return a non-null node
+     */
+    public static Node messageNode(Random random, int participants) {
+        var recipients = new ArrayList<Node>(participants);
+        for (var index = 0; index < participants; index++) {
+            var encrypted = randomBytes(random, ENCRYPTED_MESSAGE_LENGTH);
+            var enc = Node.of("enc", Map.of("v", 2, "type", index % 4 == 0 ? "pkmsg" : "msg"), encrypted);
+            recipients.add(Node.of("to", Map.of("jid", Jid.ofDevice(contact(index).user(), index % 3)), enc));
+        }
+
+        var attributes = Map.<String, Object>of("id", ChatMessageKey.randomId(), "to", Jid.of("120363040000000000@g.us"), "type", "text", "t", Clock.nowSeconds());
+        return Node.of("message", attributes, Node.of("participants", recipients), Node.of("device-identity", randomBytes(random, 140)));
+    }
+
+    /**
+     * Creates a receipt node, the most common kind of node received by a session
+     *
+     * @param random the non-null source of randomness
+     * @return a non-null node
+     */
+    public static Node receiptNode(Random random) {
+        var ids = new ArrayList<Node>();
+        for (var index = 0; index < 5; index++) {
+            ids.add(Node.of("item", Map.of("id", ChatMessageKey.randomId())));
+        }
+
+        var attributes = Map.<String, Object>of("id", ChatMessageKey.randomId(), "from", contact(random.nextInt(10_000)), "type", "read", "t", Clock.nowSeconds());
+        return Node.of("receipt", attributes, Node.of("list", ids));
+    }
+
+    /**
+     * Creates a node shaped like the result of a device lookup: most of its content is jids, numeric user ids and hex key indexes
+     *
+     * @param random the non-null source of randomness
+     * @param users  the number of users
+     * @return a non-null node
+     */
+    public static Node devicesNode(Random random, int users) {
+        var results = new ArrayList<Node>(users);
+        for (var index = 0; index < users; index++) {
+            var devices = new ArrayList<Node>();
+            devices.add(Node.of("device", Map.of("id", 0)));
+            var companions = random.nextInt(4);
+            for (var device = 1; device <= companions; device++) {
+                devices.add(Node.of("device", Map.of("id", device, "key-index", random.nextInt(64))));
+            }
+
+            var keyIndex = Node.of("key-index-list", Map.of("ts", Clock.nowSeconds()), HexFormat.of().withUpperCase().formatHex(randomBytes(random, 8)));
+            results.add(Node.of("user", Map.of("jid", contact(index)), Node.of("devices", Node.of("device-list", devices), keyIndex)));
+        }
+
+        return Node.of("iq", Map.of("id", ChatMessageKey.randomId(), "from", JidServer.WHATSAPP.toJid(), "type", "result"), Node.of("usync", Node.of("list", results)));
+    }
+
+    /**
+     * Returns a number of random bytes
+     *
+     * @param random the non-null source of randomness
+     * @param length the number of bytes
+     * @return a non-null array
+     */
+    public static byte[] randomBytes(Random random, int length) {
+        var result = new byte[length];
+        random.nextBytes(result);
+        return result;
+    }
+
+    /**
+     * Creates a serializer that writes to a temporary directory
+     *
+     * @return a non-null serializer
+     */
+    public static ControllerSerializer serializer() {
+        return DefaultControllerSerializer.of(temporaryDirectory());
+    }
+
+    /**
+     * Creates a temporary directory
+     *
+     * @return a non-null path
+     */
+    public static Path temporaryDirectory() {
+        try {
+            return Files.createTempDirectory("cobalt-benchmark");
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    /**
+     * Creates the store of a web session with a number of chats
+     * Every chat has a name and some text messages, a tenth of them are pinned or unread
+     *
+     * @param random          the non-null source of randomness
+     * @param chats           the number of chats
+     * @param messagesPerChat the number of messages in every chat
+     * @param serializer      the non-null serializer of the store
+     * @return a non-null store
+     */
+    public static Store store(Random random, int chats, int messagesPerChat, ControllerSerializer serializer) {
+        var store = ControllerHelper.create(UUID.randomUUID(), FIRST_PHONE_NUMBER - 1, List.of(), ClientType.WEB, serializer)
+                .store();
+        var self = store.jid().orElseThrow();
+        for (var index = 0; index < chats; index++) {
+            var jid = contact(index);
+            var chat = store.addNewChat(jid);
+            chat.setName("Contact %s".formatted(index));
+            store.addContact(jid);
+            for (var message = 0; message < messagesPerChat; message++) {
+                var fromMe = random.nextBoolean();
+                var key = new ChatMessageKeyBuilder()
+                        .id(ChatMessageKey.randomId())
+                        .chatJid(jid)
+                        .fromMe(fromMe)
+                        .senderJid(fromMe ? self : jid)
+                        .build();
+                var info = new ChatMessageInfoBuilder()
+                        .status(MessageStatus.DELIVERED)
+                        .senderJid(fromMe ? self : jid)
+                        .key(key)
+                        .message(MessageContainer.of(text(random, 3 + random.nextInt(12))))
+                        .timestampSeconds(Clock.nowSeconds() - random.nextInt(1_000_000))
+                        .build();
+                chat.addNewMessage(info);
+            }
+
+            if (index % 10 == 0) {
+                chat.setPinnedTimestampSeconds((int) Clock.nowSeconds());
+            }
+
+            if (index % 10 == 1) {
+                chat.setUnreadMessagesCount(1 + random.nextInt(20));
+            }
+
+            store.refreshChatOrder(chat);
+        }
+
+        return store;
+    }
+
+    /**
+     * Creates two devices that share an established signal session, as if they had already exchanged a message in both directions
+     *
+     * @return a non-null pair
+     */
+    public static SessionPair sessionPair() {
+        var serializer = serializer();
+        var alice = ControllerHelper.create(UUID.randomUUID(), FIRST_PHONE_NUMBER - 2, List.of(), ClientType.WEB, serializer)
+                .keys();
+        var bob = ControllerHelper.create(UUID.randomUUID(), FIRST_PHONE_NUMBER - 3, List.of(), ClientType.WEB, serializer)
+                .keys();
+        var aliceJid = Jid.of(FIRST_PHONE_NUMBER - 2);
+        var bobJid = Jid.of(FIRST_PHONE_NUMBER - 3);
+        var preKey = bob.generatePreKeys(Runnable::run).getFirst();
+        var signedKey = bob.signedKeyPair();
+        new SessionBuilder(bobJid.toSignalAddress(), alice).createOutgoing(
+                bob.registrationId(),
+                KeyHelper.withHeader(bob.identityKeyPair().publicKey()),
+                new SignalSignedKeyPair(signedKey.id(), new SignalKeyPair(signedKey.publicKey(), null), signedKey.signature()),
+                new SignalSignedKeyPair(preKey.id(), new SignalKeyPair(preKey.publicKey(), null), null)
+        );
+        var aliceCipher = new SessionCipher(bobJid.toSignalAddress(), alice);
+        var bobCipher = new SessionCipher(aliceJid.toSignalAddress(), bob);
+        var hello = aliceCipher.encrypt(BytesHelper.messageToBytes(MessageContainer.of("hello")));
+        bobCipher.decrypt(SignalPreKeyMessage.ofSerialized(hello.message()));
+        var reply = bobCipher.encrypt(BytesHelper.messageToBytes(MessageContainer.of("hi")));
+        aliceCipher.decrypt(SignalMessage.ofSerialized(reply.message()));
+        return new SessionPair(alice, aliceJid, aliceCipher, bob, bobJid, bobCipher);
+    }
+
+    /**
+     * Two devices that share an established signal session
+     *
+     * @param alice       the keys of the first device
+     * @param aliceJid    the jid of the first device
+     * @param aliceCipher the cipher used by the first device to talk to the second one
+     * @param bob         the keys of the second device
+     * @param bobJid      the jid of the second device
+     * @param bobCipher   the cipher used by the second device to talk to the first one
+     */
+    public record SessionPair(Keys alice, Jid aliceJid, SessionCipher aliceCipher, Keys bob, Jid bobJid, SessionCipher bobCipher) {
+
+    }
+}
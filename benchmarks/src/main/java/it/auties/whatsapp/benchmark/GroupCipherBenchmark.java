@@ -0,0 +1,54 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.benchmark.Fixtures.SessionPair;
+import it.auties.whatsapp.crypto.CipheredMessageResult;
+import it.auties.whatsapp.crypto.GroupBuilder;
+import it.auties.whatsapp.crypto.GroupCipher;
+import it.auties.whatsapp.model.message.model.MessageContainer;
+import it.auties.whatsapp.model.signal.message.SignalDistributionMessage;
+import it.auties.whatsapp.model.signal.sender.SenderKeyName;
+import it.auties.whatsapp.util.BytesHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the sender key cipher used for group messages
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GroupCipherBenchmark {
+    private static final String GROUP_ID = "120363040000000000@g.us";
+
+    private GroupCipher senderCipher;
+    private GroupCipher receiverCipher;
+    private byte[] message;
+
+    @Setup
+    public void setup() {
+        SessionPair pair = Fixtures.sessionPair();
+        var senderName = new SenderKeyName(GROUP_ID, pair.aliceJid().toSignalAddress());
+        var distribution = new GroupBuilder(pair.alice()).createOutgoing(senderName);
+        new GroupBuilder(pair.bob()).createIncoming(senderName, SignalDistributionMessage.ofSerialized(distribution));
+        this.senderCipher = new GroupCipher(senderName, pair.alice());
+        this.receiverCipher = new GroupCipher(senderName, pair.bob());
+        this.message = BytesHelper.messageToBytes(MessageContainer.of(Fixtures.text(new Random(0), 20)));
+    }
+
+    @Benchmark
+    public CipheredMessageResult encrypt() {
+        return senderCipher.encrypt(message);
+    }
+
+    // Every message can only be decrypted once: measure the whole exchange
+    @Benchmark
+    public byte[] encryptAndDecrypt() {
+        var ciphered = senderCipher.encrypt(message);
+        return receiverCipher.decrypt(ciphered.message());
+    }
+}
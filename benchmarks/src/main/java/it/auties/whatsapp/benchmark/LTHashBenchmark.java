@@ -0,0 +1,60 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.crypto.LTHash;
+import it.auties.whatsapp.model.companion.CompanionHashState;
+import it.auties.whatsapp.model.sync.PatchType;
+import it.auties.whatsapp.model.sync.RecordSync;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the hash used to verify app state patches, for patches of different sizes applied to a state that already has some entries
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LTHashBenchmark {
+    private static final int EXISTING_ENTRIES = 1_000;
+
+    @Param({"1", "100", "1000"})
+    private int mutations;
+
+    private CompanionHashState state;
+    private byte[][] indexMacs;
+    private byte[][] valueMacs;
+
+    @Setup
+    public void setup() {
+        var random = new Random(mutations);
+        var initial = new LTHash(new CompanionHashState(PatchType.REGULAR));
+        for (var index = 0; index < EXISTING_ENTRIES; index++) {
+            initial.mix(Fixtures.randomBytes(random, 32), Fixtures.randomBytes(random, 32), RecordSync.Operation.SET);
+        }
+
+        var result = initial.finish();
+        this.state = new CompanionHashState(PatchType.REGULAR)
+                .hash(result.hash())
+                .indexValueMap(result.indexValueMap());
+        this.indexMacs = new byte[mutations][];
+        this.valueMacs = new byte[mutations][];
+        for (var index = 0; index < mutations; index++) {
+            indexMacs[index] = Fixtures.randomBytes(random, 32);
+            valueMacs[index] = Fixtures.randomBytes(random, 32);
+        }
+    }
+
+    @Benchmark
+    public LTHash.Result mixAndFinish() {
+        var hash = new LTHash(state);
+        for (var index = 0; index < mutations; index++) {
+            hash.mix(indexMacs[index], valueMacs[index], RecordSync.Operation.SET);
+        }
+
+        return hash.finish();
+    }
+}
@@ -0,0 +1,81 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.api.ClientType;
+import it.auties.whatsapp.api.Whatsapp;
+import it.auties.whatsapp.loopback.LoopbackConnection;
+import it.auties.whatsapp.loopback.LoopbackSerializer;
+import it.auties.whatsapp.loopback.LoopbackServer;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.util.ControllerHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of sending a text message to a contact through {@link Whatsapp}, from the call to sendMessage to the moment the loopback server reads the encrypted message from the socket
+ * The session is logged in once per trial and the signal session with the contact is set up during the first send, so the measured sends reuse it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoopbackSendBenchmark {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final long PHONE_NUMBER = 393_495_089_819L;
+
+    @Param({"5", "50"})
+    private int words;
+
+    private LoopbackServer server;
+    private LoopbackConnection connection;
+    private Whatsapp api;
+    private Jid contact;
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.server = LoopbackServer.start();
+        var session = ControllerHelper.create(UUID.randomUUID(), PHONE_NUMBER, List.of(), ClientType.WEB, new LoopbackSerializer());
+        session.keys().setRegistered(true);
+        session.store().setSocketEndpoint(server.endpoint());
+        var loggedIn = new CompletableFuture<Void>();
+        this.api = Whatsapp.customBuilder()
+                .store(session.store())
+                .keys(session.keys())
+                .build()
+                .addLoggedInListener(() -> loggedIn.complete(null));
+        api.connect();
+        this.connection = server.awaitConnection(TIMEOUT)
+                .awaitLogin(TIMEOUT);
+        loggedIn.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        this.contact = Fixtures.contact(0);
+        server.addPeer(contact, "Contact");
+        this.text = Fixtures.text(new Random(words), words);
+        sendText();
+    }
+
+    @Benchmark
+    public Node sendText() throws Exception {
+        var info = api.sendMessage(contact, text)
+                .get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        return connection.awaitNode(node -> node.hasDescription("message") && Objects.equals(node.id(), info.id()), TIMEOUT);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        api.disconnect()
+                .orTimeout(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .join();
+        server.close();
+    }
+}
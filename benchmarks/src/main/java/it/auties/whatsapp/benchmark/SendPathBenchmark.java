@@ -0,0 +1,57 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.benchmark.Fixtures.SessionPair;
+import it.auties.whatsapp.binary.BinaryEncoder;
+import it.auties.whatsapp.crypto.AesGcm;
+import it.auties.whatsapp.model.message.model.ChatMessageKey;
+import it.auties.whatsapp.model.message.model.MessageContainer;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.util.BytesHelper;
+import it.auties.whatsapp.util.Clock;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the work done by a session to send a text message to a contact, from the message container to the encrypted frame written to the socket
+ * The network and the server are not involved: see {@link LoopbackSendBenchmark} for end-to-end measurements
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendPathBenchmark {
+    @Param({"5", "50"})
+    private int words;
+
+    private SessionPair pair;
+    private String text;
+    private byte[] socketKey;
+    private long counter;
+
+    @Setup
+    public void setup() {
+        var random = new Random(words);
+        this.pair = Fixtures.sessionPair();
+        this.text = Fixtures.text(random, words);
+        this.socketKey = Fixtures.randomBytes(random, 32);
+    }
+
+    @Benchmark
+    public byte[] sendText() throws IOException {
+        var container = MessageContainer.of(text);
+        var ciphered = pair.aliceCipher().encrypt(BytesHelper.messageToBytes(container));
+        var enc = Node.of("enc", Map.of("v", 2, "type", ciphered.type()), ciphered.message());
+        var participant = Node.of("to", Map.of("jid", pair.bobJid()), enc);
+        var attributes = Map.<String, Object>of("id", ChatMessageKey.randomId(), "to", pair.bobJid(), "type", "text", "t", Clock.nowSeconds());
+        var message = Node.of("message", attributes, Node.of("participants", participant));
+        try (var encoder = new BinaryEncoder()) {
+            return AesGcm.encrypt(counter++, encoder.encode(message), socketKey);
+        }
+    }
+}
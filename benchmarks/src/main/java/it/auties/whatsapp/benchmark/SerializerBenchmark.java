@@ -0,0 +1,49 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.api.ClientType;
+import it.auties.whatsapp.controller.ControllerSerializer;
+import it.auties.whatsapp.controller.Store;
+import it.auties.whatsapp.util.DefaultControllerSerializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to persist and restore the store of a large account using the default serializer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SerializerBenchmark {
+    @Param({"1000", "10000"})
+    private int chats;
+
+    @Param({"20"})
+    private int messagesPerChat;
+
+    private ControllerSerializer serializer;
+    private Store store;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.serializer = DefaultControllerSerializer.of(Fixtures.temporaryDirectory());
+        this.store = Fixtures.store(new Random(chats), chats, messagesPerChat, serializer);
+        serializer.serializeStore(store, false).join();
+    }
+
+    @Benchmark
+    public void serializeStore() {
+        serializer.serializeStore(store, false).join();
+    }
+
+    // Chats are attributed to a restored store only once per session, so only the store file is measured here
+    @Benchmark
+    public Optional<Store> deserializeStore() {
+        return serializer.deserializeStore(ClientType.WEB, store.uuid());
+    }
+}
@@ -0,0 +1,43 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.benchmark.Fixtures.SessionPair;
+import it.auties.whatsapp.crypto.CipheredMessageResult;
+import it.auties.whatsapp.model.message.model.MessageContainer;
+import it.auties.whatsapp.model.signal.message.SignalMessage;
+import it.auties.whatsapp.util.BytesHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the signal cipher used for one-to-one messages, on a session that was already established
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionCipherBenchmark {
+    private SessionPair pair;
+    private byte[] message;
+
+    @Setup
+    public void setup() {
+        this.pair = Fixtures.sessionPair();
+        this.message = BytesHelper.messageToBytes(MessageContainer.of(Fixtures.text(new Random(0), 20)));
+    }
+
+    @Benchmark
+    public CipheredMessageResult encrypt() {
+        return pair.aliceCipher().encrypt(message);
+    }
+
+    // Decryption advances the receiving chain, so every message can only be decrypted once: measure the whole exchange
+    @Benchmark
+    public byte[] encryptAndDecrypt() {
+        var ciphered = pair.aliceCipher().encrypt(message);
+        return pair.bobCipher().decrypt(SignalMessage.ofSerialized(ciphered.message()));
+    }
+}
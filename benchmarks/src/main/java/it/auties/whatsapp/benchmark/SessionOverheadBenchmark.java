@@ -0,0 +1,125 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.api.ClientType;
+import it.auties.whatsapp.api.Whatsapp;
+import it.auties.whatsapp.api.WhatsappRuntime;
+import it.auties.whatsapp.loopback.LoopbackSerializer;
+import it.auties.whatsapp.loopback.LoopbackServer;
+import it.auties.whatsapp.util.ControllerHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the platform threads and the heap used by every session logged into the loopback server, when all the sessions share the same {@link WhatsappRuntime}
+ * The score is the time needed to log in all the sessions, while the overhead of a single session is reported by the secondary results of {@link Overhead}
+ * The loopback server uses the raw socket transport, which blocks a thread for every session while reading:
+ * platform runtimes read on a dedicated cached pool, so its threads are part of the measured overhead, while virtual runtimes read on virtual threads
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SessionOverheadBenchmark {
+    private static final Duration TIMEOUT = Duration.ofMinutes(2);
+    private static final long FIRST_PHONE_NUMBER = 393_495_000_000L;
+
+    @Param({"10", "100", "1000"})
+    private int sessions;
+
+    @Param({"false", "true"})
+    private boolean virtualThreads;
+
+    private LoopbackServer server;
+    private WhatsappRuntime runtime;
+    private ExecutorService socketExecutor;
+    private List<Whatsapp> connected;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        this.server = LoopbackServer.start();
+        this.runtime = WhatsappRuntime.create(virtualThreads);
+        this.socketExecutor = virtualThreads ? null : Executors.newCachedThreadPool();
+        this.connected = new ArrayList<>(sessions);
+    }
+
+    @Benchmark
+    public List<Whatsapp> connect(Overhead overhead) throws Exception {
+        var threads = ManagementFactory.getThreadMXBean();
+        var threadsBefore = threads.getThreadCount();
+        var heapBefore = usedHeap();
+        var loggedIn = new ArrayList<CompletableFuture<Void>>(sessions);
+        for (var index = 0; index < sessions; index++) {
+            var session = ControllerHelper.create(UUID.randomUUID(), FIRST_PHONE_NUMBER + index, List.of(), ClientType.WEB, new LoopbackSerializer());
+            session.keys().setRegistered(true);
+            session.store().setSocketEndpoint(server.endpoint());
+            var future = new CompletableFuture<Void>();
+            var api = Whatsapp.customBuilder()
+                    .store(session.store())
+                    .keys(session.keys())
+                    .socketExecutor(socketExecutor)
+                    .runtime(runtime)
+                    .build()
+                    .addLoggedInListener(() -> future.complete(null));
+            connected.add(api);
+            loggedIn.add(future);
+            api.connect();
+        }
+
+        CompletableFuture.allOf(loggedIn.toArray(CompletableFuture[]::new))
+                .get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        overhead.threadsPerSession = (double) (threads.getThreadCount() - threadsBefore) / sessions;
+        overhead.bytesPerSession = (double) (usedHeap() - heapBefore) / sessions;
+        return connected;
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean()
+                .getHeapMemoryUsage()
+                .getUsed();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        var disconnected = connected.stream()
+                .map(Whatsapp::disconnect)
+                .toArray(CompletableFuture[]::new);
+        CompletableFuture.allOf(disconnected)
+                .orTimeout(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)
+                .join();
+        runtime.close();
+        if (socketExecutor != null) {
+            socketExecutor.shutdownNow();
+        }
+
+        server.close();
+    }
+
+    /**
+     * The overhead of a single session, reported as secondary results
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Overhead {
+        public double threadsPerSession;
+        public double bytesPerSession;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.threadsPerSession = 0;
+            this.bytesPerSession = 0;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package it.auties.whatsapp.benchmark;
+
+import it.auties.whatsapp.controller.Store;
+import it.auties.whatsapp.model.chat.Chat;
+import it.auties.whatsapp.model.contact.Contact;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lookups that listeners and handlers run against the store of a large account
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class StoreBenchmark {
+    @Param({"10000"})
+    private int chats;
+
+    @Param({"5"})
+    private int messagesPerChat;
+
+    private Store store;
+    private Random random;
+
+    @Setup
+    public void setup() {
+        this.store = Fixtures.store(new Random(chats), chats, messagesPerChat, Fixtures.serializer());
+        this.random = new Random(0);
+    }
+
+    @Benchmark
+    public Optional<Chat> findChatByJid() {
+        return store.findChatByJid(Fixtures.contact(random.nextInt(chats)));
+    }
+
+    @Benchmark
+    public Optional<Contact> findContactByJid() {
+        return store.findContactByJid(Fixtures.contact(random.nextInt(chats)));
+    }
+
+    @Benchmark
+    public Set<Chat> findChatsByName() {
+        return store.findChatsByName("Contact %s".formatted(random.nextInt(chats)));
+    }
+
+    @Benchmark
+    public List<Chat> recentChats() {
+        return store.chats(50);
+    }
+
+    @Benchmark
+    public List<Chat> pinnedChats() {
+        return store.pinnedChats();
+    }
+
+    @Benchmark
+    public List<Chat> unreadChats() {
+        return store.unreadChats(50);
+    }
+}
@@ -15,6 +15,7 @@ public sealed class OptionsBuilder<T extends OptionsBuilder<T>> permits MobileOp
     Keys keys;
     ErrorHandler errorHandler;
     Executor socketExecutor;
+    WhatsappRuntime runtime;
 
     OptionsBuilder(Store store, Keys keys) {
         this.store = store;
@@ -95,6 +96,32 @@ public sealed class OptionsBuilder<T extends OptionsBuilder<T>> permits MobileOp
         return (T) this;
     }
 
+    /**
+     * Sets the runtime whose threads, timers and http clients should be used by this session
+     * By default, {@link WhatsappRuntime#shared()} is used
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T runtime(WhatsappRuntime runtime) {
+        this.runtime = runtime;
+        return (T) this;
+    }
+
+    /**
+     * Sets whether this session should run on virtual threads
+     * When enabled, socket reads, message handling, listeners and background work run on virtual threads instead of platform threads
+     * This is equivalent to using {@link WhatsappRuntime#virtual()} as the runtime
+     * By default, this option is disabled
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T virtualThreads(boolean virtualThreads) {
+        this.runtime = virtualThreads ? WhatsappRuntime.virtual() : null;
+        return (T) this;
+    }
+
     /**
      * Sets the release channel
      *
@@ -117,6 +144,19 @@ public sealed class OptionsBuilder<T extends OptionsBuilder<T>> permits MobileOp
         return (T) this;
     }
 
+    /**
+     * Sets the endpoint that the socket should connect to instead of Whatsapp's servers
+     * Endpoints using the tcp scheme, like tcp://127.0.0.1:8080, are connected to using a raw socket, ws and wss endpoints using a web socket
+     * This option is meant to run sessions against a local server and is not serialized
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T socketEndpoint(URI socketEndpoint) {
+        store.setSocketEndpoint(socketEndpoint);
+        return (T) this;
+    }
+
     /**
      * Whether presence updates should be handled automatically
      *
@@ -139,4 +179,29 @@ public sealed class OptionsBuilder<T extends OptionsBuilder<T>> permits MobileOp
         store.setCheckPatchMacs(checkPatchMacs);
         return (T) this;
     }
+
+    /**
+     * Sets the limits used when querying users in bulk, for example through {@link Whatsapp#hasWhatsapp(java.util.Collection)}
+     * By default, {@link UsyncSettings#defaults()} is used
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T usyncSettings(UsyncSettings usyncSettings) {
+        store.setUsyncSettings(usyncSettings);
+        return (T) this;
+    }
+
+    /**
+     * Sets the number of one-time pre keys to upload when the server runs low on them
+     * Larger batches mean fewer uploads, but more keys to generate and persist
+     * By default, 100 pre keys are uploaded at a time
+     *
+     * @return the same instance for chaining
+     */
+    @SuppressWarnings("unchecked")
+    public T preKeysBatchSize(int preKeysBatchSize) {
+        keys.setPreKeysBatchSize(preKeysBatchSize);
+        return (T) this;
+    }
 }
\ No newline at end of file
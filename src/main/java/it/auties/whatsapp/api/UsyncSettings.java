@@ -0,0 +1,42 @@
+package it.auties.whatsapp.api;
+
+import it.auties.whatsapp.util.Validate;
+
+/**
+ * The limits used when querying users through usync, for example when checking whether a number has an account on Whatsapp
+ * Lookups are split into chunks, chunks are sent concurrently within the configured rate and results are cached
+ * The devices of the recipients of a message are not subject to the rate, so sending a message never waits for bulk lookups
+ *
+ * @param chunkSize           the maximum number of users in a single query
+ * @param maxConcurrentChunks the maximum number of queries waiting for a response at the same time
+ * @param maxChunksPerSecond  the maximum number of queries sent every second
+ * @param cacheTtlSeconds     how long results are cached, zero disables the cache
+ * @param cacheSize           the maximum number of cached results
+ */
+public record UsyncSettings(int chunkSize, int maxConcurrentChunks, int maxChunksPerSecond, long cacheTtlSeconds, int cacheSize) {
+    private static final UsyncSettings DEFAULT = new UsyncSettings(500, 3, 5, 3600, 100_000);
+
+    public UsyncSettings {
+        Validate.isTrue(chunkSize > 0, "Invalid chunk size: %s", chunkSize);
+        Validate.isTrue(maxConcurrentChunks > 0, "Invalid max concurrent chunks: %s", maxConcurrentChunks);
+        Validate.isTrue(maxChunksPerSecond > 0, "Invalid max chunks per second: %s", maxChunksPerSecond);
+        Validate.isTrue(cacheTtlSeconds >= 0, "Invalid cache ttl: %s", cacheTtlSeconds);
+        Validate.isTrue(cacheSize >= 0, "Invalid cache size: %s", cacheSize);
+    }
+
+    /**
+     * The default limits: chunks of 500 users, 3 concurrent chunks, 5 chunks per second and results cached for an hour
+     */
+    public static UsyncSettings defaults() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns whether results should be cached
+     *
+     * @return a boolean
+     */
+    public boolean isCacheEnabled() {
+        return cacheTtlSeconds > 0 && cacheSize > 0;
+    }
+}
@@ -39,6 +39,7 @@ public final class WebOptionsBuilder extends OptionsBuilder<WebOptionsBuilder> {
                     .errorHandler(errorHandler)
                     .webVerificationSupport(qrHandler)
                     .socketExecutor(socketExecutor)
+                    .runtime(runtime)
                     .build();
         }
 
@@ -61,6 +62,7 @@ public final class WebOptionsBuilder extends OptionsBuilder<WebOptionsBuilder> {
                     .errorHandler(errorHandler)
                     .webVerificationSupport(pairingCodeHandler)
                     .socketExecutor(socketExecutor)
+                    .runtime(runtime)
                     .build();
         }
 
@@ -85,6 +87,7 @@ public final class WebOptionsBuilder extends OptionsBuilder<WebOptionsBuilder> {
                     .keys(keys)
                     .errorHandler(errorHandler)
                     .socketExecutor(socketExecutor)
+                    .runtime(runtime)
                     .build();
         }
 
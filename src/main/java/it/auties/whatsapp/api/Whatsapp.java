@@ -60,6 +60,7 @@ import it.auties.whatsapp.model.sync.PatchRequest.PatchEntry;
 import it.auties.whatsapp.model.sync.RecordSync.Operation;
 import it.auties.whatsapp.socket.SocketHandler;
 import it.auties.whatsapp.socket.SocketState;
+import it.auties.whatsapp.socket.UsyncProtocol;
 import it.auties.whatsapp.util.*;
 
 import javax.imageio.ImageIO;
@@ -68,6 +69,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.time.chrono.ChronoZonedDateTime;
@@ -93,6 +95,7 @@ public class Whatsapp {
     // The instances are added and removed when the client connects/disconnects
     // This is to make sure that the instances remain in memory only as long as it's needed
     private static final Map<UUID, Whatsapp> instances = new ConcurrentHashMap<>();
+    private static final int DEFAULT_BULK_CONCURRENCY = 16;
 
     protected static Optional<Whatsapp> getInstanceByUuid(UUID uuid) {
         return Optional.ofNullable(instances.get(uuid));
@@ -134,8 +137,8 @@ public class Whatsapp {
         return SocketHandler.isConnected(alias);
     }
 
-    protected Whatsapp(Store store, Keys keys, ErrorHandler errorHandler, WebVerificationSupport webVerificationSupport, Executor socketExecutor) {
-        this.socketHandler = new SocketHandler(this, store, keys, errorHandler, webVerificationSupport, socketExecutor);
+    protected Whatsapp(Store store, Keys keys, ErrorHandler errorHandler, WebVerificationSupport webVerificationSupport, Executor socketExecutor, WhatsappRuntime runtime) {
+        this.socketHandler = new SocketHandler(this, store, keys, errorHandler, webVerificationSupport, socketExecutor, runtime);
         store.addListener((OnDisconnected) (reason) -> {
             if (reason != DisconnectReason.RECONNECTING) {
                 removeInstanceByUuid(store.uuid());
@@ -216,6 +219,15 @@ public class Whatsapp {
         return socketHandler.store();
     }
 
+    /**
+     * Returns the tracker for the history sync associated with this session
+     *
+     * @return a non-null HistorySyncTracker
+     */
+    public HistorySyncTracker historySyncTracker() {
+        return socketHandler.historySyncTracker();
+    }
+
     /**
      * Disconnects from Whatsapp Web's WebSocket if a previous connection exists
      *
@@ -339,7 +351,12 @@ public class Whatsapp {
      */
     public CompletableFuture<Void> changeAbout(String newAbout) {
         return socketHandler.sendQuery("set", "status", Node.of("status", newAbout.getBytes(StandardCharsets.UTF_8)))
-                .thenRun(() -> store().setAbout(newAbout));
+                .thenRun(() -> onAboutChanged(newAbout));
+    }
+
+    private void onAboutChanged(String newAbout) {
+        store().setAbout(newAbout);
+        store().jid().ifPresent(jid -> socketHandler.invalidateUsync(UsyncProtocol.STATUS, jid));
     }
 
     /**
@@ -353,6 +370,55 @@ public class Whatsapp {
         return socketHandler.subscribeToPresence(jid);
     }
 
+    /**
+     * Subscribes to the presences of a list of chats and restricts the presences tracked by this session to the chats that were subscribed to.
+     * Presence updates about any other chat are dropped: they are neither stored in {@link Chat#presences()} nor sent to the listeners.
+     * By default, the presences of every chat are tracked.
+     *
+     * @param chats the non-null chats
+     * @return a CompletableFuture
+     */
+    public CompletableFuture<Void> subscribeToPresences(Collection<? extends JidProvider> chats) {
+        var jids = chats.stream()
+                .map(JidProvider::toJid)
+                .toList();
+        return socketHandler.subscribeToPresences(jids);
+    }
+
+    /**
+     * Stops tracking the presences of a list of chats
+     * If no chat was subscribed to using {@link #subscribeToPresences(Collection)}, no presence will be tracked until another chat is subscribed to
+     *
+     * @param chats the non-null chats
+     * @return the same instance
+     */
+    public Whatsapp unsubscribeFromPresences(Collection<? extends JidProvider> chats) {
+        var jids = chats.stream()
+                .map(JidProvider::toJid)
+                .toList();
+        socketHandler.unsubscribeFromPresences(jids);
+        return this;
+    }
+
+    /**
+     * Tracks the presences of every chat again, which is the default
+     *
+     * @return the same instance
+     */
+    public Whatsapp resetPresenceSubscriptions() {
+        socketHandler.resetPresenceSubscriptions();
+        return this;
+    }
+
+    /**
+     * Returns the chats whose presences are tracked
+     *
+     * @return an empty optional if the presences of every chat are tracked
+     */
+    public Optional<Set<Jid>> presenceSubscriptions() {
+        return socketHandler.presenceSubscriptions();
+    }
+
     /**
      * Remove a reaction from a message
      *
@@ -470,6 +536,51 @@ public class Whatsapp {
         return sendMessage(info);
     }
 
+    /**
+     * Sends the same message to many chats
+     * Unlike sending the message to each chat, media is uploaded once, the message is serialized once and the devices and sessions of all recipients are queried together
+     *
+     * @param recipients the non-null chats where the message should be sent
+     * @param message    the non-null message to send
+     * @return a non-null map from each chat to the future of its message, in the same order as the recipients
+     */
+    public Map<Jid, CompletableFuture<ChatMessageInfo>> sendBulkMessage(Collection<? extends JidProvider> recipients, MessageContainer message) {
+        return sendBulkMessage(recipients, message, DEFAULT_BULK_CONCURRENCY);
+    }
+
+    /**
+     * Sends the same message to many chats
+     * Unlike sending the message to each chat, media is uploaded once, the message is serialized once and the devices and sessions of all recipients are queried together
+     *
+     * @param recipients  the non-null chats where the message should be sent
+     * @param message     the non-null message to send
+     * @param concurrency the maximum number of messages that are encrypted and sent at the same time
+     * @return a non-null map from each chat to the future of its message, in the same order as the recipients
+     */
+    public Map<Jid, CompletableFuture<ChatMessageInfo>> sendBulkMessage(Collection<? extends JidProvider> recipients, MessageContainer message, int concurrency) {
+        var infos = recipients.stream()
+                .map(JidProvider::toJid)
+                .map(recipient -> {
+                    Validate.isTrue(!recipient.hasServer(JidServer.NEWSLETTER), "Cannot send a bulk message to a newsletter: %s", recipient);
+                    var key = new ChatMessageKeyBuilder()
+                            .id(ChatMessageKey.randomId())
+                            .chatJid(recipient)
+                            .fromMe(true)
+                            .senderJid(jidOrThrowError())
+                            .build();
+                    return new ChatMessageInfoBuilder()
+                            .status(MessageStatus.PENDING)
+                            .senderJid(jidOrThrowError())
+                            .key(key)
+                            .message(message)
+                            .timestampSeconds(Clock.nowSeconds())
+                            .broadcast(recipient.hasServer(JidServer.BROADCAST))
+                            .build();
+                })
+                .toList();
+        return socketHandler.sendBulkMessage(infos, concurrency);
+    }
+
     /**
      * Builds and sends an edited message
      *
@@ -579,9 +690,9 @@ public class Whatsapp {
     private CompletableFuture<Void> mark(JidProvider chat, boolean read) {
         if (store().clientType() == ClientType.MOBILE) {
             // TODO: Send notification to companions
-            store().findChatByJid(chat.toJid())
-                    .ifPresent(entry -> entry.setMarkedAsUnread(read));
-            return CompletableFuture.completedFuture(null);
+            return store().findChatByJid(chat.toJid())
+                    .map(entry -> socketHandler.executeOnChat(entry.jid(), () -> entry.setMarkedAsUnread(read)))
+                    .orElseGet(() -> CompletableFuture.completedFuture(null));
         }
 
         var range = createRange(chat, false);
@@ -607,41 +718,67 @@ public class Whatsapp {
         var type = store().findPrivacySetting(PrivacySettingType.READ_RECEIPTS)
                 .value() == PrivacySettingValue.EVERYONE ? "read" : "read-self";
         socketHandler.sendReceipt(info.chatJid(), info.senderJid(), List.of(info.id()), type);
-        info.chat().ifPresent(chat -> {
+        info.setStatus(MessageStatus.READ);
+        var chat = info.chat().orElse(null);
+        if (chat == null) {
+            return CompletableFuture.completedFuture(info);
+        }
+
+        return socketHandler.executeOnChat(chat.jid(), () -> {
             var count = chat.unreadMessagesCount();
             if (count > 0) {
                 chat.setUnreadMessagesCount(count - 1);
             }
-        });
-        info.setStatus(MessageStatus.READ);
-        return CompletableFuture.completedFuture(info);
+        }).thenApply(ignored -> info);
     }
 
     /**
-     * Awaits for a single newsletters to a message
+     * Awaits a single reply to a message
      *
-     * @param info the non-null message whose newsletters is pending
-     * @return a non-null newsletters
+     * @param info the non-null message whose reply is pending
+     * @return a non-null future that completes with the reply
      */
     public CompletableFuture<ChatMessageInfo> awaitMessageReply(ChatMessageInfo info) {
         return awaitMessageReply(info.id());
     }
 
     /**
-     * Awaits for a single newsletters to a message
+     * Awaits a single reply to a message
      *
-     * @param id the non-null id of message whose newsletters is pending
-     * @return a non-null newsletters
+     * @param id the non-null id of the message whose reply is pending
+     * @return a non-null future that completes with the reply
      */
     public CompletableFuture<ChatMessageInfo> awaitMessageReply(String id) {
         return store().addPendingReply(id);
     }
 
+    /**
+     * Awaits a single reply to a message
+     *
+     * @param info    the non-null message whose reply is pending
+     * @param timeout the non-null time after which the returned future fails with a {@link java.util.concurrent.TimeoutException}
+     * @return a non-null future that completes with the reply
+     */
+    public CompletableFuture<ChatMessageInfo> awaitMessageReply(ChatMessageInfo info, Duration timeout) {
+        return awaitMessageReply(info.id(), timeout);
+    }
+
+    /**
+     * Awaits a single reply to a message
+     *
+     * @param id      the non-null id of the message whose reply is pending
+     * @param timeout the non-null time after which the returned future fails with a {@link java.util.concurrent.TimeoutException}
+     * @return a non-null future that completes with the reply
+     */
+    public CompletableFuture<ChatMessageInfo> awaitMessageReply(String id, Duration timeout) {
+        return store().addPendingReply(id, timeout);
+    }
+
     /**
      * Executes a query to determine whether a user has an account on Whatsapp
      *
      * @param contact the contact to check
-     * @return a CompletableFuture that wraps a non-null newsletters
+     * @return a CompletableFuture that wraps a non-null response
      */
     public CompletableFuture<HasWhatsappResponse> hasWhatsapp(JidProvider contact) {
         return hasWhatsapp(new JidProvider[]{contact}).thenApply(result -> result.get(contact.toJid()));
@@ -657,20 +794,41 @@ public class Whatsapp {
         var jids = Arrays.stream(contacts)
                 .map(JidProvider::toJid)
                 .toList();
-        var contactNodes = jids.stream()
-                .map(jid -> Node.of("user", Node.of("contact", jid.toPhoneNumber())))
-                .toArray(Node[]::new);
-        return socketHandler.sendInteractiveQuery(Node.of("contact"), contactNodes)
+        return hasWhatsapp(jids);
+    }
+
+    /**
+     * Executes a query to determine whether any number of users have an account on Whatsapp
+     * Contacts are checked in chunks, concurrently, within the limits set by {@link Store#usyncSettings()}
+     * Results are cached, so checking the same contact again doesn't send a new query until the result expires
+     * The server can normalize a phone number, for example for some brazilian or mexican numbers:
+     * in that case the response is mapped both to the contact that was checked and to the normalized jid, which is the one to use to message the contact
+     *
+     * @param contacts the contacts to check
+     * @return a CompletableFuture that wraps a non-null map
+     */
+    public CompletableFuture<Map<Jid, HasWhatsappResponse>> hasWhatsapp(Collection<? extends JidProvider> contacts) {
+        var jids = contacts.stream()
+                .map(JidProvider::toJid)
+                .toList();
+        return socketHandler.queryUsync(UsyncProtocol.CONTACT, jids)
                 .thenApplyAsync(result -> parseHasWhatsappResponse(jids, result));
     }
 
-    private Map<Jid, HasWhatsappResponse> parseHasWhatsappResponse(List<Jid> contacts, List<Node> nodes) {
-        var result = nodes.stream()
-                .map(this::parseHasWhatsappResponse)
-                .collect(Collectors.toMap(HasWhatsappResponse::contact, Function.identity(), (first, second) -> first, HashMap::new));
-        contacts.stream()
-                .filter(contact -> !result.containsKey(contact))
-                .forEach(contact -> result.put(contact, new HasWhatsappResponse(contact, false)));
+    private Map<Jid, HasWhatsappResponse> parseHasWhatsappResponse(List<Jid> contacts, Map<Jid, Node> nodes) {
+        var result = HashMap.<Jid, HasWhatsappResponse>newHashMap(contacts.size());
+        for (var contact : contacts) {
+            var node = nodes.get(contact.withoutDevice());
+            if (node == null) {
+                result.put(contact, new HasWhatsappResponse(contact, false));
+                continue;
+            }
+
+            var response = parseHasWhatsappResponse(node);
+            result.put(contact, response);
+            result.putIfAbsent(response.contact(), response);
+        }
+
         return Collections.unmodifiableMap(result);
     }
 
@@ -1398,9 +1556,9 @@ public class Whatsapp {
     private CompletableFuture<Void> pinChat(JidProvider chat, boolean pin) {
         if (store().clientType() == ClientType.MOBILE) {
             // TODO: Send notification to companions
-            store().findChatByJid(chat)
-                    .ifPresent(entry -> entry.setPinnedTimestampSeconds(pin ? (int) Clock.nowSeconds() : 0));
-            return CompletableFuture.completedFuture(null);
+            return store().findChatByJid(chat)
+                    .map(entry -> socketHandler.executeOnChat(entry.jid(), () -> entry.setPinnedTimestampSeconds(pin ? (int) Clock.nowSeconds() : 0)))
+                    .orElseGet(() -> CompletableFuture.completedFuture(null));
         }
 
         var pinAction = new PinAction(pin);
@@ -1473,9 +1631,9 @@ public class Whatsapp {
     private CompletableFuture<Void> archiveChat(JidProvider chat, boolean archive) {
         if (store().clientType() == ClientType.MOBILE) {
             // TODO: Send notification to companions
-            store().findChatByJid(chat)
-                    .ifPresent(entry -> entry.setArchived(archive));
-            return CompletableFuture.completedFuture(null);
+            return store().findChatByJid(chat)
+                    .map(entry -> socketHandler.executeOnChat(entry.jid(), () -> entry.setArchived(archive)))
+                    .orElseGet(() -> CompletableFuture.completedFuture(null));
         }
 
         var range = createRange(chat, false);
@@ -2458,6 +2616,20 @@ public class Whatsapp {
                 .thenApplyAsync(result -> !result.hasNode("error"));
     }
 
+    /**
+     * Establishes the signal sessions with the devices of a list of contacts, so that the first message sent to each of them doesn't have to wait for its keys
+     * Devices that already have a session are skipped, the others are queried in large batches
+     *
+     * @param contacts the non-null contacts
+     * @return a future
+     */
+    public CompletableFuture<Void> prewarmSessions(Collection<? extends JidProvider> contacts) {
+        var jids = contacts.stream()
+                .map(JidProvider::toJid)
+                .toList();
+        return socketHandler.querySessions(jids);
+    }
+
     /**
      * Starts a call with a contact
      * Mobile API only
@@ -2987,6 +3159,16 @@ public class Whatsapp {
         return addListener(onSyncProgress);
     }
 
+    /**
+     * Registers a listener for the estimated sync progress, reported while a chunk of the history is being read
+     *
+     * @param onSyncProgress the listener to register
+     * @return the same instance
+     */
+    public Whatsapp addHistorySyncEstimatedProgressListener(OnHistorySyncEstimatedProgress onSyncProgress) {
+        return addListener(onSyncProgress);
+    }
+
     /**
      * Registers a chat recent messages listener
      *
@@ -3167,6 +3349,16 @@ public class Whatsapp {
         return addListener(onSyncProgress);
     }
 
+    /**
+     * Registers a listener for the estimated sync progress, reported while a chunk of the history is being read
+     *
+     * @param onSyncProgress the listener to register
+     * @return the same instance
+     */
+    public Whatsapp addHistorySyncEstimatedProgressListener(OnWhatsappHistorySyncEstimatedProgress onSyncProgress) {
+        return addListener(onSyncProgress);
+    }
+
     /**
      * Registers a message reply listener
      *
@@ -3179,6 +3371,8 @@ public class Whatsapp {
 
     /**
      * Registers a message reply listener for a specific message
+     * The listener is called once, for the first reply, and is discarded if no reply is received within {@link ReplyRegistry#DEFAULT_TIMEOUT}
+     * If too many replies are awaited, the oldest listeners are discarded and reported to the error handler
      *
      * @param info           the non-null target message
      * @param onMessageReply the non-null listener
@@ -3199,6 +3393,8 @@ public class Whatsapp {
 
     /**
      * Registers a message reply listener for a specific message
+     * The listener is called once, for the first reply, and is discarded if no reply is received within {@link ReplyRegistry#DEFAULT_TIMEOUT}
+     * If too many replies are awaited, the oldest listeners are discarded and reported to the error handler
      *
      * @param info           the non-null target message
      * @param onMessageReply the non-null listener
@@ -3209,34 +3405,30 @@ public class Whatsapp {
 
     /**
      * Registers a message reply listener for a specific message
+     * The listener is called once, for the first reply, and is discarded if no reply is received within {@link ReplyRegistry#DEFAULT_TIMEOUT}
+     * If too many replies are awaited, the oldest listeners are discarded and reported to the error handler
      *
      * @param id             the non-null id of the target message
      * @param onMessageReply the non-null listener
      */
     public Whatsapp addMessageReplyListener(String id, OnMessageReply onMessageReply) {
-        return addMessageReplyListener((info, quoted) -> {
-            if (!info.id().equals(id)) {
-                return;
-            }
-
-            onMessageReply.onMessageReply(info, quoted);
-        });
+        socketHandler.addReplyListener(id, info -> info.quotedMessage()
+                .ifPresent(quoted -> onMessageReply.onMessageReply(info, quoted)));
+        return this;
     }
 
     /**
      * Registers a message reply listener for a specific message
+     * The listener is called once, for the first reply, and is discarded if no reply is received within {@link ReplyRegistry#DEFAULT_TIMEOUT}
+     * If too many replies are awaited, the oldest listeners are discarded and reported to the error handler
      *
      * @param id             the non-null id of the target message
      * @param onMessageReply the non-null listener
      */
     public Whatsapp addMessageReplyListener(String id, OnWhatsappMessageReply onMessageReply) {
-        return addMessageReplyListener(((whatsapp, info, quoted) -> {
-            if (!info.id().equals(id)) {
-                return;
-            }
-
-            onMessageReply.onMessageReply(whatsapp, info, quoted);
-        }));
+        socketHandler.addReplyListener(id, info -> info.quotedMessage()
+                .ifPresent(quoted -> onMessageReply.onMessageReply(this, info, quoted)));
+        return this;
     }
 
     /**
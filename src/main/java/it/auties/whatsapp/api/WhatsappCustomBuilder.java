@@ -13,6 +13,7 @@ public class WhatsappCustomBuilder {
     private ErrorHandler errorHandler;
     private WebVerificationSupport webVerificationSupport;
     private Executor socketExecutor;
+    private WhatsappRuntime runtime;
 
     WhatsappCustomBuilder() {
 
@@ -43,6 +44,11 @@ public class WhatsappCustomBuilder {
         return this;
     }
 
+    public WhatsappCustomBuilder runtime(WhatsappRuntime runtime) {
+        this.runtime = runtime;
+        return this;
+    }
+
     public Whatsapp build() {
         Validate.isTrue(Objects.equals(store.uuid(), keys.uuid()), "UUID mismatch: %s != %s", store.uuid(), keys.uuid());
         var knownInstance = Whatsapp.getInstanceByUuid(store.uuid());
@@ -51,7 +57,7 @@ public class WhatsappCustomBuilder {
         }
 
         var checkedSupport = getWebVerificationMethod(store, keys, webVerificationSupport);
-        return new Whatsapp(store, keys, errorHandler, checkedSupport, socketExecutor);
+        return new Whatsapp(store, keys, errorHandler, checkedSupport, socketExecutor, runtime);
     }
 
     private static WebVerificationSupport getWebVerificationMethod(Store store, Keys keys, WebVerificationSupport webVerificationSupport) {
@@ -0,0 +1,298 @@
+package it.auties.whatsapp.api;
+
+import it.auties.whatsapp.util.ProxyAuthenticator;
+import it.auties.whatsapp.util.SerialExecutor;
+
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The resources shared by a group of sessions running in the same JVM.
+ * By default, every session runs on {@link #shared()}: the scheduler used for keep alive pings, the listeners pool, the workers used by app state syncs
+ * and the http clients used to open web sockets are allocated once, so the number of threads doesn't grow with the number of sessions.
+ * A dedicated runtime can be created with {@link #create()} and passed to {@link OptionsBuilder#runtime(WhatsappRuntime)} to isolate a group of sessions.
+ * Platform runtimes bound their listeners and workers pools, to {@link #MAX_LISTENER_THREADS} and {@link #MAX_WORKER_THREADS} threads respectively, and queue the tasks submitted past these limits.
+ * Runtimes created with virtual threads, like {@link #virtual()}, run socket reads, message handling, listeners and background work on virtual threads:
+ * only the scheduler, whose tasks never block, uses a platform thread.
+ */
+public final class WhatsappRuntime implements AutoCloseable {
+    /**
+     * The maximum number of platform threads used to dispatch events to listeners
+     */
+    public static final int MAX_LISTENER_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+
+    /**
+     * The maximum number of platform threads used for background work
+     */
+    public static final int MAX_WORKER_THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final long IDLE_THREAD_TIMEOUT_SECONDS = 60;
+    private static final Object SHARED_LOCK = new Object();
+    private static volatile WhatsappRuntime shared;
+    private static volatile WhatsappRuntime sharedVirtual;
+
+    private final String name;
+    private final boolean virtualThreads;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService listenersExecutor;
+    private final ExecutorService workersExecutor;
+    private final ExecutorService socketsExecutor;
+    private final Map<HttpClientKey, HttpClient> httpClients;
+    private final Set<Whatsapp> sessions;
+    private final AtomicInteger threads;
+    private final AtomicBoolean closed;
+
+    private WhatsappRuntime(String name, boolean virtualThreads) {
+        this.name = name;
+        this.virtualThreads = virtualThreads;
+        this.threads = new AtomicInteger();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(createThreadFactory("scheduler", false));
+        this.listenersExecutor = createExecutor("listener", MAX_LISTENER_THREADS);
+        this.workersExecutor = createExecutor("worker", MAX_WORKER_THREADS);
+        this.socketsExecutor = virtualThreads || ForkJoinPool.getCommonPoolParallelism() > 1 ? null : Executors.newCachedThreadPool(createThreadFactory("socket", false));
+        this.httpClients = new ConcurrentHashMap<>();
+        this.sessions = ConcurrentHashMap.newKeySet();
+        this.closed = new AtomicBoolean();
+    }
+
+    /**
+     * Returns the runtime used by sessions that don't specify one
+     *
+     * @return a non-null runtime
+     */
+    public static WhatsappRuntime shared() {
+        var result = shared;
+        if (result != null && !result.isClosed()) {
+            return result;
+        }
+
+        synchronized (SHARED_LOCK) {
+            if (shared == null || shared.isClosed()) {
+                shared = new WhatsappRuntime("cobalt", false);
+            }
+
+            return shared;
+        }
+    }
+
+    /**
+     * Returns the runtime used by sessions that opted into virtual threads without specifying a runtime
+     *
+     * @return a non-null runtime
+     */
+    public static WhatsappRuntime virtual() {
+        var result = sharedVirtual;
+        if (result != null && !result.isClosed()) {
+            return result;
+        }
+
+        synchronized (SHARED_LOCK) {
+            if (sharedVirtual == null || sharedVirtual.isClosed()) {
+                sharedVirtual = new WhatsappRuntime("cobalt-virtual", true);
+            }
+
+            return sharedVirtual;
+        }
+    }
+
+    /**
+     * Creates a new runtime
+     * The caller is responsible for closing it once all of its sessions are disconnected
+     *
+     * @return a non-null runtime
+     */
+    public static WhatsappRuntime create() {
+        return create(false);
+    }
+
+    /**
+     * Creates a new runtime
+     * The caller is responsible for closing it once all of its sessions are disconnected
+     *
+     * @param virtualThreads whether socket reads, message handling, listeners and background work should run on virtual threads
+     * @return a non-null runtime
+     */
+    public static WhatsappRuntime create(boolean virtualThreads) {
+        return new WhatsappRuntime("cobalt-" + UUID.randomUUID().toString().substring(0, 8), virtualThreads);
+    }
+
+    private ExecutorService createExecutor(String type, int maxThreads) {
+        var factory = createThreadFactory(type, virtualThreads);
+        if (virtualThreads) {
+            return Executors.newThreadPerTaskExecutor(factory);
+        }
+
+        var result = new ThreadPoolExecutor(maxThreads, maxThreads, IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), factory);
+        result.allowCoreThreadTimeOut(true);
+        return result;
+    }
+
+    private ThreadFactory createThreadFactory(String type, boolean virtual) {
+        var counter = new AtomicInteger();
+        return runnable -> {
+            Runnable tracked = () -> {
+                threads.incrementAndGet();
+                try {
+                    runnable.run();
+                } finally {
+                    threads.decrementAndGet();
+                }
+            };
+            var threadName = "%s-%s-%s".formatted(name, type, counter.incrementAndGet());
+            return virtual ? Thread.ofVirtual().name(threadName).unstarted(tracked) : Thread.ofPlatform().name(threadName).daemon(true).unstarted(tracked);
+        };
+    }
+
+    /**
+     * Returns whether this runtime uses virtual threads
+     *
+     * @return a boolean
+     */
+    public boolean virtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Returns the scheduler shared by the sessions of this runtime
+     * Scheduled tasks should be short and must not block
+     *
+     * @return a non-null scheduler
+     */
+    public ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Returns the executor used to dispatch events to listeners
+     *
+     * @return a non-null executor
+     */
+    public Executor listenersExecutor() {
+        return listenersExecutor;
+    }
+
+    /**
+     * Returns the executor used for background work that may block
+     *
+     * @return a non-null executor
+     */
+    public Executor workersExecutor() {
+        return workersExecutor;
+    }
+
+    /**
+     * Returns the executor used by sessions that don't specify a socket executor
+     * Virtual runtimes use a virtual thread for every task, platform runtimes use the common pool unless it's not parallel
+     * As raw sockets block a thread for every session while reading, the fallback of platform runtimes is not bounded
+     *
+     * @return a non-null executor
+     */
+    public Executor socketExecutor() {
+        if (virtualThreads) {
+            return workersExecutor;
+        }
+
+        return socketsExecutor != null ? socketsExecutor : ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Creates an executor that runs its tasks one at a time on the workers of this runtime
+     *
+     * @return a non-null executor
+     */
+    public SerialExecutor newSerialExecutor() {
+        return new SerialExecutor(workersExecutor);
+    }
+
+    /**
+     * Returns an http client that can be used to open web sockets
+     * Clients are shared by all the sessions that use the same proxy and executor
+     *
+     * @param proxy    the address of the proxy to use, can be null
+     * @param executor the non-null executor used by the client
+     * @return a non-null http client
+     */
+    public HttpClient httpClient(InetSocketAddress proxy, Executor executor) {
+        return httpClients.computeIfAbsent(new HttpClientKey(proxy, executor), key -> HttpClient.newBuilder()
+                .executor(executor)
+                .proxy(ProxySelector.of(proxy))
+                .authenticator(new ProxyAuthenticator())
+                .build());
+    }
+
+    /**
+     * Registers a session
+     *
+     * @param whatsapp the non-null session
+     */
+    public void register(Whatsapp whatsapp) {
+        sessions.add(whatsapp);
+    }
+
+    /**
+     * Unregisters a session
+     *
+     * @param whatsapp the non-null session
+     */
+    public void unregister(Whatsapp whatsapp) {
+        sessions.remove(whatsapp);
+    }
+
+    /**
+     * Returns the sessions that are running on this runtime
+     *
+     * @return a non-null unmodifiable collection
+     */
+    public Collection<Whatsapp> sessions() {
+        return Collections.unmodifiableSet(sessions);
+    }
+
+    /**
+     * Returns the number of threads, platform or virtual, that are currently running tasks for this runtime
+     *
+     * @return an unsigned int
+     */
+    public int threads() {
+        return threads.get();
+    }
+
+    /**
+     * Returns whether this runtime was closed
+     *
+     * @return a boolean
+     */
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    /**
+     * Closes this runtime
+     * Sessions that are still running on it will not be able to schedule new work
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        scheduler.shutdownNow();
+        listenersExecutor.shutdownNow();
+        workersExecutor.shutdownNow();
+        if (socketsExecutor != null) {
+            socketsExecutor.shutdownNow();
+        }
+
+        httpClients.values().forEach(HttpClient::shutdownNow);
+        httpClients.clear();
+        sessions.clear();
+    }
+
+    private record HttpClientKey(InetSocketAddress proxy, Executor executor) {
+
+    }
+}
@@ -2,6 +2,7 @@ package it.auties.whatsapp.binary;
 
 import it.auties.whatsapp.model.jid.Jid;
 import it.auties.whatsapp.model.jid.JidServer;
+import it.auties.whatsapp.model.node.Attributes;
 import it.auties.whatsapp.model.node.Node;
 import it.auties.whatsapp.util.BytesHelper;
 import it.auties.whatsapp.util.Validate;
@@ -10,14 +11,15 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import static it.auties.whatsapp.binary.BinaryTag.*;
 
 public final class BinaryDecoder implements AutoCloseable {
+    private static final char[] NIBBLE_ALPHABET = createAlphabet(BinaryTokens.NUMBERS);
+    private static final char[] HEX_ALPHABET = createAlphabet(BinaryTokens.HEX);
+
     private final DataInputStream dataInputStream;
     private boolean closed;
     public BinaryDecoder(byte[] buffer) {
@@ -29,6 +31,15 @@ public final class BinaryDecoder implements AutoCloseable {
         }
     }
     
+    private static char[] createAlphabet(List<Character> characters) {
+        var result = new char[characters.size()];
+        for (var index = 0; index < result.length; index++) {
+            result[index] = characters.get(index);
+        }
+
+        return result;
+    }
+
     public Node decode() throws IOException {
         if(closed) {
             throw new IllegalStateException("The encoder is closed");
@@ -52,33 +63,34 @@ public final class BinaryDecoder implements AutoCloseable {
                 .formatted(read, read == null ? null : read.getClass().getName()));
     }
 
-    private List<Node> readList(int size) throws IOException {
-        var results = new ArrayList<Node>();
+    // An empty list is decoded as no content, like a missing one
+    private Node[] readList(int size) throws IOException {
+        if (size == 0) {
+            return null;
+        }
+
+        var results = new Node[size];
         for (int index = 0; index < size; index++) {
-            results.add(decode());
+            results[index] = decode();
         }
         
         return results;
     }
 
-    private String readString(List<Character> permitted, int start, int end) throws IOException {
+    private String readString(char[] alphabet, int start, int end) throws IOException {
         var string = new char[2 * end - start];
         for(var index = 0; index < string.length - 1; index += 2) {
-            readChar(permitted, string, index);
+            var token = dataInputStream.readUnsignedByte();
+            string[index] = alphabet[token >>> 4];
+            string[index + 1] = alphabet[15 & token];
         }
         if (start != 0) {
-            string[string.length - 1] = permitted.get(dataInputStream.readUnsignedByte() >>> 4);
+            string[string.length - 1] = alphabet[dataInputStream.readUnsignedByte() >>> 4];
         }
 
         return String.valueOf(string);
     }
 
-    private void readChar(List<Character> permitted, char[] string, int index) throws IOException {
-        var token = dataInputStream.readUnsignedByte();
-        string[index] = permitted.get(token >>> 4);
-        string[index + 1] = permitted.get(15 & token);
-    }
-
     private Object read(boolean parseBytes) throws IOException {
         var tag = dataInputStream.readUnsignedByte();
         return switch (of(tag)) {
@@ -113,7 +125,7 @@ public final class BinaryDecoder implements AutoCloseable {
 
     private String readNibble() throws IOException {
         var number = dataInputStream.readUnsignedByte();
-        return readString(BinaryTokens.NUMBERS, number >>> 7, 127 & number);
+        return readString(NIBBLE_ALPHABET, number >>> 7, 127 & number);
     }
 
     private Object readString(int size, boolean parseBytes) throws IOException {
@@ -124,7 +136,7 @@ public final class BinaryDecoder implements AutoCloseable {
 
     private String readHexString() throws IOException {
         var number = dataInputStream.readUnsignedByte();
-        return readString(BinaryTokens.HEX, number >>> 7, 127 & number);
+        return readString(HEX_ALPHABET, number >>> 7, 127 & number);
     }
 
     private Jid readJidPair() throws IOException {
@@ -146,14 +158,34 @@ public final class BinaryDecoder implements AutoCloseable {
         return LIST_8.contentEquals(token) ? dataInputStream.readUnsignedByte() : dataInputStream.readUnsignedShort();
     }
 
-    private Map<String, Object> readAttributes(int size) throws IOException {
-        var map = new HashMap<String, Object>();
-        for (var pair = size - 1; pair > 1; pair -= 2) {
+    // If a key is repeated, the last value wins
+    private Attributes readAttributes(int size) throws IOException {
+        var entries = new Object[(size - 1) / 2 * 2];
+        var length = 0;
+        for (var pair = 0; pair < entries.length; pair += 2) {
             var key = readString();
             var value = read(true);
-            map.put(key, value);
+            var existing = indexOf(entries, length, key);
+            if (existing != -1) {
+                entries[existing + 1] = value;
+                continue;
+            }
+
+            entries[length] = key;
+            entries[length + 1] = value;
+            length += 2;
         }
-        return map;
+        return Attributes.ofArray(length == entries.length ? entries : Arrays.copyOf(entries, length));
+    }
+
+    private int indexOf(Object[] entries, int length, String key) {
+        for (var index = 0; index < length; index += 2) {
+            if (key.equals(entries[index])) {
+                return index;
+            }
+        }
+
+        return -1;
     }
 
     @Override
@@ -7,6 +7,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
@@ -17,6 +18,10 @@ public final class BinaryEncoder implements AutoCloseable {
     private static final int UNSIGNED_BYTE_MAX_VALUE = 256;
     private static final int UNSIGNED_SHORT_MAX_VALUE = 65536;
     private static final int INT_20_MAX_VALUE = 1048576;
+    private static final int PACKED_MAX_LENGTH = 128;
+    private static final int ASCII_LENGTH = 128;
+    private static final byte[] NIBBLE_CODES = createCodes(BinaryTokens.NUMBERS);
+    private static final byte[] HEX_CODES = createCodes(BinaryTokens.HEX);
 
     private final ByteArrayOutputStream byteArrayOutputStream;
     private final DataOutputStream dataOutputStream;
@@ -35,6 +40,20 @@ public final class BinaryEncoder implements AutoCloseable {
         this.doubleByteTokens = doubleByteTokens;
     }
 
+    // Maps every ascii character to its position in the alphabet, or to -1 if it's not part of it
+    private static byte[] createCodes(List<Character> alphabet) {
+        var codes = new byte[ASCII_LENGTH];
+        Arrays.fill(codes, (byte) -1);
+        for (var index = 0; index < alphabet.size(); index++) {
+            var character = alphabet.get(index);
+            if (character < ASCII_LENGTH) {
+                codes[character] = (byte) index;
+            }
+        }
+
+        return codes;
+    }
+
     public byte[] encode(Node node) throws IOException {
         if(closed) {
             throw new IllegalStateException("The encoder is closed");
@@ -45,45 +64,42 @@ public final class BinaryEncoder implements AutoCloseable {
         return byteArrayOutputStream.toByteArray();
     }
 
-    private void writeString(String input, BinaryTag token) throws IOException {
+    private void writeString(String input, BinaryTag token, byte[] codes) throws IOException {
         dataOutputStream.write(token.data());
         writeStringLength(input);
-        for (int charCode = 0, index = 0; index < input.length(); index++) {
-            var stringCodePoint = Character.codePointAt(input, index);
-            var binaryCodePoint = getStringCodePoint(token, stringCodePoint);
-
-            if (index % 2 != 0) {
-                dataOutputStream.write(charCode |= binaryCodePoint);
-                continue;
-            }
-
-            charCode = binaryCodePoint << 4;
-            if (index != input.length() - 1) {
-                continue;
-            }
-
-            dataOutputStream.write(charCode |= 15);
+        var length = input.length();
+        var packed = new byte[(length + 1) / 2];
+        for (var index = 0; index < packed.length; index++) {
+            var first = codes[input.charAt(index * 2)];
+            var second = index * 2 + 1 < length ? codes[input.charAt(index * 2 + 1)] : 15;
+            packed[index] = (byte) (first << 4 | second);
         }
-    }
 
-    private int getStringCodePoint(BinaryTag token, int codePoint) {
-        if (codePoint >= 48 && codePoint <= 57) {
-            return codePoint - 48;
-        }
+        dataOutputStream.write(packed);
+    }
 
-        if (token == NIBBLE_8 && codePoint == 45) {
-            return 10;
+    // Classifies the string in a single pass: nibble strings are preferred to hex strings, like the web client does
+    private BinaryTag findPackedTag(String input) {
+        if (input.length() >= PACKED_MAX_LENGTH) {
+            return null;
         }
 
-        if (token == NIBBLE_8 && codePoint == 46) {
-            return 11;
-        }
+        var nibble = true;
+        var hex = true;
+        for (var index = 0; index < input.length(); index++) {
+            var character = input.charAt(index);
+            if (character >= ASCII_LENGTH) {
+                return null;
+            }
 
-        if (token == HEX_8 && codePoint >= 65 && codePoint <= 70) {
-            return codePoint - 55;
+            nibble &= NIBBLE_CODES[character] != -1;
+            hex &= HEX_CODES[character] != -1;
+            if (!nibble && !hex) {
+                return null;
+            }
         }
 
-        throw new IllegalArgumentException("Cannot parse codepoint %s with token %s".formatted(codePoint, token));
+        return nibble ? NIBBLE_8 : HEX_8;
     }
 
     private void writeStringLength(String input) throws IOException {
@@ -132,19 +148,20 @@ public final class BinaryEncoder implements AutoCloseable {
             return;
         }
 
-        var length = length(input);
-        if (length < 128 && !BinaryTokens.anyMatch(input, BinaryTokens.NUMBERS_REGEX)) {
-            writeString(input, NIBBLE_8);
+        var packedTag = findPackedTag(input);
+        if (packedTag == NIBBLE_8) {
+            writeString(input, NIBBLE_8, NIBBLE_CODES);
             return;
         }
 
-        if (length < 128 && !BinaryTokens.anyMatch(input, BinaryTokens.HEX_REGEX)) {
-            writeString(input, HEX_8);
+        if (packedTag == HEX_8) {
+            writeString(input, HEX_8, HEX_CODES);
             return;
         }
 
-        writeLong(length);
-        dataOutputStream.write(input.getBytes(StandardCharsets.UTF_8));
+        var bytes = input.getBytes(StandardCharsets.UTF_8);
+        writeLong(bytes.length);
+        dataOutputStream.write(bytes);
     }
 
     private boolean writeDoubleByteString(String input) throws IOException {
@@ -257,10 +274,6 @@ public final class BinaryEncoder implements AutoCloseable {
         writeString(jid.server().address());
     }
 
-    private int length(String input) {
-        return input.getBytes(StandardCharsets.UTF_8).length;
-    }
-
     @Override
     public void close() throws IOException {
         this.closed = true;
@@ -1,6 +1,7 @@
 package it.auties.whatsapp.controller;
 
 import it.auties.whatsapp.api.ClientType;
+import it.auties.whatsapp.model.chat.Chat;
 import it.auties.whatsapp.model.mobile.PhoneNumber;
 import it.auties.whatsapp.util.DefaultControllerSerializer;
 
@@ -68,6 +69,19 @@ public interface ControllerSerializer {
      */
     CompletableFuture<Void> serializeStore(Store store, boolean async);
 
+    /**
+     * Serializes a single chat of a store.
+     * This method is called while a history sync is being decoded so that chats can be persisted as soon as they are available.
+     * By default, this method does nothing: chats will be serialized with the store.
+     *
+     * @param store the non-null store that owns the chat
+     * @param chat  the non-null chat to serialize
+     * @return a future that completes when the chat is serialized
+     */
+    default CompletableFuture<Void> serializeChat(Store store, Chat chat) {
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * Serializes the keys
      *
@@ -10,6 +10,7 @@ import it.auties.whatsapp.model.signal.auth.SignedDeviceIdentity;
 import it.auties.whatsapp.model.signal.auth.SignedDeviceIdentityHMAC;
 import it.auties.whatsapp.model.signal.keypair.SignalKeyPair;
 import it.auties.whatsapp.model.signal.keypair.SignalPreKeyPair;
+import it.auties.whatsapp.model.signal.keypair.SignalPreKeyStore;
 import it.auties.whatsapp.model.signal.keypair.SignalSignedKeyPair;
 import it.auties.whatsapp.model.signal.sender.SenderKeyName;
 import it.auties.whatsapp.model.signal.sender.SenderKeyRecord;
@@ -19,10 +20,13 @@ import it.auties.whatsapp.model.sync.AppStateSyncKey;
 import it.auties.whatsapp.model.sync.PatchType;
 import it.auties.whatsapp.util.BytesHelper;
 import it.auties.whatsapp.util.Clock;
+import it.auties.whatsapp.util.Validate;
 
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static it.auties.whatsapp.util.Specification.Signal.DEFAULT_PRE_KEYS_BATCH_SIZE;
 import static java.util.Objects.requireNonNullElseGet;
 
 /**
@@ -72,9 +76,14 @@ public final class Keys extends Controller<Keys> {
     private Long signedKeyIndexTimestamp;
 
     /**
-     * Whether these keys have generated pre keys assigned to them
+     * The one-time pre keys that were uploaded and not consumed yet
      */
-    private final List<SignalPreKeyPair> preKeys;
+    private final SignalPreKeyStore preKeys;
+
+    /**
+     * The number of pre keys to upload when the server runs low on them
+     */
+    private int preKeysBatchSize;
 
     /**
      * The phone id for the mobile api
@@ -152,7 +161,7 @@ public final class Keys extends Controller<Keys> {
     private byte[] writeKey, readKey;
 
     @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
-    public Keys(UUID uuid, PhoneNumber phoneNumber, ControllerSerializer serializer, ClientType clientType, Collection<String> alias, int registrationId, SignalKeyPair noiseKeyPair, SignalKeyPair ephemeralKeyPair, SignalKeyPair identityKeyPair, SignalKeyPair companionKeyPair, SignalSignedKeyPair signedKeyPair, byte[] signedKeyIndex, Long signedKeyIndexTimestamp, List<SignalPreKeyPair> preKeys, String phoneId, String deviceId, String recoveryToken, SignedDeviceIdentity companionIdentity, Map<SenderKeyName, SenderKeyRecord> senderKeys, Map<Jid, LinkedList<AppStateSyncKey>> appStateKeys, Map<SessionAddress, Session> sessions, Map<Jid, Map<PatchType, CompanionHashState>> hashStates, Map<Jid, Collection<Jid>> groupsPreKeys, boolean registered, boolean businessCertificate, boolean initialAppSync) {
+    public Keys(UUID uuid, PhoneNumber phoneNumber, ControllerSerializer serializer, ClientType clientType, Collection<String> alias, int registrationId, SignalKeyPair noiseKeyPair, SignalKeyPair ephemeralKeyPair, SignalKeyPair identityKeyPair, SignalKeyPair companionKeyPair, SignalSignedKeyPair signedKeyPair, byte[] signedKeyIndex, Long signedKeyIndexTimestamp, SignalPreKeyStore preKeys, int preKeysBatchSize, String phoneId, String deviceId, String recoveryToken, SignedDeviceIdentity companionIdentity, Map<SenderKeyName, SenderKeyRecord> senderKeys, Map<Jid, LinkedList<AppStateSyncKey>> appStateKeys, Map<SessionAddress, Session> sessions, Map<Jid, Map<PatchType, CompanionHashState>> hashStates, Map<Jid, Collection<Jid>> groupsPreKeys, boolean registered, boolean businessCertificate, boolean initialAppSync) {
         super(uuid, phoneNumber, serializer, clientType, alias);
         this.registrationId = registrationId;
         this.noiseKeyPair = noiseKeyPair;
@@ -162,7 +171,8 @@ public final class Keys extends Controller<Keys> {
         this.signedKeyPair = signedKeyPair;
         this.signedKeyIndex = signedKeyIndex;
         this.signedKeyIndexTimestamp = signedKeyIndexTimestamp;
-        this.preKeys = preKeys;
+        this.preKeys = Objects.requireNonNullElseGet(preKeys, SignalPreKeyStore::new);
+        this.preKeysBatchSize = preKeysBatchSize > 0 ? preKeysBatchSize : DEFAULT_PRE_KEYS_BATCH_SIZE;
         this.phoneId = phoneId;
         this.deviceId = deviceId;
         this.recoveryToken = recoveryToken;
@@ -248,7 +258,7 @@ public final class Keys extends Controller<Keys> {
      * @return a non-null pre key
      */
     public Optional<SignalPreKeyPair> findPreKeyById(Integer id) {
-        return id == null ? Optional.empty() : preKeys.stream().filter(preKey -> preKey.id() == id).findFirst();
+        return id == null ? Optional.empty() : preKeys.find(id);
     }
 
     /**
@@ -366,6 +376,37 @@ public final class Keys extends Controller<Keys> {
         return this;
     }
 
+    /**
+     * Removes a one-time pre key after it was consumed by an incoming session
+     *
+     * @param id the id of the key to remove
+     * @return a non-null optional containing the removed key
+     */
+    public Optional<SignalPreKeyPair> removePreKey(Integer id) {
+        return id == null ? Optional.empty() : preKeys.remove(id);
+    }
+
+    /**
+     * Creates a batch of new pre keys, drawing from the pool of pre-generated key pairs, and starts refilling the pool in the background
+     *
+     * @param executor the non-null executor that refills the pool
+     * @return a non-null list containing the new pre keys
+     */
+    public List<SignalPreKeyPair> generatePreKeys(Executor executor) {
+        var results = preKeys.generate(preKeysBatchSize);
+        preKeys.refill(preKeysBatchSize, executor);
+        return results;
+    }
+
+    /**
+     * Starts filling the pool of pre-generated key pairs in the background
+     *
+     * @param executor the non-null executor that fills the pool
+     */
+    public void preparePreKeys(Executor executor) {
+        preKeys.refill(preKeysBatchSize, executor);
+    }
+
     /**
      * Returns write counter
      *
@@ -392,7 +433,7 @@ public final class Keys extends Controller<Keys> {
      * @return an integer
      */
     public int lastPreKeyId() {
-        return preKeys.isEmpty() ? 0 : preKeys.get(preKeys.size() - 1).id();
+        return preKeys.lastId();
     }
 
     /**
@@ -423,7 +464,28 @@ public final class Keys extends Controller<Keys> {
      * @return a non-null collection
      */
     public Collection<SignalPreKeyPair> preKeys() {
-        return Collections.unmodifiableList(preKeys);
+        return preKeys.values();
+    }
+
+    /**
+     * Returns the number of pre keys to upload when the server runs low on them
+     *
+     * @return a positive int
+     */
+    public int preKeysBatchSize() {
+        return preKeysBatchSize;
+    }
+
+    /**
+     * Sets the number of pre keys to upload when the server runs low on them
+     *
+     * @param preKeysBatchSize a positive int
+     * @return this
+     */
+    public Keys setPreKeysBatchSize(int preKeysBatchSize) {
+        Validate.isTrue(preKeysBatchSize > 0, "Invalid pre keys batch size: %s", preKeysBatchSize);
+        this.preKeysBatchSize = preKeysBatchSize;
+        return this;
     }
 
     public void addRecipientWithPreKeys(Jid group, Jid recipient) {
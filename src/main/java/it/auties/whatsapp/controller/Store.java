@@ -5,6 +5,7 @@ import com.fasterxml.jackson.annotation.JsonGetter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import it.auties.whatsapp.api.ClientType;
 import it.auties.whatsapp.api.TextPreviewSetting;
+import it.auties.whatsapp.api.UsyncSettings;
 import it.auties.whatsapp.api.WebHistoryLength;
 import it.auties.whatsapp.listener.Listener;
 import it.auties.whatsapp.model.business.BusinessCategory;
@@ -39,7 +40,10 @@ import it.auties.whatsapp.socket.SocketRequest;
 import it.auties.whatsapp.util.BytesHelper;
 import it.auties.whatsapp.util.FutureReference;
 import it.auties.whatsapp.util.MetadataHelper;
+import it.auties.whatsapp.util.NameIndex;
+import it.auties.whatsapp.util.OrderedIndex;
 import it.auties.whatsapp.util.ProxyAuthenticator;
+import it.auties.whatsapp.util.ReplyRegistry;
 
 import java.net.URI;
 import java.time.Duration;
@@ -187,6 +191,54 @@ public final class Store extends Controller<Store> {
     private final ConcurrentHashMap<Jid, Newsletter> newsletters;
 
 
+    /**
+     * The non-null index of contacts by name
+     */
+    @JsonIgnore
+    private final NameIndex contactsNameIndex;
+
+    /**
+     * The non-null index of chats by name
+     */
+    @JsonIgnore
+    private final NameIndex chatsNameIndex;
+
+    /**
+     * The non-null index of newsletters by name
+     */
+    @JsonIgnore
+    private final NameIndex newslettersNameIndex;
+
+    /**
+     * The non-null index of chats sorted by last activity
+     */
+    @JsonIgnore
+    private final OrderedIndex<Chat> chatsByActivity;
+
+    /**
+     * The non-null index of pinned chats sorted by pin time
+     */
+    @JsonIgnore
+    private final OrderedIndex<Chat> pinnedChats;
+
+    /**
+     * The non-null index of unread chats sorted by last activity
+     */
+    @JsonIgnore
+    private final OrderedIndex<Chat> unreadChats;
+
+    /**
+     * The non-null index of archived chats sorted by last activity
+     */
+    @JsonIgnore
+    private final OrderedIndex<Chat> archivedChats;
+
+    /**
+     * The endpoint that the socket should connect to instead of Whatsapp's servers, used to run against a local server
+     */
+    @JsonIgnore
+    private URI socketEndpoint;
+
     /**
      * The non-null map of privacy settings
      */
@@ -215,10 +267,10 @@ public final class Store extends Controller<Store> {
     private final ConcurrentHashMap<String, SocketRequest> requests;
 
     /**
-     * The non-null list of replies waiting to be fulfilled
+     * The non-null registry of replies waiting to be fulfilled
      */
     @JsonIgnore
-    private final ConcurrentHashMap<String, CompletableFuture<ChatMessageInfo>> replyHandlers;
+    private final ReplyRegistry replyHandlers;
 
     /**
      * The non-null list of listeners
@@ -297,11 +349,16 @@ public final class Store extends Controller<Store> {
      */
     private boolean checkPatchMacs;
 
+    /**
+     * The limits used by usync queries
+     */
+    private UsyncSettings usyncSettings;
+
     /**
      * All args constructor
      */
     @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
-    public Store(UUID uuid, PhoneNumber phoneNumber, ControllerSerializer serializer, ClientType clientType, Collection<String> alias, URI proxy, FutureReference<Version> version, boolean online, String locale, String name, boolean business, String businessAddress, Double businessLongitude, Double businessLatitude, String businessDescription, String businessWebsite, String businessEmail, BusinessCategory businessCategory, String deviceHash, LinkedHashMap<Jid, Integer> linkedDevicesKeys, URI profilePicture, String about, Jid jid, Jid lid, ConcurrentHashMap<String, String> properties, ConcurrentHashMap<Jid, Contact> contacts, ConcurrentHashMap<Jid, ConcurrentHashMap<String, ChatMessageInfo>> status, ConcurrentHashMap<Jid, Newsletter> newsletters, ConcurrentHashMap<PrivacySettingType, PrivacySettingEntry> privacySettings, ConcurrentHashMap<String, Call> calls, boolean unarchiveChats, boolean twentyFourHourFormat, long initializationTimeStamp, ChatEphemeralTimer newChatsEphemeralTimer, TextPreviewSetting textPreviewSetting, WebHistoryLength historyLength, boolean autodetectListeners, boolean automaticPresenceUpdates, ReleaseChannel releaseChannel, CompanionDevice device, PlatformType companionDeviceOs, boolean checkPatchMacs) {
+    public Store(UUID uuid, PhoneNumber phoneNumber, ControllerSerializer serializer, ClientType clientType, Collection<String> alias, URI proxy, FutureReference<Version> version, boolean online, String locale, String name, boolean business, String businessAddress, Double businessLongitude, Double businessLatitude, String businessDescription, String businessWebsite, String businessEmail, BusinessCategory businessCategory, String deviceHash, LinkedHashMap<Jid, Integer> linkedDevicesKeys, URI profilePicture, String about, Jid jid, Jid lid, ConcurrentHashMap<String, String> properties, ConcurrentHashMap<Jid, Contact> contacts, ConcurrentHashMap<Jid, ConcurrentHashMap<String, ChatMessageInfo>> status, ConcurrentHashMap<Jid, Newsletter> newsletters, ConcurrentHashMap<PrivacySettingType, PrivacySettingEntry> privacySettings, ConcurrentHashMap<String, Call> calls, boolean unarchiveChats, boolean twentyFourHourFormat, long initializationTimeStamp, ChatEphemeralTimer newChatsEphemeralTimer, TextPreviewSetting textPreviewSetting, WebHistoryLength historyLength, boolean autodetectListeners, boolean automaticPresenceUpdates, ReleaseChannel releaseChannel, CompanionDevice device, PlatformType companionDeviceOs, boolean checkPatchMacs, UsyncSettings usyncSettings) {
         super(uuid, phoneNumber, serializer, clientType, alias);
         if (proxy != null) {
             ProxyAuthenticator.register(proxy);
@@ -336,7 +393,7 @@ public final class Store extends Controller<Store> {
         this.unarchiveChats = unarchiveChats;
         this.twentyFourHourFormat = twentyFourHourFormat;
         this.requests = new ConcurrentHashMap<>();
-        this.replyHandlers = new ConcurrentHashMap<>();
+        this.replyHandlers = new ReplyRegistry();
         this.listeners = ConcurrentHashMap.newKeySet();
         this.tag = HexFormat.of().formatHex(BytesHelper.random(1));
         this.initializationTimeStamp = initializationTimeStamp;
@@ -350,6 +407,16 @@ public final class Store extends Controller<Store> {
         this.device = device;
         this.companionDeviceOs = companionDeviceOs;
         this.checkPatchMacs = checkPatchMacs;
+        this.usyncSettings = Objects.requireNonNullElseGet(usyncSettings, UsyncSettings::defaults);
+        this.contactsNameIndex = new NameIndex();
+        this.chatsNameIndex = new NameIndex();
+        this.chatsByActivity = new OrderedIndex<>();
+        this.pinnedChats = new OrderedIndex<>();
+        this.unreadChats = new OrderedIndex<>();
+        this.archivedChats = new OrderedIndex<>();
+        this.newslettersNameIndex = new NameIndex();
+        contacts.values().forEach(this::refreshContactIndex);
+        newsletters.values().forEach(this::refreshNewsletterIndex);
     }
 
     /**
@@ -381,10 +448,70 @@ public final class Store extends Controller<Store> {
     }
 
     private Stream<Contact> findContactsStream(String name) {
-        return name == null ? Stream.empty() : contacts().parallelStream()
+        return name == null ? Stream.empty() : contactsNameIndex.find(name)
+                .stream()
+                .map(contacts::get)
+                .filter(Objects::nonNull)
                 .filter(contact -> contact.fullName().filter(name::equals).isPresent() || contact.chosenName().filter(name::equals).isPresent() || contact.shortName().filter(name::equals).isPresent());
     }
 
+    /**
+     * Queries every contact whose name starts with {@code prefix}, ignoring its case
+     *
+     * @param prefix the prefix to search
+     * @return a non-null immutable set
+     */
+    public Set<Contact> findContactsByNamePrefix(String prefix) {
+        return contactsNameIndex.findByPrefix(prefix)
+                .stream()
+                .map(contacts::get)
+                .filter(Objects::nonNull)
+                .filter(contact -> startsWith(contact.fullName(), prefix) || startsWith(contact.chosenName(), prefix) || startsWith(contact.shortName(), prefix))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
+    private boolean startsWith(Optional<String> name, String prefix) {
+        return name.filter(entry -> entry.regionMatches(true, 0, prefix, 0, prefix.length())).isPresent();
+    }
+
+    /**
+     * Queries the contact associated with a phone number
+     *
+     * @param phoneNumber the phone number to search, with or without its leading plus and separators
+     * @return a non-null optional
+     */
+    public Optional<Contact> findContactByPhoneNumber(String phoneNumber) {
+        return parsePhoneNumber(phoneNumber)
+                .flatMap(this::findContactByJid);
+    }
+
+    /**
+     * Queries the chat associated with a phone number
+     *
+     * @param phoneNumber the phone number to search, with or without its leading plus and separators
+     * @return a non-null optional
+     */
+    public Optional<Chat> findChatByPhoneNumber(String phoneNumber) {
+        return parsePhoneNumber(phoneNumber)
+                .flatMap(this::findChatByJid);
+    }
+
+    private Optional<Jid> parsePhoneNumber(String phoneNumber) {
+        if (phoneNumber == null) {
+            return Optional.empty();
+        }
+
+        var digits = new StringBuilder(phoneNumber.length());
+        for (var index = 0; index < phoneNumber.length(); index++) {
+            var entry = phoneNumber.charAt(index);
+            if (entry >= '0' && entry <= '9') {
+                digits.append(entry);
+            }
+        }
+
+        return digits.isEmpty() ? Optional.empty() : Optional.of(Jid.of(digits.toString(), JidServer.WHATSAPP));
+    }
+
     /**
      * Returns all the contacts
      *
@@ -539,17 +666,36 @@ public final class Store extends Controller<Store> {
 
 
     private Stream<Chat> findChatsByNameStream(String name) {
-        return name == null ? Stream.empty() : chats.values()
-                .parallelStream()
+        return name == null ? Stream.empty() : chatsNameIndex.find(name)
+                .stream()
+                .map(chats::get)
+                .filter(Objects::nonNull)
                 .filter(chat -> chat.name().equalsIgnoreCase(name));
     }
 
     private Stream<Newsletter> findNewslettersByNameStream(String name) {
-        return name == null ? Stream.empty() : newsletters.values()
-                .parallelStream()
+        return name == null ? Stream.empty() : newslettersNameIndex.find(name)
+                .stream()
+                .map(newsletters::get)
+                .filter(Objects::nonNull)
                 .filter(newsletter -> name.equalsIgnoreCase(newsletter.metadata().name().map(NewsletterName::text).orElse(null)));
     }
 
+    /**
+     * Queries every chat whose name starts with {@code prefix}, ignoring its case
+     *
+     * @param prefix the prefix to search
+     * @return a non-null immutable set
+     */
+    public Set<Chat> findChatsByNamePrefix(String prefix) {
+        return chatsNameIndex.findByPrefix(prefix)
+                .stream()
+                .map(chats::get)
+                .filter(Objects::nonNull)
+                .filter(chat -> chat.name().regionMatches(true, 0, prefix, 0, prefix.length()))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+
     /**
      * Queries the first chat that matches the provided function
      *
@@ -703,15 +849,7 @@ public final class Store extends Controller<Store> {
                 .contentWithContext()
                 .flatMap(ContextualMessage::contextInfo)
                 .flatMap(ContextInfo::quotedMessageId)
-                .map(id -> {
-                    var future = replyHandlers.remove(id);
-                    if (future == null) {
-                        return false;
-                    }
-
-                    future.complete(response);
-                    return true;
-                })
+                .map(id -> replyHandlers.resolve(id, response))
                 .orElse(false);
     }
 
@@ -740,6 +878,7 @@ public final class Store extends Controller<Store> {
             var contact = findContactByJid(chat.jid())
                     .orElseGet(() -> addContact(new Contact(chat.jid())));
             contact.setFullName(chat.name());
+            refreshContactIndex(contact);
         }
         var oldChat = chats.get(chat.jid());
         if (oldChat != null) {
@@ -772,7 +911,14 @@ public final class Store extends Controller<Store> {
      * @return the old chat, if present
      */
     public Optional<Chat> addChatDirect(Chat chat) {
-        return Optional.ofNullable(chats.put(chat.jid(), chat));
+        var oldChat = chats.put(chat.jid(), chat);
+        if (oldChat != null && oldChat != chat) {
+            oldChat.setOrderListener(null);
+        }
+
+        chat.setOrderListener(this::refreshChatOrder);
+        refreshChatIndex(chat);
+        return Optional.ofNullable(oldChat);
     }
 
     /**
@@ -793,6 +939,7 @@ public final class Store extends Controller<Store> {
      */
     public Contact addContact(Contact contact) {
         contacts.put(contact.jid(), contact);
+        refreshContactIndex(contact);
         return contact;
     }
 
@@ -803,7 +950,75 @@ public final class Store extends Controller<Store> {
      * @return the old newsletter, if present
      */
     public Optional<Newsletter> addNewsletter(Newsletter newsletter) {
-        return Optional.ofNullable(newsletters.put(newsletter.jid(), newsletter));
+        var oldNewsletter = newsletters.put(newsletter.jid(), newsletter);
+        refreshNewsletterIndex(newsletter);
+        return Optional.ofNullable(oldNewsletter);
+    }
+
+    /**
+     * Updates the name index of a contact.
+     * This method should be called every time the name of a contact is changed, otherwise name lookups might not find it.
+     *
+     * @param contact the non-null contact
+     */
+    public void refreshContactIndex(Contact contact) {
+        contactsNameIndex.update(contact.jid(), Arrays.asList(contact.fullName().orElse(null), contact.chosenName().orElse(null), contact.shortName().orElse(null)));
+    }
+
+    /**
+     * Updates the name index of a chat.
+     * This method should be called every time the name of a chat is changed, otherwise name lookups might not find it.
+     *
+     * @param chat the non-null chat
+     */
+    public void refreshChatIndex(Chat chat) {
+        chatsNameIndex.update(chat.jid(), List.of(chat.name()));
+        refreshChatOrder(chat);
+    }
+
+    /**
+     * Updates the position of a chat in the ordered indexes.
+     * Chats that belong to this store call this method by themselves when their activity, pin, unread or archive state changes, through {@link Chat#setOrderListener(java.util.function.Consumer)}.
+     *
+     * @param chat the non-null chat
+     */
+    public void refreshChatOrder(Chat chat) {
+        if (chats.get(chat.jid()) != chat) {
+            return;
+        }
+
+        chatsByActivity.update(chat.jid(), chat, chat.timestampSeconds());
+        if (chat.isPinned()) {
+            pinnedChats.update(chat.jid(), chat, chat.pinnedTimestampSeconds());
+        } else {
+            pinnedChats.remove(chat.jid());
+        }
+
+        if (chat.hasUnreadMessages() || chat.markedAsUnread()) {
+            unreadChats.update(chat.jid(), chat, chat.timestampSeconds());
+        } else {
+            unreadChats.remove(chat.jid());
+        }
+
+        if (chat.archived()) {
+            archivedChats.update(chat.jid(), chat, chat.timestampSeconds());
+        } else {
+            archivedChats.remove(chat.jid());
+        }
+    }
+
+    /**
+     * Updates the name index of a newsletter.
+     * This method should be called every time the name of a newsletter is changed, otherwise name lookups might not find it.
+     *
+     * @param newsletter the non-null newsletter
+     */
+    public void refreshNewsletterIndex(Newsletter newsletter) {
+        var name = newsletter.metadata()
+                .name()
+                .map(NewsletterName::text)
+                .orElse(null);
+        newslettersNameIndex.update(newsletter.jid(), Collections.singletonList(name));
     }
 
     /**
@@ -813,7 +1028,18 @@ public final class Store extends Controller<Store> {
      * @return the chat that was deleted wrapped by an optional
      */
     public Optional<Chat> removeChat(JidProvider chatJid) {
-        return Optional.ofNullable(chats.remove(chatJid.toJid()));
+        var jid = chatJid.toJid();
+        chatsNameIndex.remove(jid);
+        chatsByActivity.remove(jid);
+        pinnedChats.remove(jid);
+        unreadChats.remove(jid);
+        archivedChats.remove(jid);
+        var removed = chats.remove(jid);
+        if (removed != null) {
+            removed.setOrderListener(null);
+        }
+
+        return Optional.ofNullable(removed);
     }
 
     /**
@@ -823,6 +1049,7 @@ public final class Store extends Controller<Store> {
      * @return the newsletter that was deleted wrapped by an optional
      */
     public Optional<Newsletter> removeNewsletter(JidProvider newsletterJid) {
+        newslettersNameIndex.remove(newsletterJid.toJid());
         return Optional.ofNullable(newsletters.remove(newsletterJid.toJid()));
     }
 
@@ -833,6 +1060,7 @@ public final class Store extends Controller<Store> {
      * @return the contact that was deleted wrapped by an optional
      */
     public Optional<Contact> removeContact(JidProvider contactJid) {
+        contactsNameIndex.remove(contactJid.toJid());
         return Optional.ofNullable(contacts.remove(contactJid.toJid()));
     }
 
@@ -842,11 +1070,35 @@ public final class Store extends Controller<Store> {
      * @return a non-null list of chats
      */
     public List<Chat> pinnedChats() {
-        return chats.values()
-                .parallelStream()
-                .filter(Chat::isPinned)
-                .sorted(Comparator.comparingLong(Chat::pinnedTimestampSeconds).reversed())
-                .toList();
+        return pinnedChats.values();
+    }
+
+    /**
+     * Returns the chats that have unread messages, or that were marked as unread, sorted from newest to oldest
+     *
+     * @return a non-null list of chats
+     */
+    public List<Chat> unreadChats() {
+        return unreadChats.values();
+    }
+
+    /**
+     * Returns the newest chats that have unread messages, or that were marked as unread
+     *
+     * @param limit the maximum number of chats to return
+     * @return a non-null list of chats
+     */
+    public List<Chat> unreadChats(int limit) {
+        return unreadChats.top(limit);
+    }
+
+    /**
+     * Returns the archived chats sorted from newest to oldest
+     *
+     * @return a non-null list of chats
+     */
+    public List<Chat> archivedChats() {
+        return archivedChats.values();
     }
 
     /**
@@ -855,7 +1107,7 @@ public final class Store extends Controller<Store> {
      * @return a non-null list of messages
      */
     public List<ChatMessageInfo> starredMessages() {
-        return chats().parallelStream().map(Chat::starredMessages).flatMap(Collection::stream).toList();
+        return chats.values().stream().map(Chat::starredMessages).flatMap(Collection::stream).toList();
     }
 
     /**
@@ -864,10 +1116,17 @@ public final class Store extends Controller<Store> {
      * @return an immutable collection
      */
     public List<Chat> chats() {
-        return chats.values()
-                .stream()
-                .sorted(Comparator.comparingLong(Chat::timestampSeconds).reversed())
-                .toList();
+        return chatsByActivity.values();
+    }
+
+    /**
+     * Returns the newest chats
+     *
+     * @param limit the maximum number of chats to return
+     * @return a non-null list of chats sorted from newest to oldest
+     */
+    public List<Chat> chats(int limit) {
+        return chatsByActivity.top(limit);
     }
 
     /**
@@ -962,14 +1221,33 @@ public final class Store extends Controller<Store> {
 
     /**
      * Adds a replay handler to this store
+     * The handler fails if no reply is received in {@link ReplyRegistry#DEFAULT_TIMEOUT}
      *
      * @param messageId the non-null message id to listen for
-     * @return the non-null completable newsletters of the reply handler
+     * @return the non-null future of the reply handler
      */
     public CompletableFuture<ChatMessageInfo> addPendingReply(String messageId) {
-        var result = new CompletableFuture<ChatMessageInfo>();
-        replyHandlers.put(messageId, result);
-        return result;
+        return addPendingReply(messageId, ReplyRegistry.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Adds a replay handler to this store
+     *
+     * @param messageId the non-null message id to listen for
+     * @param timeout   the non-null time after which the handler fails with a {@link java.util.concurrent.TimeoutException}, even if another handler awaits the same reply for longer
+     * @return the non-null future of the reply handler
+     */
+    public CompletableFuture<ChatMessageInfo> addPendingReply(String messageId, Duration timeout) {
+        return replyHandlers.register(messageId, timeout);
+    }
+
+    /**
+     * Returns the metrics of the reply handlers of this store
+     *
+     * @return a non-null snapshot
+     */
+    public ReplyRegistry.Metrics pendingRepliesMetrics() {
+        return replyHandlers.metrics();
     }
 
     /**
@@ -1137,6 +1415,26 @@ public final class Store extends Controller<Store> {
         return Optional.ofNullable(proxy);
     }
 
+    /**
+     * Sets the endpoint that the socket should connect to instead of Whatsapp's servers
+     * This value is not serialized
+     *
+     * @return the same instance
+     */
+    public Store setSocketEndpoint(URI socketEndpoint) {
+        this.socketEndpoint = socketEndpoint;
+        return this;
+    }
+
+    /**
+     * Returns the endpoint that the socket should connect to instead of Whatsapp's servers
+     *
+     * @return a non-null optional
+     */
+    public Optional<URI> socketEndpoint() {
+        return Optional.ofNullable(socketEndpoint);
+    }
+
     /**
      * The os of the associated device
      * Available only for the web api
@@ -1334,6 +1632,10 @@ public final class Store extends Controller<Store> {
         return this.checkPatchMacs;
     }
 
+    public UsyncSettings usyncSettings() {
+        return this.usyncSettings;
+    }
+
     public Store setOnline(boolean online) {
         this.online = online;
         return this;
@@ -1475,6 +1777,11 @@ public final class Store extends Controller<Store> {
         return this;
     }
 
+    public Store setUsyncSettings(UsyncSettings usyncSettings) {
+        this.usyncSettings = usyncSettings;
+        return this;
+    }
+
     public Store setVersion(Version version) {
         this.version.setValue(version);
         return this;
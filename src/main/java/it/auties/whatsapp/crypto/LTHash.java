@@ -1,78 +1,53 @@
 package it.auties.whatsapp.crypto;
 
 import it.auties.whatsapp.model.companion.CompanionHashState;
+import it.auties.whatsapp.model.companion.CompanionIndexValueMap;
 import it.auties.whatsapp.model.sync.RecordSync;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.util.*;
+import java.util.Arrays;
 
 public class LTHash {
     private static final int EXPAND_SIZE = 128;
     public static final String SALT = "WhatsApp Patch Integrity";
-
-    private final byte[] salt;
+    private static final byte[] SALT_BYTES = SALT.getBytes(StandardCharsets.UTF_8);
 
     private final byte[] hash;
 
-    private final Map<String, byte[]> indexValueMap;
-
-    private final List<byte[]> add, subtract;
+    private final CompanionIndexValueMap indexValueMap;
 
     public LTHash(CompanionHashState hash) {
-        this.salt = SALT.getBytes(StandardCharsets.UTF_8);
-        this.hash = hash.hash();
-        this.indexValueMap = new HashMap<>(hash.indexValueMap());
-        this.add = new ArrayList<>();
-        this.subtract = new ArrayList<>();
+        this.hash = Arrays.copyOf(hash.hash(), hash.hash().length);
+        this.indexValueMap = hash.indexValueMap().copy();
     }
 
+    // Lanes are summed modulo 2^16, so values can be mixed into the state as soon as they are received
     public void mix(byte[] indexMac, byte[] valueMac, RecordSync.Operation operation) {
-        var indexMacBase64 = Base64.getEncoder().encodeToString(indexMac);
-        var prevOp = indexValueMap.get(indexMacBase64);
-        if (operation == RecordSync.Operation.REMOVE) {
-            if (prevOp == null) {
-                return;
-            }
-            indexValueMap.remove(indexMacBase64, prevOp);
-        } else {
-            add.add(valueMac);
-            indexValueMap.put(indexMacBase64, valueMac);
-        }
+        var prevOp = operation == RecordSync.Operation.REMOVE ? indexValueMap.remove(indexMac) : indexValueMap.put(indexMac, valueMac);
         if (prevOp != null) {
-            subtract.add(prevOp);
+            perform(prevOp, false);
         }
-    }
 
-    public Result finish() {
-        var subtracted = perform(hash, false);
-        var added = perform(subtracted, true);
-        return new Result(added, indexValueMap);
+        if (operation != RecordSync.Operation.REMOVE) {
+            perform(valueMac, true);
+        }
     }
 
-    private byte[] perform(byte[] input, boolean sum) {
-        for (var item : sum ? add : subtract) {
-            input = perform(input, item, sum);
-        }
-        return input;
+    public Result finish() {
+        return new Result(hash, indexValueMap);
     }
 
-    private byte[] perform(byte[] input, byte[] buffer, boolean sum) {
-        var expanded = Hkdf.extractAndExpand(buffer, salt, EXPAND_SIZE);
-        var eRead = ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN);
-        var tRead = ByteBuffer.wrap(expanded).order(ByteOrder.LITTLE_ENDIAN);
-        var write = ByteBuffer.allocate(input.length).order(ByteOrder.LITTLE_ENDIAN);
-        for (var index = 0; index < input.length; index += 2) {
-            var first = Short.toUnsignedInt(eRead.getShort(index));
-            var second = Short.toUnsignedInt(tRead.getShort(index));
-            write.putShort(index, (short) (sum ? first + second : first - second));
+    private void perform(byte[] buffer, boolean sum) {
+        var expanded = Hkdf.extractAndExpand(buffer, SALT_BYTES, EXPAND_SIZE);
+        for (var index = 0; index < hash.length; index += 2) {
+            var first = (hash[index] & 0xFF) | (hash[index + 1] & 0xFF) << 8;
+            var second = (expanded[index] & 0xFF) | (expanded[index + 1] & 0xFF) << 8;
+            var result = sum ? first + second : first - second;
+            hash[index] = (byte) result;
+            hash[index + 1] = (byte) (result >> 8);
         }
-        var result = new byte[input.length];
-        write.get(result);
-        return result;
     }
 
-    public record Result(byte[] hash, Map<String, byte[]> indexValueMap) {
+    public record Result(byte[] hash, CompanionIndexValueMap indexValueMap) {
     }
 }
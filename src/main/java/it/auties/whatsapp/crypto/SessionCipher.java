@@ -103,7 +103,10 @@ public record SessionCipher(SessionAddress address, Keys keys) {
         builder.createIncoming(session, message);
         var state = session.findState(message.version(), message.baseKey())
                 .orElseThrow(() -> new NoSuchElementException("Missing state"));
-        return decrypt(message.signalMessage(), state);
+        var plaintext = decrypt(message.signalMessage(), state);
+        // The one-time pre key is only consumed once the message it carried was verified and decrypted, like libsignal does
+        keys.removePreKey(message.preKeyId());
+        return plaintext;
     }
 
     private Optional<Session> createSession() {
@@ -307,6 +307,27 @@ public interface Listener {
     default void onHistorySyncProgress(Whatsapp whatsapp, int percentage, boolean recent) {
     }
 
+    /**
+     * Called while a chunk of the history is being read, with an estimate of the sync percentage based on the share of the chunk that was read.
+     * Whatsapp only sends the real percentage after every conversation of a chunk, which is reported by {@link #onHistorySyncProgress(int, boolean)}: estimates are always lower than it.
+     *
+     * @param percentage the estimated percentage synced up to now
+     * @param recent     whether the sync is about the recent messages or older messages
+     */
+    default void onHistorySyncEstimatedProgress(int percentage, boolean recent) {
+    }
+
+    /**
+     * Called while a chunk of the history is being read, with an estimate of the sync percentage based on the share of the chunk that was read.
+     * Whatsapp only sends the real percentage after every conversation of a chunk, which is reported by {@link #onHistorySyncProgress(Whatsapp, int, boolean)}: estimates are always lower than it.
+     *
+     * @param whatsapp   an instance to the calling api
+     * @param percentage the estimated percentage synced up to now
+     * @param recent     whether the sync is about the recent messages or older messages
+     */
+    default void onHistorySyncEstimatedProgress(Whatsapp whatsapp, int percentage, boolean recent) {
+    }
+
     /**
      * Called when a new message is received in a chat
      *
@@ -0,0 +1,12 @@
+package it.auties.whatsapp.listener;
+
+public interface OnHistorySyncEstimatedProgress extends Listener {
+    /**
+     * Called while a chunk of the history is being read, with an estimate of the sync percentage based on the share of the chunk that was read.
+     * Whatsapp only sends the real percentage after every conversation of a chunk, which is reported by {@link OnHistorySyncProgress}: estimates are always lower than it.
+     *
+     * @param percentage the estimated percentage synced up to now
+     * @param recent     whether the sync is about the recent messages or older messages
+     */
+    void onHistorySyncEstimatedProgress(int percentage, boolean recent);
+}
@@ -0,0 +1,16 @@
+package it.auties.whatsapp.listener;
+
+import it.auties.whatsapp.api.Whatsapp;
+
+public interface OnWhatsappHistorySyncEstimatedProgress extends Listener {
+    /**
+     * Called while a chunk of the history is being read, with an estimate of the sync percentage based on the share of the chunk that was read.
+     * Whatsapp only sends the real percentage after every conversation of a chunk, which is reported by {@link OnWhatsappHistorySyncProgress}: estimates are always lower than it.
+     *
+     * @param whatsapp   an instance to the calling api
+     * @param percentage the estimated percentage synced up to now
+     * @param recent     whether the sync is about the recent messages or older messages
+     */
+    @Override
+    void onHistorySyncEstimatedProgress(Whatsapp whatsapp, int percentage, boolean recent);
+}
@@ -1,6 +1,7 @@
 package it.auties.whatsapp.model.chat;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import it.auties.protobuf.annotation.ProtobufEnumIndex;
 import it.auties.protobuf.annotation.ProtobufMessageName;
 import it.auties.protobuf.annotation.ProtobufProperty;
@@ -23,6 +24,7 @@ import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -153,6 +155,9 @@ public final class Chat implements ProtobufMessage, JidProvider {
 
     private final Set<GroupPastParticipant> pastParticipants;
 
+    @JsonIgnore
+    private volatile Consumer<Chat> orderListener;
+
     @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
     public Chat(Jid jid, Messages<HistorySyncMessage> historySyncMessages, Jid newJid, Jid oldJid, int unreadMessagesCount, boolean readOnly, boolean endOfHistoryTransfer, ChatEphemeralTimer ephemeralMessageDuration, long ephemeralMessagesToggleTimeSeconds, EndOfHistoryTransferType endOfHistoryTransferType, long timestampSeconds, String name, boolean notSpam, boolean archived, ChatDisappear disappearInitiator, boolean markedAsUnread, List<GroupParticipant> participants, byte[] token, long tokenTimestampSeconds, byte[] identityKey, int pinnedTimestampSeconds, ChatMute mute, ChatWallpaper wallpaper, MediaVisibility mediaVisibility, long tokenSenderTimestampSeconds, boolean suspended, boolean terminated, long foundationTimestampSeconds, Jid founder, String description, boolean support, boolean parentGroup, boolean defaultSubGroup, Jid parentGroupJid, String displayName, Jid phoneJid, boolean shareOwnPhoneNumber, boolean pnhDuplicateLidThread, Jid lidJid, ConcurrentHashMap<Jid, ContactStatus> presences, Set<Jid> participantsPreKeys, Set<GroupPastParticipant> pastParticipants) {
         this.jid = jid;
@@ -494,6 +499,7 @@ public final class Chat implements ProtobufMessage, JidProvider {
     public void addMessages(Collection<HistorySyncMessage> newMessages) {
         historySyncMessages.addAll(newMessages);
         this.update = true;
+        advanceChatTimestamp();
     }
 
     /**
@@ -504,6 +510,7 @@ public final class Chat implements ProtobufMessage, JidProvider {
     public void addOldMessages(Collection<HistorySyncMessage> oldMessages) {
         oldMessages.forEach(historySyncMessages::addFirst);
         this.update = true;
+        advanceChatTimestamp();
     }
 
     /**
@@ -532,6 +539,7 @@ public final class Chat implements ProtobufMessage, JidProvider {
     public boolean addOldMessage(HistorySyncMessage info) {
         historySyncMessages.addFirst(info);
         this.update = true;
+        advanceChatTimestamp();
         return true;
     }
 
@@ -588,6 +596,36 @@ public final class Chat implements ProtobufMessage, JidProvider {
 
         this.timestampSeconds = newTimestamp;
         this.update = true;
+        onOrderChanged();
+    }
+
+    // Messages that are merged in bulk, like the ones of a history sync, can only make the chat more recent
+    private void advanceChatTimestamp() {
+        var newTimestamp = newestMessage()
+                .map(value -> value.timestampSeconds().orElse(0L))
+                .orElse(0L);
+        if (newTimestamp > timestampSeconds) {
+            this.timestampSeconds = newTimestamp;
+        }
+
+        onOrderChanged();
+    }
+
+    /**
+     * Sets the listener that is notified when this chat might have moved in the ordered views of its store, because its activity, pin, unread or archive state changed
+     * The store that owns a chat sets it when the chat is added
+     *
+     * @param orderListener the nullable listener
+     */
+    public void setOrderListener(Consumer<Chat> orderListener) {
+        this.orderListener = orderListener;
+    }
+
+    private void onOrderChanged() {
+        var listener = orderListener;
+        if (listener != null) {
+            listener.accept(this);
+        }
     }
 
     /**
@@ -948,6 +986,7 @@ public final class Chat implements ProtobufMessage, JidProvider {
     public Chat setUnreadMessagesCount(int unreadMessagesCount) {
         this.unreadMessagesCount = unreadMessagesCount;
         this.update = true;
+        onOrderChanged();
         return this;
     }
 
@@ -984,6 +1023,7 @@ public final class Chat implements ProtobufMessage, JidProvider {
     public Chat setTimestampSeconds(long timestampSeconds) {
         this.timestampSeconds = timestampSeconds;
         this.update = true;
+        onOrderChanged();
         return this;
     }
 
@@ -1002,6 +1042,7 @@ public final class Chat implements ProtobufMessage, JidProvider {
     public Chat setArchived(boolean archived) {
         this.archived = archived;
         this.update = true;
+        onOrderChanged();
         return this;
     }
 
@@ -1014,6 +1055,7 @@ public final class Chat implements ProtobufMessage, JidProvider {
     public Chat setMarkedAsUnread(boolean markedAsUnread) {
         this.markedAsUnread = markedAsUnread;
         this.update = true;
+        onOrderChanged();
         return this;
     }
 
@@ -1038,6 +1080,7 @@ public final class Chat implements ProtobufMessage, JidProvider {
     public Chat setPinnedTimestampSeconds(int pinnedTimestampSeconds) {
         this.pinnedTimestampSeconds = pinnedTimestampSeconds;
         this.update = true;
+        onOrderChanged();
         return this;
     }
 
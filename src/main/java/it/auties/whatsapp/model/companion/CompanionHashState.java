@@ -6,8 +6,6 @@ import it.auties.whatsapp.model.node.Node;
 import it.auties.whatsapp.model.sync.PatchType;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
 
 import static it.auties.whatsapp.model.node.Node.of;
@@ -19,7 +17,7 @@ public final class CompanionHashState {
 
     private byte[] hash;
 
-    private Map<String, byte[]> indexValueMap;
+    private CompanionIndexValueMap indexValueMap;
 
     public CompanionHashState(PatchType name) {
         this(name, 0);
@@ -29,15 +27,15 @@ public final class CompanionHashState {
         this.name = name;
         this.version = version;
         this.hash = new byte[128];
-        this.indexValueMap = new HashMap<>();
+        this.indexValueMap = new CompanionIndexValueMap();
     }
 
     @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
-    public CompanionHashState(PatchType name, long version, byte[] hash, Map<String, byte[]> indexValueMap) {
+    public CompanionHashState(PatchType name, long version, byte[] hash, CompanionIndexValueMap indexValueMap) {
         this.name = name;
         this.version = version;
         this.hash = hash;
-        this.indexValueMap = indexValueMap;
+        this.indexValueMap = Objects.requireNonNullElseGet(indexValueMap, CompanionIndexValueMap::new);
     }
 
     public Node toNode() {
@@ -50,21 +48,7 @@ public final class CompanionHashState {
     }
 
     public CompanionHashState copy() {
-        return new CompanionHashState(name, version, Arrays.copyOf(hash, hash.length), new HashMap<>(indexValueMap));
-    }
-
-    private boolean checkIndexEquality(CompanionHashState that) {
-        if (indexValueMap.size() != that.indexValueMap().size()) {
-            return false;
-        }
-        return indexValueMap().entrySet()
-                .stream()
-                .allMatch(entry -> checkIndexEntryEquality(that, entry.getKey(), entry.getValue()));
-    }
-
-    private static boolean checkIndexEntryEquality(CompanionHashState that, String thisKey, byte[] thisValue) {
-        var thatValue = that.indexValueMap().get(thisKey);
-        return thatValue != null && Arrays.equals(thatValue, thisValue);
+        return new CompanionHashState(name, version, Arrays.copyOf(hash, hash.length), indexValueMap.copy());
     }
 
     public PatchType name() {
@@ -79,7 +63,7 @@ public final class CompanionHashState {
         return this.hash;
     }
 
-    public Map<String, byte[]> indexValueMap() {
+    public CompanionIndexValueMap indexValueMap() {
         return this.indexValueMap;
     }
 
@@ -98,7 +82,7 @@ public final class CompanionHashState {
         return this;
     }
 
-    public CompanionHashState indexValueMap(Map<String, byte[]> indexValueMap) {
+    public CompanionHashState indexValueMap(CompanionIndexValueMap indexValueMap) {
         this.indexValueMap = indexValueMap;
         return this;
     }
@@ -109,7 +93,7 @@ public final class CompanionHashState {
         return o instanceof CompanionHashState that
                 && this.version == that.version()
                 && this.name == that.name()
-                && Arrays.equals(this.hash, that.hash()) && checkIndexEquality(that);
+                && Arrays.equals(this.hash, that.hash()) && Objects.equals(this.indexValueMap, that.indexValueMap());
     }
 
     @Override
@@ -0,0 +1,364 @@
+package it.auties.whatsapp.model.companion;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import it.auties.whatsapp.util.Validate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * A map from index macs to value macs used to compute the LT hash of an app state collection.
+ * Both keys and values are raw 32 bytes macs: entries are packed in a single array and indexed by an open addressing table,
+ * so that no per-entry objects are allocated and the whole map can be serialized as a single binary value.
+ */
+public final class CompanionIndexValueMap {
+    public static final int KEY_LENGTH = 32;
+    public static final int VALUE_LENGTH = 32;
+    private static final int ENTRY_LENGTH = KEY_LENGTH + VALUE_LENGTH;
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private byte[] entries;
+    private int[] table;
+    private int size;
+
+    public CompanionIndexValueMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    private CompanionIndexValueMap(int expectedSize) {
+        this.entries = new byte[Math.max(expectedSize, 1) * ENTRY_LENGTH];
+        this.table = new int[tableCapacity(expectedSize)];
+    }
+
+    /**
+     * Deserializes a map from either its packed representation or from the legacy one, where keys are base64 encoded
+     *
+     * @param node the non-null json node
+     * @return a non-null map
+     */
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static CompanionIndexValueMap of(JsonNode node) {
+        try {
+            if (node == null || node.isNull()) {
+                return new CompanionIndexValueMap();
+            }
+
+            if (!node.isObject()) {
+                return of(node.binaryValue());
+            }
+
+            var result = new CompanionIndexValueMap(node.size());
+            var fields = node.fields();
+            while (fields.hasNext()) {
+                var entry = fields.next();
+                result.put(Base64.getDecoder().decode(entry.getKey()), entry.getValue().binaryValue());
+            }
+
+            return result;
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot deserialize index value map", exception);
+        }
+    }
+
+    /**
+     * Deserializes a map from its packed representation
+     *
+     * @param packed the packed entries, can be null
+     * @return a non-null map
+     */
+    public static CompanionIndexValueMap of(byte[] packed) {
+        if (packed == null) {
+            return new CompanionIndexValueMap();
+        }
+
+        Validate.isTrue(packed.length % ENTRY_LENGTH == 0, "Invalid index value map length: %s", packed.length);
+        var result = new CompanionIndexValueMap(packed.length / ENTRY_LENGTH);
+        for (var offset = 0; offset < packed.length; offset += ENTRY_LENGTH) {
+            result.put(Arrays.copyOfRange(packed, offset, offset + KEY_LENGTH), Arrays.copyOfRange(packed, offset + KEY_LENGTH, offset + ENTRY_LENGTH));
+        }
+
+        return result;
+    }
+
+    /**
+     * Deserializes a map from its legacy representation, where keys are base64 encoded
+     *
+     * @param map the non-null legacy map
+     * @return a non-null map
+     */
+    public static CompanionIndexValueMap of(Map<String, byte[]> map) {
+        var result = new CompanionIndexValueMap(map.size());
+        map.forEach((key, value) -> result.put(Base64.getDecoder().decode(key), value));
+        return result;
+    }
+
+    /**
+     * Returns the value associated with an index mac
+     *
+     * @param key the non-null index mac
+     * @return a copy of the value mac, or null if no value is associated with the key
+     */
+    public byte[] get(byte[] key) {
+        checkKey(key);
+        var slot = findSlot(key);
+        return slot < 0 ? null : value(table[slot] - 1);
+    }
+
+    /**
+     * Returns whether an index mac is in this map
+     *
+     * @param key the non-null index mac
+     * @return a boolean
+     */
+    public boolean containsKey(byte[] key) {
+        checkKey(key);
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * Associates a value mac with an index mac
+     *
+     * @param key   the non-null index mac
+     * @param value the non-null value mac
+     * @return a copy of the previous value mac, or null if no value was associated with the key
+     */
+    public byte[] put(byte[] key, byte[] value) {
+        checkKey(key);
+        Validate.isTrue(value != null && value.length == VALUE_LENGTH, "Invalid value mac length");
+        var slot = findSlot(key);
+        if (slot >= 0) {
+            var entry = table[slot] - 1;
+            var previous = value(entry);
+            System.arraycopy(value, 0, entries, entry * ENTRY_LENGTH + KEY_LENGTH, VALUE_LENGTH);
+            return previous;
+        }
+
+        if ((size + 1) * 4L > table.length * 3L) {
+            resize(table.length * 2);
+            slot = findSlot(key);
+        }
+
+        ensureEntriesCapacity(size + 1);
+        var offset = size * ENTRY_LENGTH;
+        System.arraycopy(key, 0, entries, offset, KEY_LENGTH);
+        System.arraycopy(value, 0, entries, offset + KEY_LENGTH, VALUE_LENGTH);
+        table[-(slot + 1)] = ++size;
+        return null;
+    }
+
+    /**
+     * Removes an index mac from this map
+     *
+     * @param key the non-null index mac
+     * @return a copy of the removed value mac, or null if no value was associated with the key
+     */
+    public byte[] remove(byte[] key) {
+        checkKey(key);
+        var slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+
+        var entry = table[slot] - 1;
+        var previous = value(entry);
+        deleteSlot(slot);
+        var last = size - 1;
+        if (entry != last) {
+            var lastSlot = findSlot(entries, last * ENTRY_LENGTH);
+            table[lastSlot] = entry + 1;
+            System.arraycopy(entries, last * ENTRY_LENGTH, entries, entry * ENTRY_LENGTH, ENTRY_LENGTH);
+        }
+
+        Arrays.fill(entries, last * ENTRY_LENGTH, size * ENTRY_LENGTH, (byte) 0);
+        size--;
+        return previous;
+    }
+
+    /**
+     * Iterates over the entries of this map
+     *
+     * @param consumer the non-null consumer, receives copies of each index and value mac
+     */
+    public void forEach(BiConsumer<byte[], byte[]> consumer) {
+        for (var entry = 0; entry < size; entry++) {
+            var offset = entry * ENTRY_LENGTH;
+            consumer.accept(Arrays.copyOfRange(entries, offset, offset + KEY_LENGTH), value(entry));
+        }
+    }
+
+    /**
+     * Returns the number of entries in this map
+     *
+     * @return an unsigned int
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns whether this map is empty
+     *
+     * @return a boolean
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns a deep copy of this map
+     *
+     * @return a non-null map
+     */
+    public CompanionIndexValueMap copy() {
+        var result = new CompanionIndexValueMap(0);
+        result.entries = Arrays.copyOf(entries, entries.length);
+        result.table = Arrays.copyOf(table, table.length);
+        result.size = size;
+        return result;
+    }
+
+    /**
+     * Returns the packed representation of this map: every entry is serialized as its index mac followed by its value mac
+     *
+     * @return a non-null array
+     */
+    @JsonValue
+    public byte[] toByteArray() {
+        return Arrays.copyOf(entries, size * ENTRY_LENGTH);
+    }
+
+    private void checkKey(byte[] key) {
+        Validate.isTrue(key != null && key.length == KEY_LENGTH, "Invalid index mac length");
+    }
+
+    private byte[] value(int entry) {
+        var offset = entry * ENTRY_LENGTH + KEY_LENGTH;
+        return Arrays.copyOfRange(entries, offset, offset + VALUE_LENGTH);
+    }
+
+    private int findSlot(byte[] key) {
+        var mask = table.length - 1;
+        var slot = hash(key, 0) & mask;
+        while (true) {
+            var reference = table[slot];
+            if (reference == 0) {
+                return -(slot + 1);
+            }
+
+            var offset = (reference - 1) * ENTRY_LENGTH;
+            if (Arrays.equals(entries, offset, offset + KEY_LENGTH, key, 0, KEY_LENGTH)) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int findSlot(byte[] source, int keyOffset) {
+        var mask = table.length - 1;
+        var slot = hash(source, keyOffset) & mask;
+        while (true) {
+            var reference = table[slot];
+            Validate.isTrue(reference != 0, "Corrupted index value map");
+            var offset = (reference - 1) * ENTRY_LENGTH;
+            if (Arrays.equals(entries, offset, offset + KEY_LENGTH, source, keyOffset, keyOffset + KEY_LENGTH)) {
+                return slot;
+            }
+
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // Backward shift deletion: entries that were displaced by the deleted one are moved closer to their ideal slot
+    private void deleteSlot(int slot) {
+        var mask = table.length - 1;
+        var hole = slot;
+        var next = (hole + 1) & mask;
+        table[hole] = 0;
+        while (table[next] != 0) {
+            var ideal = hash(entries, (table[next] - 1) * ENTRY_LENGTH) & mask;
+            if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+                table[hole] = table[next];
+                table[next] = 0;
+                hole = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        this.table = new int[capacity];
+        var mask = capacity - 1;
+        for (var entry = 0; entry < size; entry++) {
+            var slot = hash(entries, entry * ENTRY_LENGTH) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+
+            table[slot] = entry + 1;
+        }
+    }
+
+    private void ensureEntriesCapacity(int entriesCount) {
+        var required = entriesCount * ENTRY_LENGTH;
+        if (required <= entries.length) {
+            return;
+        }
+
+        this.entries = Arrays.copyOf(entries, Math.max(required, entries.length * 2));
+    }
+
+    private static int tableCapacity(int expectedSize) {
+        var required = Math.max(DEFAULT_CAPACITY, (int) Math.min(1L << 30, expectedSize * 4L / 3 + 1));
+        return Integer.highestOneBit(required - 1) << 1;
+    }
+
+    // Macs are uniformly distributed, so their first bytes are already a good hash
+    private static int hash(byte[] source, int offset) {
+        var result = (source[offset] & 0xFF)
+                | (source[offset + 1] & 0xFF) << 8
+                | (source[offset + 2] & 0xFF) << 16
+                | (source[offset + 3] & 0xFF) << 24;
+        return result ^ (result >>> 16);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof CompanionIndexValueMap that) || this.size != that.size) {
+            return false;
+        }
+
+        for (var entry = 0; entry < size; entry++) {
+            var offset = entry * ENTRY_LENGTH;
+            var slot = that.findSlot(Arrays.copyOfRange(entries, offset, offset + KEY_LENGTH));
+            if (slot < 0) {
+                return false;
+            }
+
+            var thatOffset = (that.table[slot] - 1) * ENTRY_LENGTH + KEY_LENGTH;
+            if (!Arrays.equals(entries, offset + KEY_LENGTH, offset + ENTRY_LENGTH, that.entries, thatOffset, thatOffset + VALUE_LENGTH)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        var result = 0;
+        for (var entry = 0; entry < size; entry++) {
+            var offset = entry * ENTRY_LENGTH;
+            result += hash(entries, offset) ^ hash(entries, offset + KEY_LENGTH);
+        }
+
+        return result;
+    }
+}
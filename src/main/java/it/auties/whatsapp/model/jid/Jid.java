@@ -4,14 +4,28 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonValue;
 import it.auties.protobuf.annotation.ProtobufConverter;
 import it.auties.whatsapp.model.signal.session.SessionAddress;
+import it.auties.whatsapp.util.GenerationalCache;
 
 import java.util.Objects;
 
 /**
  * A model class that represents a jid. This class is only a model, this means that changing its
  * values will have no real effect on WhatsappWeb's servers.
+ * Jids created through the static factories are interned, so that the same instance, along with its cached hash and string form, is reused for hot users and devices.
+ * The intern table is bounded and jids that aren't used for a while fall out of it, so jids must still be compared with {@link #equals(Object)}.
  */
-public record Jid(String user, JidServer server, int device, int agent) implements JidProvider {
+public final class Jid implements JidProvider {
+    private static final int INTERN_TABLE_SIZE = 65536;
+    private static final GenerationalCache<Jid, Jid> INTERN_TABLE = new GenerationalCache<>(INTERN_TABLE_SIZE);
+    private static final GenerationalCache<String, Jid> PARSE_CACHE = new GenerationalCache<>(INTERN_TABLE_SIZE);
+
+    private final String user;
+    private final JidServer server;
+    private final int device;
+    private final int agent;
+    private int hash;
+    private String string;
+
     /**
      * Default constructor
      */
@@ -22,6 +36,18 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
         this.agent = agent;
     }
 
+    /**
+     * Returns the instance in the intern table that is equal to a jid, or adds the jid to the table if there is none
+     * The table is bounded: a jid that falls out of it can be interned again as a different instance
+     *
+     * @param jid the non-null jid
+     * @return a non-null jid equal to the input
+     */
+    public static Jid intern(Jid jid) {
+        var cached = INTERN_TABLE.putIfAbsent(jid, jid);
+        return cached != null ? cached : jid;
+    }
+
     /**
      * Constructs a new ContactId that represents a server
      *
@@ -45,27 +71,36 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
      * @return a non-null contact jid
      */
     public static Jid of(String jid, JidServer server) {
-        var complexUser = withoutServer(jid);
-        if (complexUser == null) {
-            return new Jid(null, server, 0, 0);
+        if (jid == null || JidServer.ofSuffix(jid, 0) != null) {
+            return intern(new Jid(null, server, 0, 0));
         }
-        if (complexUser.contains(":")) {
-            var simpleUser = complexUser.split(":", 2);
-            var user = simpleUser[0];
-            var device = Integer.parseUnsignedInt(simpleUser[1]);
-            if (user.contains("_")) {
-                var simpleUserAgent = user.split("_", 2);
-                var agent = tryParseAgent(simpleUserAgent[1]);
-                return new Jid(simpleUserAgent[0], server, device, agent);
+
+        // Single pass over user_agent:device@server
+        var end = serverSeparatorIndex(jid);
+        var colon = -1;
+        var underscore = -1;
+        for (var index = 0; index < end; index++) {
+            var entry = jid.charAt(index);
+            if (entry == ':') {
+                colon = index;
+                break;
+            }
+
+            if (entry == '_' && underscore == -1) {
+                underscore = index;
             }
-            return new Jid(user, server, device, 0);
-        }
-        if (!complexUser.contains("_")) {
-            return new Jid(complexUser, server, 0, 0);
         }
-        var simpleUserAgent = complexUser.split("_", 2);
-        var agent = tryParseAgent(simpleUserAgent[1]);
-        return new Jid(simpleUserAgent[0], server, 0, agent);
+
+        var userEnd = underscore != -1 ? underscore : colon != -1 ? colon : end;
+        var user = userEnd == jid.length() ? jid : jid.substring(0, userEnd);
+        var agent = underscore != -1 ? tryParseAgent(jid, underscore + 1, colon != -1 ? colon : end) : 0;
+        var device = colon != -1 ? Integer.parseUnsignedInt(jid, colon + 1, end, 10) : 0;
+        return intern(new Jid(user, server, device, agent));
+    }
+
+    private static int serverSeparatorIndex(String jid) {
+        var separator = jid.lastIndexOf('@');
+        return separator != -1 && JidServer.ofSuffix(jid, separator + 1) != null ? separator : jid.length();
     }
 
     /**
@@ -78,15 +113,14 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
         if (jid == null) {
             return null;
         }
-        for (var server : JidServer.values()) {
-            jid = jid.replace("@%s".formatted(server), "");
-        }
-        return jid;
+
+        var end = serverSeparatorIndex(jid);
+        return end == jid.length() ? jid : jid.substring(0, end);
     }
 
-    private static int tryParseAgent(String string) {
+    private static int tryParseAgent(String string, int start, int end) {
         try {
-            return Integer.parseUnsignedInt(string);
+            return Integer.parseUnsignedInt(string, start, end, 10);
         } catch (NumberFormatException exception) {
             return 0;
         }
@@ -101,7 +135,7 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
      * @return a non-null contact jid
      */
     public static Jid ofDevice(String jid, int device, int agent) {
-        return new Jid(withoutServer(jid), JidServer.WHATSAPP, device, agent);
+        return intern(new Jid(withoutServer(jid), JidServer.WHATSAPP, device, agent));
     }
 
     /**
@@ -112,7 +146,7 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
      * @return a non-null contact jid
      */
     public static Jid ofDevice(String jid, int device) {
-        return new Jid(withoutServer(jid), JidServer.WHATSAPP, device, 0);
+        return intern(new Jid(withoutServer(jid), JidServer.WHATSAPP, device, 0));
     }
 
     @ProtobufConverter
@@ -128,7 +162,18 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
      */
     @JsonCreator
     public static Jid of(String jid) {
-        return of(jid, JidServer.of(jid));
+        if (jid == null) {
+            return of(null, JidServer.WHATSAPP);
+        }
+
+        var cached = PARSE_CACHE.get(jid);
+        if (cached != null) {
+            return cached;
+        }
+
+        var result = of(jid, JidServer.of(jid));
+        var existing = PARSE_CACHE.putIfAbsent(jid, result);
+        return existing != null ? existing : result;
     }
 
     /**
@@ -200,7 +245,7 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
      * @return a non-null jid
      */
     public Jid withServer(JidServer server) {
-        return new Jid(user(), server, device, agent);
+        return intern(new Jid(user(), server, device, agent));
     }
 
     /**
@@ -209,7 +254,7 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
      * @return a non-null jid
      */
     public Jid withoutDevice() {
-        return of(user(), server());
+        return device == 0 && agent == 0 ? this : intern(new Jid(user(), server(), 0, 0));
     }
 
     /**
@@ -229,11 +274,35 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
     @JsonValue
     @Override
     public String toString() {
-        var user = Objects.requireNonNullElse(user(), "");
-        var agent = agent() != 0 ? "_%s".formatted(agent()) : "";
-        var device = device() != 0 ? ":%s".formatted(device()) : "";
-        var leading = "%s%s%s".formatted(user, agent, device);
-        return leading.isEmpty() ? server().toString() : "%s@%s".formatted(leading, server());
+        var result = string;
+        if (result == null) {
+            this.string = result = render();
+        }
+
+        return result;
+    }
+
+    private String render() {
+        var builder = new StringBuilder();
+        if (user != null) {
+            builder.append(user);
+        }
+
+        if (agent != 0) {
+            builder.append('_').append(agent);
+        }
+
+        if (device != 0) {
+            builder.append(':').append(device);
+        }
+
+        if (builder.isEmpty()) {
+            return server.toString();
+        }
+
+        return builder.append('@')
+                .append(server)
+                .toString();
     }
 
     /**
@@ -273,8 +342,42 @@ public record Jid(String user, JidServer server, int device, int agent) implemen
         return agent != 0;
     }
 
+    public String user() {
+        return user;
+    }
+
+    public JidServer server() {
+        return server;
+    }
+
+    public int device() {
+        return device;
+    }
+
+    public int agent() {
+        return agent;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Jid that
+                && device == that.device
+                && agent == that.agent
+                && server == that.server
+                && Objects.equals(user, that.user);
+    }
+
     @Override
     public int hashCode() {
-        return Objects.hashCode(toString());
+        var result = hash;
+        if (result == 0) {
+            result = Objects.hashCode(user);
+            result = 31 * result + (server == null ? 0 : server.ordinal());
+            result = 31 * result + device;
+            result = 31 * result + agent;
+            this.hash = result;
+        }
+
+        return result;
     }
 }
\ No newline at end of file
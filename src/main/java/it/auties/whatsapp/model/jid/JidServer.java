@@ -3,8 +3,6 @@ package it.auties.whatsapp.model.jid;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonValue;
 
-import java.util.Arrays;
-
 /**
  * The constants of this enumerated type describe the various servers that a jid might be linked
  * to
@@ -39,6 +37,8 @@ public enum JidServer {
      */
     NEWSLETTER("newsletter");
 
+    private static final JidServer[] VALUES = values();
+
     private final String address;
 
     JidServer(String address) {
@@ -47,10 +47,29 @@ public enum JidServer {
 
     @JsonCreator
     public static JidServer of(String address) {
-        return Arrays.stream(values())
-                .filter(entry -> address != null && address.endsWith(entry.address()))
-                .findFirst()
-                .orElse(WHATSAPP);
+        if (address == null) {
+            return WHATSAPP;
+        }
+
+        for (var entry : VALUES) {
+            if (address.endsWith(entry.address)) {
+                return entry;
+            }
+        }
+
+        return WHATSAPP;
+    }
+
+    // Returns the server whose address is exactly the part of value that starts at offset, without allocating a substring
+    static JidServer ofSuffix(String value, int offset) {
+        var length = value.length() - offset;
+        for (var entry : VALUES) {
+            if (entry.address.length() == length && value.startsWith(entry.address, offset)) {
+                return entry;
+            }
+        }
+
+        return null;
     }
 
     public String address() {
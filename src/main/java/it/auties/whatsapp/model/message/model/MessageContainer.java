@@ -448,9 +448,7 @@ public record MessageContainer(
      * @return a non-null Optional ContextualMessage
      */
     public Optional<ContextualMessage> contentWithContext() {
-        return Optional.of(content())
-                .filter(entry -> entry instanceof ContextualMessage)
-                .map(entry -> (ContextualMessage) entry);
+        return content() instanceof ContextualMessage contextualMessage ? Optional.of(contextualMessage) : Optional.empty();
     }
 
     /**
@@ -518,7 +516,7 @@ public record MessageContainer(
      * @return a non-null message container
      */
     public MessageContainer toEphemeral() {
-        if (type() == MessageType.EPHEMERAL) {
+        if (ephemeralMessage.isPresent()) {
             return this;
         }
 
@@ -534,7 +532,7 @@ public record MessageContainer(
      * @return a non-null message container
      */
     public MessageContainer toViewOnce() {
-        if (type() == MessageType.VIEW_ONCE) {
+        if (ephemeralMessage.isEmpty() && (viewOnceMessage.isPresent() || viewOnceV2Message.isPresent() || viewOnceV2ExtensionMessage.isPresent())) {
             return this;
         }
 
@@ -10,15 +10,34 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BooleanSupplier;
 import java.util.function.Function;
 
-import static java.util.Map.ofEntries;
 import static java.util.Objects.requireNonNull;
 
 /**
- * A utility class that wraps a map and provides easy methods to interact with its content
- *
- * @param toMap the non-null wrapped map
+ * A utility class that wraps a small map and provides easy methods to interact with its content.
+ * Nodes usually carry only a handful of attributes, so keys and values are stored inline in a single array, in insertion order, instead of in a hash table.
+ * Writes replace the array, so reads never need to lock.
  */
-public record Attributes(@JsonValue ConcurrentHashMap<String, Object> toMap) {
+public final class Attributes {
+    private static final Object[] EMPTY = new Object[0];
+
+    private volatile Object[] entries;
+
+    private Attributes(Object[] entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Constructs a new instance from the entries of a map
+     * Attributes used to wrap a {@link ConcurrentHashMap}: they are now copied, so later changes to the map are not reflected by the returned instance
+     *
+     * @param map the non-null map
+     * @deprecated use {@link #of(Map)} instead
+     */
+    @Deprecated
+    public Attributes(ConcurrentHashMap<String, Object> map) {
+        this(ofNullable(map).entries);
+    }
+
     /**
      * Constructs a new map using the non-null provided entries
      *
@@ -28,7 +47,13 @@ public record Attributes(@JsonValue ConcurrentHashMap<String, Object> toMap) {
     @SafeVarargs
     @JsonCreator
     public static Attributes of(Entry<String, Object>... entries) {
-        return ofNullable(ofEntries(entries));
+        var result = new Object[entries.length * 2];
+        var length = 0;
+        for (var entry : entries) {
+            length = putEntry(result, length, entry.getKey(), entry.getValue());
+        }
+
+        return new Attributes(length == result.length ? result : Arrays.copyOf(result, length));
     }
 
     /**
@@ -38,10 +63,96 @@ public record Attributes(@JsonValue ConcurrentHashMap<String, Object> toMap) {
      * @return a new instance of Attributes
      */
     public static Attributes ofNullable(Map<String, ?> map) {
-        var modifiableMap = Optional.ofNullable(map)
-                .map(ConcurrentHashMap<String, Object>::new)
-                .orElseGet(ConcurrentHashMap::new);
-        return new Attributes(modifiableMap);
+        if (map == null || map.isEmpty()) {
+            return new Attributes(EMPTY);
+        }
+
+        if (map instanceof AttributesMap attributesMap) {
+            return new Attributes(attributesMap.owner.entries);
+        }
+
+        var result = new Object[map.size() * 2];
+        var length = 0;
+        for (var entry : map.entrySet()) {
+            length = putEntry(result, length, entry.getKey(), entry.getValue());
+        }
+
+        return new Attributes(length == result.length ? result : Arrays.copyOf(result, length));
+    }
+
+    /**
+     * Constructs a new map from an array of alternating keys and values, without copying it
+     *
+     * @param keyValuePairs the non-null array: keys, which must be unique strings, are at even indexes and non-null values at odd ones
+     * @return a new instance of Attributes
+     */
+    public static Attributes ofArray(Object[] keyValuePairs) {
+        if (keyValuePairs.length % 2 != 0) {
+            throw new IllegalArgumentException("Expected an even number of entries, got %s".formatted(keyValuePairs.length));
+        }
+
+        for (var index = 0; index < keyValuePairs.length; index += 2) {
+            if (!(keyValuePairs[index] instanceof String)) {
+                throw new IllegalArgumentException("Unexpected key: %s".formatted(keyValuePairs[index]));
+            }
+
+            requireNonNull(keyValuePairs[index + 1], "Missing value for attribute %s".formatted(keyValuePairs[index]));
+        }
+
+        return new Attributes(keyValuePairs);
+    }
+
+    private static int putEntry(Object[] entries, int length, String key, Object value) {
+        requireNonNull(key, "Missing attribute key");
+        requireNonNull(value, "Missing value for attribute %s".formatted(key));
+        var index = indexOf(entries, length, key);
+        if (index != -1) {
+            entries[index + 1] = value;
+            return length;
+        }
+
+        entries[length] = key;
+        entries[length + 1] = value;
+        return length + 2;
+    }
+
+    // Keys are usually tokens from the same table, so reference equality is checked first
+    private static int indexOf(Object[] entries, int length, String key) {
+        for (var index = 0; index < length; index += 2) {
+            var entry = entries[index];
+            if (entry == key || key.equals(entry)) {
+                return index;
+            }
+        }
+
+        return -1;
+    }
+
+    private Object getValue(String key) {
+        var entries = this.entries;
+        var index = indexOf(entries, entries.length, key);
+        return index == -1 ? null : entries[index + 1];
+    }
+
+    /**
+     * Returns a live view of this object as a map
+     * Changes to the attributes are reflected by the map and {@link Map#put(Object, Object)} and {@link Map#remove(Object)} write through to the attributes:
+     * iterators, on the other hand, see the attributes as they were when they were created
+     *
+     * @return a non-null map
+     */
+    @JsonValue
+    public Map<String, Object> toMap() {
+        return new AttributesMap(this);
+    }
+
+    /**
+     * Returns the number of attributes
+     *
+     * @return an unsigned int
+     */
+    public int size() {
+        return entries.length / 2;
     }
 
     /**
@@ -61,7 +172,7 @@ public record Attributes(@JsonValue ConcurrentHashMap<String, Object> toMap) {
      * @return a boolean
      */
     public boolean hasKey(String key) {
-        return toMap.containsKey(key);
+        return getValue(key) != null;
     }
 
     /**
@@ -72,7 +183,7 @@ public record Attributes(@JsonValue ConcurrentHashMap<String, Object> toMap) {
      * @return a boolean
      */
     public boolean hasValue(String key, String value) {
-        return Objects.equals(toMap.get(key), value);
+        return Objects.equals(getValue(key), value);
     }
 
     /**
@@ -114,7 +225,7 @@ public record Attributes(@JsonValue ConcurrentHashMap<String, Object> toMap) {
      */
     public Attributes put(String key, Object value, boolean condition) {
         if (condition) {
-            toMap.put(key, value);
+            put(key, value);
         }
         return this;
     }
@@ -126,11 +237,34 @@ public record Attributes(@JsonValue ConcurrentHashMap<String, Object> toMap) {
      * @param value the nullable value
      * @return the calling instance
      */
-    public Attributes put(String key, Object value) {
-        toMap.put(key, value);
+    public synchronized Attributes put(String key, Object value) {
+        var entries = this.entries;
+        var result = Arrays.copyOf(entries, entries.length + 2);
+        var length = putEntry(result, entries.length, key, value);
+        this.entries = length == result.length ? result : Arrays.copyOf(result, length);
         return this;
     }
 
+    /**
+     * Removes a key from the wrapped map
+     *
+     * @param key the non-null key
+     * @return the value that was removed, or null if the key wasn't present
+     */
+    public synchronized Object remove(String key) {
+        var entries = this.entries;
+        var index = indexOf(entries, entries.length, key);
+        if (index == -1) {
+            return null;
+        }
+
+        var result = new Object[entries.length - 2];
+        System.arraycopy(entries, 0, result, 0, index);
+        System.arraycopy(entries, index + 2, result, index, entries.length - index - 2);
+        this.entries = result;
+        return entries[index + 1];
+    }
+
     /**
      * Gets a value by key in the wrapped map
      *
@@ -153,7 +287,7 @@ public record Attributes(@JsonValue ConcurrentHashMap<String, Object> toMap) {
      * @return the non-null value
      */
     public <T> Optional<T> get(String key, Class<T> clazz) {
-        return Optional.ofNullable(toMap.get(key)).map(clazz::cast);
+        return Optional.ofNullable(getValue(key)).map(clazz::cast);
     }
 
     /**
@@ -374,7 +508,7 @@ public record Attributes(@JsonValue ConcurrentHashMap<String, Object> toMap) {
      * @return a non-null instance
      */
     public Attributes copy() {
-        return new Attributes(toMap);
+        return new Attributes(entries);
     }
 
     /**
@@ -383,6 +517,92 @@ public record Attributes(@JsonValue ConcurrentHashMap<String, Object> toMap) {
      * @return a boolean
      */
     public boolean isEmpty() {
-        return toMap.isEmpty();
+        return entries.length == 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Attributes that && toMap().equals(that.toMap());
+    }
+
+    @Override
+    public int hashCode() {
+        return toMap().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    private static final class AttributesMap extends AbstractMap<String, Object> {
+        private final Attributes owner;
+
+        private AttributesMap(Attributes owner) {
+            this.owner = owner;
+        }
+
+        @Override
+        public int size() {
+            return owner.size();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String string && owner.getValue(string) != null;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return key instanceof String string ? owner.getValue(string) : null;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            synchronized (owner) {
+                var previous = owner.getValue(key);
+                owner.put(key, value);
+                return previous;
+            }
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return key instanceof String string ? owner.remove(string) : null;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    var entries = owner.entries;
+                    return new Iterator<>() {
+                        private int index;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < entries.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+
+                            var result = new SimpleImmutableEntry<>((String) entries[index], entries[index + 1]);
+                            index += 2;
+                            return result;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return owner.size();
+                }
+            };
+        }
     }
 }
@@ -8,7 +8,6 @@ import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.Function;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 /**
  * An immutable model class that represents the primary unit used by WhatsappWeb's WebSocket to communicate with the client
@@ -18,6 +17,15 @@ import java.util.stream.Collectors;
  * @param content     a nullable object: a List of {@link Node}, a {@link String} or a {@link Number}
  */
 public record Node(String description, Attributes attributes, Object content) {
+    /**
+     * Canonical constructor: collections of nodes are stored as an array-backed, immutable list of children
+     */
+    public Node {
+        if (content instanceof Collection<?> collection && !(content instanceof Children)) {
+            content = Children.ofNodes(collection);
+        }
+    }
+
     /**
      * Constructs a Node that only provides a non-null tag
      *
@@ -57,7 +65,7 @@ public record Node(String description, Attributes attributes, Object content) {
         }
 
         if (contentOrAttributes instanceof Node node) {
-            return new Node(description, Attributes.of(), List.of(node));
+            return new Node(description, Attributes.of(), Children.of(node));
         }
 
         return new Node(description, Attributes.of(), contentOrAttributes);
@@ -128,7 +136,11 @@ public record Node(String description, Attributes attributes, Object content) {
         }
 
         if (content instanceof Node node) {
-            return new Node(description, attributes, List.of(node));
+            return new Node(description, attributes, Children.of(node));
+        }
+
+        if (content instanceof Node[] nodes) {
+            return new Node(description, attributes, getNodesOrThrow(nodes));
         }
 
         return new Node(description, attributes, content);
@@ -149,29 +161,21 @@ public record Node(String description, Attributes attributes, Object content) {
             return null;
         }
 
-        return Arrays.stream(entries)
-                .filter(Objects::nonNull)
-                .toList();
+        return Children.of(entries);
     }
 
-    @SuppressWarnings("unchecked")
     private static Collection<Node> getNodesOrThrow(Collection<?> entries) {
-        try {
-            if (entries == null) {
-                return null;
-            }
+        if (entries == null || entries.isEmpty()) {
+            return null;
+        }
 
-            var results = (Collection<Node>) entries;
-            if (results.isEmpty()) {
-                return null;
+        for (var entry : entries) {
+            if (entry != null && !(entry instanceof Node)) {
+                throw new IllegalArgumentException("Unexpected payload type: expected nodes collection", new ClassCastException(entry.getClass().getName()));
             }
-
-            return results.stream()
-                    .filter(Objects::nonNull)
-                    .toList();
-        } catch (ClassCastException exception) {
-            throw new IllegalArgumentException("Unexpected payload type: expected nodes collection", exception);
         }
+
+        return Children.ofNodes(entries);
     }
 
     /**
@@ -240,25 +244,17 @@ public record Node(String description, Attributes attributes, Object content) {
      * @return true if a child node with the given description exists
      */
     public boolean hasNode(String description) {
-        return children().stream().anyMatch(node -> Objects.equals(node.description(), description));
+        return content instanceof Children children && children.has(description);
     }
 
     /**
      * Returns a non-null list of children of this node
+     * This method used to return a new {@link java.util.LinkedList}: callers that modify the result should now copy it first, for example with {@code new LinkedList<>(node.children())}
      *
-     * @return a non-null list
+     * @return a non-null immutable list, backed by this node
      */
-    public LinkedList<Node> children() {
-        if (content == null) {
-            return new LinkedList<>();
-        }
-        if (!(content instanceof Collection<?> collection)) {
-            return new LinkedList<>();
-        }
-        return collection.stream()
-                .filter(entry -> entry instanceof Node)
-                .map(entry -> (Node) entry)
-                .collect(Collectors.toCollection(LinkedList::new));
+    public List<Node> children() {
+        return content instanceof Children children ? children : List.of();
     }
 
     /**
@@ -277,7 +273,8 @@ public record Node(String description, Attributes attributes, Object content) {
      * @return an optional
      */
     public Optional<Node> findNode() {
-        return children().stream().findFirst();
+        var children = children();
+        return children.isEmpty() ? Optional.empty() : Optional.of(children.getFirst());
     }
 
     /**
@@ -287,7 +284,7 @@ public record Node(String description, Attributes attributes, Object content) {
      * @return an optional
      */
     public Optional<Node> findNode(String description) {
-        return children().stream().filter(node -> Objects.equals(node.description(), description)).findFirst();
+        return content instanceof Children children ? Optional.ofNullable(children.find(description)) : Optional.empty();
     }
 
     /**
@@ -297,7 +294,7 @@ public record Node(String description, Attributes attributes, Object content) {
      * @return an optional body, present if a newsletters was found
      */
     public List<Node> findNodes(String description) {
-        return children().stream().filter(node -> Objects.equals(node.description(), description)).toList();
+        return content instanceof Children children ? children.findAll(description) : List.of();
     }
 
     /**
@@ -314,7 +311,7 @@ public record Node(String description, Attributes attributes, Object content) {
      */
     public int size() {
         var descriptionSize = 1;
-        var attributesSize = 2 * attributes.toMap().size();
+        var attributesSize = 2 * attributes.size();
         var contentSize = hasContent() ? 1 : 0;
         return descriptionSize + attributesSize + contentSize;
     }
@@ -370,7 +367,7 @@ public record Node(String description, Attributes attributes, Object content) {
     @Override
     public String toString() {
         var description = this.description.isBlank() || this.description.isEmpty() ? "" : "description=%s".formatted(this.description);
-        var attributes = this.attributes.toMap().isEmpty() ? "" : ", attributes=%s".formatted(this.attributes.toMap());
+        var attributes = this.attributes.isEmpty() ? "" : ", attributes=%s".formatted(this.attributes.toMap());
         var content = this.content == null ? "" : ", content=%s".formatted(this.content instanceof byte[] bytes ? Arrays.toString(bytes) : this.content);
         return "Node[%s%s%s]".formatted(description, attributes, content);
     }
@@ -383,4 +380,123 @@ public record Node(String description, Attributes attributes, Object content) {
     public String toJson() {
         return Json.writeValueAsString(this, true);
     }
+
+    /**
+     * An immutable, array-backed list of children.
+     * Lookups by description scan the array for small nodes and use a lazily built index for bigger ones.
+     */
+    private static final class Children extends AbstractList<Node> implements RandomAccess {
+        private static final int INDEX_THRESHOLD = 8;
+
+        private final Node[] nodes;
+        private volatile Map<String, List<Node>> index;
+
+        private Children(Node[] nodes) {
+            this.nodes = nodes;
+        }
+
+        private static Children of(Node node) {
+            return new Children(new Node[]{Objects.requireNonNull(node)});
+        }
+
+        // The array is not copied: varargs and decoded arrays are never modified after being wrapped
+        private static Children of(Node[] entries) {
+            var nulls = 0;
+            for (var entry : entries) {
+                if (entry == null) {
+                    nulls++;
+                }
+            }
+
+            if (nulls == 0) {
+                return new Children(entries);
+            }
+
+            var results = new Node[entries.length - nulls];
+            var length = 0;
+            for (var entry : entries) {
+                if (entry != null) {
+                    results[length++] = entry;
+                }
+            }
+
+            return new Children(results);
+        }
+
+        private static Children ofNodes(Collection<?> entries) {
+            var results = new Node[entries.size()];
+            var length = 0;
+            for (var entry : entries) {
+                if (entry instanceof Node node) {
+                    results[length++] = node;
+                }
+            }
+
+            return new Children(length == results.length ? results : Arrays.copyOf(results, length));
+        }
+
+        @Override
+        public Node get(int index) {
+            return nodes[index];
+        }
+
+        @Override
+        public int size() {
+            return nodes.length;
+        }
+
+        private boolean has(String description) {
+            return find(description) != null;
+        }
+
+        private Node find(String description) {
+            if (nodes.length <= INDEX_THRESHOLD) {
+                for (var node : nodes) {
+                    if (Objects.equals(node.description(), description)) {
+                        return node;
+                    }
+                }
+
+                return null;
+            }
+
+            var results = index().get(description);
+            return results == null ? null : results.getFirst();
+        }
+
+        private List<Node> findAll(String description) {
+            if (nodes.length > INDEX_THRESHOLD) {
+                return index().getOrDefault(description, List.of());
+            }
+
+            List<Node> results = null;
+            for (var node : nodes) {
+                if (Objects.equals(node.description(), description)) {
+                    if (results == null) {
+                        results = new ArrayList<>(nodes.length);
+                    }
+
+                    results.add(node);
+                }
+            }
+
+            return results == null ? List.of() : Collections.unmodifiableList(results);
+        }
+
+        private Map<String, List<Node>> index() {
+            var result = index;
+            if (result != null) {
+                return result;
+            }
+
+            var builder = new HashMap<String, List<Node>>();
+            for (var node : nodes) {
+                builder.computeIfAbsent(node.description(), ignored -> new ArrayList<>())
+                        .add(node);
+            }
+
+            builder.replaceAll((key, value) -> Collections.unmodifiableList(value));
+            return this.index = Collections.unmodifiableMap(builder);
+        }
+    }
 }
@@ -0,0 +1,243 @@
+package it.auties.whatsapp.model.signal.keypair;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import com.fasterxml.jackson.databind.JsonNode;
+import it.auties.whatsapp.util.Validate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The one-time pre keys of a session, indexed by id.
+ * Keys are removed as soon as they are consumed, so the store only holds the keys that the server can still hand out.
+ * Generating a Curve25519 key pair is expensive: a pool of key pairs is kept filled in the background, so that new pre keys can be uploaded without blocking the caller.
+ * The store is serialized as a single binary value: the last assigned id followed by the id, public key and private key of every pre key.
+ */
+public final class SignalPreKeyStore {
+    private static final int KEY_LENGTH = 32;
+    private static final int ENTRY_LENGTH = Integer.BYTES + KEY_LENGTH + KEY_LENGTH;
+
+    private final Map<Integer, SignalPreKeyPair> preKeys;
+    private final AtomicInteger lastId;
+    private final Queue<SignalKeyPair> pool;
+    private final AtomicInteger poolSize;
+    private final AtomicBoolean refilling;
+
+    public SignalPreKeyStore() {
+        this.preKeys = new ConcurrentHashMap<>();
+        this.lastId = new AtomicInteger();
+        this.pool = new ConcurrentLinkedQueue<>();
+        this.poolSize = new AtomicInteger();
+        this.refilling = new AtomicBoolean();
+    }
+
+    /**
+     * Deserializes a store from either its packed representation or from the legacy one, where pre keys were serialized as a list
+     *
+     * @param node the non-null json node
+     * @return a non-null store
+     */
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static SignalPreKeyStore of(JsonNode node) {
+        try {
+            if (node == null || node.isNull()) {
+                return new SignalPreKeyStore();
+            }
+
+            if (!node.isArray()) {
+                return of(node.binaryValue());
+            }
+
+            var result = new SignalPreKeyStore();
+            for (var entry : node) {
+                result.add(new SignalPreKeyPair(entry.get("id").asInt(), entry.get("publicKey").binaryValue(), entry.get("privateKey").binaryValue()));
+            }
+
+            return result;
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot deserialize pre keys", exception);
+        }
+    }
+
+    /**
+     * Deserializes a store from its packed representation
+     *
+     * @param packed the packed pre keys, can be null
+     * @return a non-null store
+     */
+    public static SignalPreKeyStore of(byte[] packed) {
+        var result = new SignalPreKeyStore();
+        if (packed == null || packed.length == 0) {
+            return result;
+        }
+
+        Validate.isTrue((packed.length - Integer.BYTES) % ENTRY_LENGTH == 0, "Invalid pre keys length: %s", packed.length);
+        var buffer = ByteBuffer.wrap(packed);
+        var lastId = buffer.getInt();
+        while (buffer.hasRemaining()) {
+            var id = buffer.getInt();
+            var publicKey = new byte[KEY_LENGTH];
+            buffer.get(publicKey);
+            var privateKey = new byte[KEY_LENGTH];
+            buffer.get(privateKey);
+            result.add(new SignalPreKeyPair(id, publicKey, privateKey));
+        }
+
+        result.lastId.accumulateAndGet(lastId, Math::max);
+        return result;
+    }
+
+    /**
+     * Returns the pre key associated with an id
+     *
+     * @param id the id to search
+     * @return a non-null optional
+     */
+    public Optional<SignalPreKeyPair> find(int id) {
+        return Optional.ofNullable(preKeys.get(id));
+    }
+
+    /**
+     * Adds a pre key to this store
+     *
+     * @param preKey the non-null pre key to add
+     */
+    public void add(SignalPreKeyPair preKey) {
+        preKeys.put(preKey.id(), preKey);
+        lastId.accumulateAndGet(preKey.id(), Math::max);
+    }
+
+    /**
+     * Removes a pre key from this store
+     *
+     * @param id the id of the pre key to remove
+     * @return a non-null optional containing the removed pre key
+     */
+    public Optional<SignalPreKeyPair> remove(int id) {
+        return Optional.ofNullable(preKeys.remove(id));
+    }
+
+    /**
+     * Creates new pre keys and adds them to this store.
+     * Key pairs are taken from the pool, if available, or generated on the calling thread otherwise.
+     *
+     * @param count the number of pre keys to create
+     * @return a non-null list containing the new pre keys, ordered by id
+     */
+    public List<SignalPreKeyPair> generate(int count) {
+        Validate.isTrue(count > 0, "Invalid pre keys count: %s", count);
+        var startId = lastId.getAndAdd(count) + 1;
+        var results = new ArrayList<SignalPreKeyPair>(count);
+        for (var id = startId; id < startId + count; id++) {
+            var keyPair = pool.poll();
+            if (keyPair == null) {
+                keyPair = SignalKeyPair.random();
+            } else {
+                poolSize.decrementAndGet();
+            }
+
+            var preKey = new SignalPreKeyPair(id, keyPair.publicKey(), keyPair.privateKey());
+            preKeys.put(id, preKey);
+            results.add(preKey);
+        }
+
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Fills the pool of key pairs in the background, if it isn't already being filled
+     *
+     * @param target   the number of key pairs that the pool should contain
+     * @param executor the non-null executor that generates the key pairs
+     * @return a non-null future that completes when the pool is filled
+     */
+    public CompletableFuture<Void> refill(int target, Executor executor) {
+        if (poolSize.get() >= target || !refilling.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return CompletableFuture.runAsync(() -> {
+            try {
+                while (poolSize.get() < target) {
+                    pool.add(SignalKeyPair.random());
+                    poolSize.incrementAndGet();
+                }
+            } finally {
+                refilling.set(false);
+            }
+        }, executor);
+    }
+
+    /**
+     * Returns the id of the last pre key that was created
+     *
+     * @return an unsigned int
+     */
+    public int lastId() {
+        return lastId.get();
+    }
+
+    /**
+     * Returns the number of pre keys in this store
+     *
+     * @return an unsigned int
+     */
+    public int size() {
+        return preKeys.size();
+    }
+
+    /**
+     * Returns whether this store is empty
+     *
+     * @return a boolean
+     */
+    public boolean isEmpty() {
+        return preKeys.isEmpty();
+    }
+
+    /**
+     * Returns the number of key pairs that are ready to be used
+     *
+     * @return an unsigned int
+     */
+    public int pooled() {
+        return poolSize.get();
+    }
+
+    /**
+     * Returns the pre keys in this store
+     *
+     * @return a non-null unmodifiable collection
+     */
+    public Collection<SignalPreKeyPair> values() {
+        return Collections.unmodifiableCollection(preKeys.values());
+    }
+
+    /**
+     * Returns the packed representation of this store
+     *
+     * @return a non-null array
+     */
+    @JsonValue
+    public byte[] toByteArray() {
+        var snapshot = List.copyOf(preKeys.values());
+        var buffer = ByteBuffer.allocate(Integer.BYTES + snapshot.size() * ENTRY_LENGTH);
+        buffer.putInt(lastId.get());
+        for (var preKey : snapshot) {
+            buffer.putInt(preKey.id());
+            buffer.put(preKey.publicKey(), 0, KEY_LENGTH);
+            buffer.put(preKey.privateKey(), 0, KEY_LENGTH);
+        }
+
+        return buffer.array();
+    }
+}
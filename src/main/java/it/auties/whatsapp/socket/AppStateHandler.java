@@ -22,15 +22,18 @@ import it.auties.whatsapp.model.sync.*;
 import it.auties.whatsapp.model.sync.PatchRequest.PatchEntry;
 import it.auties.whatsapp.util.BytesHelper;
 import it.auties.whatsapp.util.Medias;
+import it.auties.whatsapp.util.SerialExecutor;
 import it.auties.whatsapp.util.Specification;
 import it.auties.whatsapp.util.Validate;
 
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -40,35 +43,99 @@ import static it.auties.whatsapp.api.ErrorHandler.Location.*;
 class AppStateHandler {
     private static final int TIMEOUT = 120;
     private static final int PULL_ATTEMPTS = 3;
+    private static final int MAX_PUSH_MUTATIONS = 500;
 
     private final SocketHandler socketHandler;
     private final Map<PatchType, Integer> attempts;
-    private ExecutorService executor;
+    private final Queue<PendingPatch> pendingPatches;
+    private final AtomicBoolean pushScheduled;
+    private SerialExecutor executor;
 
     protected AppStateHandler(SocketHandler socketHandler) {
         this.socketHandler = socketHandler;
-        this.attempts = new HashMap<>();
+        this.attempts = new ConcurrentHashMap<>();
+        this.pendingPatches = new ConcurrentLinkedQueue<>();
+        this.pushScheduled = new AtomicBoolean();
     }
 
-    private ExecutorService getOrCreateAppService() {
+    private SerialExecutor getOrCreateAppService() {
         if (executor == null || executor.isShutdown()) {
-            executor = Executors.newSingleThreadExecutor();
+            executor = socketHandler.runtime().newSerialExecutor();
         }
 
         return executor;
     }
 
+    // Patches are queued and pushed in batches: the patches that are queued while a push is running are merged by type and sent together in the next one,
+    // so that a web client pulls once per batch instead of once per patch
     protected CompletableFuture<Void> push(Jid jid, List<PatchRequest> patches) {
-        return runPushTask(() -> {
-            var clientType = socketHandler.store().clientType();
-            var pullOperation = switch (clientType) {
-                case MOBILE -> CompletableFuture.completedFuture(null);
-                case WEB -> pullUninterruptedly(jid, getPatchesTypes(patches));
-            };
-            return pullOperation.thenComposeAsync(ignored -> sendPush(jid, patches, clientType != ClientType.MOBILE))
-                    .orTimeout(TIMEOUT, TimeUnit.SECONDS)
-                    .exceptionallyAsync(throwable -> socketHandler.handleFailure(PUSH_APP_STATE, throwable));
-        });
+        var results = patches.stream()
+                .map(patch -> {
+                    var pending = new PendingPatch(jid, patch, new CompletableFuture<>());
+                    pendingPatches.add(pending);
+                    return pending.future();
+                })
+                .toArray(CompletableFuture[]::new);
+        schedulePush();
+        return CompletableFuture.allOf(results);
+    }
+
+    private void schedulePush() {
+        if (!pushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        runPushTask(this::pushPending);
+    }
+
+    private CompletableFuture<?> pushPending() {
+        pushScheduled.set(false);
+        var batch = pollPendingPatches();
+        if (!pendingPatches.isEmpty()) {
+            schedulePush();
+        }
+
+        var results = batch.stream()
+                .collect(Collectors.groupingBy(PendingPatch::jid, LinkedHashMap::new, Collectors.toList()))
+                .entrySet()
+                .stream()
+                .map(entry -> pushBatch(entry.getKey(), entry.getValue()))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(results);
+    }
+
+    private List<PendingPatch> pollPendingPatches() {
+        var results = new ArrayList<PendingPatch>();
+        var mutations = 0;
+        while (mutations < MAX_PUSH_MUTATIONS) {
+            var next = pendingPatches.poll();
+            if (next == null) {
+                break;
+            }
+
+            results.add(next);
+            mutations += next.request().entries().size();
+        }
+
+        return results;
+    }
+
+    private CompletableFuture<Void> pushBatch(Jid jid, List<PendingPatch> batch) {
+        var patches = batch.stream()
+                .collect(Collectors.groupingBy(entry -> entry.request().type(), LinkedHashMap::new, Collectors.flatMapping(entry -> entry.request().entries().stream(), Collectors.toList())))
+                .entrySet()
+                .stream()
+                .map(entry -> new PatchRequest(entry.getKey(), entry.getValue()))
+                .toList();
+        var clientType = socketHandler.store().clientType();
+        var pullOperation = switch (clientType) {
+            case MOBILE -> CompletableFuture.completedFuture(null);
+            case WEB -> pullUninterruptedly(jid, getPatchesTypes(patches));
+        };
+        return pullOperation.thenComposeAsync(ignored -> sendPush(jid, patches, clientType != ClientType.MOBILE))
+                .orTimeout(TIMEOUT, TimeUnit.SECONDS)
+                .exceptionallyAsync(throwable -> socketHandler.handleFailure(PUSH_APP_STATE, throwable))
+                .thenRun(() -> batch.forEach(entry -> entry.future().complete(null)));
     }
 
     private Set<PatchType> getPatchesTypes(List<PatchRequest> patches) {
@@ -77,18 +144,10 @@ class AppStateHandler {
                 .collect(Collectors.toUnmodifiableSet());
     }
 
+    // Pushes are serialized, but the slot is released when the push completes instead of blocking a worker while it waits:
+    // a web push pulls first, and the decoding of the pull runs on the same workers
     private CompletableFuture<Void> runPushTask(Supplier<CompletableFuture<?>> task) {
-        var executor = getOrCreateAppService();
-        var future = new CompletableFuture<Void>();
-        executor.execute(() -> {
-            try {
-                task.get().join();
-                future.complete(null);
-            } catch (Throwable throwable) {
-                future.completeExceptionally(throwable);
-            }
-        });
-        return future;
+        return getOrCreateAppService().executeAsync(task);
     }
 
     private CompletableFuture<Void> sendPush(Jid jid, List<PatchRequest> patches, boolean readPatches) {
@@ -264,17 +323,29 @@ class AppStateHandler {
     }
 
     private CompletableFuture<Boolean> pullUninterruptedly(Jid jid, Set<PatchType> patchTypes) {
-        var tempStates = new HashMap<PatchType, CompanionHashState>();
+        var tempStates = new ConcurrentHashMap<PatchType, CompanionHashState>();
         var nodes = getPullNodes(jid, patchTypes, tempStates);
         return socketHandler.sendQuery("set", "w:sync:app:state", Node.of("sync", nodes))
-                .thenApplyAsync(this::parseSyncRequest)
-                .thenApplyAsync(records -> decodeSyncs(jid, tempStates, records))
-                .thenComposeAsync(remaining -> handlePullResult(jid, remaining))
+                .thenComposeAsync(this::parseSyncRequest)
+                .thenComposeAsync(records -> decodeSyncs(jid, tempStates, records))
+                .thenComposeAsync(result -> handlePullResult(jid, result))
                 .orTimeout(TIMEOUT, TimeUnit.SECONDS);
     }
 
-    private CompletableFuture<Boolean> handlePullResult(Jid jid, Set<PatchType> remaining) {
-        return remaining.isEmpty() ? CompletableFuture.completedFuture(true) : pullUninterruptedly(jid, remaining);
+    // A collection that couldn't be decoded fails the pull only after the other collections were applied and pulled to the end
+    private CompletableFuture<Boolean> handlePullResult(Jid jid, PullResult result) {
+        var next = result.remaining().isEmpty() ? CompletableFuture.completedFuture(true) : pullUninterruptedly(jid, result.remaining());
+        if (result.failure() == null) {
+            return next;
+        }
+
+        return next.handle((ignored, throwable) -> {
+            if (throwable != null) {
+                result.failure().addSuppressed(throwable);
+            }
+
+            throw new CompletionException(result.failure());
+        });
     }
 
     private List<Node> getPullNodes(Jid jid, Set<PatchType> patchTypes, Map<PatchType, CompanionHashState> tempStates) {
@@ -291,16 +362,41 @@ class AppStateHandler {
                 .orElseGet(() -> new CompanionHashState(name));
     }
 
-    private Set<PatchType> decodeSyncs(Jid jid, Map<PatchType, CompanionHashState> tempStates, List<SnapshotSyncRecord> records) {
-        return records.stream()
-                .map(record -> {
-                    var chunk = decodeSync(jid, record, tempStates);
-                    chunk.records().forEach(this::processActions);
-                    return chunk;
-                })
-                .filter(PatchChunk::hasMore)
-                .map(PatchChunk::patchType)
-                .collect(Collectors.toUnmodifiableSet());
+    // Collections have independent hash states, so they are decoded concurrently on the workers of the runtime: actions are then applied serially, in order for each collection
+    // A collection that cannot be decoded doesn't prevent the actions of the other ones from being applied
+    private CompletableFuture<PullResult> decodeSyncs(Jid jid, Map<PatchType, CompanionHashState> tempStates, List<SnapshotSyncRecord> records) {
+        var executor = socketHandler.runtime().workersExecutor();
+        var chunks = records.stream()
+                .map(record -> CompletableFuture.supplyAsync(() -> decodeSync(jid, record, tempStates), executor))
+                .toList();
+        var results = chunks.stream()
+                .map(chunk -> chunk.exceptionally(throwable -> null))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(results)
+                .thenApplyAsync(ignored -> applySyncs(chunks), executor);
+    }
+
+    private PullResult applySyncs(List<CompletableFuture<PatchChunk>> chunks) {
+        var remaining = EnumSet.noneOf(PatchType.class);
+        Throwable failure = null;
+        for (var chunk : chunks) {
+            try {
+                var result = chunk.join();
+                result.records().forEach(this::processActions);
+                if (result.hasMore()) {
+                    remaining.add(result.patchType());
+                }
+            } catch (CompletionException exception) {
+                var cause = Objects.requireNonNullElse(exception.getCause(), exception);
+                if (failure == null) {
+                    failure = cause;
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+
+        return new PullResult(Collections.unmodifiableSet(remaining), failure);
     }
 
     private PatchChunk decodeSync(Jid jid, SnapshotSyncRecord record, Map<PatchType, CompanionHashState> tempStates) {
@@ -323,16 +419,16 @@ class AppStateHandler {
         } catch (Throwable throwable) {
             var hashState = new CompanionHashState(record.patchType());
             socketHandler.keys().putState(jid, hashState);
-            attempts.put(record.patchType(), attempts.getOrDefault(record.patchType(), 0) + 1);
-            if (attempts.get(record.patchType()) >= PULL_ATTEMPTS) {
+            if (attempts.merge(record.patchType(), 1, Integer::sum) >= PULL_ATTEMPTS) {
                 throw new RuntimeException("Cannot parse patch(%s tries)".formatted(PULL_ATTEMPTS), throwable);
             }
             return decodeSync(jid, record, tempStates);
         }
     }
 
-    private List<SnapshotSyncRecord> parseSyncRequest(Node node) {
-        return Stream.ofNullable(node)
+    // External blobs of every collection are prefetched concurrently before decoding starts
+    private CompletableFuture<List<SnapshotSyncRecord>> parseSyncRequest(Node node) {
+        var records = Stream.ofNullable(node)
                 .map(sync -> sync.findNodes("sync"))
                 .flatMap(Collection::stream)
                 .map(sync -> sync.findNodes("collection"))
@@ -340,9 +436,11 @@ class AppStateHandler {
                 .map(this::parseSync)
                 .flatMap(Optional::stream)
                 .toList();
+        return CompletableFuture.allOf(records.toArray(CompletableFuture[]::new))
+                .thenApplyAsync(ignored -> records.stream().map(CompletableFuture::join).toList());
     }
 
-    private Optional<SnapshotSyncRecord> parseSync(Node sync) {
+    private Optional<CompletableFuture<SnapshotSyncRecord>> parseSync(Node sync) {
         var name = PatchType.of(sync.attributes().getString("name"));
         var type = sync.attributes().getString("type");
         if (Objects.equals(type, "error")) {
@@ -350,8 +448,8 @@ class AppStateHandler {
         }
         var more = sync.attributes().getBoolean("has_more_patches");
         var snapshotSync = sync.findNode("snapshot")
-                .flatMap(this::decodeSnapshot)
-                .orElse(null);
+                .map(this::decodeSnapshot)
+                .orElseGet(() -> CompletableFuture.completedFuture(null));
         var versionCode = sync.attributes().getInt("version");
         var patches = sync.findNode("patches")
                 .orElse(sync)
@@ -360,18 +458,24 @@ class AppStateHandler {
                 .map(patch -> decodePatch(patch, versionCode))
                 .flatMap(Optional::stream)
                 .toList();
-        return Optional.of(new SnapshotSyncRecord(name, snapshotSync, patches, more));
+        var result = snapshotSync.thenCombineAsync(CompletableFuture.allOf(patches.toArray(CompletableFuture[]::new)), (snapshot, ignored) -> {
+            var decodedPatches = patches.stream()
+                    .map(CompletableFuture::join)
+                    .toList();
+            return new SnapshotSyncRecord(name, snapshot, decodedPatches, more);
+        });
+        return Optional.of(result);
     }
 
-    private Optional<SnapshotSync> decodeSnapshot(Node snapshot) {
-        return snapshot == null ? Optional.empty() : snapshot.contentAsBytes()
+    private CompletableFuture<SnapshotSync> decodeSnapshot(Node snapshot) {
+        return snapshot.contentAsBytes()
                 .map(ExternalBlobReferenceSpec::decode)
                 .map(Medias::downloadAsync)
-                .flatMap(CompletableFuture::join)
-                .map(SnapshotSyncSpec::decode);
+                .orElseGet(() -> CompletableFuture.completedFuture(Optional.empty()))
+                .thenApplyAsync(blob -> blob.map(SnapshotSyncSpec::decode).orElse(null));
     }
 
-    private Optional<PatchSync> decodePatch(Node patch, long versionCode) {
+    private Optional<CompletableFuture<PatchSync>> decodePatch(Node patch, long versionCode) {
         if (!patch.hasContent()) {
             return Optional.empty();
         }
@@ -380,7 +484,15 @@ class AppStateHandler {
             var version = new VersionSync(versionCode + 1);
             patchSync.setVersion(version);
         }
-        return Optional.of(patchSync);
+        if (!patchSync.hasExternalMutations()) {
+            return Optional.of(CompletableFuture.completedFuture(patchSync));
+        }
+        var result = Medias.downloadAsync(patchSync.externalMutations())
+                .thenApplyAsync(blob -> {
+                    blob.ifPresent(entry -> handleExternalMutation(patchSync, entry));
+                    return patchSync;
+                });
+        return Optional.of(result);
     }
 
     private void processActions(ActionDataSync mutation) {
@@ -389,7 +501,7 @@ class AppStateHandler {
             return;
         }
 
-        value.action().ifPresent(action -> onAction(mutation, action));
+        value.action().ifPresent(action -> executeAction(mutation, action));
         value.setting().ifPresent(this::onSetting);
         mutation.value().primaryFeature().ifPresent(socketHandler::onFeatures);
     }
@@ -413,6 +525,20 @@ class AppStateHandler {
         socketHandler.onSetting(setting);
     }
 
+    // Actions that target a chat are applied on the shard of the chat, so they don't race with the messages that are added to it
+    private void executeAction(ActionDataSync mutation, Action action) {
+        var chatJid = mutation.messageIndex()
+                .chatJid()
+                .orElse(null);
+        if (chatJid == null) {
+            onAction(mutation, action);
+            return;
+        }
+
+        socketHandler.executeOnChat(chatJid, () -> onAction(mutation, action))
+                .exceptionally(throwable -> socketHandler.handleFailure(PULL_APP_STATE, throwable));
+    }
+
     private void onAction(ActionDataSync mutation, Action action) {
         var messageIndex = mutation.messageIndex();
         var targetContact = messageIndex.chatJid()
@@ -510,6 +636,8 @@ class AppStateHandler {
         contactAction.fullName().ifPresent(contact::setFullName);
         contactAction.firstName().ifPresent(contact::setShortName);
         contactAction.name().ifPresent(chat::setName);
+        socketHandler.store().refreshContactIndex(contact);
+        socketHandler.store().refreshChatIndex(chat);
     }
 
     private SyncRecord decodePatches(Jid jid, PatchType name, List<PatchSync> patches, CompanionHashState state) {
@@ -522,13 +650,8 @@ class AppStateHandler {
         return new SyncRecord(newState, results);
     }
 
+    // External mutations were already merged into the patch when it was parsed
     private MutationsRecord decodePatch(Jid jid, PatchType patchType, CompanionHashState newState, PatchSync patch) {
-        if (patch.hasExternalMutations()) {
-            Medias.downloadAsync(patch.externalMutations())
-                    .join()
-                    .ifPresent(blob -> handleExternalMutation(patch, blob));
-        }
-
         newState.version(patch.encodedVersion());
         var syncMac = calculatePatchMac(jid, patch, patchType);
         Validate.isTrue(!socketHandler.store().checkPatchMacs() || syncMac.isEmpty() || Arrays.equals(syncMac.get(), patch.patchMac()), "sync_mac", HmacValidationException.class);
@@ -585,16 +708,22 @@ class AppStateHandler {
                 .map(MutationKeys::of);
     }
 
+    // Mutations are mixed into the hash in order as the same index can be both set and removed: the parallelism comes from decoding collections concurrently
     private MutationsRecord decodeMutations(Jid jid, List<? extends Syncable> syncs, CompanionHashState state) {
-        var generator = new LTHash(state);
-        var mutations = syncs.stream()
-                .map(mutation -> decodeMutation(jid, mutation.operation(), mutation.record(), generator))
+        var decoded = syncs.stream()
+                .map(mutation -> decodeMutation(jid, mutation.operation(), mutation.record()))
                 .flatMap(Optional::stream)
-                .collect(Collectors.toList());
+                .toList();
+        var generator = new LTHash(state);
+        var mutations = new ArrayList<ActionDataSync>(decoded.size());
+        for (var mutation : decoded) {
+            generator.mix(mutation.indexMac(), mutation.valueMac(), mutation.operation());
+            mutations.add(mutation.action());
+        }
         return new MutationsRecord(generator.finish(), mutations);
     }
 
-    private Optional<ActionDataSync> decodeMutation(Jid jid, RecordSync.Operation operation, RecordSync sync, LTHash generator) {
+    private Optional<DecodedMutation> decodeMutation(Jid jid, RecordSync.Operation operation, RecordSync sync) {
         var mutationKeys = getMutationKeys(jid, sync.keyId());
         if (mutationKeys.isEmpty()) {
             return Optional.empty();
@@ -608,8 +737,7 @@ class AppStateHandler {
         var actionSync = ActionDataSyncSpec.decode(result);
         Validate.isTrue(!socketHandler.store().checkPatchMacs() || Arrays.equals(sync.index().blob(), Hmac.calculateSha256(actionSync.index(), mutationKeys.get()
                 .indexKey())), "decode_mutation", HmacValidationException.class);
-        generator.mix(sync.index().blob(), encryptedMac, operation);
-        return Optional.of(actionSync);
+        return Optional.of(new DecodedMutation(sync.index().blob(), encryptedMac, operation, actionSync));
     }
 
     private byte[] generateMac(RecordSync.Operation operation, byte[] data, byte[] keyId, byte[] key) {
@@ -642,11 +770,20 @@ class AppStateHandler {
 
     protected void dispose() {
         attempts.clear();
+        PendingPatch pending;
+        while ((pending = pendingPatches.poll()) != null) {
+            pending.future().cancel(true);
+        }
+        pushScheduled.set(false);
         if (executor != null && !executor.isShutdown()) {
-            executor.shutdownNow();
+            executor.shutdown();
         }
     }
 
+    private record PendingPatch(Jid jid, PatchRequest request, CompletableFuture<Void> future) {
+
+    }
+
     private record SyncRecord(CompanionHashState state, List<ActionDataSync> records) {
 
     }
@@ -666,10 +803,18 @@ class AppStateHandler {
 
     }
 
+    private record DecodedMutation(byte[] indexMac, byte[] valueMac, RecordSync.Operation operation, ActionDataSync action) {
+
+    }
+
     private record PatchChunk(PatchType patchType, List<ActionDataSync> records, boolean hasMore) {
 
     }
 
+    private record PullResult(Set<PatchType> remaining, Throwable failure) {
+
+    }
+
     private record PushRequest(PatchType type, CompanionHashState oldState, CompanionHashState newState,
                                PatchSync sync) {
 
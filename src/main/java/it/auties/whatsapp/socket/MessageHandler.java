@@ -1,8 +1,5 @@
 package it.auties.whatsapp.socket;
 
-import it.auties.linkpreview.LinkPreview;
-import it.auties.linkpreview.LinkPreviewMatch;
-import it.auties.linkpreview.LinkPreviewMedia;
 import it.auties.whatsapp.api.TextPreviewSetting;
 import it.auties.whatsapp.crypto.*;
 import it.auties.whatsapp.model.action.ContactAction;
@@ -35,7 +32,6 @@ import it.auties.whatsapp.model.poll.*;
 import it.auties.whatsapp.model.request.MessageSendRequest;
 import it.auties.whatsapp.model.setting.EphemeralSettings;
 import it.auties.whatsapp.model.signal.auth.SignedDeviceIdentitySpec;
-import it.auties.whatsapp.model.signal.keypair.SignalSignedKeyPair;
 import it.auties.whatsapp.model.signal.message.SignalDistributionMessage;
 import it.auties.whatsapp.model.signal.message.SignalMessage;
 import it.auties.whatsapp.model.signal.message.SignalPreKeyMessage;
@@ -43,19 +39,23 @@ import it.auties.whatsapp.model.signal.sender.SenderKeyName;
 import it.auties.whatsapp.model.sync.HistorySync;
 import it.auties.whatsapp.model.sync.HistorySync.Type;
 import it.auties.whatsapp.model.sync.HistorySyncNotification;
-import it.auties.whatsapp.model.sync.HistorySyncSpec;
 import it.auties.whatsapp.model.sync.PushName;
 import it.auties.whatsapp.util.*;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -64,22 +64,26 @@ import static it.auties.whatsapp.util.Specification.Signal.*;
 
 class MessageHandler {
     private static final int HISTORY_SYNC_TIMEOUT = 25;
+    private static final int INBOUND_SHARDS = Math.max(2, Runtime.getRuntime().availableProcessors());
 
     private final SocketHandler socketHandler;
     private final Map<Jid, List<GroupPastParticipant>> pastParticipantsQueue;
-    private final Set<Jid> historyCache;
+    private final HistorySyncTracker historySyncTracker;
     private final Logger logger;
     private final EnumSet<Type> historySyncTypes;
-    private final ReentrantLock lock;
+    private final HistorySyncProgress recentHistoryProgress;
+    private final HistorySyncProgress fullHistoryProgress;
+    private volatile Shards shards;
     private CompletableFuture<?> historySyncTask;
 
     protected MessageHandler(SocketHandler socketHandler) {
         this.socketHandler = socketHandler;
         this.pastParticipantsQueue = new ConcurrentHashMap<>();
-        this.historyCache = ConcurrentHashMap.newKeySet();
+        this.historySyncTracker = new HistorySyncTracker();
         this.logger = System.getLogger("MessageHandler");
         this.historySyncTypes = EnumSet.noneOf(Type.class);
-        this.lock = new ReentrantLock(true);
+        this.recentHistoryProgress = new HistorySyncProgress();
+        this.fullHistoryProgress = new HistorySyncProgress();
     }
 
     protected CompletableFuture<Void> encode(MessageSendRequest request) {
@@ -91,28 +95,202 @@ class MessageHandler {
 
     private CompletableFuture<Void> encodeChatMessage(MessageSendRequest.Chat request) {
         return prepareOutgoingChatMessage(request.info())
-                .thenComposeAsync(ignored -> {
-                    try {
-                        lock.lock();
-                        return request.peer() || isConversation(request.info()) ? encodeConversation(request) : encodeGroup(request);
-                    } finally {
-                        lock.unlock();
-                    }
-                })
-                .thenRunAsync(() -> {
-                    if (request.peer()) {
-                        return;
-                    }
-
+                .thenCompose(ignored -> request.peer() || isConversation(request.info()) ? encodeConversation(request) : encodeGroup(request))
+                .thenCompose(ignored -> request.peer() ? CompletableFuture.completedFuture(null) : executeOnChat(request.info().chatJid(), () -> {
                     saveMessage(request.info(), false);
                     attributeMessageReceipt(request.info());
-                })
+                }))
                 .exceptionallyAsync(throwable -> {
                     request.info().setStatus(MessageStatus.ERROR);
                     return socketHandler.handleFailure(MESSAGE, throwable);
                 });
     }
 
+    // The content is prepared once, so media is uploaded and link previews are fetched once, and every variant of the message is serialized once:
+    // devices and sessions are then queried for all recipients at the same time and the messages are encrypted and sent by at most concurrency workers
+    protected Map<Jid, CompletableFuture<ChatMessageInfo>> encodeBulk(List<ChatMessageInfo> infos, int concurrency) {
+        Validate.isTrue(concurrency > 0, "Invalid concurrency: %s", concurrency);
+        var results = new LinkedHashMap<Jid, CompletableFuture<ChatMessageInfo>>();
+        var tasks = new ArrayList<Supplier<CompletableFuture<Void>>>();
+        var shared = new ArrayList<ChatMessageInfo>();
+        for (var info : infos) {
+            var result = new CompletableFuture<ChatMessageInfo>();
+            if (results.putIfAbsent(info.chatJid(), result) != null) {
+                continue;
+            }
+
+            if (isConversation(info) && !hasMessageSecret(info)) {
+                shared.add(info);
+                continue;
+            }
+
+            // The request is encoded in a stage, so that an exception thrown while encoding it completes the result too
+            tasks.add(() -> CompletableFuture.completedFuture(info).thenCompose(value -> encode(new MessageSendRequest.Chat(value))).handle((ignored, throwable) -> {
+                if (throwable != null) {
+                    onBulkMessageError(info, result, throwable);
+                    return null;
+                }
+
+                result.complete(info);
+                return null;
+            }));
+        }
+
+        if (shared.isEmpty()) {
+            runPipelined(tasks, concurrency);
+            return results;
+        }
+
+        attributeMessageContent(shared.getFirst())
+                .thenCompose(ignored -> prepareBulkMessages(shared))
+                .whenComplete((messages, throwable) -> {
+                    if (throwable != null) {
+                        shared.forEach(info -> onBulkMessageError(info, results.get(info.chatJid()), throwable));
+                    } else {
+                        messages.forEach(message -> tasks.add(() -> sendBulkMessage(message, results.get(message.info().chatJid()))));
+                    }
+
+                    runPipelined(tasks, concurrency);
+                });
+        return results;
+    }
+
+    // Polls carry a secret that is unique to each message, so they can't share their content
+    private boolean hasMessageSecret(ChatMessageInfo info) {
+        var content = info.message().content();
+        return content instanceof PollCreationMessage || content instanceof PollUpdateMessage;
+    }
+
+    private CompletableFuture<List<BulkMessage>> prepareBulkMessages(List<ChatMessageInfo> infos) {
+        var sender = socketHandler.store()
+                .jid()
+                .orElse(null);
+        if (sender == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Cannot create message: user is not signed in"));
+        }
+
+        var encodedMessages = encodeBulkVariants(infos);
+        var contacts = new ArrayList<Jid>(infos.size() + 1);
+        contacts.add(sender.withoutDevice());
+        infos.forEach(info -> contacts.add(info.chatJid()));
+        return getDevices(contacts, true).thenCompose(devices -> {
+            var devicesByUser = devices.stream()
+                    .collect(Collectors.groupingBy(Jid::user));
+            return querySessions(devices, false).thenApply(ignored -> infos.stream()
+                    .map(info -> new BulkMessage(
+                            info,
+                            encodedMessages.get(info),
+                            devicesByUser.getOrDefault(info.chatJid().user(), List.of()),
+                            devicesByUser.getOrDefault(sender.user(), List.of())
+                    ))
+                    .toList());
+        });
+    }
+
+    // Messages sent to ephemeral chats carry the expiration of the chat: recipients are grouped by expiration and each group serializes the message once
+    // Each group with a different expiration gets its own copy of the message, as the message is stored with the recipient's info
+    private Map<ChatMessageInfo, byte[]> encodeBulkVariants(List<ChatMessageInfo> infos) {
+        var original = infos.getFirst().message();
+        var message = original.type() == MessageType.EPHEMERAL ? original.unbox() : original;
+        var server = message.hasCategory(MessageCategory.SERVER);
+        var contextInfo = message.contentWithContext()
+                .flatMap(ContextualMessage::contextInfo)
+                .orElse(null);
+        var originalExpiration = contextInfo == null ? 0 : contextInfo.ephemeralExpiration();
+        var groups = new TreeMap<Integer, List<ChatMessageInfo>>();
+        for (var info : infos) {
+            attributeChatMessage(info);
+            fixChatMessageKey(info);
+            var period = server ? 0 : info.chat()
+                    .filter(Chat::isEphemeral)
+                    .map(chat -> (int) chat.ephemeralMessageDuration().period().toSeconds())
+                    .orElse(0);
+            groups.computeIfAbsent(period, ignored -> new ArrayList<>()).add(info);
+        }
+
+        var results = new HashMap<ChatMessageInfo, byte[]>();
+        groups.forEach((period, members) -> {
+            var variant = period == 0 || contextInfo == null || period == originalExpiration ? message : copyWithExpiration(message, period);
+            var container = period == 0 ? variant : variant.toEphemeral();
+            var encoded = BytesHelper.messageToBytes(container);
+            for (var info : members) {
+                info.setMessage(container);
+                results.put(info, encoded);
+            }
+        });
+        return results;
+    }
+
+    private MessageContainer copyWithExpiration(MessageContainer message, int period) {
+        var copy = MessageContainerSpec.decode(MessageContainerSpec.encode(message));
+        copy.contentWithContext()
+                .flatMap(ContextualMessage::contextInfo)
+                .ifPresent(contextInfo -> contextInfo.setEphemeralExpiration(period));
+        return copy;
+    }
+
+    private CompletableFuture<Void> sendBulkMessage(BulkMessage message, CompletableFuture<ChatMessageInfo> result) {
+        var request = new MessageSendRequest.Chat(message.info());
+        Node node;
+        try {
+            var deviceMessage = new DeviceSentMessage(message.info().chatJid(), message.info().message(), Optional.empty());
+            var encodedDeviceMessage = BytesHelper.messageToBytes(deviceMessage);
+            var participants = new ArrayList<Node>(message.devices().size() + message.companions().size());
+            participants.addAll(createMessageNodes(request, message.devices(), message.encodedMessage()));
+            participants.addAll(createMessageNodes(request, message.companions(), encodedDeviceMessage));
+            node = createEncodedMessageNode(request, participants, null);
+        } catch (Throwable throwable) {
+            onBulkMessageError(message.info(), result, throwable);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return socketHandler.send(node).handle((ignored, throwable) -> {
+            if (throwable != null) {
+                onBulkMessageError(message.info(), result, throwable);
+                return null;
+            }
+
+            executeOnChat(message.info().chatJid(), () -> {
+                saveMessage(message.info(), false);
+                attributeMessageReceipt(message.info());
+            })
+                    .whenComplete((saved, saveError) -> {
+                        if (saveError != null) {
+                            onBulkMessageError(message.info(), result, saveError);
+                        } else {
+                            result.complete(message.info());
+                        }
+                    });
+            return null;
+        });
+    }
+
+    private void onBulkMessageError(ChatMessageInfo info, CompletableFuture<ChatMessageInfo> result, Throwable throwable) {
+        info.setStatus(MessageStatus.ERROR);
+        socketHandler.handleFailure(MESSAGE, throwable);
+        result.complete(info);
+    }
+
+    // Runs at most concurrency tasks at the same time on the workers of the runtime: every time one of them completes, the next one is started
+    private void runPipelined(List<Supplier<CompletableFuture<Void>>> tasks, int concurrency) {
+        var executor = socketHandler.runtime().workersExecutor();
+        var next = new AtomicInteger();
+        for (var worker = 0; worker < Math.min(concurrency, tasks.size()); worker++) {
+            executor.execute(() -> runNext(tasks, next, executor));
+        }
+    }
+
+    private void runNext(List<Supplier<CompletableFuture<Void>>> tasks, AtomicInteger next, Executor executor) {
+        var index = next.getAndIncrement();
+        if (index >= tasks.size()) {
+            return;
+        }
+
+        CompletableFuture.supplyAsync(tasks.get(index), executor)
+                .thenCompose(Function.identity())
+                .whenCompleteAsync((ignored, throwable) -> runNext(tasks, next, executor), executor);
+    }
+
     private CompletableFuture<Void> prepareOutgoingChatMessage(MessageInfo messageInfo) {
         if(messageInfo instanceof ChatMessageInfo chatMessageInfo) {
             attributeChatMessage(chatMessageInfo);
@@ -120,6 +298,10 @@ class MessageHandler {
             fixEphemeralMessage(chatMessageInfo);
         }
 
+        return attributeMessageContent(messageInfo);
+    }
+
+    private CompletableFuture<Void> attributeMessageContent(MessageInfo messageInfo) {
         return switch (messageInfo.message().content()) {
             case ExtendedMediaMessage<?> mediaMessage -> attributeMediaMessage(messageInfo.parentJid(), mediaMessage);
             case ButtonMessage buttonMessage -> attributeButtonMessage(messageInfo.parentJid(), buttonMessage);
@@ -168,50 +350,38 @@ class MessageHandler {
     }
 
     private CompletableFuture<Void> attributeTextMessage(TextMessage textMessage) {
-        if (socketHandler.store().textPreviewSetting() == TextPreviewSetting.DISABLED) {
+        var setting = socketHandler.store().textPreviewSetting();
+        if (setting == TextPreviewSetting.DISABLED) {
             return CompletableFuture.completedFuture(null);
         }
 
         try {
-            return LinkPreview.createPreviewAsync(textMessage.text())
-                    .thenComposeAsync(result -> attributeTextMessage(textMessage, result.orElse(null)));
+            return LinkPreviewCache.shared()
+                    .findAsync(textMessage.text(), setting == TextPreviewSetting.ENABLED_WITH_INFERENCE, socketHandler.runtime().workersExecutor())
+                    .thenAccept(result -> result.ifPresent(match -> attributeTextMessage(textMessage, match)));
         }catch (NoClassDefFoundError error) { // Optional dependency
             return CompletableFuture.completedFuture(null);
         }
     }
 
-    private CompletableFuture<Void> attributeTextMessage(TextMessage textMessage, LinkPreviewMatch match) {
-        if (match == null) {
-            return CompletableFuture.completedFuture(null);
-        }
-
-        var uri = match.result().uri().toString();
+    private void attributeTextMessage(TextMessage textMessage, LinkPreviewCache.Match match) {
+        var preview = match.preview();
+        var uri = preview.uri().toString();
         if (socketHandler.store().textPreviewSetting() == TextPreviewSetting.ENABLED_WITH_INFERENCE
                 && !Objects.equals(match.text(), uri)) {
             textMessage.setText(textMessage.text().replace(match.text(), uri));
         }
 
-        var imageThumbnail = match.result()
-                .images()
-                .stream()
-                .reduce(this::compareDimensions);
-        var videoUri = match.result()
-                .videos()
-                .stream()
-                .reduce(this::compareDimensions);
         textMessage.setMatchedText(uri);
-        textMessage.setCanonicalUrl(videoUri.map(LinkPreviewMedia::uri).orElse(match.result().uri()).toString());
-        textMessage.setThumbnailWidth(imageThumbnail.map(LinkPreviewMedia::width).orElse(null));
-        textMessage.setThumbnailHeight(imageThumbnail.map(LinkPreviewMedia::height).orElse(null));
-        textMessage.setDescription(match.result().siteDescription());
-        textMessage.setTitle(match.result().title());
-        textMessage.setPreviewType(videoUri.isPresent() ? TextMessage.PreviewType.VIDEO : TextMessage.PreviewType.NONE);
-        return imageThumbnail.map(data -> Medias.downloadAsync(data.uri()).thenAccept(textMessage::setThumbnail))
-                .orElseGet(() -> CompletableFuture.completedFuture(null));
-    }
-
-    private LinkPreviewMedia compareDimensions(LinkPreviewMedia first, LinkPreviewMedia second) {
-        return first.width() * first.height() > second.width() * second.height() ? first : second;
+        textMessage.setCanonicalUrl(preview.canonicalUrl());
+        textMessage.setThumbnailWidth(preview.thumbnailWidth());
+        textMessage.setThumbnailHeight(preview.thumbnailHeight());
+        textMessage.setDescription(preview.description());
+        textMessage.setTitle(preview.title());
+        textMessage.setPreviewType(preview.video() ? TextMessage.PreviewType.VIDEO : TextMessage.PreviewType.NONE);
+        if (preview.thumbnail() != null) {
+            textMessage.setThumbnail(preview.thumbnail());
+        }
     }
 
     private CompletableFuture<Void> attributeMediaMessage(Jid chatJid, ExtendedMediaMessage<?> mediaMessage) {
@@ -330,7 +500,7 @@ class MessageHandler {
     }
 
     private CompletableFuture<Void> encodeNewsletterMessage(MessageSendRequest.Newsletter request) {
-        return prepareOutgoingChatMessage(request.info()).thenComposeAsync(ignored -> {
+        return prepareOutgoingChatMessage(request.info()).thenCompose(ignored -> {
             var message = request.info().message();
             var messageNode = getPlainMessageNode(message);
             var type = message.isEmpty() || message.content().type() == MessageType.TEXT ? "text" : "media";
@@ -341,7 +511,7 @@ class MessageHandler {
                     .put("media_id", getPlainMessageHandle(request), Objects::nonNull)
                     .toMap();
             return socketHandler.send(Node.of("message", attributes, messageNode))
-                    .thenRunAsync(() -> {
+                    .thenRun(() -> {
                         var newsletter = request.info().newsletter();
                         newsletter.addMessage(request.info());
                     })
@@ -391,31 +561,26 @@ class MessageHandler {
         }
 
         var senderName = new SenderKeyName(request.info().chatJid().toString(), sender.toSignalAddress());
-        var groupBuilder = new GroupBuilder(socketHandler.keys());
-        var signalMessage = groupBuilder.createOutgoing(senderName);
-        var groupCipher = new GroupCipher(senderName, socketHandler.keys());
-        var groupMessage = groupCipher.encrypt(encodedMessage);
-        var messageNode = createMessageNode(request, groupMessage);
+        var groupMessage = socketHandler.signalLocks().withLock(senderName, () -> {
+            var groupBuilder = new GroupBuilder(socketHandler.keys());
+            var distributionMessage = groupBuilder.createOutgoing(senderName);
+            var groupCipher = new GroupCipher(senderName, socketHandler.keys());
+            return new GroupEncryptResult(distributionMessage, groupCipher.encrypt(encodedMessage));
+        });
+        var signalMessage = groupMessage.distributionMessage();
+        var messageNode = createMessageNode(request, groupMessage.message());
         if (request.hasRecipientOverride()) {
             return getDevices(request.recipients(), false)
-                    .thenComposeAsync(allDevices -> createGroupNodes(request, signalMessage, allDevices, request.force()))
-                    .thenApplyAsync(preKeys -> createEncodedMessageNode(request, preKeys, messageNode))
-                    .thenComposeAsync(socketHandler::send);
-        }
-
-        if (request.force()) {
-            return socketHandler.queryGroupMetadata(request.info().chatJid())
-                    .thenComposeAsync(this::getGroupDevices)
-                    .thenComposeAsync(allDevices -> createGroupNodes(request, signalMessage, allDevices, true))
-                    .thenApplyAsync(preKeys -> createEncodedMessageNode(request, preKeys, messageNode))
-                    .thenComposeAsync(socketHandler::send);
+                    .thenCompose(allDevices -> createGroupNodes(request, signalMessage, allDevices, request.force()))
+                    .thenApply(preKeys -> createEncodedMessageNode(request, preKeys, messageNode))
+                    .thenCompose(socketHandler::send);
         }
 
         return socketHandler.queryGroupMetadata(request.info().chatJid())
-                .thenComposeAsync(this::getGroupDevices)
-                .thenComposeAsync(allDevices -> createGroupNodes(request, signalMessage, allDevices, false))
-                .thenApplyAsync(preKeys -> createEncodedMessageNode(request, preKeys, messageNode))
-                .thenComposeAsync(socketHandler::send);
+                .thenCompose(this::getGroupDevices)
+                .thenCompose(allDevices -> createGroupNodes(request, signalMessage, allDevices, request.force()))
+                .thenApply(preKeys -> createEncodedMessageNode(request, preKeys, messageNode))
+                .thenCompose(socketHandler::send);
     }
 
     private CompletableFuture<Node> encodeConversation(MessageSendRequest.Chat request) {
@@ -438,9 +603,9 @@ class MessageHandler {
         var deviceMessage = new DeviceSentMessage(request.info().chatJid(), request.info().message(), Optional.empty());
         var encodedDeviceMessage = BytesHelper.messageToBytes(deviceMessage);
         return getDevices(knownDevices, true)
-                .thenComposeAsync(allDevices -> createConversationNodes(request, allDevices, encodedMessage, encodedDeviceMessage))
-                .thenApplyAsync(sessions -> createEncodedMessageNode(request, sessions, null))
-                .thenComposeAsync(socketHandler::send);
+                .thenCompose(allDevices -> createConversationNodes(request, allDevices, encodedMessage, encodedDeviceMessage))
+                .thenApply(sessions -> createEncodedMessageNode(request, sessions, null))
+                .thenCompose(socketHandler::send);
     }
 
     private List<Jid> getRecipients(MessageSendRequest.Chat request, Jid sender) {
@@ -521,7 +686,7 @@ class MessageHandler {
                 .thenApplyAsync(ignored -> createMessageNodes(request, partitioned.get(true), deviceMessage));
         var others = querySessions(partitioned.get(false), request.force())
                 .thenApplyAsync(ignored -> createMessageNodes(request, partitioned.get(false), message));
-        return companions.thenCombineAsync(others, (first, second) -> toSingleList(first, second));
+        return companions.thenCombine(others, (first, second) -> toSingleList(first, second));
     }
 
     private CompletableFuture<List<Node>> createGroupNodes(MessageSendRequest.Chat request, byte[] distributionMessage, List<Jid> participants, boolean force) {
@@ -534,24 +699,15 @@ class MessageHandler {
         var whatsappMessage = new SenderKeyDistributionMessage(request.info().chatJid().toString(), distributionMessage);
         var paddedMessage = BytesHelper.messageToBytes(whatsappMessage);
         return querySessions(missingParticipants, force)
-                .thenApplyAsync(ignored -> createMessageNodes(request, missingParticipants, paddedMessage))
-                .thenApplyAsync(results -> {
+                .thenApplyAsync(ignored -> {
+                    var results = createMessageNodes(request, missingParticipants, paddedMessage);
                     socketHandler.keys().addRecipientsWithPreKeys(request.info().chatJid(), missingParticipants);
                     return results;
                 });
     }
 
     protected CompletableFuture<Void> querySessions(List<Jid> contacts, boolean force) {
-        var missingSessions = contacts.stream()
-                .filter(contact -> force || !socketHandler.keys().hasSession(contact.toSignalAddress()))
-                .map(contact -> Node.of("user", Map.of("jid", contact)))
-                .toList();
-        return missingSessions.isEmpty() ? CompletableFuture.completedFuture(null) : querySession(missingSessions);
-    }
-
-    private CompletableFuture<Void> querySession(List<Node> children) {
-        return socketHandler.sendQuery("get", "encrypt", Node.of("key", children))
-                .thenAcceptAsync(this::parseSessions);
+        return socketHandler.establishSessions(contacts, force);
     }
 
     private List<Node> createMessageNodes(MessageSendRequest.Chat request, List<Jid> contacts, byte[] message) {
@@ -560,9 +716,10 @@ class MessageHandler {
                 .toList();
     }
 
+    // The session is locked while it's used, as it may be rebuilt by an encrypt query or used to decrypt a message from the same device at the same time
     private Node createMessageNode(MessageSendRequest.Chat request, Jid contact, byte[] message, boolean peer) {
-        var cipher = new SessionCipher(contact.toSignalAddress(), socketHandler.keys());
-        var encrypted = cipher.encrypt(message);
+        var address = contact.toSignalAddress();
+        var encrypted = socketHandler.signalLocks().withLock(address, () -> new SessionCipher(address, socketHandler.keys()).encrypt(message));
         var messageNode = createMessageNode(request, encrypted);
         return peer ? messageNode : Node.of("to", Map.of("jid", contact), messageNode);
     }
@@ -577,28 +734,16 @@ class MessageHandler {
 
     protected CompletableFuture<List<Jid>> getDevices(List<Jid> contacts, boolean excludeSelf) {
         return queryDevices(contacts, excludeSelf)
-                .thenApplyAsync(missingDevices -> excludeSelf ? toSingleList(contacts, missingDevices) : missingDevices);
+                .thenApply(missingDevices -> excludeSelf ? toSingleList(contacts, missingDevices) : missingDevices);
     }
 
     private CompletableFuture<List<Jid>> queryDevices(List<Jid> contacts, boolean excludeSelf) {
-        var contactNodes = contacts.stream()
-                .map(contact -> Node.of("user", Map.of("jid", contact)))
-                .toList();
-        var body = Node.of("usync",
-                Map.of("sid", ChatMessageKey.randomId(), "mode", "query", "last", "true", "index", "0", "context", "message"),
-                Node.of("query", Node.of("devices", Map.of("version", "2"))),
-                Node.of("list", contactNodes));
-        return socketHandler.sendQuery("get", "usync", body)
-                .thenApplyAsync(result -> parseDevices(result, excludeSelf));
+        return socketHandler.queryUsync(UsyncProtocol.DEVICES, contacts)
+                .thenApply(result -> parseDevices(result.values(), excludeSelf));
     }
 
-    private List<Jid> parseDevices(Node node, boolean excludeSelf) {
-        return node.children()
-                .stream()
-                .map(child -> child.findNode("list"))
-                .flatMap(Optional::stream)
-                .map(Node::children)
-                .flatMap(Collection::stream)
+    private List<Jid> parseDevices(Collection<Node> users, boolean excludeSelf) {
+        return users.stream()
                 .map(entry -> parseDevice(entry, excludeSelf))
                 .flatMap(Collection::stream)
                 .toList();
@@ -634,36 +779,52 @@ class MessageHandler {
                 && (deviceId == 0 || child.attributes().hasKey("key-index")) ? Optional.of(deviceId) : Optional.empty();
     }
 
-    protected void parseSessions(Node node) {
-        node.findNode("list")
-                .orElseThrow(() -> new IllegalArgumentException("Cannot parse sessions: " + node))
-                .findNodes("user")
-                .forEach(this::parseSession);
+    // Messages from the same device are decoded in order on the same shard, and messages from different devices are decoded in parallel, so the socket never waits for a message to be decrypted
+    protected void decodeAsync(Node node) {
+        executeInbound(node, () -> decode(node, null, true));
     }
 
-    private void parseSession(Node node) {
-        Validate.isTrue(!node.hasNode("error"), "Erroneous session node", SecurityException.class);
-        var jid = node.attributes()
-                .getRequiredJid("jid");
-        var registrationId = node.findNode("registration")
-                .map(id -> BytesHelper.bytesToInt(id.contentAsBytes().orElseThrow(), 4))
-                .orElseThrow(() -> new NoSuchElementException("Missing id"));
-        var identity = node.findNode("identity")
-                .flatMap(Node::contentAsBytes)
-                .map(KeyHelper::withHeader)
-                .orElseThrow(() -> new NoSuchElementException("Missing identity"));
-        var signedKey = node.findNode("skey")
-                .flatMap(SignalSignedKeyPair::of)
-                .orElseThrow(() -> new NoSuchElementException("Missing signed key"));
-        var key = node.findNode("key")
-                .flatMap(SignalSignedKeyPair::of)
+    // Receipts and notifications run on the shard of their sender too, so they are handled after the messages of the same sender that were received before them:
+    // nodes from different senders, on the other hand, can be handled in a different order than the one they were received in
+    protected void executeInbound(Node node, Runnable task) {
+        var sender = node.attributes()
+                .getOptionalJid("participant")
+                .or(() -> node.attributes().getOptionalJid("from"))
                 .orElse(null);
-        var builder = new SessionBuilder(jid.toSignalAddress(), socketHandler.keys());
-        builder.createOutgoing(registrationId, identity, signedKey, key);
+        getOrCreateShards().inbound(sender).execute(task);
+    }
+
+    // The store updates of a chat run on the shard of the chat, while decryption runs on the shard of the sender:
+    // the messages that different participants send to the same group are decrypted in parallel, but they are added to the group one at a time
+    protected CompletableFuture<Void> executeOnChat(Jid chat, Runnable task) {
+        return CompletableFuture.runAsync(task, getOrCreateShards().chat(chat));
     }
 
-    // TODO: Make this async and move the lock as far as possible into the cipher chain for better performance
-    public void decode(Node node, JidProvider chatOverride, boolean notify) {
+    private Shards getOrCreateShards() {
+        var current = shards;
+        if (current != null && !current.isShutdown()) {
+            return current;
+        }
+
+        synchronized (this) {
+            if (shards == null || shards.isShutdown()) {
+                this.shards = new Shards(createShards(), createShards());
+            }
+
+            return shards;
+        }
+    }
+
+    private SerialExecutor[] createShards() {
+        var results = new SerialExecutor[INBOUND_SHARDS];
+        for (var index = 0; index < results.length; index++) {
+            results[index] = socketHandler.runtime().newSerialExecutor();
+        }
+
+        return results;
+    }
+
+    protected void decode(Node node, JidProvider chatOverride, boolean notify) {
         try {
             var businessName = getBusinessName(node);
             if (node.hasNode("unavailable")) {
@@ -852,7 +1013,6 @@ class MessageHandler {
 
     private void decodeChatMessage(Node infoNode, Node messageNode, String businessName, boolean notify) {
         try {
-            lock.lock();
             var pushName = infoNode.attributes().getNullableString("notify");
             var timestamp = infoNode.attributes().getLong("t");
             var id = infoNode.attributes().getRequiredString("id");
@@ -919,13 +1079,17 @@ class MessageHandler {
                     .build();
             attributeMessageReceipt(info);
             attributeChatMessage(info);
-            saveMessage(info, notify);
-            socketHandler.onReply(info);
-            sendEncMessageReceipt(infoNode, id, key.chatJid(), key.senderJid().orElse(null), key.fromMe());
+            if (info.message().content() instanceof SenderKeyDistributionMessage distributionMessage) {
+                handleDistributionMessage(distributionMessage, info.senderJid());
+            }
+
+            executeOnChat(key.chatJid(), () -> {
+                saveMessage(info, notify);
+                socketHandler.onReply(info);
+            }).thenRun(() -> sendEncMessageReceipt(infoNode, id, key.chatJid(), key.senderJid().orElse(null), key.fromMe()))
+                    .exceptionally(throwable -> socketHandler.handleFailure(MESSAGE, throwable));
         } catch (Throwable throwable) {
             socketHandler.handleFailure(MESSAGE, throwable);
-        } finally {
-            lock.unlock();
         }
     }
 
@@ -953,6 +1117,7 @@ class MessageHandler {
         return null;
     }
 
+    // The session or sender key is locked while it's used, as an outgoing message can be encrypted with it or an encrypt query can rebuild it at the same time
     private MessageDecodeResult decodeMessageBytes(String type, byte[] encodedMessage, Jid from, Jid participant) {
         try {
             if (encodedMessage == null) {
@@ -962,22 +1127,21 @@ class MessageHandler {
                 case SKMSG -> {
                     Objects.requireNonNull(participant, "Cannot decipher skmsg without participant");
                     var senderName = new SenderKeyName(from.toString(), participant.toSignalAddress());
-                    var signalGroup = new GroupCipher(senderName, socketHandler.keys());
-                    yield signalGroup.decrypt(encodedMessage);
+                    yield socketHandler.signalLocks().withLock(senderName, () -> new GroupCipher(senderName, socketHandler.keys()).decrypt(encodedMessage));
                 }
                 case PKMSG -> {
                     var user = from.hasServer(JidServer.WHATSAPP) ? from : participant;
                     Objects.requireNonNull(user, "Cannot decipher pkmsg without user");
-                    var session = new SessionCipher(user.toSignalAddress(), socketHandler.keys());
+                    var address = user.toSignalAddress();
                     var preKey = SignalPreKeyMessage.ofSerialized(encodedMessage);
-                    yield session.decrypt(preKey);
+                    yield socketHandler.signalLocks().withLock(address, () -> new SessionCipher(address, socketHandler.keys()).decrypt(preKey));
                 }
                 case MSG -> {
                     var user = from.hasServer(JidServer.WHATSAPP) ? from : participant;
                     Objects.requireNonNull(user, "Cannot decipher msg without user");
-                    var session = new SessionCipher(user.toSignalAddress(), socketHandler.keys());
+                    var address = user.toSignalAddress();
                     var signalMessage = SignalMessage.ofSerialized(encodedMessage);
-                    yield session.decrypt(signalMessage);
+                    yield socketHandler.signalLocks().withLock(address, () -> new SessionCipher(address, socketHandler.keys()).decrypt(signalMessage));
                 }
                 default -> throw new IllegalArgumentException("Unsupported encoded message type: %s".formatted(type));
             };
@@ -1002,16 +1166,14 @@ class MessageHandler {
     }
 
     private void saveMessage(ChatMessageInfo info, boolean notify) {
-        if (info.message().content() instanceof SenderKeyDistributionMessage distributionMessage) {
-            handleDistributionMessage(distributionMessage, info.senderJid());
-        }
+        var content = info.message().content();
         if (info.chatJid().type() == JidType.STATUS) {
             socketHandler.store().addStatus(info);
             socketHandler.onNewStatus(info);
             return;
         }
-        if (info.message().hasCategory(MessageCategory.SERVER)) {
-            if (info.message().content() instanceof ProtocolMessage protocolMessage) {
+        if (content.category() == MessageCategory.SERVER) {
+            if (content instanceof ProtocolMessage protocolMessage) {
                 handleProtocolMessage(info, protocolMessage);
             }
             return;
@@ -1022,10 +1184,14 @@ class MessageHandler {
             return;
         }
 
-        var result = chat.addNewMessage(info);
-        if (!result || info.timestampSeconds().orElse(0L) <= socketHandler.store().initializationTimeStamp()) {
+        if (!chat.addNewMessage(info)) {
+            return;
+        }
+
+        if (info.timestampSeconds().orElse(0L) <= socketHandler.store().initializationTimeStamp()) {
             return;
         }
+
         if (chat.archived() && socketHandler.store().unarchiveChats()) {
             chat.setArchived(false);
         }
@@ -1043,9 +1209,12 @@ class MessageHandler {
 
     private void handleDistributionMessage(SenderKeyDistributionMessage distributionMessage, Jid from) {
         var groupName = new SenderKeyName(distributionMessage.groupId(), from.toSignalAddress());
-        var builder = new GroupBuilder(socketHandler.keys());
         var message = SignalDistributionMessage.ofSerialized(distributionMessage.data());
-        builder.createIncoming(groupName, message);
+        socketHandler.signalLocks().withLock(groupName, () -> {
+            var builder = new GroupBuilder(socketHandler.keys());
+            builder.createIncoming(groupName, message);
+            return null;
+        });
     }
 
     private void handleProtocolMessage(ChatMessageInfo info, ProtocolMessage protocolMessage) {
@@ -1093,7 +1262,7 @@ class MessageHandler {
         }
 
         downloadHistorySync(protocolMessage)
-                .thenAcceptAsync(history -> onHistoryNotification(info, history))
+                .thenComposeAsync(this::onHistoryNotification)
                 .exceptionallyAsync(throwable -> socketHandler.handleFailure(HISTORY_SYNC, throwable))
                 .thenRunAsync(() -> socketHandler.sendReceipt(info.chatJid(), null, List.of(info.id()), "hist_sync"));
     }
@@ -1111,28 +1280,76 @@ class MessageHandler {
                 || sender.lastKnownPresence() == ContactStatus.RECORDING;
     }
 
-    private CompletableFuture<HistorySync> downloadHistorySync(ProtocolMessage protocolMessage) {
+    private CompletableFuture<byte[]> downloadHistorySync(ProtocolMessage protocolMessage) {
         return protocolMessage.historySyncNotification()
                 .map(this::downloadHistorySyncNotification)
                 .orElseGet(() -> CompletableFuture.completedFuture(null));
 
     }
 
-    private CompletableFuture<HistorySync> downloadHistorySyncNotification(HistorySyncNotification notification) {
+    // The blob is kept compressed: it's inflated and decoded conversation by conversation by HistorySyncReader
+    private CompletableFuture<byte[]> downloadHistorySyncNotification(HistorySyncNotification notification) {
         return notification.initialHistBootstrapInlinePayload()
-                .map(result -> CompletableFuture.completedFuture(HistorySyncSpec.decode(BytesHelper.decompress(result))))
+                .map(CompletableFuture::completedFuture)
                 .orElseGet(() -> Medias.downloadAsync(notification)
-                        .thenApplyAsync(entry -> entry.orElseThrow(() -> new NoSuchElementException("Cannot download history sync")))
-                        .thenApplyAsync(result -> HistorySyncSpec.decode(BytesHelper.decompress(result))));
+                        .thenApplyAsync(entry -> entry.orElseThrow(() -> new NoSuchElementException("Cannot download history sync"))));
+    }
+
+    private CompletableFuture<Void> onHistoryNotification(byte[] compressed) {
+        if (compressed == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        var chunk = historySyncTracker.beginChunk();
+        try (var reader = new HistorySyncReader(compressed)) {
+            var conversations = new ArrayList<CompletableFuture<Void>>();
+            var history = reader.read((syncType, chat, index) -> {
+                conversations.add(handleHistoryConversation(syncType, chunk, chat));
+                onHistoryConversationRead(reader, syncType);
+            });
+            return CompletableFuture.allOf(conversations.toArray(CompletableFuture[]::new))
+                    .thenRun(() -> onHistoryRead(history, chunk));
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Cannot read history sync", exception);
+        }
     }
 
-    private void onHistoryNotification(ChatMessageInfo info, HistorySync history) {
-        handleHistorySync(history);
+    private void onHistoryRead(HistorySync history, int chunk) {
+        handleHistorySync(history, chunk);
         if (history.progress() == null) {
             return;
         }
 
-        socketHandler.onHistorySyncProgress(history.progress(), history.syncType() == Type.RECENT);
+        var recent = history.syncType() == Type.RECENT;
+        findHistorySyncProgress(history.syncType())
+                .ifPresent(progress -> progress.complete(history.progress()));
+        socketHandler.onHistorySyncProgress(history.progress(), recent);
+    }
+
+    // The progress of a chunk is only sent after its conversations, so while they are read it's estimated from the share of the blob that was consumed
+    // Estimates are reported through their own callback, so listeners of the progress only ever see the values sent by Whatsapp
+    private void onHistoryConversationRead(HistorySyncReader reader, Type syncType) {
+        var progress = findHistorySyncProgress(syncType);
+        if (progress.isEmpty()) {
+            return;
+        }
+
+        var consumed = reader.consumed();
+        if (consumed.isEmpty()) {
+            return;
+        }
+
+        progress.get()
+                .estimate(consumed.getAsDouble())
+                .ifPresent(value -> socketHandler.onHistorySyncEstimatedProgress(value, syncType == Type.RECENT));
+    }
+
+    private Optional<HistorySyncProgress> findHistorySyncProgress(Type syncType) {
+        return switch (syncType) {
+            case RECENT -> Optional.of(recentHistoryProgress);
+            case FULL -> Optional.of(fullHistoryProgress);
+            default -> Optional.empty();
+        };
     }
 
     private void onMessageDeleted(ChatMessageInfo info, ChatMessageInfo message) {
@@ -1141,13 +1358,13 @@ class MessageHandler {
         socketHandler.onMessageDeleted(message, true);
     }
 
-    private void handleHistorySync(HistorySync history) {
+    private void handleHistorySync(HistorySync history, int chunk) {
         try {
             switch (history.syncType()) {
                 case INITIAL_STATUS_V3 -> handleInitialStatus(history);
                 case PUSH_NAME -> handlePushNames(history);
-                case INITIAL_BOOTSTRAP -> handleInitialBootstrap(history);
-                case RECENT, FULL -> handleChatsSync(history);
+                case INITIAL_BOOTSTRAP -> handleInitialBootstrap();
+                case RECENT, FULL -> handleChatsSync(chunk);
                 case NON_BLOCKING_DATA -> handleNonBlockingData(history);
             }
         } finally {
@@ -1176,6 +1393,7 @@ class MessageHandler {
                 .findContactByJid(jid)
                 .orElseGet(() -> createNewContact(jid));
         pushName.name().ifPresent(contact::setChosenName);
+        socketHandler.store().refreshContactIndex(contact);
         var action = new ContactAction(pushName.name(), Optional.empty(), Optional.empty());
         socketHandler.onAction(action, MessageIndexInfo.of("contact", jid, null, true));
     }
@@ -1186,50 +1404,33 @@ class MessageHandler {
         return contact;
     }
 
-    private void handleInitialBootstrap(HistorySync history) {
-        if (!socketHandler.store().historyLength().isZero()) {
-            var jids = history.conversations()
-                    .stream()
-                    .map(Chat::jid)
-                    .toList();
-            historyCache.addAll(jids);
-        }
-
-        handleConversations(history);
+    private void handleInitialBootstrap() {
         socketHandler.onChats();
     }
 
-    private void handleChatsSync(HistorySync history) {
+    private void handleChatsSync(int chunk) {
         if (socketHandler.store().historyLength().isZero()) {
             return;
         }
 
-        handleConversations(history);
-        handleConversationsNotifications(history);
+        handleConversationsNotifications(historySyncTracker.completeChunk(chunk));
         scheduleHistorySyncTimeout();
     }
 
-    private void handleConversationsNotifications(HistorySync history) {
-        var toRemove = new HashSet<Jid>();
-        for (var cachedJid : historyCache) {
+    // Only chats whose state changed to complete are notified: chats that were part of this chunk were already notified while it was being read
+    private void handleConversationsNotifications(Set<Jid> completed) {
+        for (var jid : completed) {
             var chat = socketHandler.store()
-                    .findChatByJid(cachedJid)
+                    .findChatByJid(jid)
                     .orElse(null);
             if (chat == null) {
                 continue;
             }
 
-            var done = !history.conversations().contains(chat);
-            if (done) {
-                chat.setEndOfHistoryTransfer(true);
-                chat.setEndOfHistoryTransferType(Chat.EndOfHistoryTransferType.COMPLETE_AND_NO_MORE_MESSAGE_REMAIN_ON_PRIMARY);
-                toRemove.add(cachedJid);
-            }
-
-            socketHandler.onChatRecentMessages(chat, done);
+            chat.setEndOfHistoryTransfer(true);
+            chat.setEndOfHistoryTransferType(Chat.EndOfHistoryTransferType.COMPLETE_AND_NO_MORE_MESSAGE_REMAIN_ON_PRIMARY);
+            socketHandler.onChatRecentMessages(chat, true);
         }
-
-        historyCache.removeAll(toRemove);
     }
 
     private void scheduleHistorySyncTimeout() {
@@ -1242,35 +1443,60 @@ class MessageHandler {
     }
 
     private void onForcedHistorySyncCompletion() {
-        for (var cachedJid : historyCache) {
-            var chat = socketHandler.store()
-                    .findChatByJid(cachedJid)
-                    .orElse(null);
-            if (chat == null) {
-                continue;
-            }
-
-            socketHandler.onChatRecentMessages(chat, true);
+        for (var jid : historySyncTracker.completeAll()) {
+            socketHandler.store()
+                    .findChatByJid(jid)
+                    .ifPresent(chat -> socketHandler.onChatRecentMessages(chat, true));
         }
-
-        historyCache.clear();
     }
 
 
-    private void handleConversations(HistorySync history) {
-        var store = socketHandler.store();
-        for (var chat : history.conversations()) {
-            for (var message : chat.messages()) {
-                attributeChatMessage(message.messageInfo());
+    // Conversations are merged into the store on the shard of their chat, so they don't race with the messages that are received while the history is synced
+    private CompletableFuture<Void> handleHistoryConversation(Type syncType, int chunk, Chat chat) {
+        var historyLength = socketHandler.store().historyLength();
+        return switch (syncType) {
+            case INITIAL_BOOTSTRAP -> {
+                if (!historyLength.isZero()) {
+                    historySyncTracker.track(chat.jid());
+                }
+
+                yield handleConversation(chat)
+                        .exceptionally(throwable -> socketHandler.handleFailure(HISTORY_SYNC, throwable));
             }
+            case RECENT, FULL -> {
+                if (historyLength.isZero()) {
+                    yield CompletableFuture.completedFuture(null);
+                }
+
+                var syncing = historySyncTracker.onConversation(chunk, chat.jid(), chat.messages().size());
+                yield handleConversation(chat).thenRun(() -> {
+                    if (syncType == Type.FULL) {
+                        socketHandler.store()
+                                .serializer()
+                                .serializeChat(socketHandler.store(), chat)
+                                .exceptionallyAsync(throwable -> socketHandler.handleFailure(HISTORY_SYNC, throwable));
+                    }
 
-            var pastParticipants = pastParticipantsQueue.remove(chat.jid());
-            if (pastParticipants != null) {
-                chat.addPastParticipants(pastParticipants);
+                    if (syncing) {
+                        socketHandler.onChatRecentMessages(chat, false);
+                    }
+                }).exceptionally(throwable -> socketHandler.handleFailure(HISTORY_SYNC, throwable));
             }
+            default -> CompletableFuture.completedFuture(null);
+        };
+    }
+
+    private CompletableFuture<Void> handleConversation(Chat chat) {
+        for (var message : chat.messages()) {
+            attributeChatMessage(message.messageInfo());
+        }
 
-            socketHandler.store().addChat(chat);
+        var pastParticipants = pastParticipantsQueue.remove(chat.jid());
+        if (pastParticipants != null) {
+            chat.addPastParticipants(pastParticipants);
         }
+
+        return executeOnChat(chat.jid(), () -> socketHandler.store().addChat(chat));
     }
 
     private void handleNonBlockingData(HistorySync history) {
@@ -1335,16 +1561,17 @@ class MessageHandler {
         }
 
         attributeSender(info, info.senderJid());
-        info.message()
-                .contentWithContext()
-                .flatMap(ContextualMessage::contextInfo)
-                .ifPresent(this::attributeContext);
-        processMessageWithSecret(info);
+        var content = info.message().content();
+        if (content instanceof ContextualMessage contextualMessage) {
+            contextualMessage.contextInfo()
+                    .ifPresent(this::attributeContext);
+        }
+        processMessageWithSecret(info, content);
         return info;
     }
 
-    private void processMessageWithSecret(ChatMessageInfo info) {
-        switch (info.message().content()) {
+    private void processMessageWithSecret(ChatMessageInfo info, Message content) {
+        switch (content) {
             case PollCreationMessage pollCreationMessage -> handlePollCreation(info, pollCreationMessage);
             case PollUpdateMessage pollUpdateMessage -> handlePollUpdate(info, pollUpdateMessage);
             case ReactionMessage reactionMessage -> handleReactionMessage(info, reactionMessage);
@@ -1418,10 +1645,90 @@ class MessageHandler {
                 .ifPresent(message -> message.reactions().add(reactionMessage));
     }
 
+    protected HistorySyncTracker historySyncTracker() {
+        return historySyncTracker;
+    }
+
     protected void dispose() {
-        historyCache.clear();
+        var current = shards;
+        if (current != null) {
+            current.shutdown();
+            this.shards = null;
+        }
+
+        historySyncTracker.clear();
         historySyncTask = null;
         historySyncTypes.clear();
+        recentHistoryProgress.clear();
+        fullHistoryProgress.clear();
+    }
+
+    /**
+     * The progress of the chunks of a type of history sync
+     * While a chunk is read, its progress is estimated assuming that it advances the sync as much as the previous chunk did:
+     * estimates are only reported if they advance the last reported progress and never reach the expected progress of the chunk, which is always reported once it's known
+     */
+    private static final class HistorySyncProgress {
+        private int last;
+        private int step;
+        private int reported;
+
+        private synchronized OptionalInt estimate(double consumed) {
+            if (step == 0) {
+                return OptionalInt.empty();
+            }
+
+            var expected = Math.min(100, last + step);
+            var result = last + (int) ((expected - last) * consumed);
+            if (result <= reported || result >= expected) {
+                return OptionalInt.empty();
+            }
+
+            this.reported = result;
+            return OptionalInt.of(result);
+        }
+
+        private synchronized void complete(int progress) {
+            if (progress > last) {
+                this.step = progress - last;
+            }
+
+            this.last = progress;
+            this.reported = progress;
+        }
+
+        private synchronized void clear() {
+            this.last = 0;
+            this.step = 0;
+            this.reported = 0;
+        }
+    }
+
+    private record BulkMessage(ChatMessageInfo info, byte[] encodedMessage, List<Jid> devices, List<Jid> companions) {
+
+    }
+
+    private record GroupEncryptResult(byte[] distributionMessage, CipheredMessageResult message) {
+
+    }
+
+    private record Shards(SerialExecutor[] inbound, SerialExecutor[] chats) {
+        private SerialExecutor inbound(Jid sender) {
+            return inbound[Math.floorMod(Objects.hashCode(sender), inbound.length)];
+        }
+
+        private SerialExecutor chat(Jid chat) {
+            return chats[Math.floorMod(Objects.hashCode(chat), chats.length)];
+        }
+
+        private boolean isShutdown() {
+            return inbound[0].isShutdown();
+        }
+
+        private void shutdown() {
+            Arrays.stream(inbound).forEach(SerialExecutor::shutdown);
+            Arrays.stream(chats).forEach(SerialExecutor::shutdown);
+        }
     }
 
     private record MessageDecodeResult(byte[] message, Throwable error) {
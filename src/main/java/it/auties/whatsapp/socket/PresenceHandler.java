@@ -0,0 +1,208 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.model.chat.Chat;
+import it.auties.whatsapp.model.contact.ContactStatus;
+import it.auties.whatsapp.model.jid.Jid;
+
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the presences of the participants of a chat: the presence of every participant is stored in {@link Chat#presences()} as soon as it's received,
+ * while listeners are notified in batches, every {@link #FLUSH_INTERVAL_MILLIS} milliseconds, of the latest presence of each participant that changed since the previous batch.
+ * Flushes are one-shot tasks: a flush only schedules the next one while there are updates to deliver or presences that may expire, so an idle session doesn't use the scheduler.
+ * A presence that isn't refreshed expires and is removed: typing and recording after {@link #TYPING_TTL_MILLIS} milliseconds, any other presence after {@link #PRESENCE_TTL_MILLIS} milliseconds.
+ * Presences can be restricted to a set of chats, in which case the updates about any other chat are dropped.
+ */
+class PresenceHandler {
+    private static final long FLUSH_INTERVAL_MILLIS = 250;
+    private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    private static final long TYPING_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long PRESENCE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final SocketHandler socketHandler;
+    private final Map<Jid, PendingUpdates> pending;
+    private final Map<Jid, Map<Jid, Long>> updates;
+    private volatile Set<Jid> subscriptions;
+    private ScheduledFuture<?> flushTask;
+    private long flushAt;
+    private volatile long nextSweep;
+
+    protected PresenceHandler(SocketHandler socketHandler) {
+        this.socketHandler = socketHandler;
+        this.pending = new ConcurrentHashMap<>();
+        this.updates = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Updates the presence of a participant of a chat
+     *
+     * @param chat   the non-null chat
+     * @param jid    the non-null participant
+     * @param status the non-null presence
+     */
+    protected void update(Chat chat, Jid jid, ContactStatus status) {
+        var chatJid = chat.jid();
+        var subscriptions = this.subscriptions;
+        if (subscriptions != null && !subscriptions.contains(chatJid)) {
+            return;
+        }
+
+        var now = System.currentTimeMillis();
+        updates.compute(chatJid, (ignored, table) -> {
+            var result = Objects.requireNonNullElseGet(table, ConcurrentHashMap<Jid, Long>::new);
+            result.put(jid, now);
+            return result;
+        });
+        var previous = chat.presences().put(jid, status);
+        if (previous == status) {
+            return;
+        }
+
+        socketHandler.store()
+                .findContactByJid(jid)
+                .ifPresent(contact -> {
+                    contact.setLastKnownPresence(status);
+                    contact.setLastSeen(ZonedDateTime.now());
+                });
+        pending.compute(chatJid, (ignored, value) -> {
+            var result = Objects.requireNonNullElseGet(value, () -> new PendingUpdates(chat, new LinkedHashMap<>()));
+            result.statuses().put(jid, status);
+            return result;
+        });
+        scheduleFlush(FLUSH_INTERVAL_MILLIS);
+    }
+
+    // A flush that is already scheduled is only replaced if it would run later than requested
+    private synchronized void scheduleFlush(long delayMillis) {
+        var now = System.currentTimeMillis();
+        var at = now + delayMillis;
+        if (flushTask != null) {
+            if (flushAt <= at) {
+                return;
+            }
+
+            flushTask.cancel(false);
+        }
+
+        if (nextSweep == 0) {
+            this.nextSweep = now + SWEEP_INTERVAL_MILLIS;
+        }
+
+        this.flushAt = at;
+        this.flushTask = socketHandler.runtime()
+                .scheduler()
+                .schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        for (var chatJid : pending.keySet()) {
+            var entry = pending.remove(chatJid);
+            if (entry == null) {
+                continue;
+            }
+
+            entry.statuses().forEach((jid, status) -> socketHandler.onContactPresence(entry.chat(), jid, status));
+        }
+
+        var now = System.currentTimeMillis();
+        if (now >= nextSweep) {
+            this.nextSweep = now + SWEEP_INTERVAL_MILLIS;
+            sweep(now);
+        }
+
+        onFlushed(now);
+    }
+
+    private synchronized void onFlushed(long now) {
+        this.flushTask = null;
+        if (!pending.isEmpty()) {
+            scheduleFlush(FLUSH_INTERVAL_MILLIS);
+            return;
+        }
+
+        if (!updates.isEmpty()) {
+            scheduleFlush(Math.max(0, nextSweep - now));
+            return;
+        }
+
+        this.nextSweep = 0;
+    }
+
+    // The table of a chat is swept and removed atomically, so an update can't land in a table that was just removed
+    private void sweep(long now) {
+        for (var chatJid : updates.keySet()) {
+            var chat = socketHandler.store().findChatByJid(chatJid);
+            updates.computeIfPresent(chatJid, (ignored, table) -> {
+                for (var entry : table.entrySet()) {
+                    var status = chat.map(value -> value.presences().get(entry.getKey()))
+                            .orElse(null);
+                    var ttl = status == ContactStatus.COMPOSING || status == ContactStatus.RECORDING ? TYPING_TTL_MILLIS : PRESENCE_TTL_MILLIS;
+                    if (now - entry.getValue() < ttl || !table.remove(entry.getKey(), entry.getValue())) {
+                        continue;
+                    }
+
+                    chat.ifPresent(value -> value.presences().remove(entry.getKey(), status));
+                }
+
+                return table.isEmpty() ? null : table;
+            });
+        }
+    }
+
+    /**
+     * Restricts the presences that are tracked to the ones of some chats
+     *
+     * @param chats the non-null chats to add
+     */
+    protected synchronized void subscribe(Collection<Jid> chats) {
+        var result = subscriptions == null ? new HashSet<Jid>() : new HashSet<>(subscriptions);
+        result.addAll(chats);
+        this.subscriptions = Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Stops tracking the presences of some chats
+     *
+     * @param chats the non-null chats to remove
+     */
+    protected synchronized void unsubscribe(Collection<Jid> chats) {
+        var result = subscriptions == null ? new HashSet<Jid>() : new HashSet<>(subscriptions);
+        result.removeAll(chats);
+        this.subscriptions = Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * Tracks the presences of every chat, which is the default
+     */
+    protected synchronized void resetSubscriptions() {
+        this.subscriptions = null;
+    }
+
+    /**
+     * Returns the chats whose presences are tracked
+     *
+     * @return an empty optional if every chat is tracked
+     */
+    protected Optional<Set<Jid>> subscriptions() {
+        return Optional.ofNullable(subscriptions);
+    }
+
+    protected synchronized void dispose() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            this.flushTask = null;
+        }
+
+        this.nextSweep = 0;
+        pending.clear();
+        updates.clear();
+    }
+
+    private record PendingUpdates(Chat chat, Map<Jid, ContactStatus> statuses) {
+
+    }
+}
@@ -0,0 +1,194 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.crypto.SessionBuilder;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.model.signal.keypair.SignalSignedKeyPair;
+import it.auties.whatsapp.util.BytesHelper;
+import it.auties.whatsapp.util.KeyHelper;
+import it.auties.whatsapp.util.Validate;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Establishes the signal sessions that are missing when a message is sent: devices are deduplicated against the lookups that are already in flight,
+ * the remaining ones are queued and sent in chunks, so devices requested by concurrent sends while a query is running are coalesced into the next one.
+ * The sessions in a response are built in parallel on the workers of the runtime, each one while holding the lock of its address.
+ */
+class SessionHandler {
+    private static final int CHUNK_SIZE = 200;
+    private static final int MAX_CONCURRENT_CHUNKS = 3;
+
+    private final SocketHandler socketHandler;
+    private final Map<Jid, CompletableFuture<Void>> inFlight;
+    private final Queue<Jid> pending;
+    private final AtomicInteger running;
+
+    protected SessionHandler(SocketHandler socketHandler) {
+        this.socketHandler = socketHandler;
+        this.inFlight = new ConcurrentHashMap<>();
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.running = new AtomicInteger();
+    }
+
+    /**
+     * Establishes a session with every device that doesn't have one
+     *
+     * @param devices the non-null devices
+     * @param force   whether sessions that already exist should be replaced
+     * @return a future that completes when every session was established
+     */
+    protected CompletableFuture<Void> establish(Collection<Jid> devices, boolean force) {
+        var results = new ArrayList<CompletableFuture<Void>>();
+        for (var device : devices) {
+            if (!force && socketHandler.keys().hasSession(device.toSignalAddress())) {
+                continue;
+            }
+
+            var future = new CompletableFuture<Void>();
+            var existing = inFlight.putIfAbsent(device, future);
+            if (existing != null) {
+                results.add(existing);
+                continue;
+            }
+
+            results.add(future);
+            pending.add(device);
+        }
+
+        if (results.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        drain();
+        return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new));
+    }
+
+    private void drain() {
+        while (!pending.isEmpty()) {
+            var current = running.get();
+            if (current >= MAX_CONCURRENT_CHUNKS) {
+                return;
+            }
+
+            if (!running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+
+            var chunk = new ArrayList<Jid>(CHUNK_SIZE);
+            Jid next;
+            while (chunk.size() < CHUNK_SIZE && (next = pending.poll()) != null) {
+                chunk.add(next);
+            }
+
+            if (chunk.isEmpty()) {
+                running.decrementAndGet();
+                return;
+            }
+
+            var users = chunk.stream()
+                    .map(device -> Node.of("user", Map.of("jid", device)))
+                    .toList();
+            socketHandler.sendQuery("get", "encrypt", Node.of("key", users))
+                    .thenCompose(this::parseChunk)
+                    .whenComplete((result, throwable) -> {
+                        completeChunk(chunk, throwable);
+                        running.decrementAndGet();
+                        drain();
+                    });
+        }
+    }
+
+    private void completeChunk(List<Jid> chunk, Throwable throwable) {
+        for (var device : chunk) {
+            var future = inFlight.remove(device);
+            if (future == null) {
+                continue;
+            }
+
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+            } else {
+                future.complete(null);
+            }
+        }
+    }
+
+    // A device whose session can't be built only fails the sends that wait for it, not the other devices in the chunk
+    private CompletableFuture<Void> parseChunk(Node node) {
+        var results = parseAsync(node).entrySet()
+                .stream()
+                .map(entry -> entry.getValue().whenComplete((result, throwable) -> {
+                    var future = inFlight.remove(entry.getKey());
+                    if (future == null) {
+                        return;
+                    }
+
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+                    } else {
+                        future.complete(null);
+                    }
+                }).exceptionally(ignored -> null))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(results);
+    }
+
+    /**
+     * Builds the sessions described by the response to an encrypt query
+     *
+     * @param node the non-null response
+     * @return a future that completes when every session was built
+     */
+    protected CompletableFuture<Void> parse(Node node) {
+        return CompletableFuture.allOf(parseAsync(node).values().toArray(CompletableFuture[]::new));
+    }
+
+    private Map<Jid, CompletableFuture<Void>> parseAsync(Node node) {
+        var users = node.findNode("list")
+                .orElseThrow(() -> new IllegalArgumentException("Cannot parse sessions: " + node))
+                .findNodes("user");
+        var executor = socketHandler.runtime().workersExecutor();
+        var results = new HashMap<Jid, CompletableFuture<Void>>();
+        for (var user : users) {
+            var jid = user.attributes()
+                    .getRequiredJid("jid");
+            results.put(jid, CompletableFuture.runAsync(() -> parseSession(jid, user), executor));
+        }
+
+        return results;
+    }
+
+    private void parseSession(Jid jid, Node node) {
+        Validate.isTrue(!node.hasNode("error"), "Erroneous session node", SecurityException.class);
+        var registrationId = node.findNode("registration")
+                .map(id -> BytesHelper.bytesToInt(id.contentAsBytes().orElseThrow(), 4))
+                .orElseThrow(() -> new NoSuchElementException("Missing id"));
+        var identity = node.findNode("identity")
+                .flatMap(Node::contentAsBytes)
+                .map(KeyHelper::withHeader)
+                .orElseThrow(() -> new NoSuchElementException("Missing identity"));
+        var signedKey = node.findNode("skey")
+                .flatMap(SignalSignedKeyPair::of)
+                .orElseThrow(() -> new NoSuchElementException("Missing signed key"));
+        var key = node.findNode("key")
+                .flatMap(SignalSignedKeyPair::of)
+                .orElse(null);
+        var address = jid.toSignalAddress();
+        socketHandler.signalLocks().withLock(address, () -> {
+            var builder = new SessionBuilder(address, socketHandler.keys());
+            builder.createOutgoing(registrationId, identity, signedKey, key);
+            return null;
+        });
+    }
+
+    protected void dispose() {
+        pending.clear();
+        inFlight.values().forEach(future -> future.cancel(true));
+        inFlight.clear();
+    }
+}
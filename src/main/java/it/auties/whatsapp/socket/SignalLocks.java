@@ -0,0 +1,41 @@
+package it.auties.whatsapp.socket;
+
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes the use of the signal state of a session or of a sender key: every operation that encrypts, decrypts or builds the state of the same address,
+ * like a {@link it.auties.whatsapp.model.signal.session.SessionAddress} or a {@link it.auties.whatsapp.model.signal.sender.SenderKeyName}, runs under the same lock,
+ * while operations on different addresses run in parallel unless their addresses share a stripe.
+ * A caller must never hold the lock of an address while acquiring the lock of another one.
+ */
+final class SignalLocks {
+    private static final int STRIPES = 256;
+
+    private final ReentrantLock[] locks;
+
+    SignalLocks() {
+        this.locks = new ReentrantLock[STRIPES];
+        for (var index = 0; index < locks.length; index++) {
+            locks[index] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Runs an action while holding the lock of an address
+     *
+     * @param address the non-null address
+     * @param action  the non-null action
+     * @return the result of the action
+     */
+    <T> T withLock(Object address, Supplier<T> action) {
+        var lock = locks[Math.floorMod(Objects.hashCode(address), locks.length)];
+        lock.lock();
+        try {
+            return action.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -38,10 +38,10 @@ import it.auties.whatsapp.model.sync.PatchType;
 import it.auties.whatsapp.model.sync.PrimaryFeature;
 import it.auties.whatsapp.util.Clock;
 import it.auties.whatsapp.util.ControllerHelper;
+import it.auties.whatsapp.util.HistorySyncTracker;
 
 import java.net.SocketException;
 import java.net.URI;
-import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
@@ -52,8 +52,6 @@ import static it.auties.whatsapp.model.chat.GroupSetting.*;
 
 @SuppressWarnings("unused")
 public class SocketHandler implements SocketListener {
-    private static final Executor DEFAULT_EXECUTOR = ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool() : runnable -> new Thread(runnable).start();
-
     private static final Set<UUID> connectedUuids = ConcurrentHashMap.newKeySet();
     private static final Set<Long> connectedPhoneNumbers = ConcurrentHashMap.newKeySet();
     private static final Set<String> connectedAlias = ConcurrentHashMap.newKeySet();
@@ -70,10 +68,19 @@ public class SocketHandler implements SocketListener {
 
     private final AppStateHandler appStateHandler;
 
+    private final UsyncHandler usyncHandler;
+    private final SessionHandler sessionHandler;
+
+    private final PresenceHandler presenceHandler;
+
+    private final SignalLocks signalLocks;
+
     private final ErrorHandler errorHandler;
 
     private final Executor socketExecutor;
 
+    private final WhatsappRuntime runtime;
+
     private volatile SocketState state;
 
     private Keys keys;
@@ -82,8 +89,6 @@ public class SocketHandler implements SocketListener {
 
     private Thread shutdownHook;
 
-    private ExecutorService listenersService;
-
     public static boolean isConnected(UUID uuid) {
         return connectedUuids.contains(uuid);
     }
@@ -96,7 +101,7 @@ public class SocketHandler implements SocketListener {
         return connectedAlias.contains(id);
     }
 
-    public SocketHandler(Whatsapp whatsapp, Store store, Keys keys, ErrorHandler errorHandler, WebVerificationSupport webVerificationSupport, Executor socketExecutor) {
+    public SocketHandler(Whatsapp whatsapp, Store store, Keys keys, ErrorHandler errorHandler, WebVerificationSupport webVerificationSupport, Executor socketExecutor, WhatsappRuntime runtime) {
         this.whatsapp = whatsapp;
         this.store = store;
         this.keys = keys;
@@ -105,8 +110,13 @@ public class SocketHandler implements SocketListener {
         this.streamHandler = new StreamHandler(this, webVerificationSupport);
         this.messageHandler = new MessageHandler(this);
         this.appStateHandler = new AppStateHandler(this);
+        this.usyncHandler = new UsyncHandler(this);
+        this.sessionHandler = new SessionHandler(this);
+        this.presenceHandler = new PresenceHandler(this);
+        this.signalLocks = new SignalLocks();
         this.errorHandler = Objects.requireNonNullElse(errorHandler, ErrorHandler.toTerminal());
-        this.socketExecutor = Objects.requireNonNullElse(socketExecutor, DEFAULT_EXECUTOR);
+        this.runtime = Objects.requireNonNullElseGet(runtime, WhatsappRuntime::shared);
+        this.socketExecutor = Objects.requireNonNullElseGet(socketExecutor, this.runtime::socketExecutor);
     }
 
     private void onShutdown(boolean reconnect) {
@@ -127,7 +137,7 @@ public class SocketHandler implements SocketListener {
     }
 
     private void callListenersAsync(Consumer<Listener> consumer) {
-        var service = getOrCreateListenersService();
+        var service = runtime.listenersExecutor();
         store.listeners().forEach(listener -> service.execute(() -> invokeListenerSafe(consumer, listener)));
     }
 
@@ -240,7 +250,8 @@ public class SocketHandler implements SocketListener {
             return CompletableFuture.completedFuture(null);
         }
 
-        this.session = SocketSession.of(store.proxy().orElse(null), socketExecutor, store.clientType() == ClientType.WEB);
+        runtime.register(whatsapp);
+        this.session = SocketSession.of(store.proxy().orElse(null), store.socketEndpoint().orElse(null), socketExecutor, runtime, store.clientType() == ClientType.WEB);
         return session.connect(this);
     }
 
@@ -314,6 +325,31 @@ public class SocketHandler implements SocketListener {
         messageHandler.decode(node, chatOverride, notify);
     }
 
+    protected void decodeMessageAsync(Node node) {
+        messageHandler.decodeAsync(node);
+    }
+
+    protected void executeInbound(Node node, Runnable task) {
+        messageHandler.executeInbound(node, () -> {
+            try {
+                task.run();
+            } catch (Throwable throwable) {
+                handleFailure(STREAM, throwable);
+            }
+        });
+    }
+
+    /**
+     * Runs a task that updates a chat in the store, after the updates of the same chat that were submitted before it
+     *
+     * @param chat the non-null jid of the chat
+     * @param task the non-null task
+     * @return a future that completes when the task has run
+     */
+    public CompletableFuture<Void> executeOnChat(Jid chat, Runnable task) {
+        return messageHandler.executeOnChat(chat, task);
+    }
+
     public CompletableFuture<Void> sendPeerMessage(Jid companion, ProtocolMessage message) {
         if (message == null) {
             return CompletableFuture.completedFuture(null);
@@ -342,6 +378,10 @@ public class SocketHandler implements SocketListener {
         return messageHandler.encode(request);
     }
 
+    public Map<Jid, CompletableFuture<ChatMessageInfo>> sendBulkMessage(List<ChatMessageInfo> infos, int concurrency) {
+        return messageHandler.encodeBulk(infos, concurrency);
+    }
+
     @SuppressWarnings("UnusedReturnValue")
     public CompletableFuture<Void> sendQueryWithNoResponse(String method, String category, Node... body) {
         return sendQueryWithNoResponse(null, JidServer.WHATSAPP.toJid(), method, category, null, body);
@@ -365,7 +405,7 @@ public class SocketHandler implements SocketListener {
         return node.toRequest(null, false)
                 .sendWithNoResponse(session, keys, store)
                 .exceptionallyAsync(throwable -> handleFailure(STREAM, throwable))
-                .thenRunAsync(() -> onNodeSent(node));
+                .thenRun(() -> onNodeSent(node));
     }
 
     private void onNodeSent(Node node) {
@@ -376,18 +416,16 @@ public class SocketHandler implements SocketListener {
     }
 
     public CompletableFuture<Optional<ContactStatusResponse>> queryAbout(JidProvider chat) {
-        var query = Node.of("status");
-        var body = Node.of("user", Map.of("jid", chat.toJid()));
-        return sendInteractiveQuery(query, body).thenApplyAsync(this::parseStatus);
+        return queryUsync(UsyncProtocol.STATUS, List.of(chat.toJid()))
+                .thenApply(result -> parseStatus(List.copyOf(result.values())));
+    }
+
+    public CompletableFuture<Map<Jid, Node>> queryUsync(UsyncProtocol protocol, Collection<Jid> jids) {
+        return usyncHandler.query(protocol, jids);
     }
 
-    public CompletableFuture<List<Node>> sendInteractiveQuery(Node queryNode, Node... queryBody) {
-        var query = Node.of("query", queryNode);
-        var list = Node.of("list", queryBody);
-        var sync = Node.of("usync",
-                Map.of("sid", ChatMessageKey.randomId(), "mode", "query", "last", "true", "index", "0", "context", "interactive"),
-                query, list);
-        return sendQuery("get", "usync", sync).thenApplyAsync(this::parseQueryResult);
+    public void invalidateUsync(UsyncProtocol protocol, Jid jid) {
+        usyncHandler.invalidate(protocol, jid);
     }
 
     private Optional<ContactStatusResponse> parseStatus(List<Node> responses) {
@@ -402,16 +440,6 @@ public class SocketHandler implements SocketListener {
         return sendQuery(null, JidServer.WHATSAPP.toJid(), method, category, null, body);
     }
 
-    private List<Node> parseQueryResult(Node result) {
-        return result.findNodes("usync")
-                .stream()
-                .map(node -> node.findNode("list"))
-                .flatMap(Optional::stream)
-                .map(node -> node.findNodes("user"))
-                .flatMap(Collection::stream)
-                .toList();
-    }
-
     public CompletableFuture<Node> sendQuery(String id, Jid to, String method, String category, Map<String, Object> metadata, Node... body) {
         var attributes = Attributes.ofNullable(metadata)
                 .put("xmlns", category, Objects::nonNull)
@@ -445,12 +473,12 @@ public class SocketHandler implements SocketListener {
         var body = Node.of("picture", Map.of("query", "url", "type", "image"));
         if (chat.toJid().hasServer(JidServer.GROUP)) {
             return queryGroupMetadata(chat.toJid())
-                    .thenComposeAsync(result -> sendQuery("get", "w:profile:picture", Map.of(result.isCommunity() ? "parent_group_jid" : "target", chat.toJid()), body))
-                    .thenApplyAsync(this::parseChatPicture);
+                    .thenCompose(result -> sendQuery("get", "w:profile:picture", Map.of(result.isCommunity() ? "parent_group_jid" : "target", chat.toJid()), body))
+                    .thenApply(this::parseChatPicture);
         }
 
         return sendQuery("get", "w:profile:picture", Map.of("target", chat.toJid()), body)
-                .thenApplyAsync(this::parseChatPicture);
+                .thenApply(this::parseChatPicture);
     }
 
     public CompletableFuture<Node> sendQuery(String method, String category, Map<String, Object> metadata, Node... body) {
@@ -465,7 +493,7 @@ public class SocketHandler implements SocketListener {
 
     public CompletableFuture<List<Jid>> queryBlockList() {
         return sendQuery("get", "blocklist", (Node) null)
-                .thenApplyAsync(this::parseBlockList);
+                .thenApply(this::parseBlockList);
     }
 
     private List<Jid> parseBlockList(Node result) {
@@ -483,9 +511,29 @@ public class SocketHandler implements SocketListener {
         return sendWithNoResponse(node);
     }
 
+    public CompletableFuture<Void> subscribeToPresences(Collection<Jid> chats) {
+        presenceHandler.subscribe(chats);
+        var results = chats.stream()
+                .map(this::subscribeToPresence)
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(results);
+    }
+
+    public void unsubscribeFromPresences(Collection<Jid> chats) {
+        presenceHandler.unsubscribe(chats);
+    }
+
+    public void resetPresenceSubscriptions() {
+        presenceHandler.resetSubscriptions();
+    }
+
+    public Optional<Set<Jid>> presenceSubscriptions() {
+        return presenceHandler.subscriptions();
+    }
+
     public CompletableFuture<OptionalLong> subscribeToNewsletterReactions(JidProvider channel) {
         return sendQuery(channel.toJid(), "set", "newsletter", Node.of("live_updates"))
-                .thenApplyAsync(this::parseNewsletterSubscription);
+                .thenApply(this::parseNewsletterSubscription);
     }
 
     private OptionalLong parseNewsletterSubscription(Node result) {
@@ -517,7 +565,7 @@ public class SocketHandler implements SocketListener {
     public CompletableFuture<GroupMetadata> queryGroupMetadata(JidProvider group) {
         var body = Node.of("query", Map.of("request", "interactive"));
         return sendQuery(group.toJid(), "get", "w:g2", body)
-                .thenApplyAsync(this::handleGroupMetadata);
+                .thenApply(this::handleGroupMetadata);
     }
 
     protected GroupMetadata handleGroupMetadata(Node response) {
@@ -659,17 +707,10 @@ public class SocketHandler implements SocketListener {
     }
 
     protected void onUpdateChatPresence(ContactStatus status, Jid jid, Chat chat) {
-        var contact = store.findContactByJid(jid);
-        if (contact.isPresent()) {
-            contact.get().setLastKnownPresence(status);
-            if (status == contact.get().lastKnownPresence()) {
-                return;
-            }
-
-            contact.get().setLastSeen(ZonedDateTime.now());
-        }
+        presenceHandler.update(chat, jid, status);
+    }
 
-        chat.presences().put(jid, status);
+    protected void onContactPresence(Chat chat, Jid jid, ContactStatus status) {
         callListenersAsync(listener -> {
             listener.onContactPresence(whatsapp, chat, jid, status);
             listener.onContactPresence(chat, jid, status);
@@ -749,7 +790,7 @@ public class SocketHandler implements SocketListener {
     }
 
     public void callListenersSync(Consumer<Listener> consumer) {
-        var service = getOrCreateListenersService();
+        var service = runtime.listenersExecutor();
         var futures = store.listeners()
                 .stream()
                 .map(listener -> CompletableFuture.runAsync(() -> invokeListenerSafe(consumer, listener), service))
@@ -766,9 +807,10 @@ public class SocketHandler implements SocketListener {
     }
 
     protected void onChats() {
+        var chats = store().chats();
         callListenersAsync(listener -> {
-            listener.onChats(whatsapp, store().chats());
-            listener.onChats(store().chats());
+            listener.onChats(whatsapp, chats);
+            listener.onChats(chats);
         });
     }
 
@@ -807,6 +849,29 @@ public class SocketHandler implements SocketListener {
         });
     }
 
+    protected void onHistorySyncEstimatedProgress(int progress, boolean recent) {
+        callListenersAsync(listener -> {
+            listener.onHistorySyncEstimatedProgress(whatsapp, progress, recent);
+            listener.onHistorySyncEstimatedProgress(progress, recent);
+        });
+    }
+
+    /**
+     * Calls a listener once, for the first reply to a message
+     * Listeners that time out are discarded silently, while the ones that are evicted from the pending replies are reported to the error handler
+     *
+     * @param id       the non-null id of the message
+     * @param listener the non-null listener
+     */
+    public void addReplyListener(String id, Consumer<ChatMessageInfo> listener) {
+        store.addPendingReply(id)
+                .thenAcceptAsync(listener, runtime.listenersExecutor())
+                .exceptionallyAsync(throwable -> {
+                    var cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                    return cause instanceof TimeoutException ? null : handleFailure(MESSAGE, cause);
+                });
+    }
+
     protected void onReply(ChatMessageInfo info) {
         var quoted = info.quotedMessage().orElse(null);
         if (quoted == null) {
@@ -860,9 +925,10 @@ public class SocketHandler implements SocketListener {
         var self = store.jid()
                 .orElseThrow(() -> new IllegalStateException("The session isn't connected"))
                 .withoutDevice();
-        store().findContactByJid(self)
+        var contact = store().findContactByJid(self)
                 .orElseGet(() -> store().addContact(self))
                 .setChosenName(newName);
+        store().refreshContactIndex(contact);
         store().setName(newName);
     }
 
@@ -934,17 +1000,10 @@ public class SocketHandler implements SocketListener {
         streamHandler.dispose();
         messageHandler.dispose();
         appStateHandler.dispose();
-        if (listenersService != null) {
-            listenersService.shutdownNow();
-        }
-    }
-
-    private ExecutorService getOrCreateListenersService() {
-        if (listenersService == null || listenersService.isShutdown()) {
-            listenersService = Executors.newCachedThreadPool();
-        }
-
-        return listenersService;
+        usyncHandler.dispose();
+        sessionHandler.dispose();
+        presenceHandler.dispose();
+        runtime.unregister(whatsapp);
     }
 
     protected <T> T handleFailure(Location location, Throwable throwable) {
@@ -966,13 +1025,22 @@ public class SocketHandler implements SocketListener {
                 .thenCompose(values -> messageHandler.querySessions(values, false));
     }
 
+    public CompletableFuture<Void> querySessions(Collection<Jid> jids) {
+        return messageHandler.getDevices(List.copyOf(jids), true)
+                .thenCompose(values -> establishSessions(values, false));
+    }
+
+    protected CompletableFuture<Void> establishSessions(Collection<Jid> devices, boolean force) {
+        return sessionHandler.establish(devices, force);
+    }
+
     public void parseSessions(Node result) {
-        messageHandler.parseSessions(result);
+        sessionHandler.parse(result).join();
     }
 
     public CompletableFuture<List<BusinessCategory>> queryBusinessCategories() {
         return sendQuery("get", "fb:thrift_iq", Node.of("request", Map.of("op", "profile_typeahead", "type", "catkit", "v", "1"), Node.of("query", List.of())))
-                .thenApplyAsync(this::parseBusinessCategories);
+                .thenApply(this::parseBusinessCategories);
     }
 
     private List<BusinessCategory> parseBusinessCategories(Node result) {
@@ -1001,6 +1069,18 @@ public class SocketHandler implements SocketListener {
         return this.store;
     }
 
+    public WhatsappRuntime runtime() {
+        return runtime;
+    }
+
+    protected SignalLocks signalLocks() {
+        return signalLocks;
+    }
+
+    public HistorySyncTracker historySyncTracker() {
+        return messageHandler.historySyncTracker();
+    }
+
     protected SocketHandler setState(SocketState state) {
         this.state = state;
         return this;
@@ -98,12 +98,16 @@ public record SocketRequest(String id, Object body, CompletableFuture<Node> futu
             if(prologue) {
                 dataOutputStream.write(getPrologueData(store));
             }
-            dataOutputStream.writeInt(ciphered.length >> 16);
+            dataOutputStream.writeByte(ciphered.length >> 16);
             dataOutputStream.writeShort(65535 & ciphered.length);
             dataOutputStream.write(ciphered);
+            // The request is registered before it's sent so that a fast response can't arrive before it can be matched
+            if (response) {
+                store.addRequest(this);
+            }
+
             session.sendBinary(byteArrayOutputStream.toByteArray())
-                    .thenRunAsync(() -> onSendSuccess(store, response))
-                    .exceptionallyAsync(this::onSendError);
+                    .whenComplete((ignored, throwable) -> onSendResult(response, throwable));
             return future;
         }catch (IOException exception) {
             throw new RequestException(exception);
@@ -141,18 +145,15 @@ public record SocketRequest(String id, Object body, CompletableFuture<Node> futu
         };
     }
 
-    private void onSendSuccess(Store store, boolean response) {
-        if (!response) {
-            future.complete(null);
+    private void onSendResult(boolean response, Throwable throwable) {
+        if (throwable != null) {
+            future.completeExceptionally(new IOException("Cannot send %s, an unknown exception occurred".formatted(this), throwable));
             return;
         }
 
-        store.addRequest(this);
-    }
-
-    private Void onSendError(Throwable throwable) {
-        future.completeExceptionally(new IOException("Cannot send %s, an unknown exception occurred".formatted(this), throwable));
-        return null;
+        if (!response) {
+            future.complete(null);
+        }
     }
 
     /**
@@ -175,7 +176,7 @@ public record SocketRequest(String id, Object body, CompletableFuture<Node> futu
      */
     public CompletableFuture<Void> sendWithNoResponse(SocketSession session, Keys keys, Store store) {
         return send(session, keys, store, false, false)
-                .thenRunAsync(() -> {
+                .thenRun(() -> {
                 });
     }
 
@@ -1,5 +1,6 @@
 package it.auties.whatsapp.socket;
 
+import it.auties.whatsapp.api.WhatsappRuntime;
 import it.auties.whatsapp.exception.RequestException;
 import it.auties.whatsapp.util.ProxyAuthenticator;
 import it.auties.whatsapp.util.Specification;
@@ -10,7 +11,6 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.*;
 import java.net.Proxy.Type;
-import java.net.http.HttpClient;
 import java.net.http.WebSocket;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -26,15 +26,19 @@ import static it.auties.whatsapp.util.Specification.Whatsapp.SOCKET_ENDPOINT;
 import static it.auties.whatsapp.util.Specification.Whatsapp.SOCKET_PORT;
 
 public abstract sealed class SocketSession permits SocketSession.WebSocketSession, SocketSession.RawSocketSession {
+    private static final String RAW_SOCKET_SCHEME = "tcp";
+
     final URI proxy;
+    final URI endpoint;
     final Executor executor;
-    final ReentrantLock outputLock;
+    final WhatsappRuntime runtime;
     SocketListener listener;
 
-    private SocketSession(URI proxy, Executor executor) {
+    private SocketSession(URI proxy, URI endpoint, Executor executor, WhatsappRuntime runtime) {
         this.proxy = proxy;
+        this.endpoint = endpoint;
         this.executor = executor;
-        this.outputLock = new ReentrantLock(true);
+        this.runtime = runtime;
     }
 
     abstract CompletableFuture<Void> connect(SocketListener listener);
@@ -45,12 +49,12 @@ public abstract sealed class SocketSession permits SocketSession.WebSocketSessio
 
     abstract boolean isOpen();
 
-    static SocketSession of(URI proxy, Executor executor, boolean webSocket) {
-        if (webSocket) {
-            return new WebSocketSession(proxy, executor);
+    static SocketSession of(URI proxy, URI endpoint, Executor executor, WhatsappRuntime runtime, boolean webSocket) {
+        if (endpoint != null ? !RAW_SOCKET_SCHEME.equalsIgnoreCase(endpoint.getScheme()) : webSocket) {
+            return new WebSocketSession(proxy, endpoint, executor, runtime);
         }
 
-        return new RawSocketSession(proxy, executor);
+        return new RawSocketSession(proxy, endpoint, executor, runtime);
     }
 
     Proxy getProxy() {
@@ -79,13 +83,14 @@ public abstract sealed class SocketSession permits SocketSession.WebSocketSessio
     public static final class WebSocketSession extends SocketSession implements WebSocket.Listener {
         private WebSocket session;
         private final List<ByteBuffer> inputParts;
+        private CompletableFuture<Void> lastSend;
 
-        WebSocketSession(URI proxy, Executor executor) {
-            super(proxy, executor);
+        WebSocketSession(URI proxy, URI endpoint, Executor executor, WhatsappRuntime runtime) {
+            super(proxy, endpoint, executor, runtime);
             this.inputParts = new ArrayList<>(5);
+            this.lastSend = CompletableFuture.completedFuture(null);
         }
 
-        @SuppressWarnings("resource") // Not needed
         @Override
         CompletableFuture<Void> connect(SocketListener listener) {
             if (isOpen()) {
@@ -93,13 +98,9 @@ public abstract sealed class SocketSession permits SocketSession.WebSocketSessio
             }
 
             this.listener = listener;
-            return HttpClient.newBuilder()
-                    .executor(executor)
-                    .proxy(ProxySelector.of((InetSocketAddress) getProxy().address()))
-                    .authenticator(new ProxyAuthenticator())
-                    .build()
+            return runtime.httpClient((InetSocketAddress) getProxy().address(), executor)
                     .newWebSocketBuilder()
-                    .buildAsync(Specification.Whatsapp.WEB_SOCKET_ENDPOINT, this)
+                    .buildAsync(Objects.requireNonNullElse(endpoint, Specification.Whatsapp.WEB_SOCKET_ENDPOINT), this)
                     .thenRun(() -> listener.onOpen(this));
         }
 
@@ -112,15 +113,32 @@ public abstract sealed class SocketSession permits SocketSession.WebSocketSessio
             session.sendClose(WebSocket.NORMAL_CLOSURE, "");
         }
 
+        // A web socket accepts a single outstanding send: instead of holding a lock until the send completes, each send is chained to the previous one
         @Override
         public CompletableFuture<Void> sendBinary(byte[] bytes) {
-            outputLock.lock();
-            return session.sendBinary(ByteBuffer.wrap(bytes), true)
-                    .thenRun(outputLock::unlock)
-                    .exceptionally(exception -> {
-                        outputLock.unlock();
-                        throw new RequestException(exception);
-                    });
+            var result = new CompletableFuture<Void>();
+            synchronized (this) {
+                var previous = lastSend;
+                this.lastSend = result;
+                previous.whenComplete((ignored, previousError) -> send(bytes, result));
+            }
+
+            return result;
+        }
+
+        private void send(byte[] bytes, CompletableFuture<Void> result) {
+            try {
+                session.sendBinary(ByteBuffer.wrap(bytes), true).whenComplete((socket, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(new RequestException(error));
+                        return;
+                    }
+
+                    result.complete(null);
+                });
+            } catch (Throwable throwable) {
+                result.completeExceptionally(new RequestException(throwable));
+            }
         }
 
         @Override
@@ -200,11 +218,13 @@ public abstract sealed class SocketSession permits SocketSession.WebSocketSessio
             Authenticator.setDefault(new ProxyAuthenticator());
         }
 
+        private final ReentrantLock outputLock;
         private Socket socket;
         private boolean closed;
 
-        RawSocketSession(URI proxy, Executor executor) {
-            super(proxy, executor);
+        RawSocketSession(URI proxy, URI endpoint, Executor executor, WhatsappRuntime runtime) {
+            super(proxy, endpoint, executor, runtime);
+            this.outputLock = new ReentrantLock();
         }
 
         @Override
@@ -218,7 +238,7 @@ public abstract sealed class SocketSession permits SocketSession.WebSocketSessio
                     this.listener = listener;
                     this.socket = new Socket(getProxy());
                     socket.setKeepAlive(true);
-                    socket.connect(new InetSocketAddress(SOCKET_ENDPOINT, SOCKET_PORT));
+                    socket.connect(endpoint == null ? new InetSocketAddress(SOCKET_ENDPOINT, SOCKET_PORT) : new InetSocketAddress(endpoint.getHost(), endpoint.getPort()));
                     executor.execute(this::readMessages);
                     this.closed = false;
                     listener.onOpen(this);
@@ -252,8 +272,8 @@ public abstract sealed class SocketSession permits SocketSession.WebSocketSessio
         @Override
         public CompletableFuture<Void> sendBinary(byte[] bytes) {
             return CompletableFuture.runAsync(() -> {
+                outputLock.lock();
                 try {
-                    outputLock.lock();
                     if (socket == null) {
                         return;
                     }
@@ -280,7 +300,6 @@ public abstract sealed class SocketSession permits SocketSession.WebSocketSessio
 
                     var message = new byte[length];
                     input.readFully(message);
-                    System.out.println(message.length);
                     try {
                         listener.onMessage(message);
                     }catch (Throwable throwable) {
@@ -63,17 +63,15 @@ import java.util.Map.Entry;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static it.auties.whatsapp.api.ErrorHandler.Location.*;
 import static it.auties.whatsapp.util.Specification.Signal.KEY_BUNDLE_TYPE;
+import static it.auties.whatsapp.util.Specification.Signal.MIN_PRE_KEYS;
 import static it.auties.whatsapp.util.Specification.Whatsapp.ACCOUNT_SIGNATURE_HEADER;
 import static it.auties.whatsapp.util.Specification.Whatsapp.DEVICE_WEB_SIGNATURE_HEADER;
 
 class StreamHandler {
-    private static final int REQUIRED_PRE_KEYS_SIZE = 5;
-    private static final int PRE_KEYS_UPLOAD_CHUNK = 30;
     private static final int PING_INTERVAL = 30;
     private static final int MEDIA_CONNECTION_DEFAULT_INTERVAL = 60;
     private static final int MAX_ATTEMPTS = 5;
@@ -83,7 +81,7 @@ class StreamHandler {
     private final WebVerificationSupport webVerificationSupport;
     private final Map<String, Integer> retries;
     private final AtomicReference<String> lastLinkCodeKey;
-    private ScheduledExecutorService service;
+    private ScheduledFuture<?> pingTask;
 
     protected StreamHandler(SocketHandler socketHandler, WebVerificationSupport webVerificationSupport) {
         this.socketHandler = socketHandler;
@@ -99,11 +97,11 @@ class StreamHandler {
             case "failure" -> digestFailure(node);
             case "ib" -> digestIb(node);
             case "iq" -> digestIq(node);
-            case "receipt" -> digestReceipt(node);
+            case "receipt" -> socketHandler.executeInbound(node, () -> digestReceipt(node));
             case "stream:error" -> digestError(node);
             case "success" -> digestSuccess(node);
-            case "message" -> socketHandler.decodeMessage(node, null, true);
-            case "notification" -> digestNotification(node);
+            case "message" -> socketHandler.decodeMessageAsync(node);
+            case "notification" -> socketHandler.executeInbound(node, () -> digestNotification(node));
             case "presence", "chatstate" -> digestChatState(node);
         }
     }
@@ -186,7 +184,7 @@ class StreamHandler {
         var type = node.attributes().getOptionalString("type");
         var status = type.flatMap(MessageStatus::of)
                 .orElse(MessageStatus.DELIVERED);
-        socketHandler.store().findChatByJid(chatJid).ifPresent(chat -> {
+        socketHandler.store().findChatByJid(chatJid).ifPresent(chat -> socketHandler.executeOnChat(chatJid, () -> {
             var newCount = chat.unreadMessagesCount() - 1;
             chat.setUnreadMessagesCount(newCount);
             var participant = node.attributes()
@@ -195,7 +193,7 @@ class StreamHandler {
                     .orElse(null);
             updateReceipt(status, chat, participant, message);
             socketHandler.onMessageStatus(message);
-        });
+        }).exceptionally(throwable -> socketHandler.handleFailure(STREAM, throwable)));
 
         message.setStatus(status);
         if (Objects.equals(type.orElse(null), "retry")) {
@@ -261,7 +259,7 @@ class StreamHandler {
         var from = node.attributes()
                 .getRequiredJid("from");
         socketHandler.sendMessageAck(from, node);
-        var callNode = node.children().peekFirst();
+        var callNode = node.findNode().orElse(null);
         if (callNode == null) {
             return;
         }
@@ -354,6 +352,7 @@ class StreamHandler {
                 case "link_code_companion_reg" -> handleCompanionRegistration(node);
                 case "newsletter" -> handleNewsletter(from, node);
                 case "mex" -> handleMexNamespace(node);
+                case "status" -> socketHandler.invalidateUsync(UsyncProtocol.STATUS, from);
             }
         } finally {
             socketHandler.sendMessageAck(from, node);
@@ -454,6 +453,7 @@ class StreamHandler {
                 updatedMetadata.creationTimestampSeconds().isPresent() ? updatedMetadata.creationTimestampSeconds() : oldMetadata.creationTimestampSeconds()
         );
         newsletter.setMetadata(mergedMetadata);
+        socketHandler.store().refreshNewsletterIndex(newsletter);
     }
 
     private void handleNewsletterJoin(Node update) {
@@ -612,8 +612,10 @@ class StreamHandler {
                 .stubParameters(parameters)
                 .senderJid(participantJid)
                 .build();
-        chat.addNewMessage(message);
-        socketHandler.onNewMessage(message);
+        socketHandler.executeOnChat(chat.jid(), () -> {
+            chat.addNewMessage(message);
+            socketHandler.onNewMessage(message);
+        }).exceptionally(throwable -> socketHandler.handleFailure(STREAM, throwable));
         if (participantJid == null) {
             return;
         }
@@ -662,7 +664,7 @@ class StreamHandler {
                 .orElseThrow(() -> new NoSuchElementException("Missing count in notification"))
                 .attributes()
                 .getLong("value");
-        if (keysSize >= REQUIRED_PRE_KEYS_SIZE) {
+        if (keysSize >= MIN_PRE_KEYS) {
             return;
         }
         sendPreKeys();
@@ -852,6 +854,8 @@ class StreamHandler {
         socketHandler.sendQuery("set", "passive", Node.of("active"));
         if (!socketHandler.keys().hasPreKeys()) {
             sendPreKeys();
+        } else {
+            socketHandler.keys().preparePreKeys(socketHandler.runtime().workersExecutor());
         }
 
         createMediaConnection(0, null);
@@ -988,12 +992,13 @@ class StreamHandler {
     }
 
     private void schedulePing() {
-        if (service != null && !service.isShutdown()) {
+        if (pingTask != null && !pingTask.isDone()) {
             return;
         }
 
-        service = Executors.newSingleThreadScheduledExecutor();
-        service.scheduleAtFixedRate(this::sendPing, 0, PING_INTERVAL, TimeUnit.SECONDS);
+        this.pingTask = socketHandler.runtime()
+                .scheduler()
+                .scheduleAtFixedRate(this::sendPing, 0, PING_INTERVAL, TimeUnit.SECONDS);
     }
 
     private void onInitialInfo() {
@@ -1096,6 +1101,10 @@ class StreamHandler {
             return CompletableFuture.completedFuture(null);
         }
 
+        if (update) {
+            socketHandler.invalidateUsync(UsyncProtocol.STATUS, jid.get());
+        }
+
         return socketHandler.queryAbout(jid.get().withoutDevice())
                 .thenAcceptAsync(result -> parseNewAbout(result.orElse(null), update));
     }
@@ -1175,6 +1184,12 @@ class StreamHandler {
         socketHandler.sendQuery("get", "w:p", Node.of("ping"))
                 .thenRun(() -> socketHandler.onSocketEvent(SocketEvent.PING))
                 .exceptionallyAsync(throwable -> socketHandler.handleFailure(STREAM, throwable));
+        // The scheduler is shared by every session of the runtime, so the serialization, which may block on the disk, runs on the workers
+        CompletableFuture.runAsync(this::serializeSession, socketHandler.runtime().workersExecutor())
+                .exceptionallyAsync(throwable -> socketHandler.handleFailure(STREAM, throwable));
+    }
+
+    private void serializeSession() {
         socketHandler.store().serialize(true);
         socketHandler.store().serializer().linkMetadata(socketHandler.store());
         socketHandler.keys().serialize(true);
@@ -1232,17 +1247,15 @@ class StreamHandler {
     }
 
     private void sendPreKeys() {
-        var startId = socketHandler.keys().lastPreKeyId() + 1;
-        var preKeys = IntStream.range(startId, startId + PRE_KEYS_UPLOAD_CHUNK)
-                .mapToObj(SignalPreKeyPair::random)
-                .peek(socketHandler.keys()::addPreKey)
-                .map(SignalPreKeyPair::toNode)
-                .toList();
-        socketHandler.sendQuery("set", "encrypt",
-                Node.of("registration", socketHandler.keys().encodedRegistrationId()),
-                Node.of("type", KEY_BUNDLE_TYPE),
-                Node.of("identity", socketHandler.keys().identityKeyPair().publicKey()),
-                Node.of("list", preKeys), socketHandler.keys().signedKeyPair().toNode());
+        var executor = socketHandler.runtime().workersExecutor();
+        CompletableFuture.supplyAsync(() -> socketHandler.keys().generatePreKeys(executor), executor)
+                .thenComposeAsync(preKeys -> socketHandler.sendQuery("set", "encrypt",
+                        Node.of("registration", socketHandler.keys().encodedRegistrationId()),
+                        Node.of("type", KEY_BUNDLE_TYPE),
+                        Node.of("identity", socketHandler.keys().identityKeyPair().publicKey()),
+                        Node.of("list", preKeys.stream().map(SignalPreKeyPair::toNode).toList()),
+                        socketHandler.keys().signedKeyPair().toNode()))
+                .exceptionallyAsync(throwable -> socketHandler.handleFailure(CRYPTOGRAPHY, throwable));
     }
 
     private void generateQrCode(Node node, Node container) {
@@ -1402,8 +1415,8 @@ class StreamHandler {
 
     protected void dispose() {
         retries.clear();
-        if (service != null) {
-            service.shutdownNow();
+        if (pingTask != null) {
+            pingTask.cancel(true);
         }
 
         lastLinkCodeKey.set(null);
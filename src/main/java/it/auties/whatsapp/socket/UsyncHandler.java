@@ -0,0 +1,254 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.api.UsyncSettings;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.message.model.ChatMessageKey;
+import it.auties.whatsapp.model.node.Node;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Batches usync lookups: users are deduplicated against the cache and against the lookups that are already in flight,
+ * the remaining ones are split into chunks and the chunks are sent concurrently within the limits described by {@link UsyncSettings}.
+ * Chunks of protocols that are not {@link UsyncProtocol#throttled()}, like the devices queried before sending a message, are sent right away instead.
+ * When the cache is full, the least recently used entry is evicted.
+ */
+class UsyncHandler {
+    private final SocketHandler socketHandler;
+    private final LinkedHashMap<Key, CacheEntry> cache;
+    private final Map<Key, CompletableFuture<Optional<Node>>> inFlight;
+    private final Queue<Chunk> chunks;
+    private final AtomicInteger running;
+    private long nextSend;
+
+    protected UsyncHandler(SocketHandler socketHandler) {
+        this.socketHandler = socketHandler;
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CacheEntry> eldest) {
+                return size() > socketHandler.store().usyncSettings().cacheSize();
+            }
+        };
+        this.inFlight = new ConcurrentHashMap<>();
+        this.chunks = new ConcurrentLinkedQueue<>();
+        this.running = new AtomicInteger();
+    }
+
+    /**
+     * Queries a protocol for any number of users
+     *
+     * @param protocol the non-null protocol to query
+     * @param jids     the non-null users to query
+     * @return a future that wraps a non-null map from each user, without its device, to the node returned by the server
+     *         users that weren't part of the response are not in the map
+     */
+    protected CompletableFuture<Map<Jid, Node>> query(UsyncProtocol protocol, Collection<Jid> jids) {
+        var settings = socketHandler.store().usyncSettings();
+        var now = System.currentTimeMillis();
+        var results = new HashMap<Jid, CompletableFuture<Optional<Node>>>();
+        var missing = new ArrayList<Jid>();
+        for (var jid : jids) {
+            var user = jid.withoutDevice();
+            if (results.containsKey(user)) {
+                continue;
+            }
+
+            var key = new Key(protocol, user);
+            var cached = findCached(key, now);
+            if (cached != null) {
+                results.put(user, CompletableFuture.completedFuture(Optional.ofNullable(cached.node())));
+                continue;
+            }
+
+            var future = new CompletableFuture<Optional<Node>>();
+            var existing = inFlight.putIfAbsent(key, future);
+            if (existing != null) {
+                results.put(user, existing);
+                continue;
+            }
+
+            results.put(user, future);
+            missing.add(user);
+        }
+
+        for (var start = 0; start < missing.size(); start += settings.chunkSize()) {
+            var end = Math.min(missing.size(), start + settings.chunkSize());
+            var chunk = new Chunk(protocol, List.copyOf(missing.subList(start, end)));
+            if (protocol.throttled()) {
+                chunks.add(chunk);
+            } else {
+                sendChunk(chunk).whenComplete((result, throwable) -> completeChunk(chunk, result, throwable));
+            }
+        }
+
+        drain();
+        return CompletableFuture.allOf(results.values().toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> collectResults(results));
+    }
+
+    private CacheEntry findCached(Key key, long now) {
+        synchronized (cache) {
+            var cached = cache.get(key);
+            if (cached == null) {
+                return null;
+            }
+
+            if (cached.expiration() <= now) {
+                cache.remove(key);
+                return null;
+            }
+
+            return cached;
+        }
+    }
+
+    private Map<Jid, Node> collectResults(Map<Jid, CompletableFuture<Optional<Node>>> results) {
+        var collected = new HashMap<Jid, Node>();
+        results.forEach((jid, future) -> future.join().ifPresent(node -> collected.put(jid, node)));
+        return Collections.unmodifiableMap(collected);
+    }
+
+    private void drain() {
+        var settings = socketHandler.store().usyncSettings();
+        while (!chunks.isEmpty()) {
+            var current = running.get();
+            if (current >= settings.maxConcurrentChunks()) {
+                return;
+            }
+
+            if (!running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+
+            var chunk = chunks.poll();
+            if (chunk == null) {
+                running.decrementAndGet();
+                return;
+            }
+
+            var delay = reserveSlot(settings);
+            var sent = delay <= 0 ? sendChunk(chunk) : CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS))
+                    .thenCompose(ignored -> sendChunk(chunk));
+            sent.whenComplete((result, throwable) -> {
+                completeChunk(chunk, result, throwable);
+                running.decrementAndGet();
+                drain();
+            });
+        }
+    }
+
+    private synchronized long reserveSlot(UsyncSettings settings) {
+        var now = System.nanoTime();
+        var sendAt = Math.max(now, nextSend);
+        this.nextSend = sendAt + TimeUnit.SECONDS.toNanos(1) / settings.maxChunksPerSecond();
+        return sendAt - now;
+    }
+
+    private CompletableFuture<ChunkResult> sendChunk(Chunk chunk) {
+        var users = chunk.jids()
+                .stream()
+                .map(chunk.protocol()::userNode)
+                .toList();
+        var body = Node.of("usync",
+                Map.of("sid", ChatMessageKey.randomId(), "mode", "query", "last", "true", "index", "0", "context", chunk.protocol().context()),
+                Node.of("query", chunk.protocol().queryNode()),
+                Node.of("list", users));
+        return socketHandler.sendQuery("get", "usync", body)
+                .thenApply(result -> parseUsers(chunk, result));
+    }
+
+    // A user is matched both on the jid returned by the server and on the jid that was queried, if the protocol reports it
+    // A user that matches neither means that the server normalized a jid in a way that can't be traced back to the query
+    private ChunkResult parseUsers(Chunk chunk, Node result) {
+        var queried = Set.copyOf(chunk.jids());
+        var users = new HashMap<Jid, Node>();
+        var unmatched = false;
+        for (var usync : result.findNodes("usync")) {
+            var list = usync.findNode("list");
+            if (list.isEmpty()) {
+                continue;
+            }
+
+            for (var user : list.get().findNodes("user")) {
+                var returned = user.attributes()
+                        .getOptionalJid("jid")
+                        .map(Jid::withoutDevice);
+                var requested = chunk.protocol()
+                        .queriedJid(user)
+                        .map(Jid::withoutDevice);
+                returned.ifPresent(jid -> users.put(jid, user));
+                requested.ifPresent(jid -> users.put(jid, user));
+                unmatched |= returned.filter(queried::contains).isEmpty() && requested.filter(queried::contains).isEmpty();
+            }
+        }
+
+        return new ChunkResult(users, unmatched);
+    }
+
+    private void completeChunk(Chunk chunk, ChunkResult result, Throwable throwable) {
+        var settings = socketHandler.store().usyncSettings();
+        var cacheable = throwable == null && chunk.protocol().cacheable() && settings.isCacheEnabled();
+        var expiration = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(settings.cacheTtlSeconds());
+        for (var jid : chunk.jids()) {
+            var key = new Key(chunk.protocol(), jid);
+            var future = inFlight.remove(key);
+            if (throwable != null) {
+                if (future != null) {
+                    future.completeExceptionally(throwable);
+                }
+
+                continue;
+            }
+
+            var node = result.users().get(jid);
+            if (cacheable && (node != null || !result.unmatched())) {
+                synchronized (cache) {
+                    cache.put(key, new CacheEntry(node, expiration));
+                }
+            }
+
+            if (future != null) {
+                future.complete(Optional.ofNullable(node));
+            }
+        }
+    }
+
+    /**
+     * Removes a user from the cache
+     *
+     * @param protocol the non-null protocol
+     * @param jid      the non-null user
+     */
+    protected void invalidate(UsyncProtocol protocol, Jid jid) {
+        synchronized (cache) {
+            cache.remove(new Key(protocol, jid.withoutDevice()));
+        }
+    }
+
+    protected void dispose() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    private record Key(UsyncProtocol protocol, Jid jid) {
+
+    }
+
+    private record CacheEntry(Node node, long expiration) {
+
+    }
+
+    private record Chunk(UsyncProtocol protocol, List<Jid> jids) {
+
+    }
+
+    private record ChunkResult(Map<Jid, Node> users, boolean unmatched) {
+
+    }
+}
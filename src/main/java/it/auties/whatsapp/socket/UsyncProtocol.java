@@ -0,0 +1,89 @@
+package it.auties.whatsapp.socket;
+
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.node.Node;
+
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The protocols that can be queried through usync
+ */
+public enum UsyncProtocol {
+    /**
+     * Whether a phone number has an account on Whatsapp
+     */
+    CONTACT("interactive", true, true) {
+        @Override
+        Node queryNode() {
+            return Node.of("contact");
+        }
+
+        @Override
+        Node userNode(Jid jid) {
+            return Node.of("user", Node.of("contact", jid.toPhoneNumber()));
+        }
+
+        // The server can normalize the number that was queried, so the jid of the response is not always the one of the query
+        @Override
+        Optional<Jid> queriedJid(Node user) {
+            return user.findNode("contact")
+                    .flatMap(Node::contentAsString)
+                    .map(phoneNumber -> Jid.of(phoneNumber.startsWith("+") ? phoneNumber.substring(1) : phoneNumber));
+        }
+    },
+
+    /**
+     * The devices linked to an account
+     * Devices can change at any time, so results are never cached
+     * Devices are queried before sending a message, so lookups are not rate limited and don't wait for bulk lookups
+     */
+    DEVICES("message", false, false) {
+        @Override
+        Node queryNode() {
+            return Node.of("devices", Map.of("version", "2"));
+        }
+    },
+
+    /**
+     * The about of an account
+     */
+    STATUS("interactive", true, true) {
+        @Override
+        Node queryNode() {
+            return Node.of("status");
+        }
+    };
+
+    private final String context;
+    private final boolean cacheable;
+    private final boolean throttled;
+
+    UsyncProtocol(String context, boolean cacheable, boolean throttled) {
+        this.context = context;
+        this.cacheable = cacheable;
+        this.throttled = throttled;
+    }
+
+    abstract Node queryNode();
+
+    Node userNode(Jid jid) {
+        return Node.of("user", Map.of("jid", jid));
+    }
+
+    Optional<Jid> queriedJid(Node user) {
+        return Optional.empty();
+    }
+
+    String context() {
+        return context;
+    }
+
+    boolean cacheable() {
+        return cacheable;
+    }
+
+    boolean throttled() {
+        return throttled;
+    }
+}
@@ -12,9 +12,6 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Objects;
 import java.util.concurrent.ThreadLocalRandom;
-import java.util.zip.DataFormatException;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import static it.auties.whatsapp.util.Specification.Signal.CURRENT_VERSION;
 
@@ -68,17 +65,7 @@ public final class BytesHelper {
     }
 
     public static byte[] compress(byte[] uncompressed) {
-        var deflater = new Deflater();
-        deflater.setInput(uncompressed);
-        deflater.finish();
-        var result = new ByteArrayOutputStream();
-        var buffer = new byte[1024];
-        while (!deflater.finished()) {
-            var count = deflater.deflate(buffer);
-            result.write(buffer, 0, count);
-        }
-        deflater.end();
-        return result.toByteArray();
+        return Zlib.compress(uncompressed);
     }
 
     public static byte[] decompress(byte[] compressed) {
@@ -86,20 +73,7 @@ public final class BytesHelper {
     }
 
     public static byte[] decompress(byte[] compressed, int offset, int length) {
-        try {
-            var decompressor = new Inflater();
-            decompressor.setInput(compressed, offset, length);
-            var result = new ByteArrayOutputStream();
-            var buffer = new byte[1024];
-            while (!decompressor.finished()) {
-                var count = decompressor.inflate(buffer);
-                result.write(buffer, 0, count);
-            }
-            decompressor.end();
-            return result.toByteArray();
-        } catch (DataFormatException exception) {
-            throw new IllegalArgumentException("Malformed data", exception);
-        }
+        return Zlib.decompress(compressed, offset, length);
     }
 
     public static byte[] messageToBytes(Message message) {
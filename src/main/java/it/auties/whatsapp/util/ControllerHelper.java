@@ -2,6 +2,7 @@ package it.auties.whatsapp.util;
 
 import it.auties.whatsapp.api.ClientType;
 import it.auties.whatsapp.api.TextPreviewSetting;
+import it.auties.whatsapp.api.UsyncSettings;
 import it.auties.whatsapp.api.WebHistoryLength;
 import it.auties.whatsapp.controller.ControllerSerializer;
 import it.auties.whatsapp.controller.Keys;
@@ -11,6 +12,7 @@ import it.auties.whatsapp.model.jid.Jid;
 import it.auties.whatsapp.model.mobile.PhoneNumber;
 import it.auties.whatsapp.model.signal.auth.UserAgent;
 import it.auties.whatsapp.model.signal.keypair.SignalKeyPair;
+import it.auties.whatsapp.model.signal.keypair.SignalPreKeyStore;
 import it.auties.whatsapp.model.signal.keypair.SignalSignedKeyPair;
 
 import java.util.*;
@@ -116,7 +118,8 @@ public class ControllerHelper {
                 UserAgent.ReleaseChannel.RELEASE,
                 Specification.Whatsapp.DEFAULT_MOBILE_DEVICE,
                 null,
-                false
+                false,
+                UsyncSettings.defaults()
         );
         serializer.linkMetadata(store);
         var registrationId = KeyHelper.registrationId();
@@ -135,7 +138,8 @@ public class ControllerHelper {
                 SignalSignedKeyPair.of(registrationId, identityKeyPair),
                 null,
                 null,
-                new ArrayList<>(),
+                new SignalPreKeyStore(),
+                Specification.Signal.DEFAULT_PRE_KEYS_BATCH_SIZE,
                 KeyHelper.phoneId(),
                 KeyHelper.deviceId(),
                 KeyHelper.identityId(),
@@ -186,11 +186,12 @@ public class DefaultControllerSerializer implements ControllerSerializer {
     private CompletableFuture<?>[] serializeChatsAsync(Store store) {
         return store.chats()
                 .stream()
-                .map(chat -> serializeChatAsync(store, chat))
+                .map(chat -> serializeChat(store, chat))
                 .toArray(CompletableFuture[]::new);
     }
 
-    private CompletableFuture<Void> serializeChatAsync(Store store, Chat chat) {
+    @Override
+    public CompletableFuture<Void> serializeChat(Store store, Chat chat) {
         if (!chat.hasUpdate()) {
             return CompletableFuture.completedFuture(null);
         }
@@ -0,0 +1,92 @@
+package it.auties.whatsapp.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A bounded cache that approximates a least recently used policy without locking on reads.
+ * Entries are added to a young generation: when it's full, it becomes the old generation and the previous old generation is dropped.
+ * An entry that is read from the old generation is copied back to the young one, so entries that are still used survive a rotation,
+ * and a working set larger than the cache loses only the entries that weren't used since the last rotation instead of the whole cache.
+ * At most twice the size of a generation is kept in memory.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public final class GenerationalCache<K, V> {
+    private final int generationSize;
+    private volatile ConcurrentHashMap<K, V> young;
+    private volatile ConcurrentHashMap<K, V> old;
+
+    /**
+     * Constructs a new cache
+     *
+     * @param maxSize the maximum number of entries that the cache can hold
+     */
+    public GenerationalCache(int maxSize) {
+        Validate.isTrue(maxSize > 1, "Invalid cache size: %s", maxSize);
+        this.generationSize = maxSize / 2;
+        this.young = new ConcurrentHashMap<>();
+        this.old = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the value associated with a key
+     *
+     * @param key the non-null key
+     * @return the value, or null if the key isn't cached
+     */
+    public V get(K key) {
+        var value = young.get(key);
+        if (value != null) {
+            return value;
+        }
+
+        value = old.get(key);
+        if (value == null) {
+            return null;
+        }
+
+        var existing = putYoung(key, value);
+        return existing != null ? existing : value;
+    }
+
+    /**
+     * Associates a value with a key, if the key isn't cached already
+     *
+     * @param key   the non-null key
+     * @param value the non-null value
+     * @return the value that was already cached, or null if the new value was added
+     */
+    public V putIfAbsent(K key, V value) {
+        var existing = get(key);
+        return existing != null ? existing : putYoung(key, value);
+    }
+
+    private V putYoung(K key, V value) {
+        var generation = young;
+        var existing = generation.putIfAbsent(key, value);
+        if (existing == null && generation.size() >= generationSize) {
+            rotate(generation);
+        }
+
+        return existing;
+    }
+
+    private synchronized void rotate(ConcurrentHashMap<K, V> full) {
+        if (young != full) {
+            return;
+        }
+
+        this.old = full;
+        this.young = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the number of entries in this cache, including the ones that are only in the old generation
+     *
+     * @return an unsigned int
+     */
+    public int size() {
+        return young.size() + old.size();
+    }
+}
@@ -0,0 +1,217 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.model.chat.Chat;
+import it.auties.whatsapp.model.chat.ChatSpec;
+import it.auties.whatsapp.model.sync.HistorySync;
+import it.auties.whatsapp.model.sync.HistorySyncSpec;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalDouble;
+
+/**
+ * A streaming reader for zlib compressed history sync blobs.
+ * Conversations are inflated and decoded one at a time and handed to a {@link ConversationConsumer} as soon as they are parsed,
+ * while every other field is collected and decoded as a {@link HistorySync} with no conversations once the stream is exhausted.
+ * This way the inflated blob and the whole conversations tree never need to be in memory at the same time.
+ */
+public final class HistorySyncReader implements AutoCloseable {
+    private static final int SYNC_TYPE_INDEX = 1;
+    private static final int CONVERSATIONS_INDEX = 2;
+
+    private static final int VARINT = 0;
+    private static final int FIXED64 = 1;
+    private static final int LENGTH_DELIMITED = 2;
+    private static final int FIXED32 = 5;
+
+    private final DataInputStream inputStream;
+    private final ByteArrayOutputStream remaining;
+    private final ByteArrayInputStream source;
+    private final int length;
+    private HistorySync.Type syncType;
+    private int conversations;
+    private boolean closed;
+
+    public HistorySyncReader(byte[] compressed) {
+        this(new ByteArrayInputStream(compressed), compressed.length);
+    }
+
+    public HistorySyncReader(InputStream compressed) {
+        this(compressed, -1);
+    }
+
+    private HistorySyncReader(InputStream compressed, int length) {
+        this.inputStream = new DataInputStream(new BufferedInputStream(Zlib.newInflaterStream(compressed)));
+        this.remaining = new ByteArrayOutputStream();
+        this.source = compressed instanceof ByteArrayInputStream byteArrayInputStream ? byteArrayInputStream : null;
+        this.length = length;
+    }
+
+    /**
+     * Reads the whole blob
+     *
+     * @param consumer the non-null consumer that will receive every conversation, in order
+     * @return the history sync, without conversations
+     * @throws IOException if the blob is malformed
+     */
+    public HistorySync read(ConversationConsumer consumer) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("The reader is closed");
+        }
+
+        var pending = new ArrayList<Chat>();
+        long tag;
+        while ((tag = readTag()) != -1) {
+            var index = (int) (tag >>> 3);
+            var wireType = (int) (tag & 7);
+            if (index == CONVERSATIONS_INDEX && wireType == LENGTH_DELIMITED) {
+                var chat = ChatSpec.decode(readBytes());
+                if (syncType == null) {
+                    pending.add(chat);
+                    continue;
+                }
+
+                flushPending(consumer, pending);
+                consumer.accept(syncType, chat, conversations++);
+                continue;
+            }
+
+            writeVarInt(tag);
+            copyField(index, wireType);
+        }
+
+        Validate.isTrue(syncType != null, "Missing mandatory field: syncType");
+        flushPending(consumer, pending);
+        return HistorySyncSpec.decode(remaining.toByteArray());
+    }
+
+    private void flushPending(ConversationConsumer consumer, List<Chat> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        for (var chat : pending) {
+            consumer.accept(syncType, chat, conversations++);
+        }
+
+        pending.clear();
+    }
+
+    private void copyField(int index, int wireType) throws IOException {
+        switch (wireType) {
+            case VARINT -> {
+                var value = readVarInt();
+                if (index == SYNC_TYPE_INDEX) {
+                    this.syncType = Arrays.stream(HistorySync.Type.values())
+                            .filter(entry -> entry.index() == value)
+                            .findFirst()
+                            .orElse(null);
+                }
+
+                writeVarInt(value);
+            }
+            case FIXED64 -> remaining.write(readFixed(8));
+            case LENGTH_DELIMITED -> {
+                var value = readBytes();
+                writeVarInt(value.length);
+                remaining.write(value);
+            }
+            case FIXED32 -> remaining.write(readFixed(4));
+            default -> throw new IllegalArgumentException("Unsupported wire type: %s".formatted(wireType));
+        }
+    }
+
+    private long readTag() throws IOException {
+        var first = inputStream.read();
+        if (first == -1) {
+            return -1;
+        }
+
+        return readVarInt(first);
+    }
+
+    private long readVarInt() throws IOException {
+        return readVarInt(inputStream.readUnsignedByte());
+    }
+
+    private long readVarInt(int first) throws IOException {
+        var result = (long) (first & 0x7F);
+        var current = first;
+        var shift = 7;
+        while ((current & 0x80) != 0) {
+            Validate.isTrue(shift < 64, "Malformed varint");
+            current = inputStream.readUnsignedByte();
+            result |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        }
+
+        return result;
+    }
+
+    private byte[] readBytes() throws IOException {
+        var length = readVarInt();
+        Validate.isTrue(length >= 0 && length <= Integer.MAX_VALUE, "Malformed length: %s", length);
+        return readFixed((int) length);
+    }
+
+    private byte[] readFixed(int length) throws IOException {
+        var result = new byte[length];
+        inputStream.readFully(result);
+        return result;
+    }
+
+    private void writeVarInt(long value) {
+        while ((value & ~0x7FL) != 0) {
+            remaining.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        remaining.write((int) value);
+    }
+
+    /**
+     * Returns the number of conversations that were read up to now
+     *
+     * @return an unsigned int
+     */
+    public int conversations() {
+        return conversations;
+    }
+
+    /**
+     * Returns the share of the compressed blob that was consumed up to now
+     * As the blob is inflated in buffered chunks, this value can be slightly ahead of the conversation that is being read
+     *
+     * @return a value between zero and one, empty if the size of the blob is not known
+     */
+    public OptionalDouble consumed() {
+        if (source == null || length <= 0) {
+            return OptionalDouble.empty();
+        }
+
+        return OptionalDouble.of(1 - (double) source.available() / length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        inputStream.close();
+    }
+
+    /**
+     * A consumer for the conversations of a history sync
+     */
+    @FunctionalInterface
+    public interface ConversationConsumer {
+        /**
+         * Called when a conversation is parsed
+         *
+         * @param syncType the non-null type of the history sync that is being read
+         * @param chat     the non-null conversation
+         * @param index    the index of the conversation in the blob
+         */
+        void accept(HistorySync.Type syncType, Chat chat, int index);
+    }
+}
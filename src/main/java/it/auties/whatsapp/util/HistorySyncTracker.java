@@ -0,0 +1,263 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.model.jid.Jid;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the progress of the history sync on a per-chat basis.
+ * Chats are registered when the initial bootstrap is received and are indexed by jid, so that every conversation of a chunk can be processed in constant time.
+ * A chat is considered complete once a chunk that doesn't contain it has been fully read, or once the history sync times out:
+ * as a chat can only change state once, completion events are emitted exactly once per chat.
+ */
+public final class HistorySyncTracker {
+    private final Map<Jid, Entry> entries;
+    private final Set<Jid> pending;
+    private final AtomicInteger chunks;
+    private final AtomicInteger completed;
+    private final AtomicLong messages;
+
+    public HistorySyncTracker() {
+        this.entries = new ConcurrentHashMap<>();
+        this.pending = ConcurrentHashMap.newKeySet();
+        this.chunks = new AtomicInteger();
+        this.completed = new AtomicInteger();
+        this.messages = new AtomicLong();
+    }
+
+    /**
+     * Starts tracking a chat
+     *
+     * @param jid the non-null jid of the chat
+     * @return whether the chat wasn't already tracked
+     */
+    public boolean track(Jid jid) {
+        if (entries.putIfAbsent(jid, new Entry()) != null) {
+            return false;
+        }
+
+        pending.add(jid);
+        return true;
+    }
+
+    /**
+     * Starts a new chunk
+     *
+     * @return the id of the chunk, to be passed to {@link #onConversation(int, Jid, int)} and {@link #completeChunk(int)}
+     */
+    public int beginChunk() {
+        return chunks.incrementAndGet();
+    }
+
+    /**
+     * Registers a conversation that was read from a chunk
+     *
+     * @param chunk    the id of the chunk
+     * @param jid      the non-null jid of the chat
+     * @param messages the number of messages that were received for the chat
+     * @return whether the chat is tracked and still syncing
+     */
+    public boolean onConversation(int chunk, Jid jid, int messages) {
+        var entry = entries.get(jid);
+        if (entry == null) {
+            return false;
+        }
+
+        synchronized (entry) {
+            if (entry.state == State.COMPLETE) {
+                return false;
+            }
+
+            entry.state = State.SYNCING;
+            entry.lastChunk = Math.max(entry.lastChunk, chunk);
+            entry.chunks++;
+            entry.messages += messages;
+        }
+
+        this.messages.addAndGet(messages);
+        return true;
+    }
+
+    /**
+     * Completes a chunk: every pending chat that wasn't part of it, or of a more recent chunk, is marked as complete.
+     * This runs in linear time relative to the number of chats that are still pending, not to the number of tracked chats.
+     *
+     * @param chunk the id of the chunk
+     * @return the non-null jids of the chats whose state changed to complete
+     */
+    public Set<Jid> completeChunk(int chunk) {
+        var results = new HashSet<Jid>();
+        for (var jid : pending) {
+            var entry = entries.get(jid);
+            if (entry != null && entry.lastChunk < chunk && complete(jid, entry)) {
+                results.add(jid);
+            }
+        }
+
+        return Collections.unmodifiableSet(results);
+    }
+
+    /**
+     * Marks all pending chats as complete
+     *
+     * @return the non-null jids of the chats whose state changed to complete
+     */
+    public Set<Jid> completeAll() {
+        var results = new HashSet<Jid>();
+        for (var jid : pending) {
+            var entry = entries.get(jid);
+            if (entry != null && complete(jid, entry)) {
+                results.add(jid);
+            }
+        }
+
+        return Collections.unmodifiableSet(results);
+    }
+
+    private boolean complete(Jid jid, Entry entry) {
+        synchronized (entry) {
+            if (entry.state == State.COMPLETE) {
+                return false;
+            }
+
+            entry.state = State.COMPLETE;
+        }
+
+        pending.remove(jid);
+        completed.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the state of a chat
+     *
+     * @param jid the non-null jid of the chat
+     * @return a non-null optional, empty if the chat isn't tracked
+     */
+    public Optional<State> state(Jid jid) {
+        return Optional.ofNullable(entries.get(jid))
+                .map(entry -> entry.state);
+    }
+
+    /**
+     * Returns whether a chat is tracked and not yet complete
+     *
+     * @param jid the non-null jid of the chat
+     * @return a boolean
+     */
+    public boolean isPending(Jid jid) {
+        return pending.contains(jid);
+    }
+
+    /**
+     * Returns the number of messages that were received for a chat
+     *
+     * @param jid the non-null jid of the chat
+     * @return an unsigned int
+     */
+    public int messages(Jid jid) {
+        var entry = entries.get(jid);
+        return entry == null ? 0 : entry.messages;
+    }
+
+    /**
+     * Returns the number of chunks in which a chat was received
+     *
+     * @param jid the non-null jid of the chat
+     * @return an unsigned int
+     */
+    public int chunks(Jid jid) {
+        var entry = entries.get(jid);
+        return entry == null ? 0 : entry.chunks;
+    }
+
+    /**
+     * Returns the number of tracked chats
+     *
+     * @return an unsigned int
+     */
+    public int tracked() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of tracked chats that aren't complete yet
+     *
+     * @return an unsigned int
+     */
+    public int pending() {
+        return pending.size();
+    }
+
+    /**
+     * Returns the number of tracked chats that are complete
+     *
+     * @return an unsigned int
+     */
+    public int completed() {
+        return completed.get();
+    }
+
+    /**
+     * Returns the number of chunks that were started
+     *
+     * @return an unsigned int
+     */
+    public int chunks() {
+        return chunks.get();
+    }
+
+    /**
+     * Returns the number of messages that were received for tracked chats
+     *
+     * @return an unsigned long
+     */
+    public long messages() {
+        return messages.get();
+    }
+
+    /**
+     * Clears all the tracked chats and counters
+     */
+    public void clear() {
+        entries.clear();
+        pending.clear();
+        chunks.set(0);
+        completed.set(0);
+        messages.set(0);
+    }
+
+    /**
+     * The state of a tracked chat
+     */
+    public enum State {
+        /**
+         * The chat was registered, but no messages were received yet
+         */
+        PENDING,
+
+        /**
+         * At least a chunk containing the chat was received
+         */
+        SYNCING,
+
+        /**
+         * No more messages are expected for the chat
+         */
+        COMPLETE
+    }
+
+    private static final class Entry {
+        private volatile State state;
+        private volatile int lastChunk;
+        private volatile int chunks;
+        private volatile int messages;
+
+        private Entry() {
+            this.state = State.PENDING;
+        }
+    }
+}
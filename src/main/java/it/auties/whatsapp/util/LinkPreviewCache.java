@@ -0,0 +1,283 @@
+package it.auties.whatsapp.util;
+
+import it.auties.linkpreview.LinkPreview;
+import it.auties.linkpreview.LinkPreviewMatch;
+import it.auties.linkpreview.LinkPreviewMedia;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * A cache for the link previews attached to outgoing text messages.
+ * Previews are keyed by the normalised url that they describe, so sending the same link to many chats fetches the page and its thumbnail once:
+ * concurrent requests for a url that is being fetched share the same fetch, and at most {@link #MAX_CONCURRENT_FETCHES} fetches run at the same time.
+ * Previews, including the lack of one, expire after {@link #TIME_TO_LIVE}, while failed fetches are evicted immediately so that they can be retried.
+ * Texts without an explicit url, that is one with a scheme or starting with www, are only fetched when inference is enabled and the text contains something that looks like a domain:
+ * these fetches go through the pool but are never cached.
+ * This class references the optional link preview dependency: when that dependency is missing, no preview is found.
+ * As this cache is shared by every session, it doesn't own any thread: a fetch that had to wait for a free slot runs on the executor of the session that requested it.
+ */
+public final class LinkPreviewCache {
+    private static final int MAX_ENTRIES = 1024;
+    private static final Duration TIME_TO_LIVE = Duration.ofHours(1);
+    private static final int MAX_CONCURRENT_FETCHES = 8;
+    private static final Pattern URL_PATTERN = Pattern.compile("(?i)\\b(?:https?://|www\\.)\\S+");
+    private static final Pattern DOMAIN_PATTERN = Pattern.compile("(?i)\\b[a-z0-9-]+(?:\\.[a-z0-9-]+)*\\.[a-z]{2,}\\b");
+    private static final String LINK_PREVIEW_CLASS = "it.auties.linkpreview.LinkPreview";
+    private static final boolean AVAILABLE = isClassPresent(LINK_PREVIEW_CLASS);
+    private static final String TRAILING_PUNCTUATION = ".,;:!?)]}'\"";
+    private static final LinkPreviewCache INSTANCE = new LinkPreviewCache();
+
+    private final Map<String, Entry> entries;
+    private final Queue<PendingFetch> pendingFetches;
+    private int runningFetches;
+
+    private LinkPreviewCache() {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+        this.pendingFetches = new ArrayDeque<>();
+    }
+
+    /**
+     * Returns the cache shared by every session
+     *
+     * @return a non-null cache
+     */
+    public static LinkPreviewCache shared() {
+        return INSTANCE;
+    }
+
+    private static boolean isClassPresent(String name) {
+        try {
+            Class.forName(name, false, LinkPreviewCache.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError error) {
+            return false;
+        }
+    }
+
+    /**
+     * Finds the preview of the first link in a text
+     *
+     * @param text      the non-null text
+     * @param inference whether links without a scheme, like wikipedia.com, should be looked for
+     * @param executor  the non-null executor of the calling session, used to start the fetch if it has to wait for a free slot
+     * @return a future with the match, empty if the text contains no link, the link has no preview or the link preview dependency is missing
+     */
+    public CompletableFuture<Optional<Match>> findAsync(String text, boolean inference, Executor executor) {
+        if (!AVAILABLE) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        var candidate = findUrl(text);
+        if (candidate.isEmpty()) {
+            if (!inference || !DOMAIN_PATTERN.matcher(text).find()) {
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+
+            return schedule(() -> LinkPreview.createPreviewAsync(text)
+                    .thenCompose(result -> createPreviewAsync(result.orElse(null))), executor);
+        }
+
+        var token = candidate.get().getKey();
+        var key = candidate.get().getValue();
+        return findOrFetch(key, token, executor)
+                .thenApply(result -> result.map(preview -> new Match(token, preview)));
+    }
+
+    private CompletableFuture<Optional<Preview>> findOrFetch(String key, String token, Executor executor) {
+        CompletableFuture<Optional<Preview>> future;
+        synchronized (entries) {
+            var entry = entries.get(key);
+            if (entry != null && entry.expiresAt() > System.nanoTime()) {
+                return entry.future();
+            }
+
+            future = new CompletableFuture<>();
+            entries.put(key, new Entry(future, System.nanoTime() + TIME_TO_LIVE.toNanos()));
+        }
+
+        schedule(() -> LinkPreview.createPreviewAsync(token)
+                .thenCompose(result -> createPreviewAsync(result.orElse(null))), executor)
+                .thenApply(result -> result.map(Match::preview))
+                .whenComplete((result, error) -> {
+                    if (error == null) {
+                        future.complete(result);
+                        return;
+                    }
+
+                    synchronized (entries) {
+                        var entry = entries.get(key);
+                        if (entry != null && entry.future() == future) {
+                            entries.remove(key);
+                        }
+                    }
+                    future.completeExceptionally(error);
+                });
+        return future;
+    }
+
+    private CompletableFuture<Optional<Match>> createPreviewAsync(LinkPreviewMatch match) {
+        if (match == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        var imageThumbnail = match.result()
+                .images()
+                .stream()
+                .reduce(this::compareDimensions);
+        var videoUri = match.result()
+                .videos()
+                .stream()
+                .reduce(this::compareDimensions);
+        var thumbnail = imageThumbnail.map(data -> Medias.downloadAsync(data.uri()))
+                .orElseGet(() -> CompletableFuture.completedFuture(null));
+        return thumbnail.thenApply(data -> {
+            var preview = new Preview(
+                    match.result().uri(),
+                    videoUri.map(LinkPreviewMedia::uri).orElse(match.result().uri()).toString(),
+                    imageThumbnail.map(LinkPreviewMedia::width).orElse(null),
+                    imageThumbnail.map(LinkPreviewMedia::height).orElse(null),
+                    match.result().siteDescription(),
+                    match.result().title(),
+                    videoUri.isPresent(),
+                    data
+            );
+            return Optional.of(new Match(match.text(), preview));
+        });
+    }
+
+    private LinkPreviewMedia compareDimensions(LinkPreviewMedia first, LinkPreviewMedia second) {
+        return first.width() * first.height() > second.width() * second.height() ? first : second;
+    }
+
+    private <T> CompletableFuture<T> schedule(Supplier<CompletableFuture<T>> fetch, Executor executor) {
+        var result = new CompletableFuture<T>();
+        Runnable task = () -> {
+            try {
+                fetch.get().whenComplete((value, error) -> {
+                    onFetchDone();
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+            } catch (Throwable throwable) {
+                onFetchDone();
+                result.completeExceptionally(throwable);
+            }
+        };
+        synchronized (pendingFetches) {
+            if (runningFetches >= MAX_CONCURRENT_FETCHES) {
+                pendingFetches.add(new PendingFetch(task, executor));
+                return result;
+            }
+
+            runningFetches++;
+        }
+
+        task.run();
+        return result;
+    }
+
+    private void onFetchDone() {
+        PendingFetch next;
+        synchronized (pendingFetches) {
+            next = pendingFetches.poll();
+            if (next == null) {
+                runningFetches--;
+                return;
+            }
+        }
+
+        try {
+            next.executor().execute(next.task());
+        } catch (Throwable throwable) { // The session that queued the fetch was closed, so its fetch runs on the thread that released the slot
+            next.task().run();
+        }
+    }
+
+    // Returns the first explicit url in the text, as it appears in the text, and its normalised form
+    private Optional<Map.Entry<String, String>> findUrl(String text) {
+        var matcher = URL_PATTERN.matcher(text);
+        if (!matcher.find()) {
+            return Optional.empty();
+        }
+
+        var token = stripTrailingPunctuation(matcher.group());
+        return normalise(token)
+                .map(key -> Map.entry(token, key));
+    }
+
+    private String stripTrailingPunctuation(String token) {
+        var end = token.length();
+        while (end > 0 && TRAILING_PUNCTUATION.indexOf(token.charAt(end - 1)) != -1) {
+            end--;
+        }
+
+        return token.substring(0, end);
+    }
+
+    private Optional<String> normalise(String token) {
+        try {
+            var uri = new URI(token.regionMatches(true, 0, "www.", 0, 4) ? "https://" + token : token);
+            if (uri.getHost() == null) {
+                return Optional.empty();
+            }
+
+            var scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            var port = uri.getPort() == 80 && scheme.equals("http") || uri.getPort() == 443 && scheme.equals("https") ? -1 : uri.getPort();
+            var path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            var query = uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery();
+            var host = uri.getHost().toLowerCase(Locale.ROOT);
+            return Optional.of("%s://%s%s%s%s".formatted(scheme, host, port == -1 ? "" : ":" + port, path, query));
+        } catch (URISyntaxException exception) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * A link in a text and its preview
+     *
+     * @param text    the text of the link, as it appears in the text that was searched
+     * @param preview the preview of the link
+     */
+    public record Match(String text, Preview preview) {
+
+    }
+
+    /**
+     * The preview of a link
+     *
+     * @param uri             the uri of the page
+     * @param canonicalUrl    the url of the video of the page, if any, or of the page itself
+     * @param thumbnailWidth  the width of the thumbnail, if any
+     * @param thumbnailHeight the height of the thumbnail, if any
+     * @param description     the description of the page
+     * @param title           the title of the page
+     * @param video           whether the page has a video
+     * @param thumbnail       the thumbnail, if any
+     */
+    public record Preview(URI uri, String canonicalUrl, Integer thumbnailWidth, Integer thumbnailHeight, String description, String title, boolean video, byte[] thumbnail) {
+
+    }
+
+    private record Entry(CompletableFuture<Optional<Preview>> future, long expiresAt) {
+
+    }
+
+    private record PendingFetch(Runnable task, Executor executor) {
+
+    }
+}
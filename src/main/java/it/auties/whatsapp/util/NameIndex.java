@@ -0,0 +1,148 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.model.jid.Jid;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A secondary index from names to jids.
+ * Names are case-folded and kept sorted, so that both case-insensitive and prefix lookups don't need to scan every entry.
+ * Lookups only narrow down the candidates: callers are expected to check that each candidate still matches.
+ */
+public final class NameIndex {
+    private final ConcurrentSkipListMap<String, Set<Jid>> index;
+    private final ConcurrentHashMap<Jid, Set<String>> names;
+
+    public NameIndex() {
+        this.index = new ConcurrentSkipListMap<>();
+        this.names = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Replaces the names associated with a jid
+     *
+     * @param jid      the non-null jid
+     * @param newNames the names to associate, null values are ignored
+     */
+    public void update(Jid jid, Collection<String> newNames) {
+        var folded = new HashSet<String>();
+        for (var name : newNames) {
+            if (name != null && !name.isEmpty()) {
+                folded.add(fold(name));
+            }
+        }
+
+        names.compute(jid, (key, oldNames) -> {
+            if (oldNames != null) {
+                for (var oldName : oldNames) {
+                    if (!folded.contains(oldName)) {
+                        removeEntry(oldName, jid);
+                    }
+                }
+            }
+
+            for (var name : folded) {
+                addEntry(name, jid);
+            }
+
+            return folded.isEmpty() ? null : Set.copyOf(folded);
+        });
+    }
+
+    /**
+     * Removes all the names associated with a jid
+     *
+     * @param jid the non-null jid
+     */
+    public void remove(Jid jid) {
+        names.computeIfPresent(jid, (key, oldNames) -> {
+            for (var oldName : oldNames) {
+                removeEntry(oldName, jid);
+            }
+
+            return null;
+        });
+    }
+
+    // The sets in the index are immutable: the remapping functions of a skip list map can run more than once, so they must not have side effects
+    private void addEntry(String name, Jid jid) {
+        index.compute(name, (key, jids) -> {
+            if (jids == null) {
+                return Set.of(jid);
+            }
+
+            if (jids.contains(jid)) {
+                return jids;
+            }
+
+            var result = new HashSet<>(jids);
+            result.add(jid);
+            return Collections.unmodifiableSet(result);
+        });
+    }
+
+    private void removeEntry(String name, Jid jid) {
+        index.computeIfPresent(name, (key, jids) -> {
+            if (!jids.contains(jid)) {
+                return jids;
+            }
+
+            if (jids.size() == 1) {
+                return null;
+            }
+
+            var result = new HashSet<>(jids);
+            result.remove(jid);
+            return Collections.unmodifiableSet(result);
+        });
+    }
+
+    /**
+     * Returns the jids associated with a name, ignoring its case
+     *
+     * @param name the name to search, can be null
+     * @return a non-null immutable set
+     */
+    public Set<Jid> find(String name) {
+        if (name == null) {
+            return Set.of();
+        }
+
+        var results = index.get(fold(name));
+        return results == null ? Set.of() : Set.copyOf(results);
+    }
+
+    /**
+     * Returns the jids associated with a name that starts with a prefix, ignoring its case
+     *
+     * @param prefix the prefix to search, can be null
+     * @return a non-null immutable set
+     */
+    public Set<Jid> findByPrefix(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return Set.of();
+        }
+
+        var folded = fold(prefix);
+        var results = new HashSet<Jid>();
+        for (var jids : index.subMap(folded, true, folded + Character.MAX_VALUE, false).values()) {
+            results.addAll(jids);
+        }
+
+        return Collections.unmodifiableSet(results);
+    }
+
+    /**
+     * Clears this index
+     */
+    public void clear() {
+        index.clear();
+        names.clear();
+    }
+
+    private static String fold(String name) {
+        return name.toUpperCase(Locale.ROOT).toLowerCase(Locale.ROOT);
+    }
+}
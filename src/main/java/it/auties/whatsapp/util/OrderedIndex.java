@@ -0,0 +1,128 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.model.jid.Jid;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A secondary index that keeps values sorted by a score, from the highest to the lowest.
+ * Values are identified by their jid: updating a value moves it to its new position in logarithmic time,
+ * so that the top k values can be read in O(k) instead of sorting every value on each read.
+ * Values with the same score are sorted by jid, so that the order is stable.
+ *
+ * @param <T> the type of the indexed values
+ */
+public final class OrderedIndex<T> {
+    private static final Comparator<Rank> ORDER = Comparator.comparingLong(Rank::score)
+            .reversed()
+            .thenComparing(rank -> rank.jid().toString());
+
+    private final ConcurrentSkipListMap<Rank, T> values;
+    private final ConcurrentHashMap<Jid, Rank> ranks;
+
+    public OrderedIndex() {
+        this.values = new ConcurrentSkipListMap<>(ORDER);
+        this.ranks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Adds a value to this index, or moves it if it's already indexed
+     *
+     * @param jid   the non-null jid that identifies the value
+     * @param value the non-null value
+     * @param score the score of the value
+     */
+    public void update(Jid jid, T value, long score) {
+        ranks.compute(jid, (key, oldRank) -> {
+            if (oldRank != null) {
+                if (oldRank.score() == score) {
+                    values.put(oldRank, value);
+                    return oldRank;
+                }
+
+                values.remove(oldRank);
+            }
+
+            var newRank = new Rank(score, jid);
+            values.put(newRank, value);
+            return newRank;
+        });
+    }
+
+    /**
+     * Removes a value from this index
+     *
+     * @param jid the non-null jid that identifies the value
+     */
+    public void remove(Jid jid) {
+        ranks.computeIfPresent(jid, (key, oldRank) -> {
+            values.remove(oldRank);
+            return null;
+        });
+    }
+
+    /**
+     * Returns whether a value is in this index
+     *
+     * @param jid the non-null jid that identifies the value
+     * @return a boolean
+     */
+    public boolean contains(Jid jid) {
+        return ranks.containsKey(jid);
+    }
+
+    /**
+     * Returns the values with the highest score
+     *
+     * @param limit the maximum number of values to return
+     * @return a non-null immutable list, sorted from the highest to the lowest score
+     */
+    public List<T> top(int limit) {
+        if (limit <= 0) {
+            return List.of();
+        }
+
+        var results = new ArrayList<T>(Math.min(limit, values.size()));
+        for (var value : values.values()) {
+            if (results.size() >= limit) {
+                break;
+            }
+
+            results.add(value);
+        }
+
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * Returns all the values in this index
+     *
+     * @return a non-null immutable list, sorted from the highest to the lowest score
+     */
+    public List<T> values() {
+        return List.copyOf(values.values());
+    }
+
+    /**
+     * Returns the number of values in this index
+     *
+     * @return an unsigned int
+     */
+    public int size() {
+        return ranks.size();
+    }
+
+    /**
+     * Clears this index
+     */
+    public void clear() {
+        values.clear();
+        ranks.clear();
+    }
+
+    private record Rank(long score, Jid jid) {
+
+    }
+}
@@ -0,0 +1,154 @@
+package it.auties.whatsapp.util;
+
+import it.auties.whatsapp.model.info.ChatMessageInfo;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The replies that are being awaited, keyed by the id of the message they should quote.
+ * Every caller that awaits a reply gets its own future with its own deadline: when the deadline is reached that future is completed exceptionally with a {@link TimeoutException},
+ * while the callers that await the same reply with a later deadline keep waiting. A message is no longer awaited once its reply is received or the deadline of every caller was reached.
+ * At most {@link #MAX_ENTRIES} messages are awaited at the same time: when a new one is added past this limit, the futures of the oldest one are completed exceptionally with an {@link IllegalStateException} and it's removed.
+ * Insertions and removals take constant time.
+ */
+public final class ReplyRegistry {
+    /**
+     * The time a reply is awaited for if no timeout is specified
+     */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofDays(1);
+
+    private static final int MAX_ENTRIES = 10_000;
+
+    private final LinkedHashMap<String, Entry> entries;
+    private final LongAdder resolved;
+    private final LongAdder expired;
+    private final LongAdder evicted;
+
+    public ReplyRegistry() {
+        this.entries = new LinkedHashMap<>();
+        this.resolved = new LongAdder();
+        this.expired = new LongAdder();
+        this.evicted = new LongAdder();
+    }
+
+    /**
+     * Awaits a reply to a message
+     * If a reply to the same message is already awaited, the returned future completes with the same reply, but it still times out after the given timeout
+     *
+     * @param messageId the non-null id of the message
+     * @param timeout   the non-null time after which the reply is no longer awaited by this caller
+     * @return a non-null future
+     */
+    public CompletableFuture<ChatMessageInfo> register(String messageId, Duration timeout) {
+        Entry entry;
+        Entry eldest = null;
+        synchronized (entries) {
+            entry = entries.get(messageId);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(messageId, entry);
+                if (entries.size() > MAX_ENTRIES) {
+                    var iterator = entries.values().iterator();
+                    eldest = iterator.next();
+                    iterator.remove();
+                }
+            }
+
+            entry.waiters++;
+        }
+
+        if (eldest != null) {
+            evicted.increment();
+            eldest.reply.completeExceptionally(new IllegalStateException("Too many pending replies"));
+        }
+
+        var reply = entry.reply;
+        var result = reply.copy();
+        var target = entry;
+        result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS).whenComplete((ignored, throwable) -> {
+            if (reply.isDone()) {
+                return;
+            }
+
+            if (throwable instanceof TimeoutException) {
+                expired.increment();
+            }
+
+            release(messageId, target);
+        });
+        return result;
+    }
+
+    /**
+     * Completes the reply awaited for a message
+     *
+     * @param messageId the non-null id of the quoted message
+     * @param reply     the non-null reply
+     * @return whether a reply was awaited
+     */
+    public boolean resolve(String messageId, ChatMessageInfo reply) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.remove(messageId);
+        }
+
+        if (entry == null) {
+            return false;
+        }
+
+        resolved.increment();
+        entry.reply.complete(reply);
+        return true;
+    }
+
+    private void release(String messageId, Entry entry) {
+        synchronized (entries) {
+            if (--entry.waiters == 0) {
+                entries.remove(messageId, entry);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of messages whose reply is awaited
+     *
+     * @return a positive int
+     */
+    public int pendingCount() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns the metrics of this registry
+     *
+     * @return a non-null snapshot
+     */
+    public Metrics metrics() {
+        return new Metrics(pendingCount(), resolved.sum(), expired.sum(), evicted.sum());
+    }
+
+    // Guarded by the lock of the entries
+    private static final class Entry {
+        private final CompletableFuture<ChatMessageInfo> reply = new CompletableFuture<>();
+        private int waiters;
+    }
+
+    /**
+     * A snapshot of the metrics of a registry
+     *
+     * @param pending  the number of messages whose reply is awaited
+     * @param resolved the number of replies that were received
+     * @param expired  the number of callers whose deadline was reached before the reply was received
+     * @param evicted  the number of messages that were dropped because too many were awaited
+     */
+    public record Metrics(int pending, long resolved, long expired, long evicted) {
+
+    }
+}
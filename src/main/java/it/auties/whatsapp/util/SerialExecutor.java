@@ -0,0 +1,108 @@
+package it.auties.whatsapp.util;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * An executor that runs its tasks one at a time, in submission order, on top of a shared executor.
+ * This provides the guarantees of a single thread executor without owning a thread:
+ * many serial executors can share the same pool, and a thread is only used while a task is running.
+ */
+public final class SerialExecutor implements Executor {
+    private final Executor delegate;
+    private final Queue<Supplier<CompletableFuture<?>>> tasks;
+    private final AtomicBoolean running;
+    private volatile boolean shutdown;
+
+    public SerialExecutor(Executor delegate) {
+        this.delegate = delegate;
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.running = new AtomicBoolean();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        Validate.isTrue(!shutdown, "Cannot execute task: executor was shut down", IllegalStateException.class);
+        tasks.add(() -> {
+            task.run();
+            return null;
+        });
+        schedule();
+    }
+
+    /**
+     * Executes an asynchronous task: the next task starts when the future returned by this one completes instead of when it returns,
+     * so the tasks stay serialized without blocking a thread of the shared executor while they wait
+     *
+     * @param task the non-null task
+     * @return a future that completes with the future returned by the task
+     */
+    public CompletableFuture<Void> executeAsync(Supplier<? extends CompletableFuture<?>> task) {
+        Validate.isTrue(!shutdown, "Cannot execute task: executor was shut down", IllegalStateException.class);
+        var result = new CompletableFuture<Void>();
+        tasks.add(() -> {
+            try {
+                return task.get().whenComplete((ignored, throwable) -> {
+                    if (throwable != null) {
+                        result.completeExceptionally(throwable);
+                    } else {
+                        result.complete(null);
+                    }
+                });
+            } catch (Throwable throwable) {
+                result.completeExceptionally(throwable);
+                return null;
+            }
+        });
+        schedule();
+        return result;
+    }
+
+    private void schedule() {
+        if (!tasks.isEmpty() && running.compareAndSet(false, true)) {
+            delegate.execute(this::runNext);
+        }
+    }
+
+    private void runNext() {
+        CompletableFuture<?> pending = null;
+        try {
+            var task = tasks.poll();
+            if (task != null && !shutdown) {
+                pending = task.get();
+            }
+        } finally {
+            if (pending == null) {
+                release();
+            } else {
+                pending.whenComplete((ignored, throwable) -> release());
+            }
+        }
+    }
+
+    private void release() {
+        running.set(false);
+        schedule();
+    }
+
+    /**
+     * Discards the pending tasks and rejects new ones
+     */
+    public void shutdown() {
+        this.shutdown = true;
+        tasks.clear();
+    }
+
+    /**
+     * Returns whether this executor was shut down
+     *
+     * @return a boolean
+     */
+    public boolean isShutdown() {
+        return shutdown;
+    }
+}
@@ -61,6 +61,8 @@ public class Specification {
         public static final int KEY_TYPE = 5;
         public static final byte[] KEY_BUNDLE_TYPE = new byte[]{5};
         public static final int MAX_MESSAGES = 2000;
+        public static final int MIN_PRE_KEYS = 5;
+        public static final int DEFAULT_PRE_KEYS_BATCH_SIZE = 100;
         public static final String SKMSG = "skmsg";
         public static final String PKMSG = "pkmsg";
         public static final String MSG = "msg";
@@ -0,0 +1,228 @@
+package it.auties.whatsapp.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Thread-safe zlib compression backed by pools of {@link Inflater} and {@link Deflater}.
+ * Creating a new inflater or deflater allocates native memory that is only released when it's ended,
+ * so instances are reset and reused instead: a pool holds at most {@link #MAX_POOLED} instances of each kind and any excess instance is ended.
+ * Outputs are written into a buffer sized using a hint, so in the common case the data is copied once, and streams can be used for blobs that shouldn't be fully inflated in memory.
+ */
+public final class Zlib {
+    private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int MIN_BUFFER_SIZE = 1024;
+    private static final int INFLATE_RATIO_HINT = 4;
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final BlockingQueue<Inflater> INFLATERS = new ArrayBlockingQueue<>(MAX_POOLED);
+    private static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(MAX_POOLED);
+
+    public static byte[] compress(byte[] input) {
+        return compress(input, 0, input.length);
+    }
+
+    public static byte[] compress(byte[] input, int offset, int length) {
+        var deflater = acquireDeflater();
+        try {
+            deflater.setInput(input, offset, length);
+            deflater.finish();
+            var result = new byte[compressBound(length)];
+            var written = 0;
+            while (!deflater.finished()) {
+                if (written == result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+
+                written += deflater.deflate(result, written, result.length - written);
+            }
+
+            return written == result.length ? result : Arrays.copyOf(result, written);
+        } finally {
+            releaseDeflater(deflater);
+        }
+    }
+
+    public static ByteBuffer compress(ByteBuffer input) {
+        var deflater = acquireDeflater();
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            var result = ByteBuffer.allocate(compressBound(input.remaining()));
+            while (!deflater.finished()) {
+                if (!result.hasRemaining()) {
+                    result = grow(result);
+                }
+
+                deflater.deflate(result);
+            }
+
+            return result.flip();
+        } finally {
+            releaseDeflater(deflater);
+        }
+    }
+
+    public static byte[] decompress(byte[] input) {
+        return decompress(input, 0, input.length);
+    }
+
+    public static byte[] decompress(byte[] input, int offset, int length) {
+        return decompress(input, offset, length, length * INFLATE_RATIO_HINT);
+    }
+
+    public static byte[] decompress(byte[] input, int offset, int length, int sizeHint) {
+        var inflater = acquireInflater();
+        try {
+            inflater.setInput(input, offset, length);
+            var result = new byte[Math.max(MIN_BUFFER_SIZE, sizeHint)];
+            var written = 0;
+            while (!inflater.finished()) {
+                if (written == result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+
+                var count = inflater.inflate(result, written, result.length - written);
+                Validate.isTrue(count != 0 || !inflater.needsInput() && !inflater.needsDictionary(), "Truncated data");
+                written += count;
+            }
+
+            return written == result.length ? result : Arrays.copyOf(result, written);
+        } catch (DataFormatException exception) {
+            throw new IllegalArgumentException("Malformed data", exception);
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    public static ByteBuffer decompress(ByteBuffer input) {
+        return decompress(input, input.remaining() * INFLATE_RATIO_HINT);
+    }
+
+    public static ByteBuffer decompress(ByteBuffer input, int sizeHint) {
+        var inflater = acquireInflater();
+        try {
+            inflater.setInput(input);
+            var result = ByteBuffer.allocate(Math.max(MIN_BUFFER_SIZE, sizeHint));
+            while (!inflater.finished()) {
+                if (!result.hasRemaining()) {
+                    result = grow(result);
+                }
+
+                var count = inflater.inflate(result);
+                Validate.isTrue(count != 0 || !inflater.needsInput() && !inflater.needsDictionary(), "Truncated data");
+            }
+
+            return result.flip();
+        } catch (DataFormatException exception) {
+            throw new IllegalArgumentException("Malformed data", exception);
+        } finally {
+            releaseInflater(inflater);
+        }
+    }
+
+    /**
+     * Returns a stream that inflates the data read from another stream
+     * The inflater is returned to the pool when the stream is closed
+     *
+     * @param compressed the non-null compressed stream
+     * @return a non-null stream
+     */
+    public static InputStream newInflaterStream(InputStream compressed) {
+        return new PooledInflaterInputStream(compressed, acquireInflater());
+    }
+
+    /**
+     * Returns a stream that deflates the data written to it into another stream
+     * The deflater is returned to the pool when the stream is closed
+     *
+     * @param output the non-null output stream
+     * @return a non-null stream
+     */
+    public static OutputStream newDeflaterStream(OutputStream output) {
+        return new PooledDeflaterOutputStream(output, acquireDeflater());
+    }
+
+    // The bound used by zlib's compressBound, plus the zlib header and trailer
+    private static int compressBound(int length) {
+        return Math.max(MIN_BUFFER_SIZE, length + (length >>> 12) + (length >>> 14) + (length >>> 25) + 19);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        var result = ByteBuffer.allocate(buffer.capacity() * 2);
+        return result.put(buffer.flip());
+    }
+
+    private static Inflater acquireInflater() {
+        var inflater = INFLATERS.poll();
+        return inflater != null ? inflater : new Inflater();
+    }
+
+    private static void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        if (!INFLATERS.offer(inflater)) {
+            inflater.end();
+        }
+    }
+
+    private static Deflater acquireDeflater() {
+        var deflater = DEFLATERS.poll();
+        return deflater != null ? deflater : new Deflater();
+    }
+
+    private static void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    private static final class PooledInflaterInputStream extends InflaterInputStream {
+        private boolean released;
+
+        private PooledInflaterInputStream(InputStream input, Inflater inflater) {
+            super(input, inflater, STREAM_BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    this.released = true;
+                    releaseInflater(inf);
+                }
+            }
+        }
+    }
+
+    private static final class PooledDeflaterOutputStream extends DeflaterOutputStream {
+        private boolean released;
+
+        private PooledDeflaterOutputStream(OutputStream output, Deflater deflater) {
+            super(output, deflater, STREAM_BUFFER_SIZE);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!released) {
+                    this.released = true;
+                    releaseDeflater(def);
+                }
+            }
+        }
+    }
+}
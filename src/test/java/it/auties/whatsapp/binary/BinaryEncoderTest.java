@@ -0,0 +1,177 @@
+package it.auties.whatsapp.binary;
+
+import it.auties.whatsapp.model.node.Node;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static it.auties.whatsapp.binary.BinaryTag.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+// Checks the table based string packing against the regex based implementation that it replaced
+public class BinaryEncoderTest {
+    private static final int STRINGS = 200_000;
+    private static final String DESCRIPTION = "iq";
+    private static final String ALPHABET = "0123456789-.ABCDEFabcdefxyz:@_ àé€";
+
+    @Test
+    public void packsLikeLegacyEncoder() throws IOException {
+        var random = new Random(STRINGS);
+        var prefix = encodedPrefix();
+        for (var index = 0; index < STRINGS; index++) {
+            assertEncodedLikeLegacy(prefix, randomString(random));
+        }
+    }
+
+    @Test
+    public void writesTokensLikeLegacyEncoder() throws IOException {
+        var prefix = encodedPrefix();
+        for (var token : BinaryTokens.SINGLE_BYTE) {
+            assertEncodedLikeLegacy(prefix, token);
+        }
+
+        for (var token : BinaryTokens.DOUBLE_BYTE) {
+            assertEncodedLikeLegacy(prefix, token);
+        }
+    }
+
+    @Test
+    public void decodesPackedStrings() throws IOException {
+        var random = new Random(STRINGS);
+        for (var index = 0; index < STRINGS / 10; index++) {
+            var input = randomString(random);
+            try (var decoder = new BinaryDecoder(encode(Node.of(DESCRIPTION, input)))) {
+                var result = decoder.decode();
+                assertEquals(input, result.contentAsString().orElseThrow(), () -> "Decode mismatch for " + input);
+            }
+        }
+    }
+
+    private static void assertEncodedLikeLegacy(byte[] prefix, String input) throws IOException {
+        var encoded = encode(Node.of(DESCRIPTION, input));
+        var expected = legacyString(input);
+        assertEquals(prefix.length + expected.length, encoded.length, () -> "Length mismatch for " + input);
+        assertArrayEquals(prefix, Arrays.copyOf(encoded, prefix.length), () -> "Prefix mismatch for " + input);
+        assertArrayEquals(expected, Arrays.copyOfRange(encoded, prefix.length, encoded.length), () -> "Payload mismatch for " + input);
+    }
+
+    private static byte[] encode(Node node) throws IOException {
+        try (var encoder = new BinaryEncoder()) {
+            return encoder.encode(node);
+        }
+    }
+
+    // An empty string is always written as two bytes, so everything before them is the part of the node that doesn't depend on its content
+    private static byte[] encodedPrefix() throws IOException {
+        var encoded = encode(Node.of(DESCRIPTION, ""));
+        return Arrays.copyOf(encoded, encoded.length - 2);
+    }
+
+    // Mostly short strings from a small alphabet, so that nibble, hex and plain strings are all generated
+    private static String randomString(Random random) {
+        var length = 1 + random.nextInt(random.nextInt(8) == 0 ? 160 : 24);
+        var alphabet = switch (random.nextInt(3)) {
+            case 0 -> 12;
+            case 1 -> 18;
+            default -> ALPHABET.length();
+        };
+        var result = new StringBuilder(length);
+        for (var index = 0; index < length; index++) {
+            result.append(ALPHABET.charAt(random.nextInt(alphabet)));
+        }
+
+        return result.toString();
+    }
+
+    private static byte[] legacyString(String input) throws IOException {
+        var output = new ByteArrayOutputStream();
+        var stream = new DataOutputStream(output);
+        var tokenIndex = BinaryTokens.SINGLE_BYTE.indexOf(input);
+        if (tokenIndex != -1) {
+            stream.write(tokenIndex + 1);
+            return output.toByteArray();
+        }
+
+        var doubleTokenIndex = BinaryTokens.DOUBLE_BYTE.indexOf(input);
+        if (doubleTokenIndex != -1) {
+            var quadrant = BinaryTokens.DOUBLE_BYTE.size() / 4;
+            stream.write(switch (doubleTokenIndex / quadrant) {
+                case 0 -> DICTIONARY_0.data();
+                case 1 -> DICTIONARY_1.data();
+                case 2 -> DICTIONARY_2.data();
+                default -> DICTIONARY_3.data();
+            });
+            stream.write(doubleTokenIndex % quadrant);
+            return output.toByteArray();
+        }
+
+        var bytes = input.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < 128 && !BinaryTokens.anyMatch(input, BinaryTokens.NUMBERS_REGEX)) {
+            legacyPackedString(stream, input, NIBBLE_8);
+            return output.toByteArray();
+        }
+
+        if (bytes.length < 128 && !BinaryTokens.anyMatch(input, BinaryTokens.HEX_REGEX)) {
+            legacyPackedString(stream, input, HEX_8);
+            return output.toByteArray();
+        }
+
+        if (bytes.length < 256) {
+            stream.write(BINARY_8.data());
+            stream.write(bytes.length);
+        } else {
+            stream.write(BINARY_20.data());
+            stream.write((bytes.length >>> 16) & 255);
+            stream.write((bytes.length >>> 8) & 255);
+            stream.write(255 & bytes.length);
+        }
+
+        stream.write(bytes);
+        return output.toByteArray();
+    }
+
+    private static void legacyPackedString(DataOutputStream stream, String input, BinaryTag token) throws IOException {
+        stream.write(token.data());
+        var roundedLength = (int) Math.ceil(input.length() / 2F);
+        stream.write(input.length() % 2 == 1 ? roundedLength | 128 : roundedLength);
+        for (int charCode = 0, index = 0; index < input.length(); index++) {
+            var binaryCodePoint = legacyCodePoint(token, Character.codePointAt(input, index));
+            if (index % 2 != 0) {
+                stream.write(charCode |= binaryCodePoint);
+                continue;
+            }
+
+            charCode = binaryCodePoint << 4;
+            if (index != input.length() - 1) {
+                continue;
+            }
+
+            stream.write(charCode |= 15);
+        }
+    }
+
+    private static int legacyCodePoint(BinaryTag token, int codePoint) {
+        if (codePoint >= 48 && codePoint <= 57) {
+            return codePoint - 48;
+        }
+
+        if (token == NIBBLE_8 && codePoint == 45) {
+            return 10;
+        }
+
+        if (token == NIBBLE_8 && codePoint == 46) {
+            return 11;
+        }
+
+        if (token == HEX_8 && codePoint >= 65 && codePoint <= 70) {
+            return codePoint - 55;
+        }
+
+        throw new IllegalArgumentException("Cannot parse codepoint %s with token %s".formatted(codePoint, token));
+    }
+}
@@ -0,0 +1,125 @@
+package it.auties.whatsapp.crypto;
+
+import it.auties.whatsapp.model.companion.CompanionHashState;
+import it.auties.whatsapp.model.companion.CompanionIndexValueMap;
+import it.auties.whatsapp.model.sync.PatchType;
+import it.auties.whatsapp.model.sync.RecordSync;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Checks the in place LTHash against the implementation that it replaced, which buffered the macs and mixed them with byte buffers when the patch was finished
+public class LTHashTest {
+    private static final int PATCHES = 20;
+    private static final int MUTATIONS = 200;
+    private static final int MAC_LENGTH = 32;
+
+    @Test
+    public void matchesLegacyHash() {
+        var random = new Random(PATCHES);
+        var state = new CompanionHashState(PatchType.REGULAR);
+        var legacyHash = Arrays.copyOf(state.hash(), state.hash().length);
+        var legacyMap = new HashMap<String, byte[]>();
+        var indexes = new ArrayList<byte[]>();
+        for (var patch = 0; patch < PATCHES; patch++) {
+            var hash = new LTHash(state);
+            var legacy = new LegacyLTHash(legacyHash, legacyMap);
+            for (var mutation = 0; mutation < MUTATIONS; mutation++) {
+                var operation = random.nextInt(4) == 0 ? RecordSync.Operation.REMOVE : RecordSync.Operation.SET;
+                var indexMac = indexes.isEmpty() || random.nextBoolean() ? randomBytes(random) : indexes.get(random.nextInt(indexes.size()));
+                indexes.add(indexMac);
+                var valueMac = randomBytes(random);
+                hash.mix(indexMac, valueMac, operation);
+                legacy.mix(indexMac, valueMac, operation);
+            }
+
+            var result = hash.finish();
+            legacyHash = legacy.finish();
+            assertArrayEquals(legacyHash, result.hash(), "Hash mismatch at patch " + patch);
+            assertEquals(CompanionIndexValueMap.of(legacyMap), result.indexValueMap(), "Index value map mismatch at patch " + patch);
+            state.hash(result.hash());
+            state.indexValueMap(result.indexValueMap());
+        }
+    }
+
+    @Test
+    public void doesNotMutateState() {
+        var random = new Random(MUTATIONS);
+        var state = new CompanionHashState(PatchType.REGULAR);
+        var copy = state.copy();
+        var hash = new LTHash(state);
+        hash.mix(randomBytes(random), randomBytes(random), RecordSync.Operation.SET);
+        hash.finish();
+        assertEquals(copy, state);
+    }
+
+    private static byte[] randomBytes(Random random) {
+        var result = new byte[MAC_LENGTH];
+        random.nextBytes(result);
+        return result;
+    }
+
+    private static final class LegacyLTHash {
+        private static final byte[] SALT = LTHash.SALT.getBytes(StandardCharsets.UTF_8);
+
+        private final byte[] hash;
+        private final Map<String, byte[]> indexValueMap;
+        private final List<byte[]> add, subtract;
+
+        private LegacyLTHash(byte[] hash, Map<String, byte[]> indexValueMap) {
+            this.hash = hash;
+            this.indexValueMap = indexValueMap;
+            this.add = new ArrayList<>();
+            this.subtract = new ArrayList<>();
+        }
+
+        private void mix(byte[] indexMac, byte[] valueMac, RecordSync.Operation operation) {
+            var indexMacBase64 = Base64.getEncoder().encodeToString(indexMac);
+            var prevOp = indexValueMap.get(indexMacBase64);
+            if (operation == RecordSync.Operation.REMOVE) {
+                if (prevOp == null) {
+                    return;
+                }
+                indexValueMap.remove(indexMacBase64, prevOp);
+            } else {
+                add.add(valueMac);
+                indexValueMap.put(indexMacBase64, valueMac);
+            }
+            if (prevOp != null) {
+                subtract.add(prevOp);
+            }
+        }
+
+        private byte[] finish() {
+            var subtracted = perform(hash, false);
+            return perform(subtracted, true);
+        }
+
+        private byte[] perform(byte[] input, boolean sum) {
+            for (var item : sum ? add : subtract) {
+                input = perform(input, item, sum);
+            }
+            return input;
+        }
+
+        private byte[] perform(byte[] input, byte[] buffer, boolean sum) {
+            var expanded = Hkdf.extractAndExpand(buffer, SALT, 128);
+            var eRead = ByteBuffer.wrap(input).order(ByteOrder.LITTLE_ENDIAN);
+            var tRead = ByteBuffer.wrap(expanded).order(ByteOrder.LITTLE_ENDIAN);
+            var write = ByteBuffer.allocate(input.length).order(ByteOrder.LITTLE_ENDIAN);
+            for (var index = 0; index < input.length; index += 2) {
+                var first = Short.toUnsignedInt(eRead.getShort(index));
+                var second = Short.toUnsignedInt(tRead.getShort(index));
+                write.putShort(index, (short) (sum ? first + second : first - second));
+            }
+            var result = new byte[input.length];
+            write.get(result);
+            return result;
+        }
+    }
+}
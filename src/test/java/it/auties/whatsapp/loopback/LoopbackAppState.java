@@ -0,0 +1,202 @@
+package it.auties.whatsapp.loopback;
+
+import it.auties.whatsapp.crypto.AesCbc;
+import it.auties.whatsapp.crypto.Hmac;
+import it.auties.whatsapp.crypto.LTHash;
+import it.auties.whatsapp.model.companion.CompanionHashState;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.model.sync.*;
+import it.auties.whatsapp.model.sync.PatchRequest.PatchEntry;
+import it.auties.whatsapp.util.BytesHelper;
+import it.auties.whatsapp.util.Clock;
+import it.auties.whatsapp.util.Specification;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The app state collections of a {@link LoopbackServer}.
+ * Patches are encrypted, indexed and signed with the key returned by {@link #key()}, exactly like the patches pushed by a real device,
+ * so the key must be shared with the client, for example using {@link LoopbackPeer#shareAppStateKey(LoopbackConnection, AppStateSyncKey)}, before they can be pulled.
+ */
+public final class LoopbackAppState {
+    private static final int KEY_ID_LENGTH = 6;
+
+    private final AppStateSyncKey key;
+    private final MutationKeys mutationKeys;
+    private final Map<PatchType, Collection> collections;
+
+    LoopbackAppState() {
+        var fingerprint = new AppStateSyncKeyFingerprint(new Random().nextInt(Integer.MAX_VALUE), 0, List.of(0));
+        var keyData = new AppStateSyncKeyData(BytesHelper.random(32), fingerprint, Clock.nowMilliseconds());
+        this.key = new AppStateSyncKey(new AppStateSyncKeyId(BytesHelper.random(KEY_ID_LENGTH)), keyData);
+        this.mutationKeys = MutationKeys.of(keyData.keyData());
+        this.collections = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the key used to encrypt the patches of every collection
+     *
+     * @return a non-null key
+     */
+    public AppStateSyncKey key() {
+        return key;
+    }
+
+    /**
+     * Adds a patch to a collection
+     *
+     * @param type    the non-null type of the collection
+     * @param entries the non-null mutations of the patch
+     * @return the version of the collection after the patch
+     */
+    public long push(PatchType type, List<PatchEntry> entries) {
+        var collection = collections.computeIfAbsent(type, Collection::new);
+        synchronized (collection) {
+            var state = collection.state().copy();
+            var syncId = new KeyId(key.keyId().keyId());
+            var mutations = entries.stream()
+                    .map(entry -> createMutation(entry, syncId))
+                    .toList();
+            var generator = new LTHash(state);
+            mutations.forEach(mutation -> generator.mix(mutation.indexMac(), mutation.valueMac(), mutation.operation()));
+            var result = generator.finish();
+            state.hash(result.hash());
+            state.indexValueMap(result.indexValueMap());
+            state.version(state.version() + 1);
+            var snapshotMac = Hmac.calculateSha256(BytesHelper.concat(state.hash(), BytesHelper.longToBytes(state.version()), encodeName(type)), mutationKeys.snapshotMacKey());
+            var valueMacs = mutations.stream()
+                    .map(Mutation::valueMac)
+                    .toArray(byte[][]::new);
+            var patchMac = Hmac.calculateSha256(BytesHelper.concat(snapshotMac, BytesHelper.concat(valueMacs), BytesHelper.longToBytes(state.version()), encodeName(type)), mutationKeys.patchMacKey());
+            var patch = new PatchSyncBuilder()
+                    .version(new VersionSync(state.version()))
+                    .mutations(mutations.stream().map(Mutation::sync).toList())
+                    .snapshotMac(snapshotMac)
+                    .patchMac(patchMac)
+                    .keyId(syncId)
+                    .build();
+            collection.patches().add(patch);
+            collection.setState(state);
+            return state.version();
+        }
+    }
+
+    private Mutation createMutation(PatchEntry entry, KeyId syncId) {
+        var index = entry.index().getBytes(StandardCharsets.UTF_8);
+        var actionVersion = entry.sync()
+                .action()
+                .orElseThrow(() -> new NoSuchElementException("Missing action"))
+                .actionVersion();
+        var actionData = new ActionDataSyncBuilder()
+                .index(index)
+                .value(entry.sync())
+                .padding(new byte[0])
+                .version(actionVersion)
+                .build();
+        var encrypted = AesCbc.encryptAndPrefix(ActionDataSyncSpec.encode(actionData), mutationKeys.encKey());
+        var valueMac = createValueMac(entry.operation(), encrypted, syncId.id());
+        var indexMac = Hmac.calculateSha256(index, mutationKeys.indexKey());
+        var record = new RecordSyncBuilder()
+                .index(new IndexSync(indexMac))
+                .value(new ValueSync(BytesHelper.concat(encrypted, valueMac)))
+                .keyId(syncId)
+                .build();
+        var sync = new MutationSyncBuilder()
+                .operation(entry.operation())
+                .record(record)
+                .build();
+        return new Mutation(sync, indexMac, valueMac, entry.operation());
+    }
+
+    private byte[] createValueMac(RecordSync.Operation operation, byte[] data, byte[] keyId) {
+        var keyData = BytesHelper.concat(operation.content(), keyId);
+        var last = new byte[Specification.Signal.MAC_LENGTH];
+        last[last.length - 1] = (byte) keyData.length;
+        var sha512 = Hmac.calculateSha512(BytesHelper.concat(keyData, data, last), mutationKeys.macKey());
+        return Arrays.copyOfRange(sha512, 0, Specification.Signal.KEY_LENGTH);
+    }
+
+    private byte[] encodeName(PatchType type) {
+        return type.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates the notification that tells a client to pull some collections
+     *
+     * @param types the non-null collections to pull
+     * @return a non-null node
+     */
+    public Node createNotification(PatchType... types) {
+        var children = Arrays.stream(types)
+                .map(type -> Node.of("collection", Map.of("name", type, "version", version(type))))
+                .toList();
+        return Node.of("notification", Map.of("id", HexFormat.of().formatHex(BytesHelper.random(8)), "type", "server_sync", "t", Clock.nowSeconds()), children);
+    }
+
+    /**
+     * Returns the version of a collection
+     *
+     * @param type the non-null type of the collection
+     * @return an unsigned long
+     */
+    public long version(PatchType type) {
+        var collection = collections.get(type);
+        return collection == null ? 0 : collection.state().version();
+    }
+
+    // Answers a pull: every requested collection gets the patches newer than the version that the client has
+    Node respond(Node query) {
+        var results = query.findNode("sync")
+                .stream()
+                .flatMap(sync -> sync.findNodes("collection").stream())
+                .map(this::respondCollection)
+                .toList();
+        return Node.of("sync", results);
+    }
+
+    private Node respondCollection(Node request) {
+        var type = PatchType.of(request.attributes().getString("name"));
+        var version = request.attributes().getLong("version");
+        var collection = collections.get(type);
+        if (collection == null) {
+            return Node.of("collection", Map.of("name", type, "version", version));
+        }
+
+        synchronized (collection) {
+            var patches = collection.patches()
+                    .stream()
+                    .filter(patch -> patch.encodedVersion() > version)
+                    .map(patch -> Node.of("patch", PatchSyncSpec.encode(patch)))
+                    .toList();
+            return Node.of("collection", Map.of("name", type, "version", collection.state().version()), Node.of("patches", patches));
+        }
+    }
+
+    private static final class Collection {
+        private final List<PatchSync> patches;
+        private CompanionHashState state;
+
+        private Collection(PatchType type) {
+            this.patches = new ArrayList<>();
+            this.state = new CompanionHashState(type);
+        }
+
+        private List<PatchSync> patches() {
+            return patches;
+        }
+
+        private CompanionHashState state() {
+            return state;
+        }
+
+        private void setState(CompanionHashState state) {
+            this.state = state;
+        }
+    }
+
+    private record Mutation(MutationSync sync, byte[] indexMac, byte[] valueMac, RecordSync.Operation operation) {
+
+    }
+}
@@ -0,0 +1,101 @@
+package it.auties.whatsapp.loopback;
+
+import it.auties.whatsapp.controller.Keys;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.model.signal.keypair.SignalKeyPair;
+import it.auties.whatsapp.model.signal.keypair.SignalPreKeyPair;
+import it.auties.whatsapp.model.signal.keypair.SignalSignedKeyPair;
+import it.auties.whatsapp.util.BytesHelper;
+import it.auties.whatsapp.util.KeyHelper;
+
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The public keys that a device publishes so that other devices can establish a signal session with it
+ *
+ * @param registrationId the registration id of the device
+ * @param identityKey    the identity key of the device, with its key type header
+ * @param signedKey      the signed pre key of the device
+ * @param preKeys        the one-time pre keys that were not handed out yet
+ */
+public record LoopbackBundle(int registrationId, byte[] identityKey, SignalSignedKeyPair signedKey,
+                             Queue<SignalSignedKeyPair> preKeys) {
+    private static final byte[] KEY_BUNDLE_TYPE = {5};
+
+    /**
+     * Parses the bundle uploaded by a client using an encrypt query
+     *
+     * @param query the non-null query
+     * @return a non-null bundle
+     */
+    public static LoopbackBundle of(Node query) {
+        var registrationId = query.findNode("registration")
+                .flatMap(Node::contentAsBytes)
+                .map(bytes -> BytesHelper.bytesToInt(bytes, 4))
+                .orElseThrow(() -> new NoSuchElementException("Missing registration id"));
+        var identityKey = query.findNode("identity")
+                .flatMap(Node::contentAsBytes)
+                .map(KeyHelper::withHeader)
+                .orElseThrow(() -> new NoSuchElementException("Missing identity key"));
+        var signedKey = query.findNode("skey")
+                .flatMap(SignalSignedKeyPair::of)
+                .orElseThrow(() -> new NoSuchElementException("Missing signed key"));
+        var preKeys = new ConcurrentLinkedQueue<SignalSignedKeyPair>();
+        query.findNode("list")
+                .stream()
+                .flatMap(list -> list.findNodes("key").stream())
+                .map(SignalSignedKeyPair::of)
+                .flatMap(Optional::stream)
+                .forEach(preKeys::add);
+        return new LoopbackBundle(registrationId, identityKey, signedKey, preKeys);
+    }
+
+    /**
+     * Creates the bundle of a device from its keys
+     *
+     * @param keys the non-null keys of the device
+     * @return a non-null bundle
+     */
+    public static LoopbackBundle of(Keys keys) {
+        var preKeys = new ConcurrentLinkedQueue<SignalSignedKeyPair>();
+        keys.preKeys()
+                .stream()
+                .map(preKey -> new SignalSignedKeyPair(preKey.id(), new SignalKeyPair(preKey.publicKey(), null), null))
+                .forEach(preKeys::add);
+        var signedKey = keys.signedKeyPair();
+        var publicSignedKey = new SignalSignedKeyPair(signedKey.id(), new SignalKeyPair(signedKey.publicKey(), null), signedKey.signature());
+        return new LoopbackBundle(keys.registrationId(), KeyHelper.withHeader(keys.identityKeyPair().publicKey()), publicSignedKey, preKeys);
+    }
+
+    /**
+     * Hands out a one-time pre key, if any is left
+     *
+     * @return a non-null optional
+     */
+    public Optional<SignalSignedKeyPair> nextPreKey() {
+        return Optional.ofNullable(preKeys.poll());
+    }
+
+    /**
+     * Encodes this bundle as the user node returned by an encrypt query, handing out a one-time pre key if any is left
+     *
+     * @param jid the non-null jid of the device
+     * @return a non-null node
+     */
+    public Node toNode(Jid jid) {
+        var preKey = nextPreKey()
+                .map(key -> new SignalPreKeyPair(key.id(), key.publicKey(), null).toNode())
+                .orElse(null);
+        return Node.of("user", Map.of("jid", jid),
+                Node.of("registration", BytesHelper.intToBytes(registrationId, 4)),
+                Node.of("type", KEY_BUNDLE_TYPE),
+                Node.of("identity", KeyHelper.withoutHeader(identityKey)),
+                Node.of("skey", Node.of("id", signedKey.encodedId()), Node.of("value", signedKey.publicKey()), Node.of("signature", signedKey.signature())),
+                preKey);
+    }
+}
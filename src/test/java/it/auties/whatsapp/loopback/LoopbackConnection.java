@@ -0,0 +1,305 @@
+package it.auties.whatsapp.loopback;
+
+import it.auties.curve25519.Curve25519;
+import it.auties.whatsapp.binary.BinaryDecoder;
+import it.auties.whatsapp.binary.BinaryEncoder;
+import it.auties.whatsapp.crypto.AesGcm;
+import it.auties.whatsapp.crypto.Hkdf;
+import it.auties.whatsapp.crypto.Sha256;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.jid.JidServer;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.model.signal.auth.*;
+import it.auties.whatsapp.model.signal.keypair.SignalKeyPair;
+import it.auties.whatsapp.util.BytesHelper;
+import it.auties.whatsapp.util.Clock;
+import it.auties.whatsapp.util.Specification;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+
+/**
+ * A client connected to a {@link LoopbackServer}.
+ * The connection completes the server side of the noise handshake, logs the client in as soon as the handshake is done,
+ * answers its queries using the responders registered on the server and records every other node it sends.
+ */
+public final class LoopbackConnection implements AutoCloseable {
+    private static final int PROLOGUE_LENGTH = 4;
+    private static final int MAX_RECEIVED = 100_000;
+
+    private final LoopbackServer server;
+    private final Socket socket;
+    private final DataInputStream input;
+    private final OutputStream output;
+    private final ReentrantLock outputLock;
+    private final BlockingQueue<Node> received;
+    private final CountDownLatch loggedIn;
+    private final AtomicLong receivedCount;
+    private byte[] readKey;
+    private byte[] writeKey;
+    private long readCounter;
+    private long writeCounter;
+    private volatile Jid jid;
+    private volatile LoopbackBundle bundle;
+
+    LoopbackConnection(LoopbackServer server, Socket socket) throws IOException {
+        this.server = server;
+        this.socket = socket;
+        this.input = new DataInputStream(socket.getInputStream());
+        this.output = socket.getOutputStream();
+        this.outputLock = new ReentrantLock();
+        this.received = new LinkedBlockingQueue<>(MAX_RECEIVED);
+        this.loggedIn = new CountDownLatch(1);
+        this.receivedCount = new AtomicLong();
+    }
+
+    void run() {
+        try (socket) {
+            handshake();
+            login();
+            while (!socket.isClosed()) {
+                onNode(readNode());
+            }
+        } catch (IOException ignored) {
+            // The client disconnected
+        } finally {
+            server.onDisconnected(this);
+        }
+    }
+
+    private void handshake() throws IOException {
+        var prologue = input.readNBytes(PROLOGUE_LENGTH);
+        var clientHello = HandshakeMessageSpec.decode(readFrame()).clientHello();
+        var state = new NoiseState(prologue);
+        state.updateHash(clientHello.ephemeral());
+        var ephemeralKeyPair = SignalKeyPair.random();
+        state.updateHash(ephemeralKeyPair.publicKey());
+        state.mixIntoKey(Curve25519.sharedKey(clientHello.ephemeral(), ephemeralKeyPair.privateKey()));
+        var staticText = state.cipher(server.staticKeyPair().publicKey(), true);
+        state.mixIntoKey(Curve25519.sharedKey(clientHello.ephemeral(), server.staticKeyPair().privateKey()));
+        var payload = state.cipher(new byte[0], true);
+        var serverHello = new HandshakeMessage(null, new ServerHello(ephemeralKeyPair.publicKey(), staticText, payload), null);
+        writeFrame(HandshakeMessageSpec.encode(serverHello));
+        var clientFinish = HandshakeMessageSpec.decode(readFrame()).clientFinish();
+        var noiseKey = state.cipher(clientFinish._static(), false);
+        state.mixIntoKey(Curve25519.sharedKey(noiseKey, ephemeralKeyPair.privateKey()));
+        var clientPayload = ClientPayloadSpec.decode(state.cipher(clientFinish.payload(), false));
+        var expanded = state.finish();
+        this.readKey = Arrays.copyOfRange(expanded, 0, 32);
+        this.writeKey = Arrays.copyOfRange(expanded, 32, 64);
+        this.jid = createJid(clientPayload);
+    }
+
+    private Jid createJid(ClientPayload payload) {
+        if (payload.username() == null) {
+            return null;
+        }
+
+        var device = Objects.requireNonNullElse(payload.device(), 0);
+        return device == 0 ? Jid.of(payload.username()) : Jid.ofDevice(String.valueOf(payload.username()), device);
+    }
+
+    private void login() throws IOException {
+        send(Node.of("success", Map.of("t", Clock.nowSeconds(), "props", 1, "location", "loopback")));
+        loggedIn.countDown();
+    }
+
+    private void onNode(Node node) throws IOException {
+        if (node.hasDescription("iq") && isQuery(node)) {
+            var xmlns = node.attributes().getString("xmlns");
+            var content = server.findResponder(xmlns)
+                    .map(responder -> responder.respond(this, node))
+                    .orElse(null);
+            send(Node.of("iq", Map.of("id", node.id(), "type", "result", "from", JidServer.WHATSAPP.toJid()), content));
+            return;
+        }
+
+        if (node.hasDescription("message")) {
+            send(Node.of("ack", Map.of("id", node.id(), "class", "message", "from", node.attributes().getString("to"))));
+        }
+
+        receivedCount.incrementAndGet();
+        received.offer(node);
+    }
+
+    private boolean isQuery(Node node) {
+        var type = node.attributes().getString("type");
+        return Objects.equals(type, "get") || Objects.equals(type, "set");
+    }
+
+    /**
+     * Sends a node to the client
+     *
+     * @param node the non-null node to send
+     * @throws IOException if the node cannot be sent
+     */
+    public void send(Node node) throws IOException {
+        outputLock.lock();
+        try (var encoder = new BinaryEncoder()) {
+            writeFrame(AesGcm.encrypt(writeCounter++, encoder.encode(node), writeKey));
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    private Node readNode() throws IOException {
+        var message = AesGcm.decrypt(readCounter++, readFrame(), readKey);
+        try (var decoder = new BinaryDecoder(message)) {
+            return decoder.decode();
+        }
+    }
+
+    private byte[] readFrame() throws IOException {
+        var length = (input.readUnsignedByte() << 16) | input.readUnsignedShort();
+        return input.readNBytes(length);
+    }
+
+    private void writeFrame(byte[] frame) throws IOException {
+        outputLock.lock();
+        try {
+            var header = new byte[]{(byte) (frame.length >> 16), (byte) (frame.length >> 8), (byte) frame.length};
+            output.write(BytesHelper.concat(header, frame));
+            output.flush();
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the client is logged in
+     *
+     * @param timeout the maximum time to wait
+     * @return this connection
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws TimeoutException     if the client doesn't log in on time
+     */
+    public LoopbackConnection awaitLogin(Duration timeout) throws InterruptedException, TimeoutException {
+        if (!loggedIn.await(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new TimeoutException("The client didn't log in");
+        }
+
+        return this;
+    }
+
+    /**
+     * Waits for the next node sent by the client that matches a filter, skipping the others
+     * Queries are never returned, as they are answered by the server
+     *
+     * @param filter  the non-null filter
+     * @param timeout the maximum time to wait
+     * @return the matching node
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws TimeoutException     if no node matches on time
+     */
+    public Node awaitNode(Predicate<Node> filter, Duration timeout) throws InterruptedException, TimeoutException {
+        var deadline = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            var remaining = deadline - System.nanoTime();
+            var node = remaining > 0 ? received.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            if (node == null) {
+                throw new TimeoutException("No matching node was received");
+            }
+
+            if (filter.test(node)) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of nodes, excluding queries, that the client sent
+     *
+     * @return an unsigned long
+     */
+    public long receivedCount() {
+        return receivedCount.get();
+    }
+
+    /**
+     * Returns the jid that the client logged in with
+     *
+     * @return a non-null optional
+     */
+    public Optional<Jid> jid() {
+        return Optional.ofNullable(jid);
+    }
+
+    /**
+     * Returns the keys that the client published, if it uploaded them or if they were set manually
+     *
+     * @return a non-null optional
+     */
+    public Optional<LoopbackBundle> bundle() {
+        return Optional.ofNullable(bundle);
+    }
+
+    /**
+     * Sets the keys of the client
+     * Clients only upload their keys the first time that they log in: sessions that were restored should set them manually
+     *
+     * @param bundle the non-null bundle
+     * @return this connection
+     */
+    public LoopbackConnection setBundle(LoopbackBundle bundle) {
+        this.bundle = bundle;
+        return this;
+    }
+
+    /**
+     * Returns the server that owns this connection
+     *
+     * @return a non-null server
+     */
+    public LoopbackServer server() {
+        return server;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // The responder side of the handshake implemented by SocketHandshake
+    private static final class NoiseState {
+        private byte[] hash;
+        private byte[] salt;
+        private byte[] cryptoKey;
+        private long counter;
+
+        private NoiseState(byte[] prologue) {
+            this.hash = Specification.Whatsapp.NOISE_PROTOCOL;
+            this.salt = Specification.Whatsapp.NOISE_PROTOCOL;
+            this.cryptoKey = Specification.Whatsapp.NOISE_PROTOCOL;
+            updateHash(prologue);
+        }
+
+        private void updateHash(byte[] data) {
+            this.hash = Sha256.calculate(BytesHelper.concat(hash, data));
+        }
+
+        private byte[] cipher(byte[] bytes, boolean encrypt) {
+            var result = encrypt ? AesGcm.encrypt(counter++, bytes, cryptoKey, hash) : AesGcm.decrypt(counter++, bytes, cryptoKey, hash);
+            updateHash(encrypt ? result : bytes);
+            return result;
+        }
+
+        private void mixIntoKey(byte[] bytes) {
+            var expanded = Hkdf.extractAndExpand(bytes, salt, null, 64);
+            this.salt = Arrays.copyOfRange(expanded, 0, 32);
+            this.cryptoKey = Arrays.copyOfRange(expanded, 32, 64);
+            this.counter = 0;
+        }
+
+        private byte[] finish() {
+            return Hkdf.extractAndExpand(new byte[0], salt, null, 64);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package it.auties.whatsapp.loopback;
+
+import it.auties.whatsapp.api.ClientType;
+import it.auties.whatsapp.controller.Keys;
+import it.auties.whatsapp.crypto.SessionBuilder;
+import it.auties.whatsapp.crypto.SessionCipher;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.message.model.ChatMessageKey;
+import it.auties.whatsapp.model.message.model.MessageContainer;
+import it.auties.whatsapp.model.message.server.ProtocolMessage;
+import it.auties.whatsapp.model.message.server.ProtocolMessageBuilder;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.model.sync.AppStateSyncKey;
+import it.auties.whatsapp.model.sync.AppStateSyncKeyShareBuilder;
+import it.auties.whatsapp.model.sync.HistorySync;
+import it.auties.whatsapp.model.sync.HistorySyncNotification;
+import it.auties.whatsapp.model.sync.HistorySyncSpec;
+import it.auties.whatsapp.util.BytesHelper;
+import it.auties.whatsapp.util.Clock;
+import it.auties.whatsapp.util.ControllerHelper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+/**
+ * A simulated device that can exchange end-to-end encrypted messages with the clients connected to a {@link LoopbackServer}.
+ * Every peer has its own signal keys, so messages go through the same session setup and decryption as the ones sent by a real device.
+ * A peer whose jid is the companion of the client, that is the primary device of the logged in account, can also push history syncs and app state keys.
+ */
+public final class LoopbackPeer {
+    private final Jid jid;
+    private final String name;
+    private final Keys keys;
+    private final LoopbackBundle bundle;
+
+    LoopbackPeer(Jid jid, String name) {
+        this.jid = jid;
+        this.name = name;
+        this.keys = ControllerHelper.create(UUID.randomUUID(), null, List.of(), ClientType.MOBILE, new LoopbackSerializer())
+                .keys();
+        keys.generatePreKeys(Runnable::run);
+        this.bundle = LoopbackBundle.of(keys);
+    }
+
+    /**
+     * Sends a text message to a client
+     *
+     * @param connection the non-null connection of the client
+     * @param text       the non-null text to send
+     * @return the id of the message
+     * @throws IOException if the message cannot be sent
+     */
+    public String sendText(LoopbackConnection connection, String text) throws IOException {
+        return sendMessage(connection, MessageContainer.of(text));
+    }
+
+    /**
+     * Sends a number of text messages to a client as fast as possible
+     *
+     * @param connection the non-null connection of the client
+     * @param count      the number of messages to send
+     * @return the ids of the messages, in the order they were sent
+     * @throws IOException if a message cannot be sent
+     */
+    public List<String> flood(LoopbackConnection connection, int count) throws IOException {
+        var results = new ArrayList<String>(count);
+        for (var index = 0; index < count; index++) {
+            results.add(sendText(connection, "Message %s from %s".formatted(index, name)));
+        }
+
+        return results;
+    }
+
+    /**
+     * Sends a message to a client
+     * If this peer has no session with the client yet, one is created using the keys that the client published
+     *
+     * @param connection the non-null connection of the client
+     * @param container  the non-null message to send
+     * @return the id of the message
+     * @throws IOException if the message cannot be sent
+     */
+    public synchronized String sendMessage(LoopbackConnection connection, MessageContainer container) throws IOException {
+        var address = connection.jid()
+                .orElseThrow(() -> new IllegalStateException("The client didn't log in"))
+                .toSignalAddress();
+        if (!keys.hasSession(address)) {
+            var clientBundle = connection.bundle()
+                    .orElseThrow(() -> new NoSuchElementException("The client didn't publish its keys"));
+            new SessionBuilder(address, keys).createOutgoing(clientBundle.registrationId(), clientBundle.identityKey(), clientBundle.signedKey(), clientBundle.nextPreKey().orElse(null));
+        }
+
+        var ciphered = new SessionCipher(address, keys).encrypt(BytesHelper.messageToBytes(container));
+        var id = ChatMessageKey.randomId();
+        var attributes = Map.<String, Object>of("id", id, "from", jid, "t", Clock.nowSeconds(), "type", "text", "notify", name);
+        connection.send(Node.of("message", attributes, Node.of("enc", Map.of("v", 2, "type", ciphered.type()), ciphered.message())));
+        return id;
+    }
+
+    /**
+     * Sends a history sync to a client
+     * The history is sent inline, so no media server is involved
+     *
+     * @param connection the non-null connection of the client
+     * @param history    the non-null history to send
+     * @return the id of the message
+     * @throws IOException if the message cannot be sent
+     */
+    public String sendHistorySync(LoopbackConnection connection, HistorySync history) throws IOException {
+        var payload = BytesHelper.compress(HistorySyncSpec.encode(history));
+        var notification = new HistorySyncNotification(null, null, null, null, null, history.syncType(), history.chunkOrder(), null, 0, 0, payload, null);
+        var protocolMessage = new ProtocolMessageBuilder()
+                .protocolType(ProtocolMessage.Type.HISTORY_SYNC_NOTIFICATION)
+                .historySyncNotification(notification)
+                .build();
+        return sendMessage(connection, MessageContainer.of(protocolMessage));
+    }
+
+    /**
+     * Shares an app state key with a client
+     * The client pulls its app state as soon as it receives it
+     *
+     * @param connection the non-null connection of the client
+     * @param key        the non-null key to share, usually {@link LoopbackAppState#key()}
+     * @return the id of the message
+     * @throws IOException if the message cannot be sent
+     */
+    public String shareAppStateKey(LoopbackConnection connection, AppStateSyncKey key) throws IOException {
+        var share = new AppStateSyncKeyShareBuilder()
+                .keys(List.of(key))
+                .build();
+        var protocolMessage = new ProtocolMessageBuilder()
+                .protocolType(ProtocolMessage.Type.APP_STATE_SYNC_KEY_SHARE)
+                .appStateSyncKeyShare(share)
+                .build();
+        return sendMessage(connection, MessageContainer.of(protocolMessage));
+    }
+
+    /**
+     * Returns the jid of this peer
+     *
+     * @return a non-null jid
+     */
+    public Jid jid() {
+        return jid;
+    }
+
+    /**
+     * Returns the name of this peer
+     *
+     * @return a non-null string
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Returns the keys that this peer publishes
+     *
+     * @return a non-null bundle
+     */
+    public LoopbackBundle bundle() {
+        return bundle;
+    }
+}
@@ -0,0 +1,73 @@
+package it.auties.whatsapp.loopback;
+
+import it.auties.whatsapp.api.ClientType;
+import it.auties.whatsapp.controller.Controller;
+import it.auties.whatsapp.controller.ControllerSerializer;
+import it.auties.whatsapp.controller.Keys;
+import it.auties.whatsapp.controller.Store;
+import it.auties.whatsapp.model.mobile.PhoneNumber;
+
+import java.util.LinkedList;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A serializer that keeps nothing: used for the keys of simulated peers and for sessions that run against a {@link LoopbackServer}
+ */
+public final class LoopbackSerializer implements ControllerSerializer {
+    @Override
+    public LinkedList<UUID> listIds(ClientType type) {
+        return new LinkedList<>();
+    }
+
+    @Override
+    public LinkedList<PhoneNumber> listPhoneNumbers(ClientType type) {
+        return new LinkedList<>();
+    }
+
+    @Override
+    public CompletableFuture<Void> serializeKeys(Keys keys, boolean async) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public CompletableFuture<Void> serializeStore(Store store, boolean async) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public Optional<Keys> deserializeKeys(ClientType type, UUID id) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Keys> deserializeKeys(ClientType type, long phoneNumber) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Keys> deserializeKeys(ClientType type, String alias) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Store> deserializeStore(ClientType type, UUID id) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Store> deserializeStore(ClientType type, long phoneNumber) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<Store> deserializeStore(ClientType type, String alias) {
+        return Optional.empty();
+    }
+
+    @Override
+    public void deleteSession(Controller<?> controller) {
+
+    }
+}
@@ -0,0 +1,312 @@
+package it.auties.whatsapp.loopback;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.node.Node;
+import it.auties.whatsapp.model.signal.keypair.SignalKeyPair;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A local server that speaks the same protocol as the WhatsApp socket, so that a session can be connected, logged in and exercised without a real account.
+ * Use {@link #endpoint()} as the socket endpoint of a registered session, for example:
+ * <pre>{@code
+ * try (var server = LoopbackServer.start()) {
+ *     var session = ControllerHelper.create(UUID.randomUUID(), 393495089819L, List.of(), ClientType.WEB, new LoopbackSerializer());
+ *     session.keys().setRegistered(true);
+ *     session.store().setSocketEndpoint(server.endpoint());
+ *     var whatsapp = Whatsapp.customBuilder()
+ *             .store(session.store())
+ *             .keys(session.keys())
+ *             .build();
+ *     whatsapp.connect();
+ *     var connection = server.awaitConnection(Duration.ofSeconds(5))
+ *             .awaitLogin(Duration.ofSeconds(5));
+ *     server.addPeer(Jid.of(393495089820L), "Peer")
+ *             .flood(connection, 10_000);
+ * }
+ * }</pre>
+ * The server answers the queries needed by the login flow, by the signal session setup, by media connections and by app state syncs:
+ * other queries get an empty result unless a responder is registered with {@link #onQuery(String, QueryResponder)}.
+ * Media can be served over http using {@link #hostMedia(byte[])}.
+ */
+public final class LoopbackServer implements AutoCloseable {
+    private static final String HOST = "127.0.0.1";
+    private static final int DEFAULT_MEDIA_TTL = 3600;
+    private static final int DEFAULT_MAX_BUCKETS = 12;
+
+    private final ServerSocket serverSocket;
+    private final HttpServer mediaServer;
+    private final ExecutorService executor;
+    private final SignalKeyPair staticKeyPair;
+    private final Map<String, QueryResponder> responders;
+    private final Map<Jid, LoopbackPeer> peers;
+    private final Map<String, byte[]> media;
+    private final Set<LoopbackConnection> connections;
+    private final BlockingQueue<LoopbackConnection> pendingConnections;
+    private final LoopbackAppState appState;
+
+    private LoopbackServer(ServerSocket serverSocket, HttpServer mediaServer) {
+        this.serverSocket = serverSocket;
+        this.mediaServer = mediaServer;
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("loopback-", 0).factory());
+        this.staticKeyPair = SignalKeyPair.random();
+        this.responders = new ConcurrentHashMap<>();
+        this.peers = new ConcurrentHashMap<>();
+        this.media = new ConcurrentHashMap<>();
+        this.connections = ConcurrentHashMap.newKeySet();
+        this.pendingConnections = new LinkedBlockingQueue<>();
+        this.appState = new LoopbackAppState();
+        registerDefaultResponders();
+    }
+
+    /**
+     * Starts a server on a random local port
+     *
+     * @return a non-null server
+     * @throws IOException if the server cannot be started
+     */
+    public static LoopbackServer start() throws IOException {
+        var address = InetAddress.getByName(HOST);
+        var serverSocket = new ServerSocket(0, 50, address);
+        var mediaServer = HttpServer.create(new InetSocketAddress(address, 0), 0);
+        var result = new LoopbackServer(serverSocket, mediaServer);
+        mediaServer.setExecutor(result.executor);
+        mediaServer.createContext("/", result::onMediaRequest);
+        mediaServer.start();
+        result.executor.execute(result::accept);
+        return result;
+    }
+
+    private void registerDefaultResponders() {
+        onQuery("encrypt", this::respondEncrypt);
+        onQuery("usync", (connection, query) -> respondDevices(query));
+        onQuery("w:m", (connection, query) -> respondMediaConnection());
+        onQuery("w:sync:app:state", (connection, query) -> appState.respond(query));
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                var connection = new LoopbackConnection(this, serverSocket.accept());
+                connections.add(connection);
+                pendingConnections.add(connection);
+                executor.execute(connection::run);
+            } catch (IOException ignored) {
+                // The server was closed
+            }
+        }
+    }
+
+    // A set uploads the keys of the client, a get asks for the keys of other devices
+    private Node respondEncrypt(LoopbackConnection connection, Node query) {
+        if (Objects.equals(query.attributes().getString("type"), "set")) {
+            connection.setBundle(LoopbackBundle.of(query));
+            return null;
+        }
+
+        var users = query.findNode("key")
+                .stream()
+                .flatMap(key -> key.findNodes("user").stream())
+                .map(user -> user.attributes().getRequiredJid("jid"))
+                .map(this::createBundleNode)
+                .flatMap(Optional::stream)
+                .toList();
+        return Node.of("list", users);
+    }
+
+    private Optional<Node> createBundleNode(Jid jid) {
+        var peer = peers.get(jid.withoutDevice());
+        if (peer != null) {
+            return Optional.of(peer.bundle().toNode(jid));
+        }
+
+        return connections.stream()
+                .filter(connection -> connection.jid().filter(jid::equals).isPresent())
+                .findFirst()
+                .flatMap(LoopbackConnection::bundle)
+                .map(bundle -> bundle.toNode(jid));
+    }
+
+    // Every user has a single device, the primary one
+    private Node respondDevices(Node query) {
+        var users = query.findNode("usync")
+                .flatMap(usync -> usync.findNode("list"))
+                .stream()
+                .flatMap(list -> list.findNodes("user").stream())
+                .map(user -> user.attributes().getRequiredJid("jid"))
+                .map(jid -> Node.of("user", Map.of("jid", jid), Node.of("devices", Node.of("device-list", Node.of("device", Map.of("id", 0))))))
+                .toList();
+        return Node.of("usync", Node.of("list", users));
+    }
+
+    private Node respondMediaConnection() {
+        var host = Node.of("host", Map.of("hostname", "%s:%s".formatted(HOST, mediaServer.getAddress().getPort())));
+        return Node.of("media_conn", Map.of("auth", UUID.randomUUID().toString(), "ttl", DEFAULT_MEDIA_TTL, "max_buckets", DEFAULT_MAX_BUCKETS), host);
+    }
+
+    private void onMediaRequest(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            var blob = media.get(exchange.getRequestURI().getPath());
+            if (blob == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            exchange.sendResponseHeaders(200, blob.length);
+            exchange.getResponseBody().write(blob);
+        }
+    }
+
+    /**
+     * Returns the endpoint that sessions should connect to
+     *
+     * @return a non-null uri
+     */
+    public URI endpoint() {
+        return URI.create("tcp://%s:%s".formatted(HOST, serverSocket.getLocalPort()));
+    }
+
+    /**
+     * Registers a responder for the queries that use a namespace, replacing the previous one if any
+     *
+     * @param xmlns     the non-null namespace
+     * @param responder the non-null responder
+     * @return this server
+     */
+    public LoopbackServer onQuery(String xmlns, QueryResponder responder) {
+        responders.put(xmlns, responder);
+        return this;
+    }
+
+    /**
+     * Returns the responder for the queries that use a namespace
+     *
+     * @param xmlns the namespace, can be null
+     * @return a non-null optional
+     */
+    public Optional<QueryResponder> findResponder(String xmlns) {
+        return xmlns == null ? Optional.empty() : Optional.ofNullable(responders.get(xmlns));
+    }
+
+    /**
+     * Waits for the next client that connects to this server
+     *
+     * @param timeout the maximum time to wait
+     * @return a non-null connection
+     * @throws InterruptedException if the current thread is interrupted
+     * @throws TimeoutException     if no client connects on time
+     */
+    public LoopbackConnection awaitConnection(Duration timeout) throws InterruptedException, TimeoutException {
+        var result = pendingConnections.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        if (result == null) {
+            throw new TimeoutException("No client connected");
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the clients that are connected to this server
+     *
+     * @return a non-null unmodifiable collection
+     */
+    public Collection<LoopbackConnection> connections() {
+        return Collections.unmodifiableSet(connections);
+    }
+
+    void onDisconnected(LoopbackConnection connection) {
+        connections.remove(connection);
+        pendingConnections.remove(connection);
+    }
+
+    /**
+     * Adds a simulated device that can send messages to connected clients and whose keys are returned to clients that want to message it
+     *
+     * @param jid  the non-null jid of the peer
+     * @param name the non-null name of the peer
+     * @return a non-null peer
+     */
+    public LoopbackPeer addPeer(Jid jid, String name) {
+        return peers.computeIfAbsent(jid.withoutDevice(), ignored -> new LoopbackPeer(jid, name));
+    }
+
+    /**
+     * Returns the peer that uses a jid
+     *
+     * @param jid the non-null jid
+     * @return a non-null optional
+     */
+    public Optional<LoopbackPeer> findPeer(Jid jid) {
+        return Optional.ofNullable(peers.get(jid.withoutDevice()));
+    }
+
+    /**
+     * Returns the peers of this server
+     *
+     * @return a non-null unmodifiable collection
+     */
+    public Collection<LoopbackPeer> peers() {
+        return Collections.unmodifiableCollection(peers.values());
+    }
+
+    /**
+     * Returns the app state served to clients
+     *
+     * @return a non-null app state
+     */
+    public LoopbackAppState appState() {
+        return appState;
+    }
+
+    /**
+     * Serves a blob over http
+     * The blob is returned as is: media that clients should decrypt must be encrypted before being hosted
+     *
+     * @param blob the non-null blob
+     * @return the url of the blob
+     */
+    public URI hostMedia(byte[] blob) {
+        var path = "/media/" + UUID.randomUUID();
+        media.put(path, blob);
+        return URI.create("http://%s:%s%s".formatted(HOST, mediaServer.getAddress().getPort(), path));
+    }
+
+    SignalKeyPair staticKeyPair() {
+        return staticKeyPair;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        mediaServer.stop(0);
+        for (var connection : connections) {
+            connection.close();
+        }
+
+        executor.shutdownNow();
+    }
+
+    /**
+     * A responder for the queries sent by clients
+     */
+    @FunctionalInterface
+    public interface QueryResponder {
+        /**
+         * Answers a query
+         *
+         * @param connection the non-null connection that sent the query
+         * @param query      the non-null query
+         * @return the content of the result, can be null
+         */
+        Node respond(LoopbackConnection connection, Node query);
+    }
+}
@@ -0,0 +1,87 @@
+package it.auties.whatsapp.loopback;
+
+import it.auties.whatsapp.api.ClientType;
+import it.auties.whatsapp.api.Whatsapp;
+import it.auties.whatsapp.model.info.MessageInfo;
+import it.auties.whatsapp.model.jid.Jid;
+import it.auties.whatsapp.model.message.standard.TextMessage;
+import it.auties.whatsapp.util.ControllerHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Runs a session against a LoopbackServer, so it doesn't need a real account and can run in CI
+public class LoopbackTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final long PHONE_NUMBER = 393495089819L;
+    private static final Jid PEER = Jid.of(393495089820L);
+
+    private LoopbackServer server;
+    private Whatsapp api;
+    private LoopbackConnection connection;
+    private LoopbackPeer peer;
+
+    @BeforeEach
+    public void connect() throws Exception {
+        this.server = LoopbackServer.start();
+        var session = ControllerHelper.create(UUID.randomUUID(), PHONE_NUMBER, List.of(), ClientType.WEB, new LoopbackSerializer());
+        session.keys().setRegistered(true);
+        session.store().setSocketEndpoint(server.endpoint());
+        var loggedIn = new CompletableFuture<Void>();
+        this.api = Whatsapp.customBuilder()
+                .store(session.store())
+                .keys(session.keys())
+                .build()
+                .addLoggedInListener(() -> loggedIn.complete(null));
+        api.connect();
+        this.connection = server.awaitConnection(TIMEOUT)
+                .awaitLogin(TIMEOUT);
+        loggedIn.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        this.peer = server.addPeer(PEER, "Peer");
+    }
+
+    @AfterEach
+    public void disconnect() throws IOException {
+        if (api != null) {
+            api.disconnect().orTimeout(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS).join();
+        }
+
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void receiveMessage() throws Exception {
+        var received = new CompletableFuture<MessageInfo>();
+        api.addNewChatMessageListener(info -> {
+            if (Objects.equals(info.senderJid().withoutDevice(), PEER)) {
+                received.complete(info);
+            }
+        });
+        var id = peer.sendText(connection, "Hello from the peer");
+        var info = received.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        assertEquals(id, info.id());
+        var content = assertInstanceOf(TextMessage.class, info.message().content());
+        assertEquals("Hello from the peer", content.text());
+    }
+
+    @Test
+    public void sendMessage() throws Exception {
+        var info = api.sendMessage(PEER, "Hello from the client")
+                .get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        var node = connection.awaitNode(entry -> entry.hasDescription("message") && Objects.equals(entry.id(), info.id()), TIMEOUT);
+        assertEquals(PEER, node.attributes().getRequiredJid("to"));
+        assertTrue(node.findNode("enc").isPresent() || node.findNode("participants").isPresent(), "The message should be encrypted");
+    }
+}
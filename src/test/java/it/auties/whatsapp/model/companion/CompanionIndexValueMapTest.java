@@ -0,0 +1,75 @@
+package it.auties.whatsapp.model.companion;
+
+import it.auties.whatsapp.util.Json;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Stores written before the index value map was packed serialized it as a json object from base64 encoded index macs to value macs
+public class CompanionIndexValueMapTest {
+    private static final int ENTRIES = 500;
+
+    @Test
+    public void readLegacyJson() {
+        var random = new Random(ENTRIES);
+        var legacy = randomLegacyMap(random);
+        var map = Json.readValue(Json.writeValueAsString(legacy), CompanionIndexValueMap.class);
+        assertEquals(legacy.size(), map.size());
+        legacy.forEach((key, value) -> assertArrayEquals(value, map.get(Base64.getDecoder().decode(key))));
+    }
+
+    @Test
+    public void legacyJsonRoundTrip() {
+        var random = new Random(ENTRIES);
+        var legacy = randomLegacyMap(random);
+        var map = Json.readValue(Json.writeValueAsString(legacy), CompanionIndexValueMap.class);
+        var packed = Json.writeValueAsString(map);
+        assertFalse(packed.startsWith("{"), "The map should be serialized in its packed form");
+        var result = Json.readValue(packed, CompanionIndexValueMap.class);
+        assertEquals(map, result);
+        assertEquals(CompanionIndexValueMap.of(legacy), result);
+        assertArrayEquals(map.toByteArray(), result.toByteArray());
+    }
+
+    @Test
+    public void removeKeepsOtherEntries() {
+        var random = new Random(ENTRIES);
+        var legacy = randomLegacyMap(random);
+        var map = CompanionIndexValueMap.of(legacy);
+        var removed = 0;
+        for (var entry : legacy.entrySet()) {
+            if (random.nextBoolean()) {
+                assertArrayEquals(entry.getValue(), map.remove(Base64.getDecoder().decode(entry.getKey())));
+                removed++;
+            }
+        }
+
+        assertEquals(legacy.size() - removed, map.size());
+        legacy.forEach((key, value) -> {
+            var result = map.get(Base64.getDecoder().decode(key));
+            assertTrue(result == null || Arrays.equals(value, result));
+        });
+        assertEquals(map, CompanionIndexValueMap.of(map.toByteArray()));
+    }
+
+    private static Map<String, byte[]> randomLegacyMap(Random random) {
+        var result = new LinkedHashMap<String, byte[]>();
+        for (var index = 0; index < ENTRIES; index++) {
+            result.put(Base64.getEncoder().encodeToString(randomBytes(random, CompanionIndexValueMap.KEY_LENGTH)), randomBytes(random, CompanionIndexValueMap.VALUE_LENGTH));
+        }
+
+        return result;
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        var result = new byte[length];
+        random.nextBytes(result);
+        return result;
+    }
+}